@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.SecurityMode;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.zeelos.leshan.bootstrap.server.kafka.BootstrapStoreImpl;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.Durability;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.PersistenceWriter;
+
+/**
+ * Replacing the configuration of a device, until the change is durable, as a REST request does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class AddConfigBenchmark {
+
+    private static final int REPLACEMENTS = 1000;
+
+    @Param({ "1000", "100000" })
+    public int fleetSize;
+
+    @Param({ "json", "binary", "journal" })
+    public String storage;
+
+    @Param({ "SYNC", "GROUP_COMMIT" })
+    public Durability durability;
+
+    private File directory;
+    private BootstrapStoreImpl bsStore;
+
+    private String[] endpoints;
+    private BootstrapConfig[] replacements;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("bsserver-benchmark").toFile();
+        Fleet fleet = new Fleet(SecurityMode.PSK, 1);
+
+        bsStore = new BootstrapStoreImpl(Storage.create(storage, directory), durability,
+                PersistenceWriter.DEFAULT_COMMIT_INTERVAL);
+        List<Map.Entry<String, BootstrapConfig>> configs = new ArrayList<>(fleetSize);
+        for (Map.Entry<String, BootstrapConfig> e : fleet.generate(fleetSize).entrySet()) {
+            configs.add(new AbstractMap.SimpleEntry<>(e.getKey(), e.getValue()));
+        }
+        List<CompletableFuture<Void>> persisted = bsStore.addConfigs(configs, Runnable::run).join();
+        CompletableFuture.allOf(persisted.toArray(new CompletableFuture<?>[0])).join();
+
+        // same endpoints and identities, new keys
+        int count = Math.min(fleetSize, REPLACEMENTS);
+        endpoints = new String[count];
+        replacements = new BootstrapConfig[count];
+        for (int i = 0; i < count; i++) {
+            endpoints[i] = Fleet.endpoint(i);
+            replacements[i] = fleet.config(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bsStore.destroy();
+        Storage.delete(directory);
+    }
+
+    @Benchmark
+    public void addConfig() throws Exception {
+        int i = next++ % endpoints.length;
+        bsStore.addConfig(endpoints[i], replacements[i]).join();
+    }
+}
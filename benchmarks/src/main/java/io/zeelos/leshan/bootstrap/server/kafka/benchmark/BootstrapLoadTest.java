@@ -0,0 +1,414 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Exchange;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.server.MessageDeliverer;
+import org.eclipse.californium.scandium.DTLSConnector;
+import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.eclipse.californium.scandium.dtls.pskstore.StaticPskStore;
+import org.eclipse.leshan.SecurityMode;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.util.NamedThreadFactory;
+
+import io.zeelos.leshan.bootstrap.server.kafka.LeshanBootstrapServerKafka;
+import io.zeelos.leshan.bootstrap.server.kafka.ServerOptions;
+import io.zeelos.leshan.bootstrap.server.kafka.TieredConfigTable;
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.Histogram;
+
+/**
+ * Measures how many complete bootstrap sessions per second one bootstrap server instance sustains.
+ * <p>
+ * The server is started in-process on the loopback interface with a synthetic fleet, then simulated clients run
+ * bootstrap sessions concurrently: each one opens its own CoAP or DTLS endpoint, sends the bootstrap request,
+ * acknowledges the deletes and writes of the server and completes on the bootstrap finish request. The client side
+ * is a bare Californium endpoint rather than a Leshan client, so thousands of sessions do not cost thousands of
+ * object trees and registration engines.
+ */
+public class BootstrapLoadTest {
+
+    private static final String USAGE = "java -cp benchmarks.jar " + BootstrapLoadTest.class.getName() + " [OPTION]";
+
+    private static final InetAddress LOOPBACK = InetAddress.getLoopbackAddress();
+
+    // a device of the fleet and the credentials of its bootstrap server entry
+    private static class Device {
+        final String endpoint;
+        final SecurityMode securityMode;
+        final String identity;
+        final byte[] secretKey;
+        final KeyPair keyPair;
+
+        Device(String endpoint, SecurityMode securityMode, String identity, byte[] secretKey, KeyPair keyPair) {
+            this.endpoint = endpoint;
+            this.securityMode = securityMode;
+            this.identity = identity;
+            this.secretKey = secretKey;
+            this.keyPair = keyPair;
+        }
+    }
+
+    // plays the client side of the provisioning: acknowledges every request, waits for the bootstrap finish
+    private static class ClientDeliverer implements MessageDeliverer {
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicInteger requests = new AtomicInteger();
+        volatile long firstRequestNanos;
+
+        @Override
+        public void deliverRequest(Exchange exchange) {
+            Request request = exchange.getRequest();
+            if (requests.getAndIncrement() == 0) {
+                firstRequestNanos = System.nanoTime();
+            }
+            if (request.getCode() == Code.DELETE) {
+                exchange.sendResponse(new Response(ResponseCode.DELETED));
+            } else {
+                exchange.sendResponse(new Response(ResponseCode.CHANGED));
+                if (request.getCode() == Code.POST && "bs".equals(request.getOptions().getUriPathString())) {
+                    finished.countDown();
+                }
+            }
+        }
+
+        @Override
+        public void deliverResponse(Exchange exchange, Response response) {
+            exchange.getRequest().setResponse(response);
+        }
+    }
+
+    private final Device[] devices;
+    private final int coapPort;
+    private final int coapsPort;
+    private final long timeoutMillis;
+    private final NetworkConfig clientConfig;
+
+    // phases of a session
+    private final Histogram requestPhase = new Histogram("request", "bootstrap request until acknowledged");
+    private final Histogram waitPhase = new Histogram("wait", "acknowledgement until the first server request");
+    private final Histogram provisioningPhase = new Histogram("provisioning", "first server request until finish");
+    private final Histogram session = new Histogram("session", "bootstrap request until finish");
+
+    private final Map<SecurityMode, LongAdder> succeeded = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> failures = new ConcurrentHashMap<>();
+    private final LongAdder serverRequests = new LongAdder();
+
+    public BootstrapLoadTest(Device[] devices, int coapPort, int coapsPort, long timeoutMillis) {
+        this.devices = devices;
+        this.coapPort = coapPort;
+        this.coapsPort = coapsPort;
+        this.timeoutMillis = timeoutMillis;
+
+        // one thread per connector and per stage, the parallelism comes from the number of clients
+        this.clientConfig = NetworkConfig.createStandardWithoutFile();
+        clientConfig.setInt(NetworkConfig.Keys.NETWORK_STAGE_RECEIVER_THREAD_COUNT, 1);
+        clientConfig.setInt(NetworkConfig.Keys.NETWORK_STAGE_SENDER_THREAD_COUNT, 1);
+        clientConfig.setInt(NetworkConfig.Keys.PROTOCOL_STAGE_THREAD_COUNT, 1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options();
+        options.addOption("h", "help", false, "Display help information.");
+        options.addOption("n", "fleetsize", true,
+                "Set the number of devices provisioned on the server.\nDefault: 10000.");
+        options.addOption("s", "sessions", true,
+                "Set the number of bootstrap sessions to run, devices are reused in turn.\nDefault: the fleet size.");
+        options.addOption("c", "concurrency", true, "Set the number of concurrent sessions.\nDefault: 100.");
+        options.addOption("m", "mix", true, "Set the security modes of the bootstrap sessions and their weights, "
+                + "among NO_SEC, PSK and RPK.\nDefault: PSK=1.");
+        options.addOption("t", "timeout", true, "Set the timeout of a session in seconds.\nDefault: 30.");
+        options.addOption("hot", "hotcapacity", true, "Keep only this many configurations in memory, over a disk "
+                + "tier in a temporary directory.\nDefault: all of them in memory.");
+        HelpFormatter formatter = new HelpFormatter();
+        formatter.setOptionComparator(null);
+
+        CommandLine cl;
+        try {
+            cl = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println("Parsing failed.  Reason: " + e.getMessage());
+            formatter.printHelp(USAGE, options);
+            return;
+        }
+        if (cl.hasOption("help")) {
+            formatter.printHelp(USAGE, options);
+            return;
+        }
+
+        int fleetSize = Integer.parseInt(cl.getOptionValue("n", "10000"));
+        int sessions = Integer.parseInt(cl.getOptionValue("s", Integer.toString(fleetSize)));
+        int concurrency = Integer.parseInt(cl.getOptionValue("c", "100"));
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(cl.getOptionValue("t", "30")));
+        Map<SecurityMode, Double> mix = parseMix(cl.getOptionValue("m", "PSK=1"));
+
+        // generate the fleet and start the server with it
+        Map<String, BootstrapConfig> configs = new HashMap<>(fleetSize * 4 / 3 + 1);
+        Device[] devices = generate(fleetSize, mix, configs);
+        int coapPort = freeUdpPort();
+        int coapsPort = freeUdpPort();
+        int webPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, LOOPBACK)) {
+            webPort = socket.getLocalPort();
+        }
+        ServerOptions serverOptions = new ServerOptions();
+        serverOptions.webAddress = LOOPBACK.getHostAddress();
+        serverOptions.webPort = webPort;
+        serverOptions.localAddress = LOOPBACK.getHostAddress();
+        serverOptions.localPort = coapPort;
+        serverOptions.secureLocalAddress = LOOPBACK.getHostAddress();
+        serverOptions.secureLocalPort = coapsPort;
+        serverOptions.persistence = new MemoryPersistence(configs);
+        serverOptions.templatePersistence = new MemoryPersistence(new HashMap<String, BootstrapConfig>());
+        serverOptions.mutationThreads = 1;
+        if (cl.hasOption("hot")) {
+            File tierDirectory = Files.createTempDirectory("bsserver-tier").toFile();
+            tierDirectory.deleteOnExit();
+            serverOptions.configTable = new TieredConfigTable(tierDirectory.getPath(),
+                    Integer.parseInt(cl.getOptionValue("hot")));
+        }
+        LeshanBootstrapServerKafka.createAndStartServer(serverOptions);
+
+        BootstrapLoadTest loadTest = new BootstrapLoadTest(devices, coapPort, coapsPort, timeoutMillis);
+        System.out.println(String.format("Running %d bootstrap sessions of %d devices (%s), %d at a time", sessions,
+                fleetSize, mix, concurrency));
+        long duration = loadTest.run(sessions, concurrency);
+        loadTest.report(sessions, duration);
+        System.exit(0);
+    }
+
+    /**
+     * Run the sessions and wait for their end.
+     *
+     * @return the duration of the run in nanoseconds
+     */
+    public long run(int sessions, int concurrency) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, new NamedThreadFactory("Load Client"));
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            final Device device = devices[i % devices.length];
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runSession(device);
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        return System.nanoTime() - start;
+    }
+
+    private void runSession(Device device) {
+        CoapEndpoint endpoint = createEndpoint(device);
+        ClientDeliverer deliverer = new ClientDeliverer();
+        endpoint.setMessageDeliverer(deliverer);
+        try {
+            endpoint.start();
+
+            String scheme = device.securityMode == SecurityMode.NO_SEC ? "coap" : "coaps";
+            int port = device.securityMode == SecurityMode.NO_SEC ? coapPort : coapsPort;
+            Request request = Request.newPost();
+            request.setURI(String.format("%s://%s:%d/bs?ep=%s", scheme, LOOPBACK.getHostAddress(), port,
+                    device.endpoint));
+
+            long start = System.nanoTime();
+            request.send(endpoint);
+            Response response = request.waitForResponse(timeoutMillis);
+            if (response == null) {
+                fail("bootstrap request timeout");
+                return;
+            }
+            if (response.getCode() != ResponseCode.CHANGED) {
+                fail("bootstrap request " + response.getCode());
+                return;
+            }
+            long acknowledged = System.nanoTime();
+            if (!deliverer.finished.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                fail(deliverer.requests.get() == 0 ? "no provisioning" : "provisioning timeout");
+                return;
+            }
+            long finished = System.nanoTime();
+
+            requestPhase.record(acknowledged - start);
+            waitPhase.record(deliverer.firstRequestNanos - acknowledged);
+            provisioningPhase.record(finished - deliverer.firstRequestNanos);
+            session.record(finished - start);
+            serverRequests.add(deliverer.requests.get());
+            count(succeeded, device.securityMode);
+        } catch (IOException | RuntimeException e) {
+            fail(e.getClass().getSimpleName());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail("interrupted");
+        } finally {
+            endpoint.destroy();
+        }
+    }
+
+    private CoapEndpoint createEndpoint(Device device) {
+        CoapEndpoint.Builder builder = new CoapEndpoint.Builder();
+        builder.setNetworkConfig(clientConfig);
+        if (device.securityMode == SecurityMode.NO_SEC) {
+            builder.setInetSocketAddress(new InetSocketAddress(LOOPBACK, 0));
+            return builder.build();
+        }
+
+        DtlsConnectorConfig.Builder dtlsConfig = new DtlsConnectorConfig.Builder();
+        dtlsConfig.setAddress(new InetSocketAddress(LOOPBACK, 0));
+        dtlsConfig.setConnectionThreadCount(1);
+        if (device.securityMode == SecurityMode.PSK) {
+            dtlsConfig.setPskStore(new StaticPskStore(device.identity, device.secretKey));
+        } else {
+            dtlsConfig.setIdentity(device.keyPair.getPrivate(), device.keyPair.getPublic());
+            dtlsConfig.setRpkTrustAll();
+        }
+        builder.setConnector(new DTLSConnector(dtlsConfig.build()));
+        return builder.build();
+    }
+
+    private void fail(String cause) {
+        count(failures, cause);
+    }
+
+    private static <K> void count(Map<K, LongAdder> counters, K key) {
+        LongAdder counter = counters.get(key);
+        if (counter == null) {
+            counters.putIfAbsent(key, new LongAdder());
+            counter = counters.get(key);
+        }
+        counter.increment();
+    }
+
+    public void report(int sessions, long durationNanos) {
+        long successes = session.getCount();
+        double seconds = durationNanos / 1e9;
+        System.out.println();
+        System.out.println(String.format("Duration:    %.1f s", seconds));
+        System.out.println(String.format("Throughput:  %.1f sessions/s", successes / seconds));
+        System.out.println(String.format("Succeeded:   %d (%s)", successes, succeeded));
+        System.out.println(String.format("Failed:      %d (%.2f%%) %s", sessions - successes,
+                100d * (sessions - successes) / sessions, failures));
+        if (successes > 0) {
+            System.out.println(String.format("Requests:    %.1f per session (deletes, writes and finish)",
+                    serverRequests.sum() / (double) successes));
+        }
+        System.out.println();
+        System.out.println(String.format("%-14s %10s %10s %10s %10s %10s", "Phase (ms)", "mean", "p50", "p99",
+                "p99.9", "max"));
+        for (Histogram phase : new Histogram[] { requestPhase, waitPhase, provisioningPhase, session }) {
+            System.out.println(String.format("%-14s %10.2f %10.2f %10.2f %10.2f %10.2f", phase.getName(),
+                    phase.getMeanMicros() / 1000, phase.percentile(0.5) / 1e6, phase.percentile(0.99) / 1e6,
+                    phase.percentile(0.999) / 1e6, phase.getMaxMicros() / 1000));
+        }
+        System.out.println();
+        System.out.println("request: bootstrap request until acknowledged, including the DTLS handshake");
+        System.out.println("wait: acknowledgement until the first request of the server");
+        System.out.println("provisioning: first request of the server until bootstrap finish");
+
+        long hits = BootstrapMetrics.STORE_HOT_HITS.getCount();
+        long misses = BootstrapMetrics.STORE_HOT_MISSES.getCount();
+        if (hits + misses > 0) {
+            Histogram load = BootstrapMetrics.STORE_COLD_LOAD;
+            System.out.println();
+            System.out.println(String.format("Hot tier:    %.1f%% hits, %d loads from disk (mean %.1f us, p99 %.1f us)",
+                    100d * hits / (hits + misses), misses, load.getMeanMicros(), load.percentile(0.99) / 1e3));
+        }
+    }
+
+    // /////// Fleet
+
+    private static Device[] generate(int fleetSize, Map<SecurityMode, Double> mix,
+            Map<String, BootstrapConfig> configs) {
+        Map<SecurityMode, Fleet> fleets = new EnumMap<>(SecurityMode.class);
+        for (SecurityMode securityMode : mix.keySet()) {
+            fleets.put(securityMode, new Fleet(securityMode, SecurityMode.NO_SEC, securityMode.ordinal()));
+        }
+        double total = 0;
+        for (double weight : mix.values()) {
+            total += weight;
+        }
+
+        Random random = new Random(0);
+        Device[] devices = new Device[fleetSize];
+        for (int i = 0; i < fleetSize; i++) {
+            // pick a security mode according to the weights
+            double draw = random.nextDouble() * total;
+            SecurityMode securityMode = null;
+            for (Map.Entry<SecurityMode, Double> e : mix.entrySet()) {
+                securityMode = e.getKey();
+                draw -= e.getValue();
+                if (draw < 0)
+                    break;
+            }
+
+            Fleet fleet = fleets.get(securityMode);
+            BootstrapConfig config = fleet.config(i);
+            configs.put(Fleet.endpoint(i), config);
+            devices[i] = new Device(Fleet.endpoint(i), securityMode, Fleet.identity(i),
+                    config.security.get(0).secretKey, fleet.getClientKeyPair(i));
+        }
+        return devices;
+    }
+
+    private static Map<SecurityMode, Double> parseMix(String mix) {
+        Map<SecurityMode, Double> weights = new LinkedHashMap<>();
+        for (String weight : mix.split(",")) {
+            String[] parts = weight.split("=");
+            SecurityMode securityMode = SecurityMode.valueOf(parts[0].trim().toUpperCase());
+            if (securityMode == SecurityMode.X509)
+                throw new IllegalArgumentException("X509 bootstrap sessions are not supported");
+            weights.put(securityMode, parts.length > 1 ? Double.parseDouble(parts[1]) : 1d);
+        }
+        return weights;
+    }
+
+    private static int freeUdpPort() throws IOException {
+        try (DatagramSocket socket = new DatagramSocket(0, LOOPBACK)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.benchmark;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.eclipse.leshan.SecurityMode;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.eclipse.leshan.util.SecurityUtil;
+
+/**
+ * Generates a synthetic fleet of devices, configured like the web UI does: a bootstrap server entry and a device
+ * management server, the latter shared by all the devices, each secured with the given mode.
+ * <p>
+ * Generation is deterministic for a given seed. RPK devices cycle through a small pool of key pairs, generating a
+ * key pair per device would make large fleets too slow to set up.
+ */
+public class Fleet {
+
+    public static final String BS_URI = "coaps://bootstrap.example.com:5684";
+    public static final String DM_URI = "coaps://dm.example.com:5684";
+
+    private static final int BS_SERVER_ID = 111;
+    private static final int DM_SERVER_ID = 123;
+    private static final int KEY_PAIRS = 16;
+
+    private final SecurityMode bootstrapSecurityMode;
+    private final SecurityMode securityMode;
+    private final Random random;
+
+    private final KeyPair serverKeyPair;
+    private final KeyPair[] clientKeyPairs;
+    private final X509Certificate certificate;
+    private final PrivateKey certificateKey;
+
+    /**
+     * @param securityMode the security mode of the device management server entries, the bootstrap server ones use
+     *        PSK
+     * @param seed the seed of the generated names and keys
+     */
+    public Fleet(SecurityMode securityMode, long seed) {
+        this(SecurityMode.PSK, securityMode, seed);
+    }
+
+    /**
+     * @param bootstrapSecurityMode the security mode of the bootstrap server entries: NO_SEC, PSK or RPK
+     * @param securityMode the security mode of the device management server entries
+     * @param seed the seed of the generated names and keys
+     */
+    public Fleet(SecurityMode bootstrapSecurityMode, SecurityMode securityMode, long seed) {
+        if (bootstrapSecurityMode == SecurityMode.X509)
+            throw new IllegalArgumentException("X509 bootstrap server entries are not supported");
+        this.bootstrapSecurityMode = bootstrapSecurityMode;
+        this.securityMode = securityMode;
+        this.random = new Random(seed);
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            this.serverKeyPair = generator.generateKeyPair();
+            this.clientKeyPairs = new KeyPair[KEY_PAIRS];
+            for (int i = 0; i < KEY_PAIRS; i++) {
+                clientKeyPairs[i] = generator.generateKeyPair();
+            }
+            // the bootstrap server credentials stand for the client ones, only their encoding matters here
+            this.certificate = SecurityUtil.certificate.readFromResource("credentials/bsserver_cert.der");
+            this.certificateKey = SecurityUtil.privateKey.readFromResource("credentials/bsserver_privkey.der");
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException("Unable to generate the fleet credentials", e);
+        }
+    }
+
+    /**
+     * @return the endpoint name of the i-th device
+     */
+    public static String endpoint(int i) {
+        return String.format("urn:imei:35%013d", i);
+    }
+
+    /**
+     * @return the PSK identity of the i-th device on the bootstrap server
+     */
+    public static String identity(int i) {
+        return "bs-" + endpoint(i);
+    }
+
+    /**
+     * @return the key pair of the i-th device, for RPK
+     */
+    public KeyPair getClientKeyPair(int i) {
+        return clientKeyPairs[i % KEY_PAIRS];
+    }
+
+    /**
+     * Generate the configurations of the first devices of the fleet.
+     */
+    public Map<String, BootstrapConfig> generate(int size) {
+        Map<String, BootstrapConfig> configs = new HashMap<>(size * 4 / 3 + 1);
+        for (int i = 0; i < size; i++) {
+            configs.put(endpoint(i), config(i));
+        }
+        return configs;
+    }
+
+    /**
+     * Generate the configuration of the i-th device, with new random keys.
+     */
+    public BootstrapConfig config(int i) {
+        BootstrapConfig config = new BootstrapConfig();
+
+        ServerSecurity bs = new ServerSecurity();
+        bs.uri = BS_URI;
+        bs.bootstrapServer = true;
+        bs.securityMode = bootstrapSecurityMode;
+        bs.serverId = BS_SERVER_ID;
+        switch (bootstrapSecurityMode) {
+        case PSK:
+            bs.publicKeyOrId = identity(i).getBytes(StandardCharsets.UTF_8);
+            bs.secretKey = randomBytes(16);
+            break;
+        case RPK:
+            bs.publicKeyOrId = getClientKeyPair(i).getPublic().getEncoded();
+            bs.secretKey = getClientKeyPair(i).getPrivate().getEncoded();
+            bs.serverPublicKey = certificate.getPublicKey().getEncoded();
+            break;
+        default:
+            bs.uri = "coap://bootstrap.example.com:5683";
+            break;
+        }
+        config.security.put(0, bs);
+
+        ServerSecurity dm = new ServerSecurity();
+        dm.uri = DM_URI;
+        dm.securityMode = securityMode;
+        dm.serverId = DM_SERVER_ID;
+        switch (securityMode) {
+        case PSK:
+            dm.publicKeyOrId = endpoint(i).getBytes(StandardCharsets.UTF_8);
+            dm.secretKey = randomBytes(16);
+            break;
+        case RPK:
+            KeyPair keyPair = getClientKeyPair(i);
+            dm.publicKeyOrId = keyPair.getPublic().getEncoded();
+            dm.secretKey = keyPair.getPrivate().getEncoded();
+            dm.serverPublicKey = serverKeyPair.getPublic().getEncoded();
+            break;
+        case X509:
+            try {
+                dm.publicKeyOrId = certificate.getEncoded();
+                dm.secretKey = certificateKey.getEncoded();
+                dm.serverPublicKey = certificate.getEncoded();
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            break;
+        default:
+            dm.uri = "coap://dm.example.com:5683";
+            break;
+        }
+        config.security.put(1, dm);
+
+        ServerConfig server = new ServerConfig();
+        server.shortId = DM_SERVER_ID;
+        server.lifetime = 300L;
+        config.servers.put(0, server);
+        return config;
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+}
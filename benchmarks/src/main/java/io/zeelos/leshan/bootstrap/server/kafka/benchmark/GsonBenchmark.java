@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.eclipse.leshan.SecurityMode;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.zeelos.leshan.bootstrap.server.kafka.servlet.BootstrapServlet;
+
+/**
+ * The JSON conversions of the REST API, with the same Gson configuration as {@link BootstrapServlet}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GsonBenchmark {
+
+    @Param({ "PSK", "X509" })
+    public SecurityMode securityMode;
+
+    private Gson gson;
+    private BootstrapConfig config;
+    private String json;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        gson = new GsonBuilder()
+                .registerTypeHierarchyAdapter(Byte.class, new BootstrapServlet.SignedByteUnsignedByteAdapter())
+                .create();
+        config = new Fleet(securityMode, 1).config(0);
+        json = gson.toJson(config);
+    }
+
+    @Benchmark
+    public String serialize() {
+        return gson.toJson(config);
+    }
+
+    @Benchmark
+    public BootstrapConfig deserialize() {
+        return gson.fromJson(json, BootstrapConfig.class);
+    }
+
+    @Benchmark
+    public BootstrapConfig roundTrip() {
+        return gson.fromJson(gson.toJson(config), BootstrapConfig.class);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.BootstrapPersistence;
+
+/**
+ * A persistence backend only providing the initial configurations, to measure the store without any I/O.
+ */
+public class MemoryPersistence implements BootstrapPersistence {
+
+    private final Map<String, BootstrapConfig> configs;
+
+    public MemoryPersistence(Map<String, BootstrapConfig> configs) {
+        this.configs = configs;
+    }
+
+    @Override
+    public Map<String, BootstrapConfig> load() {
+        return new HashMap<>(configs);
+    }
+
+    @Override
+    public void added(String endpoint, BootstrapConfig config) {
+    }
+
+    @Override
+    public void deleted(String endpoint) {
+    }
+
+    @Override
+    public void flush(Map<String, BootstrapConfig> configs) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
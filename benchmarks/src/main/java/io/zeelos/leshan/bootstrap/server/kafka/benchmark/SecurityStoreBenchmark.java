@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.benchmark;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.SecurityMode;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.security.SecurityInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.zeelos.leshan.bootstrap.server.kafka.BootstrapSecurityStoreImpl;
+import io.zeelos.leshan.bootstrap.server.kafka.BootstrapStoreImpl;
+
+/**
+ * The lookups done for each bootstrap DTLS handshake and session, on fleets of growing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class SecurityStoreBenchmark {
+
+    @Param({ "1000", "100000", "1000000" })
+    public int fleetSize;
+
+    private BootstrapStoreImpl bsStore;
+    private BootstrapSecurityStoreImpl securityStore;
+
+    private String[] endpoints;
+    private String[] identities;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        bsStore = new BootstrapStoreImpl(new MemoryPersistence(new Fleet(SecurityMode.PSK, 1).generate(fleetSize)));
+        securityStore = new BootstrapSecurityStoreImpl(bsStore);
+
+        endpoints = new String[fleetSize];
+        identities = new String[fleetSize];
+        for (int i = 0; i < fleetSize; i++) {
+            endpoints[i] = Fleet.endpoint(i);
+            identities[i] = Fleet.identity(i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        bsStore.destroy();
+    }
+
+    @Benchmark
+    public SecurityInfo getByIdentity() {
+        return securityStore.getByIdentity(identities[ThreadLocalRandom.current().nextInt(fleetSize)]);
+    }
+
+    @Benchmark
+    public SecurityInfo getByUnknownIdentity() {
+        return securityStore.getByIdentity("unknown-" + ThreadLocalRandom.current().nextInt(fleetSize));
+    }
+
+    @Benchmark
+    public List<SecurityInfo> getAllByEndpoint() {
+        return securityStore.getAllByEndpoint(endpoints[ThreadLocalRandom.current().nextInt(fleetSize)]);
+    }
+
+    @Benchmark
+    public BootstrapConfig getBootstrap() {
+        return bsStore.getBootstrap(endpoints[ThreadLocalRandom.current().nextInt(fleetSize)], null);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.benchmark;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.SecurityMode;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.zeelos.leshan.bootstrap.server.kafka.BootstrapStoreImpl;
+
+/**
+ * Loading the persisted configurations at startup, including the indexes built from them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class StartupBenchmark {
+
+    @Param({ "1000", "100000" })
+    public int fleetSize;
+
+    @Param({ "json", "binary", "journal" })
+    public String storage;
+
+    private File directory;
+    private BootstrapStoreImpl loaded;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = Files.createTempDirectory("bsserver-benchmark").toFile();
+        BootstrapStoreImpl bsStore = new BootstrapStoreImpl(Storage.create(storage, directory));
+        List<Map.Entry<String, BootstrapConfig>> configs = new ArrayList<>(fleetSize);
+        for (Map.Entry<String, BootstrapConfig> e : new Fleet(SecurityMode.PSK, 1).generate(fleetSize).entrySet()) {
+            configs.add(new AbstractMap.SimpleEntry<>(e.getKey(), e.getValue()));
+        }
+        List<CompletableFuture<Void>> persisted = bsStore.addConfigs(configs, Runnable::run).join();
+        CompletableFuture.allOf(persisted.toArray(new CompletableFuture<?>[0])).join();
+        bsStore.destroy();
+    }
+
+    @TearDown(Level.Invocation)
+    public void close() {
+        if (loaded != null) {
+            loaded.destroy();
+            loaded = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Storage.delete(directory);
+    }
+
+    @Benchmark
+    public BootstrapStoreImpl load() {
+        loaded = new BootstrapStoreImpl(Storage.create(storage, directory));
+        return loaded;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.benchmark;
+
+import java.io.File;
+
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.BinarySnapshotFormat;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.BootstrapPersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.FilePersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.JournalPersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.JsonSnapshotFormat;
+
+/**
+ * The file persistence backends compared by the benchmarks.
+ */
+public class Storage {
+
+    /**
+     * @param storage <code>json</code> or <code>binary</code> for a snapshot file rewritten on each change,
+     *        <code>journal</code> for a JSON snapshot and a journal
+     * @param directory the directory of the files
+     */
+    public static BootstrapPersistence create(String storage, File directory) {
+        switch (storage) {
+        case "json":
+            return new FilePersistence(new File(directory, "bootstrap.json").getPath(), new JsonSnapshotFormat());
+        case "binary":
+            return new FilePersistence(new File(directory, "bootstrap.bin").getPath(), new BinarySnapshotFormat());
+        case "journal":
+            return new JournalPersistence(new File(directory, "bootstrap.json").getPath());
+        default:
+            throw new IllegalArgumentException("Unknown storage " + storage);
+        }
+    }
+
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
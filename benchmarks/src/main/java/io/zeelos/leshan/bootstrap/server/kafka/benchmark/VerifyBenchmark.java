@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.SecurityMode;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.zeelos.leshan.bootstrap.server.kafka.ConfigurationChecker;
+
+/**
+ * Verifying a configuration before adding it, for each security mode of the device management server.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VerifyBenchmark {
+
+    private static final int CONFIGS = 64;
+
+    @Param({ "NO_SEC", "PSK", "RPK", "X509" })
+    public SecurityMode securityMode;
+
+    private BootstrapConfig[] configs;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Fleet fleet = new Fleet(securityMode, 1);
+        configs = new BootstrapConfig[CONFIGS];
+        for (int i = 0; i < CONFIGS; i++) {
+            configs[i] = fleet.config(i);
+        }
+    }
+
+    @Benchmark
+    public void verify() throws Exception {
+        ConfigurationChecker.verify(configs[next++ % CONFIGS]);
+    }
+}
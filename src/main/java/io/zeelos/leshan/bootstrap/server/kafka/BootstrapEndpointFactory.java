@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.net.InetSocketAddress;
+
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.config.NetworkConfig;
+import org.eclipse.californium.core.observe.ObservationStore;
+import org.eclipse.californium.scandium.DTLSConnector;
+import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.eclipse.californium.scandium.dtls.SessionCache;
+import org.eclipse.leshan.core.californium.EndpointFactory;
+
+import io.zeelos.leshan.bootstrap.server.kafka.admission.AdmissionController;
+import io.zeelos.leshan.bootstrap.server.kafka.admission.AdmissionDtlsConnector;
+import io.zeelos.leshan.bootstrap.server.kafka.admission.AdmissionInterceptor;
+
+/**
+ * Creates the endpoints of the bootstrap server like Leshan does, with an optional DTLS session cache and an
+ * optional admission control of the new sessions.
+ */
+public class BootstrapEndpointFactory implements EndpointFactory {
+
+    private final SessionCache sessionCache;
+    private final AdmissionController admission;
+
+    /**
+     * @param sessionCache the DTLS session cache, or <code>null</code> for none
+     * @param admission the admission control of the new sessions, or <code>null</code> to admit them all
+     */
+    public BootstrapEndpointFactory(SessionCache sessionCache, AdmissionController admission) {
+        this.sessionCache = sessionCache;
+        this.admission = admission;
+    }
+
+    @Override
+    public CoapEndpoint createUnsecuredEndpoint(InetSocketAddress address, NetworkConfig coapConfig,
+            ObservationStore store) {
+        CoapEndpoint.Builder builder = new CoapEndpoint.Builder();
+        builder.setInetSocketAddress(address);
+        builder.setNetworkConfig(coapConfig);
+        if (store != null) {
+            builder.setObservationStore(store);
+        }
+        CoapEndpoint endpoint = builder.build();
+        if (admission != null) {
+            endpoint.addInterceptor(new AdmissionInterceptor(admission));
+        }
+        return endpoint;
+    }
+
+    @Override
+    public CoapEndpoint createSecuredEndpoint(DtlsConnectorConfig dtlsConfig, NetworkConfig coapConfig,
+            ObservationStore store) {
+        CoapEndpoint.Builder builder = new CoapEndpoint.Builder();
+        if (admission != null) {
+            builder.setConnector(new AdmissionDtlsConnector(dtlsConfig, sessionCache, admission));
+        } else {
+            builder.setConnector(new DTLSConnector(dtlsConfig, sessionCache));
+        }
+        builder.setNetworkConfig(coapConfig);
+        if (store != null) {
+            builder.setObservationStore(store);
+        }
+        return builder.build();
+    }
+}
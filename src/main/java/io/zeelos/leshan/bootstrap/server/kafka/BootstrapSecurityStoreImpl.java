@@ -14,29 +14,19 @@
 
 package io.zeelos.leshan.bootstrap.server.kafka;
 
-import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.security.GeneralSecurityException;
-import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
 
-import org.eclipse.leshan.SecurityMode;
-import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
-import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
 import org.eclipse.leshan.server.security.BootstrapSecurityStore;
 import org.eclipse.leshan.server.security.SecurityInfo;
-import org.eclipse.leshan.util.SecurityUtil;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
 
 /**
  * A DTLS security store using the provisioned bootstrap information for finding the DTLS/PSK credentials.
  */
 public class BootstrapSecurityStoreImpl implements BootstrapSecurityStore {
 
-    private static final Logger LOG = LoggerFactory.getLogger(BootstrapSecurityStoreImpl.class);
-
     private final BootstrapStoreImpl bsStore;
 
     public BootstrapSecurityStoreImpl(BootstrapStoreImpl bsStore) {
@@ -45,57 +35,23 @@ public class BootstrapSecurityStoreImpl implements BootstrapSecurityStore {
 
     @Override
     public SecurityInfo getByIdentity(String identity) {
-        byte[] identityBytes = identity.getBytes(StandardCharsets.UTF_8);
-        for (Map.Entry<String, BootstrapConfig> e : bsStore.getBootstrapConfigs().entrySet()) {
-            BootstrapConfig bsConfig = e.getValue();
-            if (bsConfig.security != null) {
-                for (Map.Entry<Integer, BootstrapConfig.ServerSecurity> ec : bsConfig.security.entrySet()) {
-                    ServerSecurity serverSecurity = ec.getValue();
-                    if (serverSecurity.bootstrapServer && serverSecurity.securityMode == SecurityMode.PSK
-                            && Arrays.equals(serverSecurity.publicKeyOrId, identityBytes)) {
-                        return SecurityInfo.newPreSharedKeyInfo(e.getKey(), identity, serverSecurity.secretKey);
-                    }
-                }
-            }
+        long start = System.nanoTime();
+        SecurityInfo securityInfo = bsStore.getByIdentity(identity.getBytes(StandardCharsets.UTF_8));
+        BootstrapMetrics.SECURITY_BY_IDENTITY.recordSince(start);
+        if (securityInfo == null) {
+            BootstrapMetrics.SECURITY_BY_IDENTITY_MISSES.inc();
         }
-        return null;
+        return securityInfo;
     }
 
     @Override
     public List<SecurityInfo> getAllByEndpoint(String endpoint) {
-
-        BootstrapConfig bsConfig = bsStore.getBootstrap(endpoint, null);
-
-        if (bsConfig == null || bsConfig.security == null)
-            return null;
-
-        for (Map.Entry<Integer, BootstrapConfig.ServerSecurity> bsEntry : bsConfig.security.entrySet()) {
-            ServerSecurity value = bsEntry.getValue();
-
-            // Extract PSK security info
-            if (value.bootstrapServer && value.securityMode == SecurityMode.PSK) {
-                SecurityInfo securityInfo = SecurityInfo.newPreSharedKeyInfo(endpoint,
-                        new String(value.publicKeyOrId, StandardCharsets.UTF_8), value.secretKey);
-                return Arrays.asList(securityInfo);
-            }
-            // Extract RPK security info
-            else if (value.bootstrapServer && value.securityMode == SecurityMode.RPK) {
-                try {
-                    SecurityInfo securityInfo = SecurityInfo.newRawPublicKeyInfo(endpoint,
-                            SecurityUtil.publicKey.decode(value.publicKeyOrId));
-                    return Arrays.asList(securityInfo);
-                } catch (IOException | GeneralSecurityException e) {
-                    LOG.error("Unable to decode Client public key for {}", endpoint, e);
-                    return null;
-                }
-            }
-            // Extract X509 security info
-            else if (value.bootstrapServer && value.securityMode == SecurityMode.X509) {
-                SecurityInfo securityInfo = SecurityInfo.newX509CertInfo(endpoint);
-                return Arrays.asList(securityInfo);
-            }
+        long start = System.nanoTime();
+        List<SecurityInfo> securityInfos = bsStore.getSecurityInfos(endpoint);
+        BootstrapMetrics.SECURITY_BY_ENDPOINT.recordSince(start);
+        if (securityInfos == null) {
+            BootstrapMetrics.SECURITY_BY_ENDPOINT_MISSES.inc();
         }
-        return null;
-
+        return securityInfos;
     }
 }
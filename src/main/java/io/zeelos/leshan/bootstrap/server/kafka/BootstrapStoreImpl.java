@@ -14,42 +14,79 @@
 
 package io.zeelos.leshan.bootstrap.server.kafka;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
 
+import org.eclipse.leshan.SecurityMode;
 import org.eclipse.leshan.core.request.Identity;
 import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
 import org.eclipse.leshan.server.bootstrap.BootstrapStore;
+import org.eclipse.leshan.server.security.SecurityInfo;
+import org.eclipse.leshan.util.SecurityUtil;
 import org.eclipse.leshan.util.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.zeelos.leshan.bootstrap.server.kafka.ConfigurationChecker.ConfigurationException;
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.BootstrapPersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.Durability;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.FilePersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.PersistenceWriter;
 
 /**
  * Simple bootstrap store implementation storing bootstrap information in memory
+ * <p>
+ * Besides exact endpoint names, a configuration can be stored for a pattern ending with {@link #WILDCARD}, like
+ * <code>urn:imei:35*</code>: it applies to the endpoints starting with the pattern prefix which have no configuration
+ * of their own, the longest matching prefix winning.
+ * <p>
+ * The configurations are held by a {@link ConfigTable}: all of them in memory by default, or only the most recently
+ * used ones with a {@link TieredConfigTable}.
+ * <p>
+ * Each change increments the revision of the store and is reported to the {@link ChangeListener}s in that order.
  */
 public class BootstrapStoreImpl implements BootstrapStore {
 
     private static final Logger LOG = LoggerFactory.getLogger(BootstrapStoreImpl.class);
 
+    /**
+     * Receives the changes of the store, including the external changes of its persistence backend.
+     */
+    public interface ChangeListener {
+
+        /**
+         * Called in the order of the revisions, with the mutations of the store blocked: it should not block.
+         *
+         * @param revision the revision of the store after this change
+         * @param config the new configuration, or <code>null</code> for a removed endpoint
+         */
+        void changed(long revision, String endpoint, BootstrapConfig config);
+    }
+
     // default location for persistence
     public static final String DEFAULT_FILE = "data/bootstrap.json";
 
-    private final String filename;
-    private final Gson gson;
-    private final Type gsonType;
+    public static final char WILDCARD = '*';
+
+    private final BootstrapPersistence persistence;
+    private final PersistenceWriter writer;
+    private final ConfigInterner interner;
+    private final ConfigTable table;
 
     public BootstrapStoreImpl() {
         this(DEFAULT_FILE);
@@ -59,73 +96,564 @@ public class BootstrapStoreImpl implements BootstrapStore {
      * @param filename the file path to persist the registry
      */
     public BootstrapStoreImpl(String filename) {
-        Validate.notEmpty(filename);
-        GsonBuilder builder = new GsonBuilder();
-        builder.setPrettyPrinting();
-        this.gson = builder.create();
-        this.gsonType = new TypeToken<Map<String, BootstrapConfig>>() {
-        }.getType();
-        this.filename = filename;
+        this(new FilePersistence(filename));
+    }
+
+    /**
+     * @param persistence the backend used to persist the registry
+     */
+    public BootstrapStoreImpl(BootstrapPersistence persistence) {
+        this(persistence, Durability.SYNC, PersistenceWriter.DEFAULT_COMMIT_INTERVAL);
+    }
+
+    /**
+     * @param persistence the backend used to persist the registry
+     * @param durability when changes are persisted and acknowledged
+     * @param commitInterval the interval in milliseconds between two group commits
+     */
+    public BootstrapStoreImpl(BootstrapPersistence persistence, Durability durability, long commitInterval) {
+        this(persistence, durability, commitInterval, new ConfigInterner());
+    }
+
+    /**
+     * @param persistence the backend used to persist the registry
+     * @param durability when changes are persisted and acknowledged
+     * @param commitInterval the interval in milliseconds between two group commits
+     * @param interner shares the identical parts of the configurations
+     */
+    public BootstrapStoreImpl(BootstrapPersistence persistence, Durability durability, long commitInterval,
+            ConfigInterner interner) {
+        this(persistence, durability, commitInterval, interner, new HeapConfigTable());
+    }
+
+    /**
+     * @param persistence the backend used to persist the registry
+     * @param durability when changes are persisted and acknowledged
+     * @param commitInterval the interval in milliseconds between two group commits
+     * @param interner shares the identical parts of the configurations
+     * @param table holds the configurations, closed with the store
+     */
+    public BootstrapStoreImpl(BootstrapPersistence persistence, Durability durability, long commitInterval,
+            ConfigInterner interner, ConfigTable table) {
+        Validate.notNull(persistence);
+        Validate.notNull(interner);
+        Validate.notNull(table);
+        this.persistence = persistence;
+        this.interner = interner;
+        this.table = table;
+        this.securityByEndpoint = table.createCache();
         this.loadFromFile();
+        this.writer = new PersistenceWriter(persistence, durability, commitInterval, this::getBootstrapConfigs);
+        this.persistence.start(new BootstrapPersistence.Listener() {
+            @Override
+            public void changed(Map<String, BootstrapConfig> changes) {
+                applyChanges(changes);
+            }
+
+            @Override
+            public void replaced(Map<String, BootstrapConfig> configs) {
+                replaceAll(configs);
+            }
+        });
+    }
+
+    // prefixes of the patterns, for the endpoints without a configuration of their own. It may hold patterns the table
+    // does not (yet or anymore), skipped by the lookups, but never misses one of the table: a pattern is added before
+    // the table holds it and removed after.
+    private final EndpointPrefixTrie patterns = new EndpointPrefixTrie();
+
+    // endpoint => decoded security infos of its bootstrap server entry
+    private final Map<String, CachedSecurity> securityByEndpoint;
+
+    private static class CachedSecurity {
+        final ServerSecurity security; // the entry the security infos were decoded from
+        final List<SecurityInfo> securityInfos;
+
+        CachedSecurity(ServerSecurity security, List<SecurityInfo> securityInfos) {
+            this.security = security;
+            this.securityInfos = securityInfos;
+        }
+
+        // a serialized table decodes a new instance of the same entry on each lookup
+        boolean isFor(ServerSecurity other) {
+            return security == other || security.securityMode == other.securityMode
+                    && Arrays.equals(security.publicKeyOrId, other.publicKeyOrId)
+                    && Arrays.equals(security.secretKey, other.secretKey);
+        }
     }
 
-    private Map<String, BootstrapConfig> bootstrapByEndpoint = new ConcurrentHashMap<>();
+    // serializes the mutations so the config table, its identity index and the persistence stay in sync
+    private final Object writeLock = new Object();
+
+    // written with writeLock held
+    private volatile long revision;
+    private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return the revision of the store, incremented by each change
+     */
+    public long getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return the current revision, the listener receives the changes made after it
+     */
+    public long addListener(ChangeListener listener) {
+        synchronized (writeLock) {
+            listeners.add(listener);
+            return revision;
+        }
+    }
+
+    public void removeListener(ChangeListener listener) {
+        listeners.remove(listener);
+    }
 
     @Override
     public BootstrapConfig getBootstrap(String endpoint, Identity deviceIdentity) {
-        return bootstrapByEndpoint.get(endpoint);
+        long start = System.nanoTime();
+        BootstrapConfig config = table.get(endpoint);
+        if (config == null) {
+            config = patterns.longestMatch(endpoint, table::get);
+        }
+        BootstrapMetrics.STORE_GET.recordSince(start);
+        if (config == null) {
+            BootstrapMetrics.STORE_GET_MISSES.inc();
+        }
+        return config;
     }
 
-    public void addConfig(String endpoint, BootstrapConfig config) throws ConfigurationException {
+    /**
+     * @return <code>true</code> if this endpoint name is a pattern matching all the endpoints starting with its prefix
+     */
+    public static boolean isPattern(String endpoint) {
+        return !endpoint.isEmpty() && endpoint.indexOf(WILDCARD) == endpoint.length() - 1;
+    }
+
+    /**
+     * Add or replace the configuration of an endpoint.
+     *
+     * @return a future completed once the change is persisted, according to the {@link Durability} mode
+     */
+    public CompletableFuture<Void> addConfig(String endpoint, BootstrapConfig config) throws ConfigurationException {
+        long start = System.nanoTime();
+        checkEndpoint(endpoint);
         ConfigurationChecker.verify(config);
-        bootstrapByEndpoint.put(endpoint, config);
-        saveToFile();
+        List<SecurityInfo> securityInfos = toSecurityInfos(endpoint, config);
+        synchronized (writeLock) {
+            checkPskIdentity(endpoint, config);
+            apply(endpoint, config);
+            cacheSecurity(endpoint, config, securityInfos);
+            CompletableFuture<Void> persisted = writer.added(endpoint, config);
+            BootstrapMetrics.STORE_ADD.recordSince(start);
+            return persisted;
+        }
     }
 
+    /**
+     * Add or replace the configurations of several endpoints as a single change, persisted at once.
+     * <p>
+     * The configurations are verified in parallel by the given executor, then applied by the thread completing the
+     * last verification: the caller is never blocked. An invalid configuration, or one reusing the PSK identity of
+     * another endpoint, is rejected without failing the others.
+     *
+     * @param configs the endpoints and their configuration, in the order to apply them
+     * @param verifier the executor used to verify the configurations
+     * @return a future completed once the configurations are applied, with for each given configuration a future
+     *         completed once it is persisted or failed with the {@link ConfigurationException} rejecting it
+     */
+    public CompletableFuture<List<CompletableFuture<Void>>> addConfigs(
+            final List<Map.Entry<String, BootstrapConfig>> configs, Executor verifier) {
+        final List<CompletableFuture<List<SecurityInfo>>> verifications = new ArrayList<>(configs.size());
+        for (final Map.Entry<String, BootstrapConfig> e : configs) {
+            verifications.add(CompletableFuture.supplyAsync(new Supplier<List<SecurityInfo>>() {
+                @Override
+                public List<SecurityInfo> get() {
+                    try {
+                        checkEndpoint(e.getKey());
+                        ConfigurationChecker.verify(e.getValue());
+                        return toSecurityInfos(e.getKey(), e.getValue());
+                    } catch (ConfigurationException ex) {
+                        throw new CompletionException(ex);
+                    }
+                }
+            }, verifier));
+        }
+        return CompletableFuture.allOf(verifications.toArray(new CompletableFuture<?>[0]))
+                .handle((v, e) -> addVerified(configs, verifications));
+    }
+
+    private List<CompletableFuture<Void>> addVerified(List<Map.Entry<String, BootstrapConfig>> configs,
+            List<CompletableFuture<List<SecurityInfo>>> verifications) {
+        List<Throwable> errors = new ArrayList<>(configs.size());
+        List<List<SecurityInfo>> securityInfos = new ArrayList<>(configs.size());
+        for (CompletableFuture<List<SecurityInfo>> verification : verifications) {
+            // all completed, nothing waits here
+            try {
+                securityInfos.add(verification.join());
+                errors.add(null);
+            } catch (CompletionException e) {
+                securityInfos.add(null);
+                errors.add(e.getCause());
+            }
+        }
+
+        List<CompletableFuture<Void>> results = new ArrayList<>(configs.size());
+        List<Integer> accepted = new ArrayList<>(configs.size());
+        Map<String, BootstrapConfig> changes = new LinkedHashMap<>();
+        CompletableFuture<Void> persisted;
+        synchronized (writeLock) {
+            for (int i = 0; i < configs.size(); i++) {
+                String endpoint = configs.get(i).getKey();
+                BootstrapConfig config = configs.get(i).getValue();
+                if (errors.get(i) != null) {
+                    results.add(BootstrapStoreImpl.<Void> failedFuture(errors.get(i)));
+                    continue;
+                }
+                try {
+                    checkPskIdentity(endpoint, config);
+                } catch (ConfigurationException e) {
+                    results.add(BootstrapStoreImpl.<Void> failedFuture(e));
+                    continue;
+                }
+                apply(endpoint, config);
+                cacheSecurity(endpoint, config, securityInfos.get(i));
+                changes.put(endpoint, config);
+                accepted.add(i);
+                results.add(null);
+            }
+            persisted = writer.added(changes);
+        }
+        for (int i : accepted) {
+            results.set(i, persisted);
+        }
+        return results;
+    }
+
+    /**
+     * @return all the configurations, an immutable snapshot unless the {@link ConfigTable} only provides a view
+     */
     public Map<String, BootstrapConfig> getBootstrapConfigs() {
-        return Collections.unmodifiableMap(bootstrapByEndpoint);
+        return table.asMap();
+    }
+
+    /**
+     * Get a page of configurations, ordered by endpoint name.
+     *
+     * @param after the endpoint name after which the page starts, <code>null</code> for the first page
+     * @param limit the maximum number of configurations of the page
+     * @return the configurations by endpoint, in page order
+     */
+    public Map<String, BootstrapConfig> getBootstrapConfigs(String after, int limit) {
+        return table.page(after, limit);
+    }
+
+    /**
+     * Remove the configuration of an endpoint.
+     *
+     * @return a future completed with <code>false</code> if there was no configuration for this endpoint, or with
+     *         <code>true</code> once the removal is persisted
+     */
+    public CompletableFuture<Boolean> deleteConfig(String enpoint) {
+        long start = System.nanoTime();
+        synchronized (writeLock) {
+            if (table.get(enpoint) == null)
+                return CompletableFuture.completedFuture(false);
+            apply(enpoint, null);
+
+            CompletableFuture<Void> persisted = writer.deleted(enpoint);
+            BootstrapMetrics.STORE_DELETE.recordSince(start);
+            return persisted.thenApply(v -> true);
+        }
+    }
+
+    public Durability getDurability() {
+        return writer.getDurability();
+    }
+
+    /**
+     * Persist the pending changes and release the persistence backend.
+     */
+    public void destroy() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOG.error("Could not save bootstrap infos to file", e);
+        }
+        try {
+            table.close();
+        } catch (IOException e) {
+            LOG.error("Could not release bootstrap config table", e);
+        }
+    }
+
+    /**
+     * Find the PSK security info of the bootstrap server entry using the given identity.
+     *
+     * @param identity the PSK identity sent by the client during the DTLS handshake
+     * @return the security info or <code>null</code> if no endpoint uses this identity
+     */
+    public SecurityInfo getByIdentity(byte[] identity) {
+        return table.getByIdentity(identity);
+    }
+
+    /**
+     * Get the security infos of the bootstrap server entry of an endpoint, decoded once per configuration. An
+     * endpoint without a configuration of its own gets the ones of the pattern matching it.
+     *
+     * @return the security infos or <code>null</code> if the endpoint has no secured bootstrap server entry
+     */
+    public List<SecurityInfo> getSecurityInfos(String endpoint) {
+        Map<Integer, ServerSecurity> securities = table.getSecurity(endpoint);
+        if (securities == null) {
+            if (isPattern(endpoint))
+                return null;
+            String pattern = patterns.longestMatch(endpoint, p -> table.getSecurity(p) == null ? null : p);
+            return pattern == null ? null : withEndpoint(getSecurityInfos(pattern), endpoint);
+        }
+
+        ServerSecurity security = getBootstrapSecurity(securities);
+        if (security == null)
+            return null;
+
+        CachedSecurity cached = securityByEndpoint.get(endpoint);
+        if (cached == null || !cached.isFor(security)) {
+            // not decoded yet (loaded, external change or evicted) or decoded from a replaced config
+            List<SecurityInfo> securityInfos;
+            try {
+                securityInfos = toSecurityInfos(endpoint, security);
+            } catch (ConfigurationException e) {
+                LOG.error("Unable to decode Client public key for {}", endpoint, e);
+                securityInfos = null;
+            }
+            cached = new CachedSecurity(security, securityInfos);
+            securityByEndpoint.put(endpoint, cached);
+        }
+        return cached.securityInfos;
+    }
+
+    private void cacheSecurity(String endpoint, BootstrapConfig config, List<SecurityInfo> securityInfos) {
+        if (securityInfos != null) {
+            securityByEndpoint.put(endpoint, new CachedSecurity(getBootstrapSecurity(config.security), securityInfos));
+        }
+    }
+
+    /**
+     * @return the first secured bootstrap server entry, or <code>null</code>
+     */
+    static ServerSecurity getBootstrapSecurity(Map<Integer, ServerSecurity> securities) {
+        if (securities == null)
+            return null;
+
+        for (ServerSecurity value : securities.values()) {
+            if (value.bootstrapServer && (value.securityMode == SecurityMode.PSK
+                    || value.securityMode == SecurityMode.RPK || value.securityMode == SecurityMode.X509)) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    private static List<SecurityInfo> toSecurityInfos(String endpoint, BootstrapConfig config)
+            throws ConfigurationException {
+        ServerSecurity security = getBootstrapSecurity(config.security);
+        return security == null ? null : toSecurityInfos(endpoint, security);
+    }
+
+    private static List<SecurityInfo> toSecurityInfos(String endpoint, ServerSecurity value)
+            throws ConfigurationException {
+        switch (value.securityMode) {
+        case PSK:
+            return Collections.singletonList(SecurityInfo.newPreSharedKeyInfo(endpoint,
+                    new String(value.publicKeyOrId, StandardCharsets.UTF_8), value.secretKey));
+        case RPK:
+            try {
+                PublicKey publicKey = SecurityUtil.publicKey.decode(value.publicKeyOrId);
+                return Collections.singletonList(SecurityInfo.newRawPublicKeyInfo(endpoint, publicKey));
+            } catch (IOException | GeneralSecurityException e) {
+                throw new ConfigurationException(
+                        "raw-public-key mode, unable to decode public key or id: " + e.getMessage());
+            }
+        default:
+            return Collections.singletonList(SecurityInfo.newX509CertInfo(endpoint));
+        }
     }
 
-    public boolean deleteConfig(String enpoint) {
-        BootstrapConfig res = bootstrapByEndpoint.remove(enpoint);
-        saveToFile();
-        return res != null;
+    // the security infos of a pattern, for one of the endpoints it matches
+    private static List<SecurityInfo> withEndpoint(List<SecurityInfo> securityInfos, String endpoint) {
+        if (securityInfos == null)
+            return null;
+
+        List<SecurityInfo> result = new ArrayList<>(securityInfos.size());
+        for (SecurityInfo info : securityInfos) {
+            if (info.getIdentity() != null) {
+                result.add(SecurityInfo.newPreSharedKeyInfo(endpoint, info.getIdentity(), info.getPreSharedKey()));
+            } else if (info.getRawPublicKey() != null) {
+                result.add(SecurityInfo.newRawPublicKeyInfo(endpoint, info.getRawPublicKey()));
+            } else {
+                result.add(SecurityInfo.newX509CertInfo(endpoint));
+            }
+        }
+        return result;
+    }
+
+    private static void checkEndpoint(String endpoint) throws ConfigurationException {
+        int wildcard = endpoint.indexOf(WILDCARD);
+        if (wildcard >= 0 && wildcard != endpoint.length() - 1) {
+            throw new ConfigurationException(
+                    String.format("%s is only allowed at the end of an endpoint name: %s", WILDCARD, endpoint));
+        }
+    }
+
+    // /////// PSK identity index
+
+    /**
+     * @return the bootstrap server entry in PSK mode, the one indexed by its identity. {@link ConfigurationChecker}
+     *         rejects the configurations with several bootstrap server entries.
+     */
+    static ServerSecurity getPskSecurity(BootstrapConfig config) {
+        return config == null ? null : getPskSecurity(config.security);
+    }
+
+    static ServerSecurity getPskSecurity(Map<Integer, ServerSecurity> securities) {
+        if (securities == null)
+            return null;
+
+        for (ServerSecurity serverSecurity : securities.values()) {
+            if (serverSecurity.bootstrapServer && serverSecurity.securityMode == SecurityMode.PSK
+                    && serverSecurity.publicKeyOrId != null) {
+                return serverSecurity;
+            }
+        }
+        return null;
+    }
+
+    private void checkPskIdentity(String endpoint, BootstrapConfig config) throws ConfigurationException {
+        ServerSecurity pskSecurity = getPskSecurity(config);
+        if (pskSecurity != null) {
+            SecurityInfo existing = table.getByIdentity(pskSecurity.publicKeyOrId);
+            if (existing != null && !existing.getEndpoint().equals(endpoint)) {
+                throw new ConfigurationException(String.format("PSK identity %s is already used by endpoint %s",
+                        existing.getIdentity(), existing.getEndpoint()));
+            }
+        }
     }
 
     // /////// File persistence
 
     private void loadFromFile() {
         try {
-            File file = new File(filename);
-            if (file.exists()) {
-                try (InputStreamReader in = new InputStreamReader(new FileInputStream(file))) {
-                    Map<String, BootstrapConfig> config = gson.fromJson(in, gsonType);
-                    bootstrapByEndpoint.putAll(config);
-                }
-            }
+            persistence.load(this::apply);
         } catch (Exception e) {
+            if (!persistence.isLoadFailureTolerated())
+                throw new IllegalStateException("Could not load the bootstrap configs", e);
             LOG.error("Could not load bootstrap infos from file", e);
         }
     }
 
-    private synchronized void saveToFile() {
-        try {
-            // Create file if it does not exists.
-            File file = new File(filename);
-            if (!file.exists()) {
-                File parent = file.getParentFile();
-                if (parent != null) {
-                    parent.mkdirs();
+    // apply the changes made outside of this store, they were already checked and persisted
+    private void applyChanges(final Map<String, BootstrapConfig> changes) {
+        synchronized (writeLock) {
+            // the lookups see the whole batch at once, patterns and security cache included
+            final Map<String, BootstrapConfig> applied = new LinkedHashMap<>();
+            table.atomically(new Runnable() {
+                @Override
+                public void run() {
+                    for (Map.Entry<String, BootstrapConfig> e : changes.entrySet()) {
+                        BootstrapConfig config = intern(e.getValue());
+                        // the table still rejects a PSK identity used by another endpoint
+                        if (update(e.getKey(), config)) {
+                            applied.put(e.getKey(), config);
+                        }
+                    }
                 }
-                file.createNewFile();
+            });
+            for (Map.Entry<String, BootstrapConfig> e : applied.entrySet()) {
+                changed(e.getKey(), e.getValue());
             }
+        }
+    }
 
-            // Write file
-            try (OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(filename))) {
-                out.write(gson.toJson(getBootstrapConfigs(), gsonType));
+    // replace all the configurations by the ones of the persistence backend, applying only the differences
+    private void replaceAll(Map<String, BootstrapConfig> configs) {
+        // checked before blocking the mutations, the current configuration of an endpoint is kept if the new one is
+        // invalid
+        Map<String, BootstrapConfig> valid = new LinkedHashMap<>();
+        for (Map.Entry<String, BootstrapConfig> e : configs.entrySet()) {
+            try {
+                ConfigurationChecker.verify(e.getValue());
+                valid.put(e.getKey(), e.getValue());
+            } catch (ConfigurationException | RuntimeException ex) {
+                LOG.warn("Ignoring the invalid bootstrap config of {}: {}", e.getKey(), ex.getMessage());
             }
-        } catch (Exception e) {
-            LOG.error("Could not save bootstrap infos to file", e);
         }
+
+        Map<String, BootstrapConfig> changes = new LinkedHashMap<>();
+        synchronized (writeLock) {
+            // compared with the mutations blocked, so no change made meanwhile is reverted or kept by mistake
+            Map<String, BootstrapConfig> current = table.asMap();
+            // removals first, so a PSK identity can move to another endpoint
+            for (String endpoint : current.keySet()) {
+                if (!configs.containsKey(endpoint)) {
+                    changes.put(endpoint, null);
+                }
+            }
+            for (Map.Entry<String, BootstrapConfig> e : valid.entrySet()) {
+                if (!ConfigInterner.same(current.get(e.getKey()), e.getValue())) {
+                    changes.put(e.getKey(), e.getValue());
+                }
+            }
+            applyChanges(changes);
+        }
+        LOG.info("Applied {} changed bootstrap configs out of {}", changes.size(), configs.size());
+    }
+
+    private void apply(String endpoint, BootstrapConfig config) {
+        config = intern(config);
+        if (update(endpoint, config)) {
+            changed(endpoint, config);
+        }
+    }
+
+    private BootstrapConfig intern(BootstrapConfig config) {
+        return config == null ? null : interner.intern(config);
+    }
+
+    // change the table with the data derived from it, returns false if the table rejected the configuration
+    private boolean update(String endpoint, BootstrapConfig config) {
+        // a cached entry decoded from the previous config is not used anyway
+        securityByEndpoint.remove(endpoint);
+        if (config == null) {
+            table.remove(endpoint);
+            return true;
+        }
+        if (isPattern(endpoint)) {
+            // left in place if rejected, skipped by the lookups like a removed pattern
+            patterns.add(prefix(endpoint), endpoint);
+        }
+        return table.put(endpoint, config);
+    }
+
+    // once the table holds the change, notify the listeners
+    private void changed(String endpoint, BootstrapConfig config) {
+        if (config == null && isPattern(endpoint)) {
+            patterns.remove(prefix(endpoint));
+        }
+
+        revision++;
+        for (ChangeListener listener : listeners) {
+            listener.changed(revision, endpoint, config);
+        }
+    }
+
+    private static String prefix(String pattern) {
+        return pattern.substring(0, pattern.length() - 1);
+    }
+
+    private static <T> CompletableFuture<T> failedFuture(Throwable cause) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(cause);
+        return future;
     }
 }
@@ -0,0 +1,776 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.BinarySnapshotFormat;
+
+/**
+ * Configurations serialized in a log of memory-mapped segment files, indexed by the hashes of the endpoint names and
+ * PSK identities in memory-mapped {@link LongHashIndex} files, so they cost no heap object until they are looked up.
+ * <p>
+ * Adding or replacing a configuration appends a record, removing one appends a tombstone. The replaced records and
+ * the tombstones are garbage, reclaimed by a compaction into a new generation of files once they outweigh the live
+ * records. A record holds:
+ * <ul>
+ * <li>its length and the CRC32 of what follows,</li>
+ * <li>its type, sequence number and the hash of its indexed PSK identity (<code>0</code> for none),</li>
+ * <li>the length of the endpoint name and security entries, which the security lookups decode alone,</li>
+ * <li>the endpoint name and the security entries,</li>
+ * <li>the rest of the configuration, in the binary snapshot encoding.</li>
+ * </ul>
+ * A persistent arena survives restarts: the {@value #STATE_FILE} file names the current generation and tells whether
+ * it was closed cleanly, in which case its indexes are mapped as they are. Otherwise the indexes are rebuilt from the
+ * records and the log is truncated at the first torn record. Changes are only durable once {@link #force()} returned.
+ * A transient arena is recreated empty on each start and deleted on close.
+ * <p>
+ * Mutations must not be concurrent, lookups may run concurrently with them.
+ */
+class ConfigArena implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ConfigArena.class);
+
+    static final String STATE_FILE = "arena.state";
+    static final int SEGMENT_SIZE = 256 * 1024 * 1024;
+
+    // compact once the garbage is larger than both this size and the live records
+    private static final long MIN_COMPACTION_GARBAGE = 64 * 1024 * 1024;
+
+    private static final byte PUT = 1;
+    private static final byte TOMBSTONE = 2;
+
+    // in place of a record length, the rest of the segment is unused
+    private static final int END_OF_SEGMENT = -1;
+
+    // length, CRC, type, sequence, identity hash, prefix length
+    private static final int HEADER_SIZE = 4 + 4 + 1 + 8 + 8 + 4;
+    private static final int CRC_OFFSET = 4;
+    private static final int SEQUENCE_OFFSET = 9;
+    private static final int PREFIX_LENGTH_OFFSET = 25;
+
+    private static final Pattern GENERATION_FILE = Pattern
+            .compile("(?:arena-(\\d+)-\\d+\\.bin|(?:endpoints|identities)-(\\d+)\\.idx(?:\\.tmp)?)");
+
+    private final class Record {
+        final long offset;
+        final int size;
+        final byte type;
+        final long sequence;
+        final long identityHash;
+        final String endpoint;
+        private final int prefixLength;
+        private final DataInputStream prefix; // positioned on the security entries
+
+        Record(long offset) throws IOException {
+            ByteBuffer buffer = log.at(offset);
+            this.offset = offset;
+            this.size = 4 + buffer.getInt();
+            buffer.getInt(); // CRC
+            this.type = buffer.get();
+            this.sequence = buffer.getLong();
+            this.identityHash = buffer.getLong();
+            this.prefixLength = buffer.getInt();
+            byte[] bytes = new byte[prefixLength];
+            buffer.get(bytes);
+            this.prefix = new DataInputStream(new ByteArrayInputStream(bytes));
+            this.endpoint = prefix.readUTF();
+        }
+
+        Map<Integer, ServerSecurity> securities() throws IOException {
+            Map<Integer, ServerSecurity> securities = BinarySnapshotFormat.readSecurities(prefix);
+            return securities == null ? Collections.<Integer, ServerSecurity> emptyMap() : securities;
+        }
+
+        BootstrapConfig config() throws IOException {
+            Map<Integer, ServerSecurity> securities = BinarySnapshotFormat.readSecurities(prefix);
+            byte[] rest = new byte[size - HEADER_SIZE - prefixLength];
+            log.at(offset + HEADER_SIZE + prefixLength).get(rest);
+            BootstrapConfig config = BinarySnapshotFormat
+                    .readConfig(new DataInputStream(new ByteArrayInputStream(rest)));
+            config.security = securities;
+            return config;
+        }
+    }
+
+    // the segments of a generation, a record never spans two segments
+    private final class Log {
+        final int generation;
+        final List<MappedByteBuffer> segments = new ArrayList<>();
+        final TreeSet<Integer> dirty = new TreeSet<>(); // written since the last force
+        long end;
+
+        Log(int generation) throws IOException {
+            this.generation = generation;
+            // map the existing segments, if any
+            while (segmentFile(generation, segments.size()).exists()) {
+                segments.add(mapSegment(segmentFile(generation, segments.size())));
+            }
+        }
+
+        ByteBuffer at(long offset) {
+            ByteBuffer buffer = segments.get((int) (offset / SEGMENT_SIZE)).duplicate();
+            buffer.position((int) (offset % SEGMENT_SIZE));
+            return buffer;
+        }
+
+        // the offset of the record at or after the given offset, skipping the unused ends of segments
+        long skip(long offset) {
+            while (true) {
+                int segment = (int) (offset / SEGMENT_SIZE);
+                int position = (int) (offset % SEGMENT_SIZE);
+                if (segment >= segments.size())
+                    return offset;
+                if (position + 4 <= SEGMENT_SIZE && segments.get(segment).getInt(position) != END_OF_SEGMENT)
+                    return offset;
+                offset = (segment + 1L) * SEGMENT_SIZE;
+            }
+        }
+
+        long append(byte[] record) throws IOException {
+            int segment = (int) (end / SEGMENT_SIZE);
+            int position = (int) (end % SEGMENT_SIZE);
+            if (position + record.length > SEGMENT_SIZE) {
+                if (position + 4 <= SEGMENT_SIZE) {
+                    segments.get(segment).putInt(position, END_OF_SEGMENT);
+                    dirty.add(segment);
+                }
+                segment++;
+                position = 0;
+                end = (long) segment * SEGMENT_SIZE;
+            }
+            while (segments.size() <= segment) {
+                segments.add(mapSegment(segmentFile(generation, segments.size())));
+            }
+            ByteBuffer buffer = segments.get(segment).duplicate();
+            buffer.position(position);
+            buffer.put(record);
+            dirty.add(segment);
+
+            long offset = end;
+            end += record.length;
+            return offset;
+        }
+
+        List<MappedByteBuffer> takeDirty() {
+            List<MappedByteBuffer> buffers = new ArrayList<>(dirty.size());
+            for (int segment : dirty) {
+                buffers.add(segments.get(segment));
+            }
+            dirty.clear();
+            return buffers;
+        }
+    }
+
+    private final File directory;
+    private final boolean persistent;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean created;
+
+    // guarded by the lock
+    private Log log;
+    private long garbage;
+    private long sequence;
+    private LongHashIndex byEndpoint;
+    private LongHashIndex byIdentity;
+
+    /**
+     * @param directory the directory of the arena files, created if needed
+     * @param persistent <code>true</code> to reopen the arena of the previous run, if any
+     */
+    ConfigArena(File directory, boolean persistent) throws IOException {
+        directory.mkdirs();
+        if (!directory.isDirectory())
+            throw new IOException(directory + " is not a directory");
+        this.directory = directory;
+        this.persistent = persistent;
+
+        Properties state = persistent ? readState() : null;
+        if (state == null) {
+            created = true;
+            deleteGenerations(-1);
+            log = new Log(0);
+            byEndpoint = LongHashIndex.create(indexFile("endpoints", 0));
+            byIdentity = LongHashIndex.create(indexFile("identities", 0));
+            return;
+        }
+
+        int generation = Integer.parseInt(state.getProperty("generation"));
+        // the leftovers of an interrupted compaction
+        deleteGenerations(generation);
+        log = new Log(generation);
+        if (Boolean.parseBoolean(state.getProperty("clean"))) {
+            try {
+                byEndpoint = LongHashIndex.open(indexFile("endpoints", generation));
+                byIdentity = LongHashIndex.open(indexFile("identities", generation));
+                log.end = Long.parseLong(state.getProperty("end"));
+                garbage = Long.parseLong(state.getProperty("garbage"));
+                sequence = Long.parseLong(state.getProperty("sequence"));
+            } catch (IOException | RuntimeException e) {
+                LOG.warn("Unable to map the indexes of {}, rebuilding them", directory, e);
+                recover();
+            }
+        } else {
+            recover();
+        }
+        // until closed cleanly
+        writeState(false);
+    }
+
+    /**
+     * @return <code>true</code> if the arena was created empty, as no {@link #commit()} was made before
+     */
+    boolean isCreated() {
+        return created;
+    }
+
+    BootstrapConfig get(String endpoint) throws IOException {
+        lock.readLock().lock();
+        try {
+            Record record = find(endpoint, LongHashIndex.hash(endpoint));
+            return record == null ? null : record.config();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Decode the security entries of a configuration alone.
+     *
+     * @return the security entries, or <code>null</code> if the endpoint has no configuration
+     */
+    Map<Integer, ServerSecurity> getSecurities(String endpoint) throws IOException {
+        lock.readLock().lock();
+        try {
+            Record record = find(endpoint, LongHashIndex.hash(endpoint));
+            return record == null ? null : record.securities();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Give the endpoints and security entries of the records indexing this PSK identity to the matcher, until it
+     * returns a result. Hashes may collide, the matcher checks the identity.
+     */
+    <T> T findByIdentity(byte[] identity, BiFunction<String, Map<Integer, ServerSecurity>, T> matcher)
+            throws IOException {
+        long identityHash = identityHash(identity);
+        lock.readLock().lock();
+        try {
+            for (int slot = byIdentity.first(identityHash); slot >= 0; slot = byIdentity.next(identityHash, slot)) {
+                Record record = new Record(byIdentity.value(slot));
+                T result = matcher.apply(record.endpoint, record.securities());
+                if (result != null)
+                    return result;
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Add or replace the configuration of an endpoint.
+     *
+     * @param identity the PSK identity to index, or <code>null</code>
+     */
+    void put(String endpoint, BootstrapConfig config, byte[] identity) throws IOException {
+        long hash = LongHashIndex.hash(endpoint);
+        long identityHash = identity == null ? 0 : identityHash(identity);
+        byte[] record = encode(PUT, endpoint, config, identityHash);
+
+        lock.writeLock().lock();
+        try {
+            Record previous = find(endpoint, hash);
+            if (previous != null) {
+                discard(previous, hash);
+            }
+            long offset = log.append(seal(record));
+            byEndpoint.put(hash, offset);
+            if (identityHash != 0) {
+                byIdentity.put(identityHash, offset);
+            }
+            compactIfNeeded();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the endpoint had a configuration
+     */
+    boolean remove(String endpoint) throws IOException {
+        long hash = LongHashIndex.hash(endpoint);
+        byte[] tombstone = persistent ? encode(TOMBSTONE, endpoint, null, 0) : null;
+
+        lock.writeLock().lock();
+        try {
+            Record previous = find(endpoint, hash);
+            if (previous == null)
+                return false;
+            discard(previous, hash);
+            if (tombstone != null) {
+                log.append(seal(tombstone));
+                garbage += tombstone.length;
+            }
+            compactIfNeeded();
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    int size() {
+        lock.readLock().lock();
+        try {
+            return byEndpoint.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Give the endpoint names of all the configurations to the consumer, in the order of their last change. Only the
+     * names are decoded.
+     */
+    void forEachEndpoint(Consumer<String> consumer) throws IOException {
+        lock.readLock().lock();
+        try {
+            for (long offset = log.skip(0); offset < log.end;) {
+                Record record = new Record(offset);
+                if (isLive(record)) {
+                    consumer.accept(record.endpoint);
+                }
+                offset = log.skip(offset + record.size);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Iterate over the configurations present when the iteration starts, in the order of their last change. A
+     * configuration changed or removed during the iteration may be skipped.
+     */
+    Iterator<Map.Entry<String, BootstrapConfig>> iterator() {
+        lock.readLock().lock();
+        try {
+            return new Scan(sequence - 1, log.generation);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private class Scan implements Iterator<Map.Entry<String, BootstrapConfig>> {
+        private final long last; // the sequence of the last record to visit
+        private int generation;
+        private long offset;
+        private long visited = -1; // the sequence of the last visited record
+        private Map.Entry<String, BootstrapConfig> next;
+
+        Scan(long last, int generation) {
+            this.last = last;
+            this.generation = generation;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null)
+                return true;
+            if (visited >= last)
+                return false;
+
+            lock.readLock().lock();
+            try {
+                if (generation != log.generation) {
+                    // compacted since the last step, the records kept their order but not their offset
+                    offset = seek(visited + 1);
+                    generation = log.generation;
+                }
+                for (offset = log.skip(offset); offset < log.end; offset = log.skip(offset)) {
+                    Record record = new Record(offset);
+                    if (record.sequence > last) {
+                        visited = last;
+                        break;
+                    }
+                    offset += record.size;
+                    visited = record.sequence;
+                    if (isLive(record)) {
+                        next = new SimpleImmutableEntry<>(record.endpoint, record.config());
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                lock.readLock().unlock();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, BootstrapConfig> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Map.Entry<String, BootstrapConfig> entry = next;
+            next = null;
+            return entry;
+        }
+    }
+
+    /**
+     * Write the changes made since the last call to the segment files. Lookups and mutations are not blocked while the
+     * pages are written.
+     */
+    void force() {
+        List<MappedByteBuffer> dirty;
+        lock.writeLock().lock();
+        try {
+            dirty = log.takeDirty();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        for (MappedByteBuffer segment : dirty) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Make the content of a created arena durable, it is reopened from now on.
+     */
+    void commit() throws IOException {
+        force();
+        lock.writeLock().lock();
+        try {
+            writeState(false);
+            created = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write everything to the files of a persistent arena, or delete the files of a transient one.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (persistent && !created) {
+                for (MappedByteBuffer segment : log.takeDirty()) {
+                    segment.force();
+                }
+                byEndpoint.force();
+                byIdentity.force();
+                writeState(true);
+            } else {
+                deleteGenerations(-1);
+                Files.deleteIfExists(new File(directory, STATE_FILE).toPath());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // /////// Records
+
+    private Record find(String endpoint, long hash) throws IOException {
+        for (int slot = byEndpoint.first(hash); slot >= 0; slot = byEndpoint.next(hash, slot)) {
+            Record record = new Record(byEndpoint.value(slot));
+            if (record.endpoint.equals(endpoint))
+                return record;
+        }
+        return null;
+    }
+
+    private boolean isLive(Record record) {
+        return record.type == PUT && byEndpoint.contains(LongHashIndex.hash(record.endpoint), record.offset);
+    }
+
+    private void discard(Record record, long hash) {
+        byEndpoint.remove(hash, record.offset);
+        if (record.identityHash != 0) {
+            byIdentity.remove(record.identityHash, record.offset);
+        }
+        garbage += record.size;
+    }
+
+    // the offset of the first record with at least this sequence
+    private long seek(long sequence) throws IOException {
+        long offset = log.skip(0);
+        while (offset < log.end) {
+            Record record = new Record(offset);
+            if (record.sequence >= sequence)
+                break;
+            offset = log.skip(offset + record.size);
+        }
+        return offset;
+    }
+
+    // the sequence number and the CRC are set when the record is appended
+    private static byte[] encode(byte type, String endpoint, BootstrapConfig config, long identityHash)
+            throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0);
+        out.writeInt(0);
+        out.writeByte(type);
+        out.writeLong(0);
+        out.writeLong(identityHash);
+        out.writeInt(0);
+        out.writeUTF(endpoint);
+        if (config != null) {
+            BinarySnapshotFormat.writeSecurities(out, config.security);
+        }
+        int prefixLength = out.size() - HEADER_SIZE;
+        if (config != null) {
+            // the security entries are already written
+            BootstrapConfig rest = new BootstrapConfig();
+            rest.toDelete = config.toDelete;
+            rest.servers = config.servers;
+            rest.security = null;
+            rest.acls = config.acls;
+            BinarySnapshotFormat.writeConfig(out, rest);
+        }
+        out.flush();
+
+        byte[] record = bytes.toByteArray();
+        if (record.length > SEGMENT_SIZE)
+            throw new IOException("Configuration of " + endpoint + " too large: " + record.length + " bytes");
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.putInt(0, record.length - 4);
+        buffer.putInt(PREFIX_LENGTH_OFFSET, prefixLength);
+        return record;
+    }
+
+    private byte[] seal(byte[] record) {
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.putLong(SEQUENCE_OFFSET, sequence++);
+        CRC32 crc = new CRC32();
+        crc.update(record, CRC_OFFSET + 4, record.length - CRC_OFFSET - 4);
+        buffer.putInt(CRC_OFFSET, (int) crc.getValue());
+        return record;
+    }
+
+    private static long identityHash(byte[] identity) {
+        long hash = LongHashIndex.hash(identity);
+        return hash == 0 ? 1 : hash;
+    }
+
+    // /////// Recovery
+
+    // rebuild the indexes from the records, up to the first torn one
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        byEndpoint = LongHashIndex.create(indexFile("endpoints", log.generation));
+        byIdentity = LongHashIndex.create(indexFile("identities", log.generation));
+        garbage = 0;
+        sequence = 0;
+
+        long offset = log.skip(0);
+        while (offset / SEGMENT_SIZE < log.segments.size() && isValid(offset)) {
+            Record record = new Record(offset);
+            long hash = LongHashIndex.hash(record.endpoint);
+            Record previous = find(record.endpoint, hash);
+            if (previous != null) {
+                discard(previous, hash);
+            }
+            if (record.type == PUT) {
+                byEndpoint.put(hash, offset);
+                if (record.identityHash != 0) {
+                    byIdentity.put(record.identityHash, offset);
+                }
+            } else {
+                garbage += record.size;
+            }
+            sequence = record.sequence + 1;
+            offset = log.skip(offset + record.size);
+        }
+        log.end = offset;
+
+        // forget what follows, so it is never appended to
+        int segment = (int) (offset / SEGMENT_SIZE);
+        if (segment < log.segments.size()) {
+            try (RandomAccessFile raf = new RandomAccessFile(segmentFile(log.generation, segment), "rw")) {
+                raf.setLength(offset % SEGMENT_SIZE);
+                raf.setLength(SEGMENT_SIZE);
+            }
+            while (log.segments.size() > segment + 1) {
+                log.segments.remove(log.segments.size() - 1);
+                Files.delete(segmentFile(log.generation, log.segments.size()).toPath());
+            }
+        }
+        LOG.info("Recovered {} bootstrap configs from {} in {}ms", byEndpoint.size(), directory,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private boolean isValid(long offset) {
+        ByteBuffer buffer = log.at(offset);
+        int position = buffer.position();
+        int length = buffer.getInt();
+        if (length < HEADER_SIZE - 4 || position + 4L + length > SEGMENT_SIZE)
+            return false;
+        int expected = buffer.getInt();
+        buffer.limit(position + 4 + length);
+        CRC32 crc = new CRC32();
+        crc.update(buffer);
+        return (int) crc.getValue() == expected;
+    }
+
+    // /////// Compaction
+
+    // copy the live records to a new generation, in the same order
+    private void compactIfNeeded() throws IOException {
+        if (garbage < MIN_COMPACTION_GARBAGE || garbage < log.end - garbage)
+            return;
+
+        long start = System.nanoTime();
+        int generation = log.generation + 1;
+        Log compacted = new Log(generation);
+        LongHashIndex endpoints = LongHashIndex.create(indexFile("endpoints", generation));
+        LongHashIndex identities = LongHashIndex.create(indexFile("identities", generation));
+        for (long offset = log.skip(0); offset < log.end;) {
+            Record record = new Record(offset);
+            if (isLive(record)) {
+                byte[] bytes = new byte[record.size];
+                log.at(offset).get(bytes);
+                long copy = compacted.append(bytes);
+                endpoints.put(LongHashIndex.hash(record.endpoint), copy);
+                if (record.identityHash != 0 && byIdentity.contains(record.identityHash, offset)) {
+                    identities.put(record.identityHash, copy);
+                }
+            }
+            offset = log.skip(offset + record.size);
+        }
+
+        long before = log.end;
+        Log previous = log;
+        log = compacted;
+        byEndpoint = endpoints;
+        byIdentity = identities;
+        garbage = 0;
+        if (persistent && !created) {
+            for (MappedByteBuffer segment : log.takeDirty()) {
+                segment.force();
+            }
+            // the new generation becomes the current one
+            writeState(false);
+        }
+        deleteGenerations(log.generation);
+        LOG.debug("Bootstrap config arena compacted from {} to {} bytes in {}ms", before, log.end,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        previous.segments.clear();
+    }
+
+    // /////// Files
+
+    private File segmentFile(int generation, int segment) {
+        return new File(directory, String.format("arena-%d-%d.bin", generation, segment));
+    }
+
+    private File indexFile(String name, int generation) {
+        return new File(directory, String.format("%s-%d.idx", name, generation));
+    }
+
+    // delete the files of all the generations but the given one, the mappings stay valid until collected
+    private void deleteGenerations(int keep) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        for (File file : files) {
+            Matcher matcher = GENERATION_FILE.matcher(file.getName());
+            if (!matcher.matches())
+                continue;
+            String generation = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
+            if (Integer.parseInt(generation) != keep) {
+                Files.delete(file.toPath());
+            }
+        }
+    }
+
+    private static MappedByteBuffer mapSegment(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(SEGMENT_SIZE);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+    }
+
+    private Properties readState() throws IOException {
+        File file = new File(directory, STATE_FILE);
+        if (!file.exists())
+            return null;
+        Properties state = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            state.load(in);
+        }
+        return state;
+    }
+
+    private void writeState(boolean clean) throws IOException {
+        Properties state = new Properties();
+        state.setProperty("generation", Integer.toString(log.generation));
+        state.setProperty("clean", Boolean.toString(clean));
+        state.setProperty("end", Long.toString(log.end));
+        state.setProperty("garbage", Long.toString(garbage));
+        state.setProperty("sequence", Long.toString(sequence));
+
+        File file = new File(directory, STATE_FILE);
+        File tmp = new File(directory, STATE_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            state.store(out, null);
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
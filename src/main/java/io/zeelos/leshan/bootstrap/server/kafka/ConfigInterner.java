@@ -0,0 +1,310 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ACLConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.eclipse.leshan.util.Validate;
+
+/**
+ * Shares the identical parts of bootstrap configurations between endpoints.
+ * <p>
+ * Most devices of a fleet use the same server configurations, ACLs and server URIs/keys, only their credentials
+ * differ. Once interned, a configuration references a single unmodifiable instance of those parts, so the memory used
+ * by an endpoint is mostly its own credentials.
+ * <p>
+ * Security entries holding credentials are owned by their configuration, only their URI and server key are shared.
+ * The shared values are bounded, the least recently used ones are forgotten: the configurations referencing them
+ * keep them, new configurations get a new shared instance.
+ */
+public class ConfigInterner {
+
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    // a value compared by content
+    private static final class Key {
+        final Object value;
+        final int hash;
+
+        Key(Object value) {
+            this.value = value;
+            this.hash = hash(value);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).hash == hash && same(value, ((Key) obj).value);
+        }
+    }
+
+    private final Map<ByteBuffer, byte[]> bytes;
+    private final Map<String, String> strings;
+    private final Map<Key, Object> values;
+
+    public ConfigInterner() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the maximum number of shared values of each kind
+     */
+    public ConfigInterner(int capacity) {
+        Validate.isTrue(capacity > 0, "capacity must be positive");
+        this.bytes = new LruCache<>(capacity);
+        this.strings = new LruCache<>(capacity);
+        this.values = new LruCache<>(capacity);
+    }
+
+    /**
+     * Copy a configuration, using the shared instances of its parts. The given configuration is not changed, and
+     * changing it afterwards does not change the copy.
+     *
+     * @return the interned copy of the configuration
+     */
+    public BootstrapConfig intern(BootstrapConfig config) {
+        BootstrapConfig interned = new BootstrapConfig();
+        interned.toDelete = config.toDelete == null ? null
+                : intern(config.toDelete, () -> Collections.unmodifiableList(new ArrayList<>(config.toDelete)));
+        interned.servers = config.servers == null ? null : intern(config.servers, () -> {
+            Map<Integer, ServerConfig> servers = new HashMap<>();
+            for (Map.Entry<Integer, ServerConfig> e : config.servers.entrySet()) {
+                servers.put(e.getKey(), copy(e.getValue()));
+            }
+            return Collections.unmodifiableMap(servers);
+        });
+        interned.acls = config.acls == null ? null : intern(config.acls, () -> {
+            Map<Integer, ACLConfig> acls = new HashMap<>();
+            for (Map.Entry<Integer, ACLConfig> e : config.acls.entrySet()) {
+                acls.put(e.getKey(), copy(e.getValue()));
+            }
+            return Collections.unmodifiableMap(acls);
+        });
+        if (config.security == null) {
+            interned.security = null;
+        } else {
+            interned.security = new HashMap<>();
+            for (Map.Entry<Integer, ServerSecurity> e : config.security.entrySet()) {
+                interned.security.put(e.getKey(), intern(e.getValue()));
+            }
+        }
+        return interned;
+    }
+
+    /**
+     * @return the number of distinct shared values
+     */
+    public int size() {
+        return bytes.size() + strings.size() + values.size();
+    }
+
+    private ServerSecurity intern(final ServerSecurity security) {
+        if (isEmpty(security.publicKeyOrId) && isEmpty(security.secretKey) && isEmpty(security.smsBindingKeyParam)
+                && isEmpty(security.smsBindingKeySecret)) {
+            // no credentials, the whole entry can be shared
+            return intern(security, () -> copy(security));
+        }
+        ServerSecurity copy = copy(security);
+        copy.uri = intern(security.uri);
+        copy.serverPublicKey = intern(security.serverPublicKey);
+        copy.serverSmsNumber = intern(security.serverSmsNumber);
+        return copy;
+    }
+
+    // the copy is only made for a value not shared yet
+    @SuppressWarnings("unchecked")
+    private <T> T intern(T value, Supplier<T> copier) {
+        Object shared = values.get(new Key(value));
+        if (shared != null)
+            return (T) shared;
+
+        // two threads interning the same value at once share one of them from then on
+        T copy = copier.get();
+        values.put(new Key(copy), copy);
+        return copy;
+    }
+
+    private String intern(String value) {
+        if (value == null)
+            return null;
+        String shared = strings.get(value);
+        if (shared != null)
+            return shared;
+
+        strings.put(value, value);
+        return value;
+    }
+
+    private byte[] intern(byte[] value) {
+        if (value == null)
+            return null;
+        byte[] shared = bytes.get(ByteBuffer.wrap(value));
+        if (shared != null)
+            return shared;
+
+        byte[] copy = value.clone();
+        bytes.put(ByteBuffer.wrap(copy), copy);
+        return copy;
+    }
+
+    private static ServerConfig copy(ServerConfig value) {
+        ServerConfig copy = new ServerConfig();
+        copy.shortId = value.shortId;
+        copy.lifetime = value.lifetime;
+        copy.defaultMinPeriod = value.defaultMinPeriod;
+        copy.defaultMaxPeriod = value.defaultMaxPeriod;
+        copy.disableTimeout = value.disableTimeout;
+        copy.notifIfDisabled = value.notifIfDisabled;
+        copy.binding = value.binding;
+        return copy;
+    }
+
+    private static ACLConfig copy(ACLConfig value) {
+        ACLConfig copy = new ACLConfig();
+        copy.objectId = value.objectId;
+        copy.objectInstanceId = value.objectInstanceId;
+        copy.acls = value.acls == null ? null : Collections.unmodifiableMap(new HashMap<>(value.acls));
+        copy.AccessControlOwner = value.AccessControlOwner;
+        return copy;
+    }
+
+    private static ServerSecurity copy(ServerSecurity value) {
+        ServerSecurity copy = new ServerSecurity();
+        copy.uri = value.uri;
+        copy.bootstrapServer = value.bootstrapServer;
+        copy.securityMode = value.securityMode;
+        copy.publicKeyOrId = clone(value.publicKeyOrId);
+        copy.serverPublicKey = clone(value.serverPublicKey);
+        copy.secretKey = clone(value.secretKey);
+        copy.smsSecurityMode = value.smsSecurityMode;
+        copy.smsBindingKeyParam = clone(value.smsBindingKeyParam);
+        copy.smsBindingKeySecret = clone(value.smsBindingKeySecret);
+        copy.serverSmsNumber = value.serverSmsNumber;
+        copy.serverId = value.serverId;
+        copy.clientOldOffTime = value.clientOldOffTime;
+        copy.bootstrapServerAccountTimeout = value.bootstrapServerAccountTimeout;
+        return copy;
+    }
+
+    private static byte[] clone(byte[] value) {
+        return value == null ? null : value.clone();
+    }
+
+    private static boolean isEmpty(byte[] value) {
+        return value == null || value.length == 0;
+    }
+
+    // /////// Comparison by content (Leshan config classes do not implement equals)
+
+    /**
+     * @return <code>true</code> if both configurations are <code>null</code> or have the same content
+     */
+    public static boolean same(BootstrapConfig a, BootstrapConfig b) {
+        if (a == b)
+            return true;
+        if (a == null || b == null)
+            return false;
+        return same(a.toDelete, b.toDelete) && same(a.servers, b.servers) && same(a.security, b.security)
+                && same(a.acls, b.acls);
+    }
+
+    private static int hash(Object value) {
+        if (value instanceof ServerConfig) {
+            ServerConfig s = (ServerConfig) value;
+            return Objects.hash(s.shortId, s.lifetime, s.defaultMinPeriod, s.defaultMaxPeriod, s.disableTimeout,
+                    s.notifIfDisabled, s.binding);
+        }
+        if (value instanceof ACLConfig) {
+            ACLConfig a = (ACLConfig) value;
+            return Objects.hash(a.objectId, a.objectInstanceId, a.acls, a.AccessControlOwner);
+        }
+        if (value instanceof ServerSecurity) {
+            ServerSecurity s = (ServerSecurity) value;
+            return Objects.hash(s.uri, s.bootstrapServer, s.securityMode, Arrays.hashCode(s.serverPublicKey),
+                    s.smsSecurityMode, s.serverSmsNumber, s.serverId, s.clientOldOffTime,
+                    s.bootstrapServerAccountTimeout);
+        }
+        if (value instanceof Map) {
+            int hash = 0;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                hash += Objects.hashCode(e.getKey()) ^ hash(e.getValue());
+            }
+            return hash;
+        }
+        return Objects.hashCode(value);
+    }
+
+    private static boolean same(Object a, Object b) {
+        if (a == b)
+            return true;
+        if (a instanceof ServerConfig && b instanceof ServerConfig) {
+            ServerConfig s1 = (ServerConfig) a;
+            ServerConfig s2 = (ServerConfig) b;
+            return Objects.equals(s1.shortId, s2.shortId) && Objects.equals(s1.lifetime, s2.lifetime)
+                    && Objects.equals(s1.defaultMinPeriod, s2.defaultMinPeriod)
+                    && Objects.equals(s1.defaultMaxPeriod, s2.defaultMaxPeriod)
+                    && Objects.equals(s1.disableTimeout, s2.disableTimeout)
+                    && Objects.equals(s1.notifIfDisabled, s2.notifIfDisabled) && s1.binding == s2.binding;
+        }
+        if (a instanceof ACLConfig && b instanceof ACLConfig) {
+            ACLConfig a1 = (ACLConfig) a;
+            ACLConfig a2 = (ACLConfig) b;
+            return Objects.equals(a1.objectId, a2.objectId) && Objects.equals(a1.objectInstanceId, a2.objectInstanceId)
+                    && Objects.equals(a1.acls, a2.acls) && Objects.equals(a1.AccessControlOwner, a2.AccessControlOwner);
+        }
+        if (a instanceof ServerSecurity && b instanceof ServerSecurity) {
+            ServerSecurity s1 = (ServerSecurity) a;
+            ServerSecurity s2 = (ServerSecurity) b;
+            return Objects.equals(s1.uri, s2.uri) && s1.bootstrapServer == s2.bootstrapServer
+                    && s1.securityMode == s2.securityMode && Arrays.equals(s1.publicKeyOrId, s2.publicKeyOrId)
+                    && Arrays.equals(s1.serverPublicKey, s2.serverPublicKey)
+                    && Arrays.equals(s1.secretKey, s2.secretKey) && s1.smsSecurityMode == s2.smsSecurityMode
+                    && Arrays.equals(s1.smsBindingKeyParam, s2.smsBindingKeyParam)
+                    && Arrays.equals(s1.smsBindingKeySecret, s2.smsBindingKeySecret)
+                    && Objects.equals(s1.serverSmsNumber, s2.serverSmsNumber)
+                    && Objects.equals(s1.serverId, s2.serverId)
+                    && Objects.equals(s1.clientOldOffTime, s2.clientOldOffTime)
+                    && Objects.equals(s1.bootstrapServerAccountTimeout, s2.bootstrapServerAccountTimeout);
+        }
+        if (a instanceof Map && b instanceof Map) {
+            Map<?, ?> m1 = (Map<?, ?>) a;
+            Map<?, ?> m2 = (Map<?, ?>) b;
+            if (m1.size() != m2.size())
+                return false;
+            for (Map.Entry<?, ?> e : m1.entrySet()) {
+                if (!m2.containsKey(e.getKey()) || !same(e.getValue(), m2.get(e.getKey())))
+                    return false;
+            }
+            return true;
+        }
+        return a instanceof List && Objects.equals(a, b);
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.eclipse.leshan.server.security.SecurityInfo;
+
+/**
+ * Holds the configurations of a {@link BootstrapStoreImpl} and indexes them by the PSK identity of their bootstrap
+ * server entry.
+ * <p>
+ * Mutations are serialized by the store, lookups may run concurrently with them.
+ */
+public interface ConfigTable extends Closeable {
+
+    /**
+     * @return the configuration of this endpoint, or <code>null</code>
+     */
+    BootstrapConfig get(String endpoint);
+
+    /**
+     * Get the security entries of a configuration, for the DTLS handshakes. By default, they are taken from
+     * {@link #get(String)}.
+     *
+     * @return the security entries by instance id, empty if there are none, or <code>null</code> if the endpoint has
+     *         no configuration
+     */
+    default Map<Integer, ServerSecurity> getSecurity(String endpoint) {
+        BootstrapConfig config = get(endpoint);
+        if (config == null)
+            return null;
+        return config.security == null ? Collections.<Integer, ServerSecurity> emptyMap() : config.security;
+    }
+
+    /**
+     * @return the PSK security info of the bootstrap server entry using this identity, or <code>null</code>
+     */
+    SecurityInfo getByIdentity(byte[] identity);
+
+    /**
+     * Add or replace the configuration of an endpoint and index its PSK identity.
+     *
+     * @return <code>false</code> if the configuration was rejected, as another endpoint already uses its PSK identity
+     */
+    boolean put(String endpoint, BootstrapConfig config);
+
+    void remove(String endpoint);
+
+    /**
+     * Run several mutations so that the lookups see either none or all of them, if the table supports it. By default,
+     * each mutation is visible as soon as it is made.
+     */
+    default void atomically(Runnable mutations) {
+        mutations.run();
+    }
+
+    /**
+     * Get a page of configurations, see {@link BootstrapStoreImpl#getBootstrapConfigs(String, int)}.
+     */
+    Map<String, BootstrapConfig> page(String after, int limit);
+
+    /**
+     * @return a read-only view of all the configurations, an immutable snapshot if the table supports it
+     */
+    Map<String, BootstrapConfig> asMap();
+
+    /**
+     * Create a cache of data derived from the configurations, bounded like the configurations kept in memory. By
+     * default, the cache is not bounded.
+     */
+    default <V> Map<String, V> createCache() {
+        return new ConcurrentHashMap<>();
+    }
+}
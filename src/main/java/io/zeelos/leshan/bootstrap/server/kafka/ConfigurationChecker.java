@@ -16,6 +16,7 @@ package io.zeelos.leshan.bootstrap.server.kafka;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.security.KeyFactory;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
@@ -26,7 +27,10 @@ import java.security.cert.CertificateFactory;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BooleanSupplier;
 
 import org.apache.commons.lang.ArrayUtils;
 import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
@@ -34,6 +38,8 @@ import org.eclipse.leshan.util.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+
 /**
  * Check a BootstrapConfig is correct. This is a complex process, we need to check if the different objects are in
  * coherence with each other.
@@ -44,11 +50,57 @@ public class ConfigurationChecker {
 
     private static final String[] KEY_ALGORITHMS = new String[] { "EC", "DiffieHellman", "RSA", "DSA" };
 
+    // DER encoded OID of the AlgorithmIdentifier => key algorithm
+    private static final Map<ByteBuffer, String> KEY_ALGORITHMS_BY_OID = new HashMap<>();
+    static {
+        // 1.2.840.10045.2.1 id-ecPublicKey
+        KEY_ALGORITHMS_BY_OID.put(oid(0x2A, 0x86, 0x48, 0xCE, 0x3D, 0x02, 0x01), "EC");
+        // 1.2.840.113549.1.3.1 dhKeyAgreement
+        KEY_ALGORITHMS_BY_OID.put(oid(0x2A, 0x86, 0x48, 0x86, 0xF7, 0x0D, 0x01, 0x03, 0x01), "DiffieHellman");
+        // 1.2.840.10046.2.1 dhpublicnumber
+        KEY_ALGORITHMS_BY_OID.put(oid(0x2A, 0x86, 0x48, 0xCE, 0x3E, 0x02, 0x01), "DiffieHellman");
+        // 1.2.840.113549.1.1.1 rsaEncryption
+        KEY_ALGORITHMS_BY_OID.put(oid(0x2A, 0x86, 0x48, 0x86, 0xF7, 0x0D, 0x01, 0x01, 0x01), "RSA");
+        // 1.2.840.10040.4.1 id-dsa
+        KEY_ALGORITHMS_BY_OID.put(oid(0x2A, 0x86, 0x48, 0xCE, 0x38, 0x04, 0x01), "DSA");
+    }
+
+    // factories are not thread-safe, keep one per thread instead of creating one per decoding
+    private static final ThreadLocal<Map<String, KeyFactory>> KEY_FACTORIES = //
+            new ThreadLocal<Map<String, KeyFactory>>() {
+                @Override
+                protected Map<String, KeyFactory> initialValue() {
+                    return new HashMap<>();
+                }
+            };
+    private static final ThreadLocal<CertificateFactory> CERTIFICATE_FACTORY = new ThreadLocal<>();
+
+    // the server keys and certificates are shared by many configs, remember the result of their checks
+    private static final int MAX_MEMOIZED = 1024;
+    private static final Map<ByteBuffer, Boolean> SERVER_PUBLIC_KEYS = new ConcurrentHashMap<>();
+    private static final Map<ByteBuffer, Boolean> SERVER_CERTIFICATES = new ConcurrentHashMap<>();
+
     public static void verify(BootstrapConfig config) throws ConfigurationException {
+        long start = System.nanoTime();
+        try {
+            checkConfig(config);
+        } finally {
+            BootstrapMetrics.CONFIG_VERIFY.recordSince(start);
+        }
+    }
+
+    private static void checkConfig(BootstrapConfig config) throws ConfigurationException {
         // check security configurations
+        boolean bootstrapServer = false;
         for (Map.Entry<Integer, BootstrapConfig.ServerSecurity> e : config.security.entrySet()) {
             BootstrapConfig.ServerSecurity sec = e.getValue();
 
+            // a client has a single bootstrap server account, the only one whose PSK identity is indexed
+            if (sec.bootstrapServer) {
+                assertIf(bootstrapServer, "only one security entry can be a bootstrap server");
+                bootstrapServer = true;
+            }
+
             // checks security config
             switch (sec.securityMode) {
             case NO_SEC:
@@ -71,7 +123,7 @@ public class ConfigurationChecker {
                         "raw-public-key mode, public key or id must be RFC7250 encoded public key");
                 assertIf(ArrayUtils.isEmpty(sec.serverPublicKey),
                         "raw-public-key mode, server public key must not be empty");
-                assertIf(decodeRfc7250PublicKey(sec.serverPublicKey) == null,
+                assertIf(!isServerPublicKey(sec.serverPublicKey),
                         "raw-public-key mode, server public key must be RFC7250 encoded public key");
                 break;
             case X509:
@@ -83,7 +135,7 @@ public class ConfigurationChecker {
                         "x509 mode, public key or id must be DER encoded X.509 certificate");
                 assertIf(ArrayUtils.isEmpty(sec.serverPublicKey),
                         "x509 mode, server public key must not be empty");
-                assertIf(decodeCertificate(sec.serverPublicKey) == null,
+                assertIf(!isServerCertificate(sec.serverPublicKey),
                         "x509 mode, server public key must be DER encoded X.509 certificate");
                 break;
             }
@@ -118,15 +170,44 @@ public class ConfigurationChecker {
         }
     }
 
+    private static boolean isServerPublicKey(final byte[] encodedKey) {
+        return memoize(SERVER_PUBLIC_KEYS, encodedKey, new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return decodeRfc7250PublicKey(encodedKey) != null;
+            }
+        });
+    }
+
+    private static boolean isServerCertificate(final byte[] encodedCert) {
+        return memoize(SERVER_CERTIFICATES, encodedCert, new BooleanSupplier() {
+            @Override
+            public boolean getAsBoolean() {
+                return decodeCertificate(encodedCert) != null;
+            }
+        });
+    }
+
+    private static boolean memoize(Map<ByteBuffer, Boolean> results, byte[] encoded, BooleanSupplier check) {
+        ByteBuffer key = ByteBuffer.wrap(encoded);
+        Boolean result = results.get(key);
+        if (result == null) {
+            result = check.getAsBoolean();
+            if (results.size() < MAX_MEMOIZED) {
+                results.put(ByteBuffer.wrap(encoded.clone()), result);
+            }
+        }
+        return result;
+    }
+
     private static PrivateKey decodeRfc5958PrivateKey(byte[] encodedKey) {
         PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(encodedKey);
-        for (String algorithm : KEY_ALGORITHMS) {
+        for (String algorithm : getKeyAlgorithms(encodedKey, true)) {
+            KeyFactory kf = getKeyFactory(algorithm);
+            if (kf == null)
+                continue;
             try {
-                KeyFactory kf = KeyFactory.getInstance(algorithm);
                 return kf.generatePrivate(keySpec);
-            } catch (NoSuchAlgorithmException e) {
-                LOG.debug("Failed to instantiate key factory for algorithm " + algorithm, e);
-                continue;
             } catch (InvalidKeySpecException e) {
                 LOG.debug("Failed to decode RFC5958 private key with algorithm " + algorithm, e);
                 continue;
@@ -137,13 +218,12 @@ public class ConfigurationChecker {
 
     private static PublicKey decodeRfc7250PublicKey(byte[] encodedKey) {
         X509EncodedKeySpec keySpec = new X509EncodedKeySpec(encodedKey);
-        for (String algorithm : KEY_ALGORITHMS) {
+        for (String algorithm : getKeyAlgorithms(encodedKey, false)) {
+            KeyFactory kf = getKeyFactory(algorithm);
+            if (kf == null)
+                continue;
             try {
-                KeyFactory kf = KeyFactory.getInstance(algorithm);
                 return kf.generatePublic(keySpec);
-            } catch (NoSuchAlgorithmException e) {
-                LOG.debug("Failed to instantiate key factory for algorithm " + algorithm, e);
-                continue;
             } catch (InvalidKeySpecException e) {
                 LOG.debug("Failed to decode RFC7250 public key with algorithm " + algorithm, e);
                 continue;
@@ -154,7 +234,11 @@ public class ConfigurationChecker {
 
     private static Certificate decodeCertificate(byte[] encodedCert) {
         try {
-            CertificateFactory cf = CertificateFactory.getInstance("X.509");
+            CertificateFactory cf = CERTIFICATE_FACTORY.get();
+            if (cf == null) {
+                cf = CertificateFactory.getInstance("X.509");
+                CERTIFICATE_FACTORY.set(cf);
+            }
             try (ByteArrayInputStream in = new ByteArrayInputStream(encodedCert)) {
                 return cf.generateCertificate(in);
             }
@@ -164,6 +248,84 @@ public class ConfigurationChecker {
         }
     }
 
+    private static KeyFactory getKeyFactory(String algorithm) {
+        Map<String, KeyFactory> factories = KEY_FACTORIES.get();
+        KeyFactory kf = factories.get(algorithm);
+        if (kf == null) {
+            try {
+                kf = KeyFactory.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException e) {
+                LOG.debug("Failed to instantiate key factory for algorithm " + algorithm, e);
+                return null;
+            }
+            factories.put(algorithm, kf);
+        }
+        return kf;
+    }
+
+    /**
+     * Get the algorithms to try to decode a key: the one of its AlgorithmIdentifier if it is known, all the supported
+     * ones otherwise.
+     *
+     * @param encoded a DER encoded PKCS#8 PrivateKeyInfo or X.509 SubjectPublicKeyInfo
+     * @param privateKey <code>true</code> for a PrivateKeyInfo
+     */
+    static String[] getKeyAlgorithms(byte[] encoded, boolean privateKey) {
+        // PrivateKeyInfo ::= SEQUENCE { version INTEGER, privateKeyAlgorithm AlgorithmIdentifier, ... }
+        // SubjectPublicKeyInfo ::= SEQUENCE { algorithm AlgorithmIdentifier, ... }
+        // AlgorithmIdentifier ::= SEQUENCE { algorithm OBJECT IDENTIFIER, parameters ANY DEFINED BY algorithm }
+        int[] pos = new int[] { 0 };
+        if (readHeader(encoded, pos, 0x30) >= 0) {
+            int versionLength = privateKey ? readHeader(encoded, pos, 0x02) : 0;
+            if (versionLength >= 0) {
+                pos[0] += versionLength;
+                if (readHeader(encoded, pos, 0x30) >= 0) {
+                    int oidLength = readHeader(encoded, pos, 0x06);
+                    if (oidLength >= 0) {
+                        String algorithm = KEY_ALGORITHMS_BY_OID.get(ByteBuffer.wrap(encoded, pos[0], oidLength));
+                        if (algorithm != null)
+                            return new String[] { algorithm };
+                    }
+                }
+            }
+        }
+        return KEY_ALGORITHMS;
+    }
+
+    /**
+     * Read the header of the DER element at <code>pos[0]</code> and move <code>pos[0]</code> to its content.
+     *
+     * @return the length of the content, or -1 if there is no valid element with this tag
+     */
+    private static int readHeader(byte[] der, int[] pos, int tag) {
+        int i = pos[0];
+        if (i + 2 > der.length || (der[i] & 0xFF) != tag)
+            return -1;
+        i++;
+        int length = der[i++] & 0xFF;
+        if (length > 0x7F) {
+            int lengthBytes = length & 0x7F;
+            if (lengthBytes == 0 || lengthBytes > 3 || i + lengthBytes > der.length)
+                return -1;
+            length = 0;
+            for (int k = 0; k < lengthBytes; k++) {
+                length = (length << 8) | (der[i++] & 0xFF);
+            }
+        }
+        if (i + length > der.length)
+            return -1;
+        pos[0] = i;
+        return length;
+    }
+
+    private static ByteBuffer oid(int... bytes) {
+        byte[] oid = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            oid[i] = (byte) bytes[i];
+        }
+        return ByteBuffer.wrap(oid);
+    }
+
     private static void assertIf(boolean condition, String message) throws ConfigurationException {
         if (condition) {
             throw new ConfigurationException(message);
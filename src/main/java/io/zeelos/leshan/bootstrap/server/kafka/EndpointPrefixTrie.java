@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * A trie of endpoint name prefixes, finding the longest prefix of an endpoint name in a time bounded by the length of
+ * the name.
+ * <p>
+ * Lookups are lock-free and may run concurrently with a single writer.
+ */
+public class EndpointPrefixTrie {
+
+    private static class Node {
+        final Map<Character, Node> children = new ConcurrentHashMap<>(4);
+        volatile String pattern; // the pattern ending at this node, if any
+    }
+
+    private final Node root = new Node();
+
+    /**
+     * @param prefix the prefix to add
+     * @param pattern the pattern returned by {@link #longestMatch(String)} for this prefix
+     */
+    public void add(String prefix, String pattern) {
+        Node node = root;
+        for (int i = 0; i < prefix.length(); i++) {
+            Node child = node.children.get(prefix.charAt(i));
+            if (child == null) {
+                child = new Node();
+                node.children.put(prefix.charAt(i), child);
+            }
+            node = child;
+        }
+        node.pattern = pattern;
+    }
+
+    public void remove(String prefix) {
+        Node node = root;
+        for (int i = 0; i < prefix.length() && node != null; i++) {
+            node = node.children.get(prefix.charAt(i));
+        }
+        if (node != null) {
+            // the nodes are kept, patterns are few and rarely removed
+            node.pattern = null;
+        }
+    }
+
+    /**
+     * @return the pattern of the longest prefix of the endpoint name, or <code>null</code> if no prefix matches
+     */
+    public String longestMatch(String endpoint) {
+        Node node = root;
+        String match = node.pattern;
+        for (int i = 0; i < endpoint.length(); i++) {
+            node = node.children.get(endpoint.charAt(i));
+            if (node == null)
+                break;
+            String pattern = node.pattern;
+            if (pattern != null) {
+                match = pattern;
+            }
+        }
+        return match;
+    }
+
+    /**
+     * Resolve the patterns of the prefixes of the endpoint name, longest first, until one resolves.
+     *
+     * @param resolver gives the value of a pattern, or <code>null</code> to try the next shorter one
+     * @return the first value resolved, or <code>null</code> if none is
+     */
+    public <T> T longestMatch(String endpoint, Function<String, T> resolver) {
+        List<String> matches = new ArrayList<>(2);
+        Node node = root;
+        if (node.pattern != null) {
+            matches.add(node.pattern);
+        }
+        for (int i = 0; i < endpoint.length(); i++) {
+            node = node.children.get(endpoint.charAt(i));
+            if (node == null)
+                break;
+            String pattern = node.pattern;
+            if (pattern != null) {
+                matches.add(pattern);
+            }
+        }
+        for (int i = matches.size() - 1; i >= 0; i--) {
+            T value = resolver.apply(matches.get(i));
+            if (value != null)
+                return value;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.eclipse.leshan.server.security.SecurityInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps all the configurations in memory, pages are ordered by endpoint name.
+ * <p>
+ * The configurations and their PSK identity index are published together as an immutable snapshot of
+ * {@link PersistentHashMap}s: a mutation builds the next snapshot, sharing all the entries it does not change, and
+ * swaps it in. Lookups never wait for a mutation, and {@link #asMap()} is a consistent point-in-time view which can
+ * be iterated (e.g. by the persistence) while the table keeps changing.
+ */
+public class HeapConfigTable implements ConfigTable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(HeapConfigTable.class);
+
+    private static final class Snapshot {
+        final PersistentHashMap<String, BootstrapConfig> configs;
+        // bootstrap server PSK identity => security info, used for DTLS handshakes
+        final PersistentHashMap<ByteBuffer, SecurityInfo> byIdentity;
+
+        Snapshot(PersistentHashMap<String, BootstrapConfig> configs,
+                PersistentHashMap<ByteBuffer, SecurityInfo> byIdentity) {
+            this.configs = configs;
+            this.byIdentity = byIdentity;
+        }
+    }
+
+    private volatile Snapshot snapshot = new Snapshot(PersistentHashMap.<String, BootstrapConfig> empty(),
+            PersistentHashMap.<ByteBuffer, SecurityInfo> empty());
+
+    // the snapshot built by the mutations of an atomic batch, only used by the writer
+    private Snapshot pending;
+
+    // endpoint names in order, for paging
+    private final NavigableSet<String> endpoints = new ConcurrentSkipListSet<>();
+
+    @Override
+    public BootstrapConfig get(String endpoint) {
+        return snapshot.configs.get(endpoint);
+    }
+
+    @Override
+    public SecurityInfo getByIdentity(byte[] identity) {
+        return snapshot.byIdentity.get(ByteBuffer.wrap(identity));
+    }
+
+    @Override
+    public boolean put(String endpoint, BootstrapConfig config) {
+        Snapshot current = current();
+        PersistentHashMap<ByteBuffer, SecurityInfo> byIdentity = unindex(current.byIdentity, endpoint,
+                current.configs.get(endpoint));
+
+        ServerSecurity pskSecurity = BootstrapStoreImpl.getPskSecurity(config);
+        SecurityInfo existing = pskSecurity == null ? null
+                : byIdentity.get(ByteBuffer.wrap(pskSecurity.publicKeyOrId));
+        if (existing != null && !existing.getEndpoint().equals(endpoint)) {
+            LOG.warn("Rejecting config of {}: its PSK identity is already used by {}", endpoint,
+                    existing.getEndpoint());
+            return false;
+        }
+        if (pskSecurity != null) {
+            byIdentity = byIdentity.plus(ByteBuffer.wrap(pskSecurity.publicKeyOrId),
+                    SecurityInfo.newPreSharedKeyInfo(endpoint,
+                            new String(pskSecurity.publicKeyOrId, StandardCharsets.UTF_8), pskSecurity.secretKey));
+        }
+        publish(new Snapshot(current.configs.plus(endpoint, config), byIdentity));
+        endpoints.add(endpoint);
+        return true;
+    }
+
+    @Override
+    public void remove(String endpoint) {
+        Snapshot current = current();
+        BootstrapConfig config = current.configs.get(endpoint);
+        if (config != null) {
+            publish(new Snapshot(current.configs.minus(endpoint), unindex(current.byIdentity, endpoint, config)));
+        }
+        endpoints.remove(endpoint);
+    }
+
+    /**
+     * Apply the mutations as a single snapshot: the lookups see either none or all of them.
+     */
+    @Override
+    public void atomically(Runnable mutations) {
+        pending = snapshot;
+        try {
+            mutations.run();
+        } finally {
+            snapshot = pending;
+            pending = null;
+        }
+    }
+
+    @Override
+    public Map<String, BootstrapConfig> page(String after, int limit) {
+        // the order is not part of the snapshots, the entries of a page are all taken from the same one
+        Map<String, BootstrapConfig> configs = snapshot.configs;
+        Map<String, BootstrapConfig> page = new LinkedHashMap<>();
+        Iterator<String> it = (after == null ? endpoints : endpoints.tailSet(after, false)).iterator();
+        while (page.size() < limit && it.hasNext()) {
+            String endpoint = it.next();
+            BootstrapConfig config = configs.get(endpoint);
+            // may have been added after the snapshot
+            if (config != null) {
+                page.put(endpoint, config);
+            }
+        }
+        return page;
+    }
+
+    /**
+     * @return an immutable snapshot of all the configurations
+     */
+    @Override
+    public Map<String, BootstrapConfig> asMap() {
+        return snapshot.configs;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private Snapshot current() {
+        return pending != null ? pending : snapshot;
+    }
+
+    private void publish(Snapshot next) {
+        if (pending != null) {
+            pending = next;
+        } else {
+            snapshot = next;
+        }
+    }
+
+    private static PersistentHashMap<ByteBuffer, SecurityInfo> unindex(
+            PersistentHashMap<ByteBuffer, SecurityInfo> byIdentity, String endpoint, BootstrapConfig config) {
+        ServerSecurity pskSecurity = BootstrapStoreImpl.getPskSecurity(config);
+        if (pskSecurity != null) {
+            ByteBuffer identity = ByteBuffer.wrap(pskSecurity.publicKeyOrId);
+            SecurityInfo info = byIdentity.get(identity);
+            if (info != null && info.getEndpoint().equals(endpoint)) {
+                return byIdentity.minus(identity);
+            }
+        }
+        return byIdentity;
+    }
+}
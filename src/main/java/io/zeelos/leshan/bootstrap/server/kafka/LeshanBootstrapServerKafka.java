@@ -15,11 +15,15 @@
 package io.zeelos.leshan.bootstrap.server.kafka;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.net.BindException;
-import java.net.InetSocketAddress;
 import java.security.PrivateKey;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.DefaultParser;
@@ -34,21 +38,48 @@ import org.eclipse.californium.scandium.dtls.DTLSSession;
 import org.eclipse.californium.scandium.dtls.HandshakeException;
 import org.eclipse.californium.scandium.dtls.x509.CertificateVerifier;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.eclipse.jetty.webapp.WebAppContext;
 import org.eclipse.leshan.LwM2m;
 import org.eclipse.leshan.core.model.LwM2mModel;
 import org.eclipse.leshan.core.model.ObjectLoader;
 import org.eclipse.leshan.core.model.ObjectModel;
+import org.eclipse.leshan.core.node.codec.DefaultLwM2mNodeEncoder;
+import org.eclipse.leshan.server.bootstrap.BootstrapSessionManager;
+import org.eclipse.leshan.server.bootstrap.DefaultBootstrapSessionManager;
 import org.eclipse.leshan.server.californium.LeshanBootstrapServerBuilder;
 import org.eclipse.leshan.server.californium.LeshanServerBuilder;
 import org.eclipse.leshan.server.californium.impl.LeshanBootstrapServer;
+import org.eclipse.leshan.util.NamedThreadFactory;
 import org.eclipse.leshan.util.SecurityUtil;
+import org.eclipse.leshan.util.Validate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import io.zeelos.leshan.bootstrap.server.kafka.admission.AdmissionController;
+import io.zeelos.leshan.bootstrap.server.kafka.admission.AdmissionController.Rate;
+import io.zeelos.leshan.bootstrap.server.kafka.dtls.FileSessionTicketPersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.dtls.KafkaSessionTicketPersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.dtls.LruSessionCache;
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.BinarySnapshotFormat;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.Durability;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.FilePersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.JournalPersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.JsonSnapshotFormat;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.KafkaPersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.PersistenceWriter;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.SnapshotFormat;
 import io.zeelos.leshan.bootstrap.server.kafka.servlet.BootstrapServlet;
+import io.zeelos.leshan.bootstrap.server.kafka.servlet.ChangeFeedServlet;
+import io.zeelos.leshan.bootstrap.server.kafka.servlet.MetricsServlet;
 import io.zeelos.leshan.bootstrap.server.kafka.servlet.ServerServlet;
+import io.zeelos.leshan.bootstrap.server.kafka.servlet.TemplateServlet;
+import io.zeelos.leshan.bootstrap.server.kafka.session.BootstrapSessionPublisher;
+import io.zeelos.leshan.bootstrap.server.kafka.session.EventBootstrapSessionManager;
+import io.zeelos.leshan.bootstrap.server.kafka.session.MetricsBootstrapSessionManager;
 
 public class LeshanBootstrapServerKafka {
 
@@ -64,6 +95,12 @@ public class LeshanBootstrapServerKafka {
 
     private final static String USAGE = "java -jar leshan-bsserver-demo.jar [OPTION]";
 
+    private final static String DEFAULT_SCHEMA_REGISTRY = "http://localhost:8081";
+    private final static String BINARY_SUFFIX = ".bin";
+    private final static String TEMPLATES_TOPIC_SUFFIX = "-templates";
+
+    private final static int MIN_WEB_THREADS = 4;
+
     public static void main(String[] args) {
         // Define options for command line tools
         Options options = new Options();
@@ -77,9 +114,81 @@ public class LeshanBootstrapServerKafka {
                 String.format("Set the secure local CoAP port.\nDefault: %d.", LwM2m.DEFAULT_COAP_SECURE_PORT));
         options.addOption("wh", "webhost", true, "Set the HTTP address for web server.\nDefault: any local address.");
         options.addOption("wp", "webport", true, "Set the HTTP port for web server.\nDefault: 8080.");
+        options.addOption("wt", "webthreads", true, String.format(
+                "Set the maximum number of threads of the web server, at least %d.\nDefault: %d.", MIN_WEB_THREADS,
+                ServerOptions.DEFAULT_WEB_THREADS));
+        options.addOption("mt", "mutationthreads", true, "Set the number of threads applying the configuration "
+                + "changes of the REST API.\nDefault: the number of processors.");
+        options.addOption("mq", "mutationqueue", true, String.format("Set how many configuration changes of the REST "
+                + "API can wait for a thread before new ones are rejected with 503.\nDefault: %d.",
+                ServerOptions.DEFAULT_MUTATION_QUEUE));
         options.addOption("m", "modelsfolder", true, "A folder which contains object models in OMA DDF(.xml) format.");
         options.addOption("cfg", "configfile", true,
                 "Set the filename for the configuration.\nDefault: " + BootstrapStoreImpl.DEFAULT_FILE + ".");
+        options.addOption("tpl", "templatesfile", true,
+                "Set the filename for the configuration templates.\nDefault: " + TemplateStore.DEFAULT_FILE + ".");
+        options.addOption("jrnl", "journal", false, "Append configuration changes to a journal next to the "
+                + "configuration file instead of rewriting it on each change.");
+        options.addOption("bin", "binarysnapshot", false, "Store the configuration in a compact binary file next to "
+                + "the configuration file (suffixed by " + BINARY_SUFFIX + ") instead of JSON. An existing JSON "
+                + "configuration is migrated on first start.");
+        options.addOption("kb", "kafkabrokers", true, "Persist the configuration in a log-compacted Kafka topic "
+                + "shared by all the bootstrap servers, using these Kafka bootstrap servers (host:port,...) instead of "
+                + "the configuration file.");
+        options.addOption("kt", "kafkatopic", true, "Set the log-compacted Kafka topic of the configuration.\nDefault: "
+                + KafkaPersistence.DEFAULT_TOPIC + ".\nThe templates use this topic suffixed by "
+                + TEMPLATES_TOPIC_SUFFIX + ".");
+        options.addOption("watch", "watchconfigfile", false, "Reload the configuration file when another process "
+                + "changes it, only the changed configurations are applied. Not available with the kafkabrokers, "
+                + "journal or arenadirectory options.");
+        options.addOption("dur", "durability", true, "Set when configuration changes are persisted and acknowledged: "
+                + "sync (by the request thread), group_commit (acknowledged by the next group commit) or async "
+                + "(acknowledged immediately, persisted by the next group commit).\nDefault: sync.");
+        options.addOption("gci", "groupcommitinterval", true, String.format(
+                "Set the interval in milliseconds between two group commits.\nDefault: %d.",
+                PersistenceWriter.DEFAULT_COMMIT_INTERVAL));
+        options.addOption("tier", "tierdirectory", true, "Keep only the most recently used configurations in memory, "
+                + "all of them being in a disk tier recreated in this directory on each start.");
+        options.addOption("hot", "hotcapacity", true, String.format("Set the maximum number of configurations kept "
+                + "in memory with the tierdirectory option.\nDefault: %d.", TieredConfigTable.DEFAULT_HOT_CAPACITY));
+        options.addOption("arena", "arenadirectory", true, "Keep the configurations serialized in memory-mapped files "
+                + "of this directory instead of the heap. They persist the configurations: the configuration file is "
+                + "only imported on the first start.");
+        options.addOption("sc", "sessioncache", true, "Set where the DTLS sessions are kept so clients can resume "
+                + "them with an abbreviated handshake: none, memory, file (survives restarts) or kafka (shared by "
+                + "the bootstrap servers using the kafkabrokers option, survives restarts).\nDefault: memory.");
+        options.addOption("scf", "sessioncachefile", true, "Set the file of the DTLS sessions, which must be "
+                + "protected like a private key.\nDefault: " + FileSessionTicketPersistence.DEFAULT_FILE + ".");
+        options.addOption("sct", "sessioncachetopic", true, "Set the Kafka topic of the DTLS sessions, which must be "
+                + "protected like a private key.\nDefault: " + KafkaSessionTicketPersistence.DEFAULT_TOPIC + ".");
+        options.addOption("scc", "sessioncachecapacity", true, String.format(
+                "Set the maximum number of cached DTLS sessions.\nDefault: %d.", LruSessionCache.DEFAULT_CAPACITY));
+        options.addOption("rls", "ratelimitsource", true, "Limit the new bootstrap sessions of each source address "
+                + "to rate[:burst] per second, the others are dropped before any handshake and retried later by the "
+                + "clients.\nDefault: no limit.");
+        options.addOption("rln", "ratelimitsubnet", true, String.format("Limit the new bootstrap sessions of each "
+                + "source subnet (/%d in IPv4, /%d in IPv6) to rate[:burst] per second.\nDefault: no limit.",
+                AdmissionController.DEFAULT_IPV4_PREFIX, AdmissionController.DEFAULT_IPV6_PREFIX));
+        options.addOption("rlg", "ratelimitglobal", true,
+                "Limit the new bootstrap sessions of the server to rate[:burst] per second.\nDefault: no limit.");
+        options.addOption("rlc", "ratelimitcapacity", true, String.format("Set the maximum number of sources and of "
+                + "subnets whose rate is tracked, the least recent ones are forgotten.\nDefault: %d.",
+                AdmissionController.DEFAULT_CAPACITY));
+        options.addOption("eb", "eventbrokers", true, "Publish the outcome of each bootstrap session to Kafka as an "
+                + "Avro record, using these Kafka bootstrap servers (host:port,...).");
+        options.addOption("sr", "schemaregistry", true, "Set the URL of the schema registry of the session records."
+                + "\nDefault: " + DEFAULT_SCHEMA_REGISTRY + ".");
+        options.addOption("et", "eventtopic", true, "Set the Kafka topic of the session records.\nDefault: "
+                + BootstrapSessionPublisher.DEFAULT_TOPIC + ".");
+        options.addOption("el", "eventlinger", true, String.format(
+                "Set how long in milliseconds session records are batched before being sent.\nDefault: %d.",
+                BootstrapSessionPublisher.DEFAULT_LINGER_MS));
+        options.addOption("ec", "eventcompression", true,
+                "Set the compression of the session record batches (none, gzip, snappy, lz4 or zstd).\nDefault: "
+                        + BootstrapSessionPublisher.DEFAULT_COMPRESSION + ".");
+        options.addOption("eq", "eventqueue", true, String.format(
+                "Set how many session records can wait for the broker before new ones are dropped.\nDefault: %d.",
+                BootstrapSessionPublisher.DEFAULT_QUEUE_CAPACITY));
         HelpFormatter formatter = new HelpFormatter();
         formatter.setOptionComparator(null);
 
@@ -106,36 +215,51 @@ public class LeshanBootstrapServerKafka {
             return;
         }
 
+        // Reject the options which would be ignored or cannot work together
+        String conflict = checkConflicts(cl);
+        if (conflict != null) {
+            System.err.println(conflict);
+            formatter.printHelp(USAGE, options);
+            return;
+        }
+
+        ServerOptions serverOptions = new ServerOptions();
+
         // Get local address
-        String localAddress = cl.getOptionValue("lh");
-        if (localAddress == null)
-            localAddress = "0.0.0.0";
-        String localPortOption = cl.getOptionValue("lp");
-        int localPort = LwM2m.DEFAULT_COAP_PORT;
-        if (localPortOption != null) {
-            localPort = Integer.parseInt(localPortOption);
+        if (cl.hasOption("lh")) {
+            serverOptions.localAddress = cl.getOptionValue("lh");
+        }
+        if (cl.hasOption("lp")) {
+            serverOptions.localPort = Integer.parseInt(cl.getOptionValue("lp"));
         }
 
         // Get secure local address
-        String secureLocalAddress = cl.getOptionValue("slh");
-        if (secureLocalAddress == null)
-            secureLocalAddress = "0.0.0.0";
-        String secureLocalPortOption = cl.getOptionValue("slp");
-        int secureLocalPort = LwM2m.DEFAULT_COAP_SECURE_PORT;
-        if (secureLocalPortOption != null) {
-            secureLocalPort = Integer.parseInt(secureLocalPortOption);
+        if (cl.hasOption("slh")) {
+            serverOptions.secureLocalAddress = cl.getOptionValue("slh");
+        }
+        if (cl.hasOption("slp")) {
+            serverOptions.secureLocalPort = Integer.parseInt(cl.getOptionValue("slp"));
         }
 
         // get http address
-        String webAddress = cl.getOptionValue("wh");
-        String webPortOption = cl.getOptionValue("wp");
-        int webPort = 8080;
-        if (webPortOption != null) {
-            webPort = Integer.parseInt(webPortOption);
+        serverOptions.webAddress = cl.getOptionValue("wh");
+        if (cl.hasOption("wp")) {
+            serverOptions.webPort = Integer.parseInt(cl.getOptionValue("wp"));
+        }
+
+        // get web threads
+        if (cl.hasOption("wt")) {
+            serverOptions.webThreads = Math.max(MIN_WEB_THREADS, Integer.parseInt(cl.getOptionValue("wt")));
+        }
+        if (cl.hasOption("mt")) {
+            serverOptions.mutationThreads = Integer.parseInt(cl.getOptionValue("mt"));
+        }
+        if (cl.hasOption("mq")) {
+            serverOptions.mutationQueue = Integer.parseInt(cl.getOptionValue("mq"));
         }
 
         // Get models folder
-        String modelsFolderPath = cl.getOptionValue("m");
+        serverOptions.modelsFolderPath = cl.getOptionValue("m");
 
         // Get config file
         String configFilename = cl.getOptionValue("cfg");
@@ -143,35 +267,259 @@ public class LeshanBootstrapServerKafka {
             configFilename = BootstrapStoreImpl.DEFAULT_FILE;
         }
 
+        // Get templates file
+        String templatesFilename = cl.getOptionValue("tpl");
+        if (templatesFilename == null) {
+            templatesFilename = TemplateStore.DEFAULT_FILE;
+        }
+
+        // Get persistence mode
+        String kafkaBrokers = cl.getOptionValue("kb");
+        String kafkaTopic = cl.getOptionValue("kt");
+        if (kafkaTopic == null) {
+            kafkaTopic = KafkaPersistence.DEFAULT_TOPIC;
+        }
+        boolean journal = cl.hasOption("jrnl");
+        boolean binary = cl.hasOption("bin");
+        String durabilityOption = cl.getOptionValue("dur");
+        if (durabilityOption != null) {
+            try {
+                serverOptions.durability = Durability.valueOf(durabilityOption.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                System.err.println("Unknown durability mode : " + durabilityOption);
+                formatter.printHelp(USAGE, options);
+                return;
+            }
+        }
+        if (cl.hasOption("gci")) {
+            serverOptions.commitInterval = Long.parseLong(cl.getOptionValue("gci"));
+        }
+
+        // Get config tiering
+        String tierDirectory = cl.getOptionValue("tier");
+        int hotCapacity = TieredConfigTable.DEFAULT_HOT_CAPACITY;
+        String hotCapacityOption = cl.getOptionValue("hot");
+        if (hotCapacityOption != null) {
+            hotCapacity = Integer.parseInt(hotCapacityOption);
+        }
+        boolean watch = cl.hasOption("watch");
+        String arenaDirectory = cl.getOptionValue("arena");
+
+        // Get DTLS session cache config
+        String sessionCacheMode = cl.getOptionValue("sc", "memory");
+        if (!Arrays.asList("none", "memory", "file", "kafka").contains(sessionCacheMode)) {
+            System.err.println("Unknown DTLS session cache : " + sessionCacheMode);
+            formatter.printHelp(USAGE, options);
+            return;
+        }
+        if ("kafka".equals(sessionCacheMode) && kafkaBrokers == null) {
+            System.err.println("The kafka DTLS session cache needs the kafkabrokers option");
+            formatter.printHelp(USAGE, options);
+            return;
+        }
+        String sessionCacheFile = cl.getOptionValue("scf", FileSessionTicketPersistence.DEFAULT_FILE);
+        String sessionCacheTopic = cl.getOptionValue("sct", KafkaSessionTicketPersistence.DEFAULT_TOPIC);
+        int sessionCacheCapacity = LruSessionCache.DEFAULT_CAPACITY;
+        String sessionCacheCapacityOption = cl.getOptionValue("scc");
+        if (sessionCacheCapacityOption != null) {
+            sessionCacheCapacity = Integer.parseInt(sessionCacheCapacityOption);
+        }
+
+        // Get admission control config
+        if (cl.hasOption("rls") || cl.hasOption("rln") || cl.hasOption("rlg")) {
+            int capacity = AdmissionController.DEFAULT_CAPACITY;
+            if (cl.hasOption("rlc")) {
+                capacity = Integer.parseInt(cl.getOptionValue("rlc"));
+            }
+            try {
+                serverOptions.admission = new AdmissionController(parseRate(cl.getOptionValue("rls")),
+                        parseRate(cl.getOptionValue("rln")), parseRate(cl.getOptionValue("rlg")),
+                        AdmissionController.DEFAULT_IPV4_PREFIX, AdmissionController.DEFAULT_IPV6_PREFIX, capacity);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Invalid rate limit : " + e.getMessage());
+                formatter.printHelp(USAGE, options);
+                return;
+            }
+        }
+
+        // Get session events config
+        String eventBrokers = cl.getOptionValue("eb");
+        String schemaRegistry = cl.getOptionValue("sr");
+        if (schemaRegistry == null) {
+            schemaRegistry = DEFAULT_SCHEMA_REGISTRY;
+        }
+        String eventTopic = cl.getOptionValue("et");
+        if (eventTopic == null) {
+            eventTopic = BootstrapSessionPublisher.DEFAULT_TOPIC;
+        }
+        int eventLinger = BootstrapSessionPublisher.DEFAULT_LINGER_MS;
+        String eventLingerOption = cl.getOptionValue("el");
+        if (eventLingerOption != null) {
+            eventLinger = Integer.parseInt(eventLingerOption);
+        }
+        String eventCompression = cl.getOptionValue("ec");
+        if (eventCompression == null) {
+            eventCompression = BootstrapSessionPublisher.DEFAULT_COMPRESSION;
+        }
+        int eventQueue = BootstrapSessionPublisher.DEFAULT_QUEUE_CAPACITY;
+        String eventQueueOption = cl.getOptionValue("eq");
+        if (eventQueueOption != null) {
+            eventQueue = Integer.parseInt(eventQueueOption);
+        }
+
         try {
-            createAndStartServer(webAddress, webPort, localAddress, localPort, secureLocalAddress, secureLocalPort,
-                    modelsFolderPath, configFilename);
+            if (eventBrokers != null) {
+                serverOptions.sessionPublisher = BootstrapSessionPublisher.create(eventBrokers, schemaRegistry,
+                        eventTopic, eventLinger, eventCompression, eventQueue);
+            }
+            if ("memory".equals(sessionCacheMode)) {
+                serverOptions.sessionCache = new LruSessionCache(sessionCacheCapacity,
+                        LruSessionCache.DEFAULT_LIFETIME);
+            } else if ("file".equals(sessionCacheMode)) {
+                serverOptions.sessionCache = new LruSessionCache(sessionCacheCapacity,
+                        LruSessionCache.DEFAULT_LIFETIME, new FileSessionTicketPersistence(sessionCacheFile),
+                        LruSessionCache.DEFAULT_FLUSH_INTERVAL);
+            } else if ("kafka".equals(sessionCacheMode)) {
+                serverOptions.sessionCache = new LruSessionCache(sessionCacheCapacity,
+                        LruSessionCache.DEFAULT_LIFETIME, KafkaSessionTicketPersistence.create(kafkaBrokers,
+                                sessionCacheTopic), LruSessionCache.DEFAULT_FLUSH_INTERVAL);
+            }
+            SnapshotFormat snapshotFormat = new JsonSnapshotFormat();
+            String snapshotFilename = configFilename;
+            if (binary) {
+                snapshotFormat = new BinarySnapshotFormat();
+                snapshotFilename = configFilename + BINARY_SUFFIX;
+                BinarySnapshotFormat.migrate(new File(configFilename), new File(snapshotFilename));
+            }
+            if (kafkaBrokers != null) {
+                serverOptions.persistence = KafkaPersistence.create(kafkaBrokers, kafkaTopic);
+                serverOptions.templatePersistence = KafkaPersistence.create(kafkaBrokers,
+                        kafkaTopic + TEMPLATES_TOPIC_SUFFIX);
+            } else if (journal) {
+                serverOptions.persistence = new JournalPersistence(snapshotFilename, snapshotFormat,
+                        JournalPersistence.DEFAULT_COMPACTION_THRESHOLD);
+                serverOptions.templatePersistence = new FilePersistence(templatesFilename);
+            } else {
+                serverOptions.persistence = new FilePersistence(snapshotFilename, snapshotFormat, watch);
+                serverOptions.templatePersistence = new FilePersistence(templatesFilename);
+            }
+            if (arenaDirectory != null) {
+                MappedConfigTable mappedTable = new MappedConfigTable(arenaDirectory);
+                serverOptions.persistence = mappedTable.persistence(serverOptions.persistence);
+                serverOptions.configTable = mappedTable;
+            } else if (tierDirectory != null) {
+                serverOptions.configTable = new TieredConfigTable(tierDirectory, hotCapacity);
+            }
+            createAndStartServer(serverOptions);
         } catch (BindException e) {
-            System.err.println(String
-                    .format("Web port %s is already in use, you can change it using the 'webport' option.", webPort));
+            System.err.println(String.format(
+                    "Web port %s is already in use, you can change it using the 'webport' option.",
+                    serverOptions.webPort));
             formatter.printHelp(USAGE, options);
         } catch (Exception e) {
             LOG.error("Jetty stopped with unexpected error ...", e);
         }
     }
 
-    public static void createAndStartServer(String webAddress, int webPort, String localAddress, int localPort,
-            String secureLocalAddress, int secureLocalPort, String modelsFolderPath, String configFilename)
-            throws Exception {
+    /**
+     * @return why some of the given options cannot be used together, or <code>null</code>
+     */
+    static String checkConflicts(CommandLine cl) {
+        if (cl.hasOption("kb")) {
+            // the Kafka topic replaces the configuration file
+            if (cl.hasOption("jrnl"))
+                return "The journal option cannot be used with kafkabrokers: the configuration is persisted in the "
+                        + "Kafka topic, there is no configuration file to journal";
+            if (cl.hasOption("bin"))
+                return "The binarysnapshot option cannot be used with kafkabrokers: the configuration is persisted "
+                        + "in the Kafka topic, there is no configuration file to store in binary";
+            if (cl.hasOption("watch"))
+                return "The watchconfigfile option cannot be used with kafkabrokers: the configuration is persisted "
+                        + "in the Kafka topic, the changes of the other servers are already received from it";
+            if (cl.hasOption("arena"))
+                return "The arenadirectory option cannot be used with kafkabrokers: the memory-mapped files persist "
+                        + "the configuration on their own, the changes of the other servers would be ignored";
+        } else if (cl.hasOption("kt")) {
+            return "The kafkatopic option needs the kafkabrokers option";
+        }
+        if (cl.hasOption("arena") && cl.hasOption("tier"))
+            return "The arenadirectory option cannot be used with tierdirectory: both keep the configurations out of "
+                    + "the heap, choose one of them";
+        if (cl.hasOption("hot") && !cl.hasOption("tier"))
+            return "The hotcapacity option needs the tierdirectory option";
+        if (cl.hasOption("watch")) {
+            if (cl.hasOption("jrnl"))
+                return "The watchconfigfile option cannot be used with journal: the configuration file is only a "
+                        + "snapshot, the changes made since are in the journal and would be replayed over a reload";
+            if (cl.hasOption("arena"))
+                return "The watchconfigfile option cannot be used with arenadirectory: the configuration file is only "
+                        + "imported into the memory-mapped files on the first start";
+        }
+        return null;
+    }
+
+    public static void createAndStartServer(ServerOptions options) throws Exception {
+        Validate.notNull(options.persistence);
+        Validate.notNull(options.templatePersistence);
+        Validate.notNull(options.configTable);
+
         // Create Models
         List<ObjectModel> models = ObjectLoader.loadDefault();
-        if (modelsFolderPath != null) {
-            models.addAll(ObjectLoader.loadObjectsFromDir(new File(modelsFolderPath)));
+        if (options.modelsFolderPath != null) {
+            models.addAll(ObjectLoader.loadObjectsFromDir(new File(options.modelsFolderPath)));
         }
 
         // Prepare and start bootstrap server
         LeshanBootstrapServerBuilder builder = new LeshanBootstrapServerBuilder();
-        BootstrapStoreImpl bsStore = new BootstrapStoreImpl(configFilename);
+        ConfigInterner interner = new ConfigInterner();
+        final TemplateStore templateStore = new TemplateStore(options.templatePersistence, interner);
+        final BootstrapStoreImpl bsStore = new BootstrapStoreImpl(options.persistence, options.durability,
+                options.commitInterval, interner, options.configTable);
+        // the changes of the REST API, bounded so that admin load is rejected instead of piling up
+        final ThreadPoolExecutor mutations = new ThreadPoolExecutor(options.mutationThreads, options.mutationThreads,
+                0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(options.mutationQueue),
+                new NamedThreadFactory("Bootstrap Mutation"));
+        final BootstrapSessionPublisher sessionPublisher = options.sessionPublisher;
+        final LruSessionCache sessionCache = options.sessionCache;
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                if (sessionPublisher != null) {
+                    sessionPublisher.close();
+                }
+                mutations.shutdown();
+                try {
+                    mutations.awaitTermination(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                bsStore.destroy();
+                templateStore.destroy();
+                if (sessionCache != null) {
+                    sessionCache.destroy();
+                }
+            }
+        });
         builder.setConfigStore(bsStore);
-        builder.setSecurityStore(new BootstrapSecurityStoreImpl(bsStore));
-        builder.setLocalAddress(localAddress, localPort);
-        builder.setLocalSecureAddress(secureLocalAddress, secureLocalPort);
-        builder.setModel(new LwM2mModel(models));
+        BootstrapSecurityStoreImpl securityStore = new BootstrapSecurityStoreImpl(bsStore);
+        builder.setSecurityStore(securityStore);
+        BootstrapSessionManager sessionManager = new MetricsBootstrapSessionManager(
+                new DefaultBootstrapSessionManager(securityStore));
+        if (sessionPublisher != null) {
+            sessionManager = new EventBootstrapSessionManager(sessionManager, sessionPublisher);
+        }
+        builder.setSessionManager(sessionManager);
+        BootstrapMetrics.REGISTRY.registerMBeans(ManagementFactory.getPlatformMBeanServer());
+        builder.setLocalAddress(options.localAddress, options.localPort);
+        builder.setLocalSecureAddress(options.secureLocalAddress, options.secureLocalPort);
+        LwM2mModel model = new LwM2mModel(models);
+        builder.setModel(model);
+        // the bootstrap writes are encoded when the configs are provisioned rather than during the sessions
+        PrecompiledNodeEncoder encoder = new PrecompiledNodeEncoder(new DefaultLwM2mNodeEncoder(), model,
+                PrecompiledNodeEncoder.DEFAULT_CAPACITY);
+        bsStore.addListener(encoder);
+        encoder.precompileAll(bsStore.getBootstrapConfigs().values());
+        builder.setEncoder(encoder);
 
         // Create X509 credentials;
         X509Certificate serverCertificate = null;
@@ -213,33 +561,53 @@ public class LeshanBootstrapServerKafka {
             coapConfig.store(configFile);
         }
         builder.setCoapConfig(coapConfig);
+        builder.setEndpointFactory(new BootstrapEndpointFactory(sessionCache, options.admission));
 
         LeshanBootstrapServer bsServer = builder.build();
         bsServer.start();
 
         // Now prepare and start jetty
-        InetSocketAddress jettyAddr;
-        if (webAddress == null) {
-            jettyAddr = new InetSocketAddress(webPort);
-        } else {
-            jettyAddr = new InetSocketAddress(webAddress, webPort);
-        }
-        Server server = new Server(jettyAddr);
+        QueuedThreadPool threadPool = new QueuedThreadPool(options.webThreads,
+                Math.min(options.webThreads, MIN_WEB_THREADS));
+        threadPool.setName("Web Server");
+        Server server = new Server(threadPool);
+        // the API uses non-blocking I/O, a single acceptor and selector are enough
+        ServerConnector connector = new ServerConnector(server, 1, 1);
+        connector.setHost(options.webAddress);
+        connector.setPort(options.webPort);
+        server.addConnector(connector);
         WebAppContext root = new WebAppContext();
 
         root.setContextPath("/");
         root.setResourceBase(LeshanBootstrapServerKafka.class.getClassLoader().getResource("webapp").toExternalForm());
         root.setParentLoaderPriority(true);
 
-        ServletHolder bsServletHolder = new ServletHolder(new BootstrapServlet(bsStore));
+        ServletHolder bsServletHolder = new ServletHolder(new BootstrapServlet(bsStore, templateStore, mutations));
+        bsServletHolder.setAsyncSupported(true);
         root.addServlet(bsServletHolder, "/api/bootstrap/*");
 
+        ServletHolder changeFeedServletHolder = new ServletHolder(new ChangeFeedServlet(bsStore));
+        changeFeedServletHolder.setAsyncSupported(true);
+        root.addServlet(changeFeedServletHolder, "/api/changes/*");
+
+        ServletHolder templateServletHolder = new ServletHolder(new TemplateServlet(templateStore, mutations));
+        templateServletHolder.setAsyncSupported(true);
+        root.addServlet(templateServletHolder, "/api/templates/*");
+
         ServletHolder serverServletHolder = new ServletHolder(new ServerServlet(bsServer, serverCertificate));
+        serverServletHolder.setAsyncSupported(true);
         root.addServlet(serverServletHolder, "/api/server/*");
 
+        ServletHolder metricsServletHolder = new ServletHolder(new MetricsServlet(BootstrapMetrics.REGISTRY));
+        root.addServlet(metricsServletHolder, "/metrics");
+
         server.setHandler(root);
 
         server.start();
         LOG.info("Web server started at {}.", server.getURI());
     }
+
+    private static Rate parseRate(String rate) {
+        return rate == null ? null : Rate.parse(rate);
+    }
 }
@@ -0,0 +1,252 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A hash multimap from 64-bit hashes to non-negative longs, stored off-heap in a memory-mapped file with linear
+ * probing.
+ * <p>
+ * An entry costs 24 to 48 bytes of the file and no heap at all, whatever the key it was hashed from. As hashes may
+ * collide, a key maps to candidate values which the caller checks. The file starts with a magic number, the capacity
+ * and the size, followed by the slots: a key and its value plus one, <code>0</code> for a free slot. Not thread-safe.
+ */
+class LongHashIndex {
+
+    private static final int MAGIC = 0x4C424849; // "LBHI"
+    private static final int HEADER_SIZE = 16;
+    private static final int SLOT_SIZE = 16;
+
+    private static final int MIN_CAPACITY = 1024;
+    // 1GB of slots, a mapping is limited to 2GB
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final File file;
+    private MappedByteBuffer slots;
+    private int mask;
+    private int size;
+
+    private LongHashIndex(File file, MappedByteBuffer slots) {
+        this.file = file;
+        this.slots = slots;
+        this.mask = slots.getInt(4) - 1;
+        this.size = slots.getInt(8);
+    }
+
+    /**
+     * Create an empty index, replacing the given file.
+     */
+    static LongHashIndex create(File file) throws IOException {
+        return new LongHashIndex(file, allocate(file, MIN_CAPACITY));
+    }
+
+    /**
+     * Map an index written before.
+     */
+    static LongHashIndex open(File file) throws IOException {
+        MappedByteBuffer slots = map(file, file.length());
+        int capacity = slots.getInt(4);
+        if (slots.getInt(0) != MAGIC || Integer.bitCount(capacity) != 1
+                || file.length() != HEADER_SIZE + (long) capacity * SLOT_SIZE)
+            throw new IOException(file + " is not a hash index");
+        return new LongHashIndex(file, slots);
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the first slot of this key, or -1 if it has no value
+     */
+    int first(long key) {
+        return probe(key, slot(key));
+    }
+
+    /**
+     * @return the next slot of this key after the given one, or -1 if there are no more values
+     */
+    int next(long key, int slot) {
+        return probe(key, (slot + 1) & mask);
+    }
+
+    long value(int slot) {
+        return entry(slot) - 1;
+    }
+
+    void put(long key, long value) throws IOException {
+        if ((size + 1) * 3L > (mask + 1) * 2L) {
+            grow();
+        }
+        int slot = slot(key);
+        while (entry(slot) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        set(slot, key, value + 1);
+        resized(size + 1);
+    }
+
+    boolean contains(long key, long value) {
+        return find(key, value) >= 0;
+    }
+
+    boolean remove(long key, long value) {
+        int slot = find(key, value);
+        if (slot < 0)
+            return false;
+        delete(slot);
+        return true;
+    }
+
+    /**
+     * Write the changes to the file.
+     */
+    void force() {
+        slots.force();
+    }
+
+    void delete() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private int find(long key, long value) {
+        for (int slot = first(key); slot >= 0; slot = next(key, slot)) {
+            if (entry(slot) == value + 1)
+                return slot;
+        }
+        return -1;
+    }
+
+    private int probe(long key, int slot) {
+        while (entry(slot) != 0) {
+            if (key(slot) == key)
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    // shift back the following entries of the cluster, so the probes never stop at a hole
+    private void delete(int hole) {
+        int slot = hole;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (entry(slot) == 0)
+                break;
+            int home = slot(key(slot));
+            if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                set(hole, key(slot), entry(slot));
+                hole = slot;
+            }
+        }
+        set(hole, 0, 0);
+        resized(size - 1);
+    }
+
+    private int slot(long key) {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    private long key(int slot) {
+        return slots.getLong(HEADER_SIZE + slot * SLOT_SIZE);
+    }
+
+    private long entry(int slot) {
+        return slots.getLong(HEADER_SIZE + slot * SLOT_SIZE + 8);
+    }
+
+    private void set(int slot, long key, long entry) {
+        slots.putLong(HEADER_SIZE + slot * SLOT_SIZE, key);
+        slots.putLong(HEADER_SIZE + slot * SLOT_SIZE + 8, entry);
+    }
+
+    private void resized(int size) {
+        this.size = size;
+        slots.putInt(8, size);
+    }
+
+    // rehash into a file twice as large, swapped in once complete
+    private void grow() throws IOException {
+        int capacity = (mask + 1) * 2;
+        if (capacity > MAX_CAPACITY)
+            throw new IOException(file + " is full");
+
+        File tmp = new File(file.getPath() + ".tmp");
+        LongHashIndex grown = new LongHashIndex(tmp, allocate(tmp, capacity));
+        for (int slot = 0; slot <= mask; slot++) {
+            if (entry(slot) != 0) {
+                grown.put(key(slot), value(slot));
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        slots = grown.slots;
+        mask = grown.mask;
+    }
+
+    private static MappedByteBuffer allocate(File file, int capacity) throws IOException {
+        Files.deleteIfExists(file.toPath());
+        MappedByteBuffer slots = map(file, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        slots.putInt(0, MAGIC);
+        slots.putInt(4, capacity);
+        slots.putInt(8, 0);
+        return slots;
+    }
+
+    // the file is extended with zeros to the given length, the mapping stays valid once the file is closed
+    private static MappedByteBuffer map(File file, long length) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(length);
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+
+    // /////// Hashes
+
+    static long hash(String value) {
+        long h = FNV_OFFSET;
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    static long hash(byte[] value) {
+        long h = FNV_OFFSET;
+        for (byte b : value) {
+            h = (h ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return mix(h);
+    }
+
+    // spreads the bits of the FNV-1a hash, the index uses its low bits
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
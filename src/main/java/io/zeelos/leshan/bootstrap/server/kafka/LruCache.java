@@ -0,0 +1,162 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.util.AbstractMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.leshan.util.Validate;
+
+/**
+ * A map with a bounded number of entries, evicting the least recently used ones.
+ * <p>
+ * The map is split in lock stripes, each one an LRU map, so concurrent lookups of different keys rarely contend. Each
+ * stripe has a version changed by its mutations, which lets a value loaded without holding any lock be cached only if
+ * its key was not changed in the meantime.
+ */
+class LruCache<K, V> extends AbstractMap<K, V> {
+
+    private static final int STRIPES = 16;
+
+    private static final class Stripe<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+        private long version;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private final Stripe<K, V>[] stripes;
+
+    /**
+     * @param capacity the maximum number of entries
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    LruCache(int capacity) {
+        Validate.isTrue(capacity > 0, "capacity must be positive");
+        stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe<>(Math.max(1, capacity / STRIPES));
+        }
+    }
+
+    @Override
+    public V get(Object key) {
+        Stripe<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.get(key);
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public V put(K key, V value) {
+        Stripe<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.version++;
+            return stripe.put(key, value);
+        }
+    }
+
+    @Override
+    public V remove(Object key) {
+        Stripe<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.version++;
+            return stripe.remove(key);
+        }
+    }
+
+    /**
+     * @return the version of the entries sharing the stripe of this key, to give to
+     *         {@link #putIfUnchanged(Object, Object, long)}
+     */
+    long version(K key) {
+        Stripe<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            return stripe.version;
+        }
+    }
+
+    /**
+     * Add an entry unless the stripe of its key was changed since the given version.
+     */
+    void putIfUnchanged(K key, V value, long version) {
+        Stripe<K, V> stripe = stripe(key);
+        synchronized (stripe) {
+            if (stripe.version == version) {
+                stripe.put(key, value);
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                stripe.version++;
+                stripe.clear();
+            }
+        }
+    }
+
+    /**
+     * @return a copy of the entries
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Set<Map.Entry<K, V>> entries = new HashSet<>();
+        for (Stripe<K, V> stripe : stripes) {
+            synchronized (stripe) {
+                for (Map.Entry<K, V> e : stripe.entrySet()) {
+                    entries.add(new SimpleImmutableEntry<>(e));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private Stripe<K, V> stripe(Object key) {
+        int h = key.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+}
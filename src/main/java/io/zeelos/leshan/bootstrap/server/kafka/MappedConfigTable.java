@@ -0,0 +1,322 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.BiConsumer;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.eclipse.leshan.server.security.SecurityInfo;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.BootstrapPersistence;
+
+/**
+ * Keeps the configurations serialized in memory-mapped files, which the operating system pages in and out, so they
+ * cost no heap and a restart maps them instead of parsing them.
+ * <p>
+ * A lookup decodes the configuration from the mapped record, a security lookup only decodes its security entries.
+ * The table persists the configurations itself, see {@link #persistence(BootstrapPersistence)}. Pages are ordered by
+ * endpoint name, with a sorted set of the names kept in memory: the only heap the table spends per endpoint.
+ */
+public class MappedConfigTable implements ConfigTable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedConfigTable.class);
+
+    public static final int DEFAULT_CACHE_CAPACITY = 10000;
+
+    // the names of the patterns, reported on load so the store can match the endpoints against them
+    private static final String PATTERNS_FILE = "patterns";
+
+    final ConfigArena arena;
+    private final File directory;
+    private final boolean persistent;
+    private final int cacheCapacity;
+    private final NavigableSet<String> patterns = new ConcurrentSkipListSet<>();
+
+    // endpoint names in order, for paging
+    private final NavigableSet<String> endpoints = new ConcurrentSkipListSet<>();
+
+    /**
+     * @param directory the directory of the mapped files, the configurations of the previous run are reopened
+     */
+    public MappedConfigTable(String directory) throws IOException {
+        this(new File(directory), true, DEFAULT_CACHE_CAPACITY);
+    }
+
+    /**
+     * @param persistent <code>false</code> to start empty and delete the files on close
+     * @param cacheCapacity the capacity of the caches of derived data
+     */
+    MappedConfigTable(File directory, boolean persistent, int cacheCapacity) throws IOException {
+        Validate.notNull(directory);
+        Validate.isTrue(cacheCapacity > 0, "cache capacity must be positive");
+        this.arena = new ConfigArena(directory, persistent);
+        this.directory = directory;
+        this.persistent = persistent;
+        this.cacheCapacity = cacheCapacity;
+        arena.forEachEndpoint(endpoints::add);
+
+        File patternsFile = new File(directory, PATTERNS_FILE);
+        if (persistent && !arena.isCreated() && patternsFile.exists()) {
+            patterns.addAll(Files.readAllLines(patternsFile.toPath(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    public BootstrapConfig get(String endpoint) {
+        try {
+            return arena.get(endpoint);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Map<Integer, ServerSecurity> getSecurity(String endpoint) {
+        try {
+            return arena.getSecurities(endpoint);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public SecurityInfo getByIdentity(final byte[] identity) {
+        try {
+            return arena.findByIdentity(identity, (endpoint, securities) -> {
+                ServerSecurity pskSecurity = BootstrapStoreImpl.getPskSecurity(securities);
+                // the hash may collide
+                if (pskSecurity == null || !Arrays.equals(pskSecurity.publicKeyOrId, identity))
+                    return null;
+                return SecurityInfo.newPreSharedKeyInfo(endpoint, new String(identity, StandardCharsets.UTF_8),
+                        pskSecurity.secretKey);
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean put(String endpoint, BootstrapConfig config) {
+        ServerSecurity pskSecurity = BootstrapStoreImpl.getPskSecurity(config);
+        byte[] identity = null;
+        if (pskSecurity != null) {
+            SecurityInfo existing = getByIdentity(pskSecurity.publicKeyOrId);
+            if (existing != null && !existing.getEndpoint().equals(endpoint)) {
+                LOG.warn("Rejecting config of {}: its PSK identity is already used by {}", endpoint,
+                        existing.getEndpoint());
+                return false;
+            }
+            identity = pskSecurity.publicKeyOrId;
+        }
+        try {
+            // a listed pattern without a configuration is ignored on load
+            if (BootstrapStoreImpl.isPattern(endpoint) && patterns.add(endpoint)) {
+                writePatterns();
+            }
+            arena.put(endpoint, config, identity);
+            endpoints.add(endpoint);
+            return true;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void remove(String endpoint) {
+        try {
+            arena.remove(endpoint);
+            endpoints.remove(endpoint);
+            if (patterns.remove(endpoint)) {
+                writePatterns();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public Map<String, BootstrapConfig> page(String after, int limit) {
+        Map<String, BootstrapConfig> page = new LinkedHashMap<>();
+        Iterator<String> it = (after == null ? endpoints : endpoints.tailSet(after, false)).iterator();
+        try {
+            while (page.size() < limit && it.hasNext()) {
+                String endpoint = it.next();
+                BootstrapConfig config = arena.get(endpoint);
+                // may have been removed since
+                if (config != null) {
+                    page.put(endpoint, config);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return page;
+    }
+
+    /**
+     * @return a view decoding the configurations from the mapped files on each access, without caching them
+     */
+    @Override
+    public Map<String, BootstrapConfig> asMap() {
+        return new AbstractMap<String, BootstrapConfig>() {
+            @Override
+            public BootstrapConfig get(Object key) {
+                try {
+                    return key instanceof String ? arena.get((String) key) : null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                try {
+                    return key instanceof String && arena.getSecurities((String) key) != null;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public int size() {
+                return arena.size();
+            }
+
+            @Override
+            public Set<Map.Entry<String, BootstrapConfig>> entrySet() {
+                return new AbstractSet<Map.Entry<String, BootstrapConfig>>() {
+                    @Override
+                    public Iterator<Map.Entry<String, BootstrapConfig>> iterator() {
+                        return arena.iterator();
+                    }
+
+                    @Override
+                    public int size() {
+                        return arena.size();
+                    }
+                };
+            }
+        };
+    }
+
+    @Override
+    public <V> Map<String, V> createCache() {
+        return new LruCache<>(cacheCapacity);
+    }
+
+    /**
+     * Get the persistence of a store using this table, the table already persists the configurations on its own.
+     * <p>
+     * The first time, the configurations are imported from the given persistence. Afterwards, loading only reports the
+     * patterns to the store. Changes are durable once flushed.
+     *
+     * @param initial the persistence to import the configurations from when the table is created, or <code>null</code>
+     */
+    public BootstrapPersistence persistence(final BootstrapPersistence initial) {
+        Validate.isTrue(persistent, "a transient table has no persistence");
+        return new BootstrapPersistence() {
+            @Override
+            public Map<String, BootstrapConfig> load() {
+                return asMap();
+            }
+
+            @Override
+            public void load(BiConsumer<String, BootstrapConfig> consumer) throws IOException {
+                if (!arena.isCreated()) {
+                    for (String pattern : patterns) {
+                        BootstrapConfig config = arena.get(pattern);
+                        if (config != null) {
+                            consumer.accept(pattern, config);
+                        }
+                    }
+                    LOG.info("Mapped {} bootstrap configs from {}", arena.size(), directory);
+                    return;
+                }
+
+                if (initial != null) {
+                    try {
+                        initial.load(consumer);
+                    } finally {
+                        initial.close();
+                    }
+                }
+                arena.commit();
+                LOG.info("Imported {} bootstrap configs into {}", arena.size(), directory);
+            }
+
+            @Override
+            public void added(String endpoint, BootstrapConfig config) {
+            }
+
+            @Override
+            public void deleted(String endpoint) {
+            }
+
+            @Override
+            public void flush(Map<String, BootstrapConfig> configs) {
+                arena.force();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        arena.close();
+    }
+
+    private void writePatterns() throws IOException {
+        if (!persistent)
+            return;
+
+        File file = new File(directory, PATTERNS_FILE);
+        File tmp = new File(directory, PATTERNS_FILE + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            for (String pattern : patterns) {
+                writer.write(pattern);
+                writer.write('\n');
+            }
+            writer.flush();
+            out.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.eclipse.leshan.util.Validate;
+
+/**
+ * An immutable map stored as a hash array mapped trie.
+ * <p>
+ * {@link #plus(Object, Object)} and {@link #minus(Object)} return a new map which shares all the nodes of this one
+ * except the few on the path of the changed entry, so keeping the previous versions of a large map is cheap. Each
+ * node has up to 32 slots indexed by 5 bits of the key hash, the keys with the same hash are kept in a collision
+ * list. Null keys and values are not supported.
+ */
+final class PersistentHashMap<K, V> extends AbstractMap<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    private static final class Leaf<K, V> extends AbstractMap.SimpleImmutableEntry<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        final int hash;
+
+        Leaf(int hash, K key, V value) {
+            super(key, value);
+            this.hash = hash;
+        }
+
+        boolean matches(int hash, Object key) {
+            return this.hash == hash && getKey().equals(key);
+        }
+    }
+
+    // the slots are leaves, collisions or sub-nodes, the bitmap tells which of the 32 hash chunks are used
+    private static final class Node {
+        final int bitmap;
+        final Object[] slots;
+
+        Node(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        Node insert(int bit, int index, Object slot) {
+            Object[] copy = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, copy, 0, index);
+            copy[index] = slot;
+            System.arraycopy(slots, index, copy, index + 1, slots.length - index);
+            return new Node(bitmap | bit, copy);
+        }
+
+        Node replace(int index, Object slot) {
+            Object[] copy = slots.clone();
+            copy[index] = slot;
+            return new Node(bitmap, copy);
+        }
+
+        Node delete(int bit, int index) {
+            Object[] copy = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, copy, 0, index);
+            System.arraycopy(slots, index + 1, copy, index, copy.length - index);
+            return new Node(bitmap & ~bit, copy);
+        }
+    }
+
+    // the leaves of the different keys with the same hash
+    private static final class Collision {
+        final int hash;
+        final Leaf<?, ?>[] leaves;
+
+        Collision(int hash, Leaf<?, ?>[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        Leaf<?, ?> find(Object key) {
+            for (Leaf<?, ?> leaf : leaves) {
+                if (leaf.getKey().equals(key))
+                    return leaf;
+            }
+            return null;
+        }
+
+        Collision put(Leaf<?, ?> leaf) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].getKey().equals(leaf.getKey())) {
+                    Leaf<?, ?>[] copy = leaves.clone();
+                    copy[i] = leaf;
+                    return new Collision(hash, copy);
+                }
+            }
+            Leaf<?, ?>[] copy = new Leaf<?, ?>[leaves.length + 1];
+            System.arraycopy(leaves, 0, copy, 0, leaves.length);
+            copy[leaves.length] = leaf;
+            return new Collision(hash, copy);
+        }
+
+        Object remove(Object key) {
+            for (int i = 0; i < leaves.length; i++) {
+                if (leaves[i].getKey().equals(key)) {
+                    if (leaves.length == 2)
+                        return leaves[1 - i];
+                    Leaf<?, ?>[] copy = new Leaf<?, ?>[leaves.length - 1];
+                    System.arraycopy(leaves, 0, copy, 0, i);
+                    System.arraycopy(leaves, i + 1, copy, i, copy.length - i);
+                    return new Collision(hash, copy);
+                }
+            }
+            return this;
+        }
+    }
+
+    private static final PersistentHashMap<?, ?> EMPTY = new PersistentHashMap<>(new Node(0, new Object[0]), 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentHashMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return (PersistentHashMap<K, V>) EMPTY;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return find(key) != null;
+    }
+
+    @Override
+    public V get(Object key) {
+        Leaf<K, V> leaf = find(key);
+        return leaf == null ? null : leaf.getValue();
+    }
+
+    /**
+     * @return a map with this key mapped to this value
+     */
+    PersistentHashMap<K, V> plus(K key, V value) {
+        Validate.notNull(key);
+        Validate.notNull(value);
+        int newSize = containsKey(key) ? size : size + 1;
+        return new PersistentHashMap<>((Node) put(root, new Leaf<>(key.hashCode(), key, value), 0), newSize);
+    }
+
+    /**
+     * @return a map without this key, or this map if it does not contain it
+     */
+    PersistentHashMap<K, V> minus(Object key) {
+        if (!containsKey(key))
+            return this;
+        if (size == 1)
+            return empty();
+        return new PersistentHashMap<>((Node) remove(root, key.hashCode(), key, 0), size - 1);
+    }
+
+    @Override
+    public Set<Entry<K, V>> entrySet() {
+        return new AbstractSet<Entry<K, V>>() {
+            @Override
+            public Iterator<Entry<K, V>> iterator() {
+                return new EntryIterator<>(root);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                if (!(o instanceof Entry))
+                    return false;
+                Entry<?, ?> e = (Entry<?, ?>) o;
+                Leaf<K, V> leaf = find(e.getKey());
+                return leaf != null && leaf.getValue().equals(e.getValue());
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Leaf<K, V> find(Object key) {
+        if (key == null)
+            return null;
+        int hash = key.hashCode();
+        Object slot = root;
+        for (int shift = 0;; shift += BITS) {
+            if (slot instanceof Node) {
+                Node node = (Node) slot;
+                int bit = bit(hash, shift);
+                if ((node.bitmap & bit) == 0)
+                    return null;
+                slot = node.slots[node.index(bit)];
+            } else if (slot instanceof Leaf) {
+                Leaf<K, V> leaf = (Leaf<K, V>) slot;
+                return leaf.matches(hash, key) ? leaf : null;
+            } else {
+                Collision collision = (Collision) slot;
+                return collision.hash == hash ? (Leaf<K, V>) collision.find(key) : null;
+            }
+        }
+    }
+
+    private static int bit(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    // the slot with the leaf added or replaced, the slot is at this depth of the trie
+    private static Object put(Object slot, Leaf<?, ?> leaf, int shift) {
+        if (slot instanceof Node) {
+            Node node = (Node) slot;
+            int bit = bit(leaf.hash, shift);
+            int index = node.index(bit);
+            if ((node.bitmap & bit) == 0)
+                return node.insert(bit, index, leaf);
+            return node.replace(index, put(node.slots[index], leaf, shift + BITS));
+        }
+        if (slot instanceof Leaf) {
+            Leaf<?, ?> existing = (Leaf<?, ?>) slot;
+            if (existing.matches(leaf.hash, leaf.getKey()))
+                return leaf;
+            return merge(existing, existing.hash, leaf, shift);
+        }
+        Collision collision = (Collision) slot;
+        if (collision.hash == leaf.hash)
+            return collision.put(leaf);
+        return merge(collision, collision.hash, leaf, shift);
+    }
+
+    // a slot holding an existing slot and the leaf of another key, split until their hash chunks differ
+    private static Object merge(Object slot, int hash, Leaf<?, ?> leaf, int shift) {
+        if (hash == leaf.hash)
+            return new Collision(hash, new Leaf<?, ?>[] { (Leaf<?, ?>) slot, leaf });
+
+        int bit = bit(hash, shift);
+        int leafBit = bit(leaf.hash, shift);
+        if (bit == leafBit)
+            return new Node(bit, new Object[] { merge(slot, hash, leaf, shift + BITS) });
+        Object[] slots = Integer.compareUnsigned(bit, leafBit) < 0 ? new Object[] { slot, leaf }
+                : new Object[] { leaf, slot };
+        return new Node(bit | leafBit, slots);
+    }
+
+    // the slot without the key (which it contains), or null if it is left empty
+    private static Object remove(Object slot, int hash, Object key, int shift) {
+        if (slot instanceof Leaf)
+            return null;
+        if (slot instanceof Collision)
+            return ((Collision) slot).remove(key);
+
+        Node node = (Node) slot;
+        int bit = bit(hash, shift);
+        int index = node.index(bit);
+        Object child = remove(node.slots[index], hash, key, shift + BITS);
+        if (child == null) {
+            if (node.slots.length == 1)
+                return null;
+            node = node.delete(bit, index);
+        } else {
+            node = node.replace(index, child);
+        }
+        // a lone leaf or collision moves up, so the trie is only as deep as its keys require
+        if (shift > 0 && node.slots.length == 1 && !(node.slots[0] instanceof Node))
+            return node.slots[0];
+        return node;
+    }
+
+    private static final class EntryIterator<K, V> implements Iterator<Entry<K, V>> {
+        // the slots and the next index of each node on the path to the next leaf, at most 7 levels and a collision
+        private final Object[][] path = new Object[8][];
+        private final int[] indexes = new int[8];
+        private int depth;
+        private Leaf<K, V> next;
+
+        EntryIterator(Node root) {
+            path[0] = root.slots;
+            advance();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void advance() {
+            next = null;
+            while (depth >= 0) {
+                Object[] slots = path[depth];
+                if (indexes[depth] == slots.length) {
+                    depth--;
+                    continue;
+                }
+                Object slot = slots[indexes[depth]++];
+                if (slot instanceof Leaf) {
+                    next = (Leaf<K, V>) slot;
+                    return;
+                }
+                depth++;
+                path[depth] = slot instanceof Node ? ((Node) slot).slots : ((Collision) slot).leaves;
+                indexes[depth] = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Entry<K, V> next() {
+            if (next == null)
+                throw new NoSuchElementException();
+            Leaf<K, V> leaf = next;
+            advance();
+            return leaf;
+        }
+    }
+}
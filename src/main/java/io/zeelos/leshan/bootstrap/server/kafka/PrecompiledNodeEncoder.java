@@ -0,0 +1,219 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mObjectInstance;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.node.codec.CodecException;
+import org.eclipse.leshan.core.node.codec.LwM2mNodeEncoder;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ACLConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.eclipse.leshan.server.bootstrap.BootstrapUtil;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+
+/**
+ * An encoder serving the payloads of the bootstrap writes from a cache filled when the configurations are
+ * provisioned.
+ * <p>
+ * For each session, Leshan converts the configuration into Security, Server and ACL object instances and encodes them
+ * again. Registered as a {@link BootstrapStoreImpl.ChangeListener}, this encoder builds the same instances and
+ * encodes them in the background as soon as a configuration is added, so the sessions only look their payloads up.
+ * The payloads are keyed by content: the endpoints sharing a template or the same servers share a single payload, and
+ * the payloads of a changed configuration are simply no longer used, until they are evicted.
+ * <p>
+ * The store notifies its listeners with its mutations blocked, so a changed configuration is only queued. When too
+ * many are queued, the first session missing a payload encodes it.
+ * <p>
+ * The payloads are returned as is to the request sender, which must not modify them.
+ */
+public class PrecompiledNodeEncoder implements LwM2mNodeEncoder, BootstrapStoreImpl.ChangeListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PrecompiledNodeEncoder.class);
+
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    // the changed configurations waiting to be precompiled, the others are encoded on the first miss
+    private static final int MAX_QUEUED = 10000;
+
+    // the object ids written by a bootstrap session
+    private static final int SECURITY = 0;
+    private static final int SERVER = 1;
+    private static final int ACL = 2;
+
+    // an object instance to encode, compared by content
+    private static final class Key {
+        final int format;
+        final LwM2mPath path;
+        final LwM2mNode node;
+        final int hash;
+
+        Key(ContentFormat format, LwM2mPath path, LwM2mNode node) {
+            this.format = format.getCode();
+            this.path = path;
+            this.node = node;
+            this.hash = 31 * (31 * this.format + path.hashCode()) + node.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return hash == other.hash && format == other.format && path.equals(other.path)
+                    && node.equals(other.node);
+        }
+    }
+
+    private final LwM2mNodeEncoder encoder;
+    private final LwM2mModel model;
+    private final int capacity;
+    private final LruCache<Key, byte[]> payloads;
+    private final ThreadPoolExecutor precompiler;
+
+    /**
+     * @param encoder the encoder of the payloads
+     * @param model the model of the bootstrap server, used to precompile the payloads
+     * @param capacity the maximum number of cached payloads
+     */
+    public PrecompiledNodeEncoder(LwM2mNodeEncoder encoder, LwM2mModel model, int capacity) {
+        Validate.notNull(encoder);
+        Validate.notNull(model);
+        Validate.isTrue(capacity > 0, "capacity must be positive");
+        this.encoder = encoder;
+        this.model = model;
+        this.capacity = capacity;
+        this.payloads = new LruCache<>(capacity);
+        this.precompiler = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "Bootstrap Payload Precompiler");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Encode the payloads written by the bootstrap sessions of this configuration.
+     */
+    public void precompile(BootstrapConfig config) {
+        try {
+            if (config.security != null) {
+                for (Map.Entry<Integer, ServerSecurity> e : config.security.entrySet()) {
+                    precompile(new LwM2mPath(SECURITY, e.getKey()),
+                            BootstrapUtil.convertToSecurityInstance(e.getKey(), e.getValue()));
+                }
+            }
+            if (config.servers != null) {
+                for (Map.Entry<Integer, ServerConfig> e : config.servers.entrySet()) {
+                    precompile(new LwM2mPath(SERVER, e.getKey()),
+                            BootstrapUtil.convertToServerInstance(e.getKey(), e.getValue()));
+                }
+            }
+            if (config.acls != null) {
+                for (Map.Entry<Integer, ACLConfig> e : config.acls.entrySet()) {
+                    precompile(new LwM2mPath(ACL, e.getKey()),
+                            BootstrapUtil.convertToAclInstance(e.getKey(), e.getValue()));
+                }
+            }
+        } catch (CodecException e) {
+            // the session will fail the same way
+            LOG.warn("Unable to encode bootstrap config", e);
+        }
+    }
+
+    /**
+     * Precompile configurations, until the cache is full.
+     */
+    public void precompileAll(Iterable<BootstrapConfig> configs) {
+        for (BootstrapConfig config : configs) {
+            if (payloads.size() >= capacity)
+                break;
+            precompile(config);
+        }
+        LOG.info("Precompiled {} bootstrap write payloads", payloads.size());
+    }
+
+    @Override
+    public void changed(long revision, String endpoint, final BootstrapConfig config) {
+        if (config != null) {
+            precompiler.execute(new Runnable() {
+                @Override
+                public void run() {
+                    precompile(config);
+                }
+            });
+        }
+    }
+
+    @Override
+    public byte[] encode(LwM2mNode node, ContentFormat format, LwM2mPath path, LwM2mModel model)
+            throws CodecException {
+        if (!(node instanceof LwM2mObjectInstance))
+            return encoder.encode(node, format, path, model);
+
+        Key key = new Key(format, path, node);
+        byte[] payload = payloads.get(key);
+        if (payload != null) {
+            BootstrapMetrics.ENCODER_HITS.inc();
+            return payload;
+        }
+        BootstrapMetrics.ENCODER_MISSES.inc();
+        payload = encoder.encode(node, format, path, model);
+        payloads.put(key, payload);
+        return payload;
+    }
+
+    @Override
+    public byte[] encodeTimestampedData(List<TimestampedLwM2mNode> timestampedNodes, ContentFormat format,
+            LwM2mPath path, LwM2mModel model) throws CodecException {
+        return encoder.encodeTimestampedData(timestampedNodes, format, path, model);
+    }
+
+    @Override
+    public boolean isSupported(ContentFormat format) {
+        return encoder.isSupported(format);
+    }
+
+    private void precompile(LwM2mPath path, LwM2mObjectInstance instance) {
+        Key key = new Key(ContentFormat.TLV, path, instance);
+        if (!payloads.containsKey(key)) {
+            payloads.put(key, encoder.encode(instance, ContentFormat.TLV, path, model));
+        }
+    }
+}
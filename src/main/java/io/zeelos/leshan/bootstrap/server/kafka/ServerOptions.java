@@ -0,0 +1,74 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import org.eclipse.leshan.LwM2m;
+
+import io.zeelos.leshan.bootstrap.server.kafka.admission.AdmissionController;
+import io.zeelos.leshan.bootstrap.server.kafka.dtls.LruSessionCache;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.BootstrapPersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.Durability;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.PersistenceWriter;
+import io.zeelos.leshan.bootstrap.server.kafka.session.BootstrapSessionPublisher;
+
+/**
+ * The options of {@link LeshanBootstrapServerKafka#createAndStartServer(ServerOptions)}. Only the persistence of the
+ * configurations and of the templates are mandatory.
+ */
+public class ServerOptions {
+
+    public static final int DEFAULT_WEB_PORT = 8080;
+    public static final int DEFAULT_WEB_THREADS = 32;
+    public static final int DEFAULT_MUTATION_QUEUE = 1000;
+
+    /** The HTTP address, <code>null</code> for any local address. */
+    public String webAddress;
+    public int webPort = DEFAULT_WEB_PORT;
+    /** The number of threads of the web server. */
+    public int webThreads = DEFAULT_WEB_THREADS;
+
+    /** The CoAP address. */
+    public String localAddress = "0.0.0.0";
+    public int localPort = LwM2m.DEFAULT_COAP_PORT;
+    /** The CoAP over DTLS address. */
+    public String secureLocalAddress = "0.0.0.0";
+    public int secureLocalPort = LwM2m.DEFAULT_COAP_SECURE_PORT;
+
+    /** A folder of additional object models in OMA DDF(.xml) format, or <code>null</code>. */
+    public String modelsFolderPath;
+
+    /** Persists the configurations. */
+    public BootstrapPersistence persistence;
+    /** When the configuration changes are persisted and acknowledged. */
+    public Durability durability = Durability.SYNC;
+    /** The interval in milliseconds between two group commits. */
+    public long commitInterval = PersistenceWriter.DEFAULT_COMMIT_INTERVAL;
+    /** Holds the configurations, in the heap by default. */
+    public ConfigTable configTable = new HeapConfigTable();
+    /** Persists the configuration templates. */
+    public BootstrapPersistence templatePersistence;
+
+    /** The number of threads applying the configuration changes of the REST API. */
+    public int mutationThreads = Runtime.getRuntime().availableProcessors();
+    /** How many configuration changes of the REST API can wait for a mutation thread. */
+    public int mutationQueue = DEFAULT_MUTATION_QUEUE;
+
+    /** Publishes the outcome of each bootstrap session, or <code>null</code>. */
+    public BootstrapSessionPublisher sessionPublisher;
+    /** Keeps the DTLS sessions so clients can resume them, or <code>null</code>. */
+    public LruSessionCache sessionCache;
+    /** Limits the new bootstrap sessions, or <code>null</code>. */
+    public AdmissionController admission;
+}
@@ -0,0 +1,173 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.zeelos.leshan.bootstrap.server.kafka.ConfigurationChecker.ConfigurationException;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.BootstrapPersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.Durability;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.PersistenceWriter;
+
+/**
+ * Named bootstrap configurations shared by many endpoints.
+ * <p>
+ * An endpoint is provisioned with a template and its own overrides: the server, security and ACL instances of the
+ * overrides replace the ones of the template with the same instance id, the others are shared with the template. The
+ * merged configuration is what the endpoint is stored and bootstrapped with, so changing a template only affects the
+ * endpoints provisioned afterwards.
+ */
+public class TemplateStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TemplateStore.class);
+
+    // default location for persistence
+    public static final String DEFAULT_FILE = "data/templates.json";
+
+    private final Map<String, BootstrapConfig> templatesByName = new ConcurrentHashMap<>();
+
+    private final PersistenceWriter writer;
+    private final ConfigInterner interner;
+
+    private final Object writeLock = new Object();
+
+    /**
+     * @param persistence the backend used to persist the templates
+     * @param interner shares the parts of the templates with the endpoint configurations
+     */
+    public TemplateStore(BootstrapPersistence persistence, ConfigInterner interner) {
+        Validate.notNull(persistence);
+        Validate.notNull(interner);
+        this.interner = interner;
+        try {
+            applyChanges(persistence.load());
+        } catch (IOException | RuntimeException e) {
+            if (!persistence.isLoadFailureTolerated())
+                throw new IllegalStateException("Could not load the templates", e);
+            LOG.error("Could not load templates from file", e);
+        }
+        this.writer = new PersistenceWriter(persistence, Durability.SYNC, PersistenceWriter.DEFAULT_COMMIT_INTERVAL,
+                this::getTemplates);
+        persistence.start(this::applyChanges);
+    }
+
+    public Map<String, BootstrapConfig> getTemplates() {
+        return Collections.unmodifiableMap(templatesByName);
+    }
+
+    public BootstrapConfig getTemplate(String name) {
+        return templatesByName.get(name);
+    }
+
+    /**
+     * Add or replace a template.
+     *
+     * @return a future completed once the template is persisted
+     */
+    public CompletableFuture<Void> addTemplate(String name, BootstrapConfig template) {
+        Validate.notEmpty(name);
+        Validate.notNull(template);
+        synchronized (writeLock) {
+            BootstrapConfig interned = interner.intern(template);
+            templatesByName.put(name, interned);
+            return writer.added(name, interned);
+        }
+    }
+
+    /**
+     * Remove a template, the endpoints provisioned with it are not affected.
+     *
+     * @return a future completed with <code>false</code> if there was no such template, or with <code>true</code>
+     *         once the removal is persisted
+     */
+    public CompletableFuture<Boolean> deleteTemplate(String name) {
+        synchronized (writeLock) {
+            if (templatesByName.remove(name) == null)
+                return CompletableFuture.completedFuture(false);
+            return writer.deleted(name).thenApply(v -> true);
+        }
+    }
+
+    /**
+     * Build the configuration of an endpoint from a template and the endpoint's own instances.
+     *
+     * @param name the name of the template
+     * @param overrides the instances specific to the endpoint
+     * @return the merged configuration, sharing the instances which are not overridden with the template
+     * @throws ConfigurationException if there is no such template
+     */
+    public BootstrapConfig merge(String name, BootstrapConfig overrides) throws ConfigurationException {
+        BootstrapConfig template = templatesByName.get(name);
+        if (template == null)
+            throw new ConfigurationException("unknown template " + name);
+
+        BootstrapConfig config = new BootstrapConfig();
+        config.toDelete = overrides.toDelete == null || overrides.toDelete.isEmpty() ? template.toDelete
+                : overrides.toDelete;
+        config.servers = merge(template.servers, overrides.servers);
+        config.acls = merge(template.acls, overrides.acls);
+        // security instances are the per endpoint part, always in a map of its own
+        config.security = new HashMap<>();
+        if (template.security != null) {
+            config.security.putAll(template.security);
+        }
+        if (overrides.security != null) {
+            config.security.putAll(overrides.security);
+        }
+        return config;
+    }
+
+    /**
+     * Release the persistence backend.
+     */
+    public void destroy() {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            LOG.error("Could not save templates to file", e);
+        }
+    }
+
+    private static <T> Map<Integer, T> merge(Map<Integer, T> template, Map<Integer, T> overrides) {
+        if (overrides == null || overrides.isEmpty())
+            return template;
+        Map<Integer, T> merged = template == null ? new HashMap<Integer, T>() : new HashMap<>(template);
+        merged.putAll(overrides);
+        return merged;
+    }
+
+    // apply the changes made outside of this store
+    private void applyChanges(Map<String, BootstrapConfig> changes) {
+        synchronized (writeLock) {
+            for (Map.Entry<String, BootstrapConfig> e : changes.entrySet()) {
+                if (e.getValue() == null) {
+                    templatesByName.remove(e.getKey());
+                } else {
+                    templatesByName.put(e.getKey(), interner.intern(e.getValue()));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+
+/**
+ * Keeps the most recently used configurations in memory over a disk tier holding all of them, so the heap grows with
+ * the endpoints bootstrapping at the same time rather than with the fleet.
+ * <p>
+ * A lookup missing the memory tier loads the configuration from the disk tier and keeps it. The disk tier is a
+ * {@link MappedConfigTable} recreated on each start, its indexes cost no heap. Pages are read from the disk tier and
+ * do not evict the configurations in use.
+ */
+public class TieredConfigTable extends MappedConfigTable {
+
+    public static final int DEFAULT_HOT_CAPACITY = 100000;
+
+    private final LruCache<String, BootstrapConfig> hot;
+
+    /**
+     * @param directory the directory of the disk tier files
+     * @param hotCapacity the maximum number of configurations kept in memory
+     */
+    public TieredConfigTable(String directory, int hotCapacity) throws IOException {
+        super(new File(directory), false, hotCapacity);
+        this.hot = new LruCache<>(hotCapacity);
+    }
+
+    @Override
+    public BootstrapConfig get(String endpoint) {
+        BootstrapConfig config = hot.get(endpoint);
+        if (config != null) {
+            BootstrapMetrics.STORE_HOT_HITS.inc();
+            return config;
+        }
+
+        // a change made during the load must not be overwritten by the loaded configuration
+        long version = hot.version(endpoint);
+        long start = System.nanoTime();
+        config = super.get(endpoint);
+        BootstrapMetrics.STORE_COLD_LOAD.recordSince(start);
+        if (config != null) {
+            BootstrapMetrics.STORE_HOT_MISSES.inc();
+            hot.putIfUnchanged(endpoint, config, version);
+        }
+        return config;
+    }
+
+    /**
+     * Get the security entries from the memory tier, as the whole configuration is needed by the bootstrap session
+     * following the handshake.
+     */
+    @Override
+    public Map<Integer, ServerSecurity> getSecurity(String endpoint) {
+        BootstrapConfig config = get(endpoint);
+        if (config == null)
+            return null;
+        return config.security == null ? Collections.<Integer, ServerSecurity> emptyMap() : config.security;
+    }
+
+    @Override
+    public boolean put(String endpoint, BootstrapConfig config) {
+        if (!super.put(endpoint, config))
+            return false;
+        hot.put(endpoint, config);
+        return true;
+    }
+
+    @Override
+    public void remove(String endpoint) {
+        super.remove(endpoint);
+        hot.remove(endpoint);
+    }
+
+    @Override
+    public void close() throws IOException {
+        hot.clear();
+        super.close();
+    }
+}
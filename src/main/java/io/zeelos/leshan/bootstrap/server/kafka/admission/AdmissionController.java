@@ -0,0 +1,135 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.admission;
+
+import java.net.InetAddress;
+
+import org.eclipse.leshan.util.Validate;
+
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+
+/**
+ * Decides whether a new bootstrap session may start, with token buckets per source address, per source subnet and
+ * for the whole server.
+ * <p>
+ * It is consulted before any costly work: on the DTLS ClientHello answering the HelloVerifyRequest, before the
+ * handshake, and on the unsecured bootstrap request. A refused datagram is dropped, so the client retries after its
+ * retransmission timeout, which spreads a storm of reconnecting devices over time instead of letting it exhaust the
+ * server.
+ */
+public class AdmissionController {
+
+    public static final int DEFAULT_IPV4_PREFIX = 24;
+    public static final int DEFAULT_IPV6_PREFIX = 64;
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    /**
+     * A token bucket rate: <code>rate</code> sessions per second with bursts of <code>burst</code> sessions.
+     */
+    public static class Rate {
+        final double rate;
+        final double burst;
+
+        public Rate(double rate, double burst) {
+            Validate.isTrue(rate > 0, "rate must be positive");
+            Validate.isTrue(burst >= 1, "burst must be at least 1");
+            this.rate = rate;
+            this.burst = burst;
+        }
+
+        /**
+         * Parse a rate written <code>rate[:burst]</code>, the burst is the rate by default.
+         */
+        public static Rate parse(String rate) {
+            String[] parts = rate.split(":");
+            double r = Double.parseDouble(parts[0]);
+            return new Rate(r, parts.length > 1 ? Double.parseDouble(parts[1]) : Math.max(1, r));
+        }
+    }
+
+    private final TokenBucketTable sources;
+    private final TokenBucketTable subnets;
+    private final TokenBucketTable.TokenBucket global;
+    private final int ipv4Prefix;
+    private final int ipv6Prefix;
+
+    /**
+     * @param sourceRate the rate of each source address, or <code>null</code> for no limit
+     * @param subnetRate the rate of each source subnet, or <code>null</code> for no limit
+     * @param globalRate the rate of the whole server, or <code>null</code> for no limit
+     * @param ipv4Prefix the prefix length of the IPv4 subnets
+     * @param ipv6Prefix the prefix length of the IPv6 subnets
+     * @param capacity the maximum number of sources and of subnets tracked
+     */
+    public AdmissionController(Rate sourceRate, Rate subnetRate, Rate globalRate, int ipv4Prefix, int ipv6Prefix,
+            int capacity) {
+        Validate.isTrue(ipv4Prefix >= 0 && ipv4Prefix <= 32, "IPv4 prefix must be between 0 and 32");
+        Validate.isTrue(ipv6Prefix >= 0 && ipv6Prefix <= 128, "IPv6 prefix must be between 0 and 128");
+        this.sources = sourceRate == null ? null : new TokenBucketTable(capacity, sourceRate.rate, sourceRate.burst);
+        this.subnets = subnetRate == null ? null : new TokenBucketTable(capacity, subnetRate.rate, subnetRate.burst);
+        this.global = globalRate == null ? null
+                : new TokenBucketTable.TokenBucket(globalRate.rate, globalRate.burst, System.nanoTime());
+        this.ipv4Prefix = ipv4Prefix;
+        this.ipv6Prefix = ipv6Prefix;
+    }
+
+    /**
+     * Take a token for a new session of the given source.
+     *
+     * @return whether the session may start
+     */
+    public boolean admit(InetAddress source) {
+        byte[] address = source.getAddress();
+        long now = System.nanoTime();
+        if (sources != null && !sources.tryAcquire(key(address, address.length * 8), now)) {
+            BootstrapMetrics.ADMISSION_REJECTED_SOURCE.inc();
+            return false;
+        }
+        if (subnets != null && !subnets.tryAcquire(key(address, address.length == 4 ? ipv4Prefix : ipv6Prefix), now)) {
+            BootstrapMetrics.ADMISSION_REJECTED_SUBNET.inc();
+            return false;
+        }
+        if (global != null) {
+            boolean acquired;
+            synchronized (global) {
+                acquired = global.tryAcquire(now);
+            }
+            if (!acquired) {
+                BootstrapMetrics.ADMISSION_REJECTED_GLOBAL.inc();
+                return false;
+            }
+        }
+        BootstrapMetrics.ADMISSION_ADMITTED.inc();
+        return true;
+    }
+
+    // the first prefix bits of the address folded in a long, IPv4 keys never collide
+    static long key(byte[] address, int prefix) {
+        long high = 0;
+        long low = 0;
+        for (int i = 0; i < address.length; i++) {
+            int bits = Math.max(0, Math.min(8, prefix - i * 8));
+            int b = address[i] & (0xff00 >>> bits) & 0xff;
+            if (i < 8) {
+                high = high << 8 | b;
+            } else {
+                low = low << 8 | b;
+            }
+        }
+        if (address.length == 4)
+            return 1L << 32 | high;
+        return high * 31 + low;
+    }
+}
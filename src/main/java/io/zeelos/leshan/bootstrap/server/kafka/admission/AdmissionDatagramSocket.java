@@ -0,0 +1,209 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.admission;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+
+/**
+ * A DTLS socket dropping the ClientHello records refused by the {@link AdmissionController}, before the connector
+ * spends anything on them. Records of handshakes in progress and of established sessions always go through.
+ * <p>
+ * Only the ClientHello carrying the cookie of the HelloVerifyRequest takes a token: the first ClientHello is answered
+ * statelessly by the connector, charging it too would make each handshake cost two tokens.
+ * <p>
+ * It delegates to the socket bound by the connector.
+ */
+class AdmissionDatagramSocket extends DatagramSocket {
+
+    private static final int RECORD_HEADER_LENGTH = 13;
+    private static final int HANDSHAKE_HEADER_LENGTH = 12;
+    private static final int HANDSHAKE = 22;
+    private static final int CLIENT_HELLO = 1;
+    // client_version and random
+    private static final int SESSION_ID_OFFSET = 2 + 32;
+
+    private final DatagramSocket socket;
+    private final AdmissionController admission;
+
+    AdmissionDatagramSocket(DatagramSocket socket, AdmissionController admission) throws SocketException {
+        // an unbound socket, everything is delegated
+        super((SocketAddress) null);
+        this.socket = socket;
+        this.admission = admission;
+    }
+
+    @Override
+    public void receive(DatagramPacket p) throws IOException {
+        while (true) {
+            socket.receive(p);
+            if (!isClientHelloWithCookie(p.getData(), p.getOffset(), p.getLength())
+                    || admission.admit(p.getAddress()))
+                return;
+            // dropped, the client retransmits later
+            p.setLength(p.getData().length - p.getOffset());
+        }
+    }
+
+    // the first record of the datagram is an epoch 0 ClientHello with a cookie
+    static boolean isClientHelloWithCookie(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int handshake = offset + RECORD_HEADER_LENGTH;
+        if (length <= RECORD_HEADER_LENGTH || data[offset] != HANDSHAKE || data[offset + 3] != 0
+                || data[offset + 4] != 0 || data[handshake] != CLIENT_HELLO)
+            return false;
+        // only the first fragment holds the cookie
+        if (handshake + HANDSHAKE_HEADER_LENGTH > end || data[handshake + 6] != 0 || data[handshake + 7] != 0
+                || data[handshake + 8] != 0)
+            return false;
+
+        int sessionId = handshake + HANDSHAKE_HEADER_LENGTH + SESSION_ID_OFFSET;
+        if (sessionId >= end)
+            // truncated before the cookie, charged rather than let through for free
+            return true;
+        int cookie = sessionId + 1 + (data[sessionId] & 0xff);
+        return cookie >= end || data[cookie] != 0;
+    }
+
+    @Override
+    public void send(DatagramPacket p) throws IOException {
+        socket.send(p);
+    }
+
+    @Override
+    public synchronized void bind(SocketAddress addr) throws SocketException {
+        socket.bind(addr);
+    }
+
+    @Override
+    public void connect(InetAddress address, int port) {
+        socket.connect(address, port);
+    }
+
+    @Override
+    public void connect(SocketAddress addr) throws SocketException {
+        socket.connect(addr);
+    }
+
+    @Override
+    public void disconnect() {
+        socket.disconnect();
+    }
+
+    @Override
+    public boolean isBound() {
+        return socket.isBound();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return socket.isConnected();
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return socket.getInetAddress();
+    }
+
+    @Override
+    public int getPort() {
+        return socket.getPort();
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return socket.getRemoteSocketAddress();
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return socket.getLocalSocketAddress();
+    }
+
+    @Override
+    public InetAddress getLocalAddress() {
+        return socket.getLocalAddress();
+    }
+
+    @Override
+    public int getLocalPort() {
+        return socket.getLocalPort();
+    }
+
+    @Override
+    public synchronized void setSoTimeout(int timeout) throws SocketException {
+        socket.setSoTimeout(timeout);
+    }
+
+    @Override
+    public synchronized int getSoTimeout() throws SocketException {
+        return socket.getSoTimeout();
+    }
+
+    @Override
+    public synchronized void setSendBufferSize(int size) throws SocketException {
+        socket.setSendBufferSize(size);
+    }
+
+    @Override
+    public synchronized int getSendBufferSize() throws SocketException {
+        return socket.getSendBufferSize();
+    }
+
+    @Override
+    public synchronized void setReceiveBufferSize(int size) throws SocketException {
+        socket.setReceiveBufferSize(size);
+    }
+
+    @Override
+    public synchronized int getReceiveBufferSize() throws SocketException {
+        return socket.getReceiveBufferSize();
+    }
+
+    @Override
+    public synchronized void setReuseAddress(boolean on) throws SocketException {
+        socket.setReuseAddress(on);
+    }
+
+    @Override
+    public synchronized boolean getReuseAddress() throws SocketException {
+        return socket.getReuseAddress();
+    }
+
+    @Override
+    public synchronized void setTrafficClass(int tc) throws SocketException {
+        socket.setTrafficClass(tc);
+    }
+
+    @Override
+    public synchronized int getTrafficClass() throws SocketException {
+        return socket.getTrafficClass();
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+        super.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return socket.isClosed();
+    }
+}
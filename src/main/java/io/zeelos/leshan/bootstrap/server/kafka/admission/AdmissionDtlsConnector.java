@@ -0,0 +1,47 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.admission;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+
+import org.eclipse.californium.scandium.DTLSConnector;
+import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.eclipse.californium.scandium.dtls.SessionCache;
+import org.eclipse.leshan.util.Validate;
+
+/**
+ * A DTLS connector whose new handshakes are subject to an {@link AdmissionController}.
+ */
+public class AdmissionDtlsConnector extends DTLSConnector {
+
+    private final AdmissionController admission;
+
+    /**
+     * @param sessionCache the session cache, or <code>null</code> for none
+     */
+    public AdmissionDtlsConnector(DtlsConnectorConfig configuration, SessionCache sessionCache,
+            AdmissionController admission) {
+        super(configuration, sessionCache);
+        Validate.notNull(admission);
+        this.admission = admission;
+    }
+
+    @Override
+    protected void init(InetSocketAddress bindAddress, DatagramSocket socket, Integer mtu) throws IOException {
+        super.init(bindAddress, new AdmissionDatagramSocket(socket, admission), mtu);
+    }
+}
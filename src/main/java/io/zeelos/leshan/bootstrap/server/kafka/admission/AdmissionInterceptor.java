@@ -0,0 +1,41 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.admission;
+
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.network.interceptors.MessageInterceptorAdapter;
+
+/**
+ * Drops the unsecured bootstrap requests refused by the {@link AdmissionController}, before they reach the CoAP
+ * stack. The client retransmits them after its timeout.
+ */
+public class AdmissionInterceptor extends MessageInterceptorAdapter {
+
+    private final AdmissionController admission;
+
+    public AdmissionInterceptor(AdmissionController admission) {
+        this.admission = admission;
+    }
+
+    @Override
+    public void receiveRequest(Request request) {
+        // only the bootstrap request starts a session, responses of sessions in progress go through
+        if (request.getCode() == Code.POST
+                && !admission.admit(request.getSourceContext().getPeerAddress().getAddress())) {
+            request.setCanceled(true);
+        }
+    }
+}
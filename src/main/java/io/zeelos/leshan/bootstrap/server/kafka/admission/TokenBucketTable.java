@@ -0,0 +1,112 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.admission;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.util.Validate;
+
+/**
+ * Token buckets by key, with a bounded memory footprint.
+ * <p>
+ * The table is split in lock stripes, each one an LRU map: the least recently used buckets are evicted when a stripe
+ * is full, a key coming back then starts again with a full bucket. Concurrent lookups of different keys rarely
+ * contend.
+ */
+class TokenBucketTable {
+
+    private static final int STRIPES = 64;
+
+    // a token bucket, refilled lazily on use
+    static final class TokenBucket {
+        private final double ratePerNano;
+        private final double burst;
+        private double tokens;
+        private long refilled;
+
+        TokenBucket(double rate, double burst, long now) {
+            this.ratePerNano = rate / TimeUnit.SECONDS.toNanos(1);
+            this.burst = burst;
+            this.tokens = burst;
+            this.refilled = now;
+        }
+
+        // not thread safe
+        boolean tryAcquire(long now) {
+            tokens = Math.min(burst, tokens + (now - refilled) * ratePerNano);
+            refilled = now;
+            if (tokens < 1)
+                return false;
+            tokens--;
+            return true;
+        }
+    }
+
+    private static final class Stripe extends LinkedHashMap<Long, TokenBucket> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Stripe(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, TokenBucket> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    private final double rate;
+    private final double burst;
+    private final Stripe[] stripes;
+
+    /**
+     * @param capacity the maximum number of buckets
+     * @param rate the tokens added per second to a bucket
+     * @param burst the capacity of a bucket
+     */
+    TokenBucketTable(int capacity, double rate, double burst) {
+        Validate.isTrue(capacity >= STRIPES, "capacity must be at least " + STRIPES);
+        this.rate = rate;
+        this.burst = burst;
+        this.stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(capacity / STRIPES);
+        }
+    }
+
+    /**
+     * Take a token from the bucket of the key.
+     *
+     * @return whether there was a token
+     */
+    boolean tryAcquire(long key, long now) {
+        // spread the keys, the low bits of addresses are not uniform
+        long h = key * 0x9E3779B97F4A7C15L;
+        Stripe stripe = stripes[(int) (h >>> 58)];
+        synchronized (stripe) {
+            TokenBucket bucket = stripe.get(key);
+            if (bucket == null) {
+                bucket = new TokenBucket(rate, burst, now);
+                stripe.put(key, bucket);
+            }
+            return bucket.tryAcquire(now);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.dtls;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.californium.scandium.dtls.SessionId;
+import org.eclipse.leshan.util.Validate;
+
+/**
+ * Persists the DTLS sessions of this instance in a local file, so clients can resume them after a restart.
+ * <p>
+ * The whole cache is written to a new file which is then swapped atomically, a crash keeps the previous snapshot.
+ */
+public class FileSessionTicketPersistence implements SessionTicketPersistence {
+
+    public static final String DEFAULT_FILE = "data/dtls-sessions.bin";
+
+    private static final int MAGIC = 0x4C425344; // "LBSD"
+    private static final short VERSION = 1;
+
+    private final File file;
+
+    public FileSessionTicketPersistence(String filename) {
+        Validate.notEmpty(filename);
+        this.file = new File(filename);
+    }
+
+    @Override
+    public Map<SessionId, byte[]> load() throws IOException {
+        Map<SessionId, byte[]> tickets = new HashMap<>();
+        if (!file.exists())
+            return tickets;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION)
+                throw new IOException(file + " is not a DTLS session file");
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] id = new byte[in.readUnsignedByte()];
+                in.readFully(id);
+                byte[] ticket = new byte[in.readInt()];
+                in.readFully(ticket);
+                tickets.put(new SessionId(id), ticket);
+            }
+        }
+        return tickets;
+    }
+
+    @Override
+    public void added(SessionId id, byte[] ticket) {
+        // written by the next snapshot
+    }
+
+    @Override
+    public void deleted(SessionId id) {
+        // written by the next snapshot
+    }
+
+    @Override
+    public void flush(Map<SessionId, byte[]> tickets) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        createOwnerOnly(tmp.toPath());
+        try (FileOutputStream stream = new FileOutputStream(tmp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(tickets.size());
+            for (Map.Entry<SessionId, byte[]> e : tickets.entrySet()) {
+                byte[] id = e.getKey().getBytes();
+                out.writeByte(id.length);
+                out.write(id);
+                out.writeInt(e.getValue().length);
+                out.write(e.getValue());
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // the tickets hold master secrets, the file is only readable by its owner, like the one it replaces
+    private static void createOwnerOnly(Path path) throws IOException {
+        Files.deleteIfExists(path);
+        if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(path);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.dtls;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.eclipse.californium.scandium.dtls.SessionId;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shares the DTLS sessions between the bootstrap server instances through a log-compacted Kafka topic keyed by
+ * session id, so a client can resume its session on any instance and after a restart.
+ * <p>
+ * Like the {@link io.zeelos.leshan.bootstrap.server.kafka.persistence.KafkaPersistence}, the topic is read up to its
+ * end on load, then tailed by a background thread. Sessions are a cache: they are sent without waiting for the
+ * broker and a lost one only costs a full handshake. Expired sessions are skipped when read, the topic should be
+ * created with <code>cleanup.policy=compact,delete</code> and a <code>retention.ms</code> of the session lifetime.
+ */
+public class KafkaSessionTicketPersistence implements SessionTicketPersistence {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaSessionTicketPersistence.class);
+
+    public static final String DEFAULT_TOPIC = "bootstrap-dtls-sessions";
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+
+    private final Producer<byte[], byte[]> producer;
+    private final Consumer<byte[], byte[]> consumer;
+    private final String topic;
+
+    private Thread tailer;
+    private volatile boolean running;
+
+    /**
+     * @param producer the producer used to write the sessions
+     * @param consumer the consumer used to read the topic, partitions are assigned manually
+     * @param topic the log-compacted topic
+     */
+    public KafkaSessionTicketPersistence(Producer<byte[], byte[]> producer, Consumer<byte[], byte[]> consumer,
+            String topic) {
+        Validate.notNull(producer);
+        Validate.notNull(consumer);
+        Validate.notEmpty(topic);
+        this.producer = producer;
+        this.consumer = consumer;
+        this.topic = topic;
+    }
+
+    /**
+     * Create a Kafka session persistence connected to the given brokers.
+     *
+     * @param bootstrapServers the Kafka bootstrap servers (<code>host:port,...</code>)
+     * @param topic the log-compacted topic
+     */
+    public static KafkaSessionTicketPersistence create(String bootstrapServers, String topic) {
+        Properties producerProps = new Properties();
+        producerProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        producerProps.put(ProducerConfig.ACKS_CONFIG, "1");
+        producerProps.put(ProducerConfig.LINGER_MS_CONFIG, 10);
+        producerProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        producerProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+
+        Properties consumerProps = new Properties();
+        consumerProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        consumerProps.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumerProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        consumerProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+
+        return new KafkaSessionTicketPersistence(new KafkaProducer<byte[], byte[]>(producerProps),
+                new KafkaConsumer<byte[], byte[]>(consumerProps), topic);
+    }
+
+    @Override
+    public Map<SessionId, byte[]> load() throws IOException {
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (PartitionInfo info : consumer.partitionsFor(topic)) {
+            partitions.add(new TopicPartition(info.topic(), info.partition()));
+        }
+        if (partitions.isEmpty()) {
+            throw new IOException("Topic " + topic + " does not exist");
+        }
+        consumer.assign(partitions);
+        consumer.seekToBeginning(partitions);
+
+        // read everything up to the current end of the topic
+        Map<SessionId, byte[]> tickets = new HashMap<>();
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+        while (!reached(endOffsets)) {
+            for (ConsumerRecord<byte[], byte[]> record : consumer.poll(POLL_TIMEOUT)) {
+                if (record.value() == null) {
+                    tickets.remove(new SessionId(record.key()));
+                } else {
+                    tickets.put(new SessionId(record.key()), record.value());
+                }
+            }
+        }
+        return tickets;
+    }
+
+    private boolean reached(Map<TopicPartition, Long> endOffsets) {
+        for (Map.Entry<TopicPartition, Long> e : endOffsets.entrySet()) {
+            if (consumer.position(e.getKey()) < e.getValue())
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void start(final Listener listener) {
+        running = true;
+        tailer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tail(listener);
+            }
+        }, "DTLS Session Kafka Tailer");
+        tailer.setDaemon(true);
+        tailer.start();
+    }
+
+    private void tail(Listener listener) {
+        try {
+            while (running) {
+                for (ConsumerRecord<byte[], byte[]> record : consumer.poll(POLL_TIMEOUT)) {
+                    listener.changed(new SessionId(record.key()), record.value());
+                }
+            }
+        } catch (WakeupException e) {
+            // closing
+        } catch (RuntimeException e) {
+            LOG.error("Stopped tailing DTLS sessions topic {}", topic, e);
+        } finally {
+            consumer.close();
+        }
+    }
+
+    @Override
+    public void added(SessionId id, byte[] ticket) {
+        producer.send(new ProducerRecord<>(topic, id.getBytes(), ticket));
+    }
+
+    @Override
+    public void deleted(SessionId id) {
+        producer.send(new ProducerRecord<byte[], byte[]>(topic, id.getBytes(), null));
+    }
+
+    @Override
+    public void flush(Map<SessionId, byte[]> tickets) {
+        producer.flush();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (tailer != null) {
+            consumer.wakeup();
+            try {
+                tailer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            consumer.close();
+        }
+        producer.close();
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.dtls;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.elements.util.DatagramReader;
+import org.eclipse.californium.elements.util.DatagramWriter;
+import org.eclipse.californium.scandium.dtls.DTLSSession;
+import org.eclipse.californium.scandium.dtls.SessionCache;
+import org.eclipse.californium.scandium.dtls.SessionId;
+import org.eclipse.californium.scandium.dtls.SessionTicket;
+import org.eclipse.leshan.util.NamedThreadFactory;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+
+/**
+ * A DTLS session cache keeping the most recently used sessions, so clients can resume them with an abbreviated
+ * handshake once their connection was evicted.
+ * <p>
+ * With a {@link SessionTicketPersistence}, the sessions also survive a restart and, with a shared backend, clients
+ * can resume on another bootstrap server instance. The changes are queued and handed to the persistence periodically
+ * by a background thread, never by the handshakes.
+ */
+public class LruSessionCache implements SessionCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LruSessionCache.class);
+
+    public static final int DEFAULT_CAPACITY = 150000;
+    public static final long DEFAULT_LIFETIME = TimeUnit.HOURS.toMillis(24);
+    public static final long DEFAULT_FLUSH_INTERVAL = TimeUnit.SECONDS.toMillis(10);
+
+    private static final int TIMESTAMP_BITS = 64;
+
+    private final long lifetime;
+    private final SessionTicketPersistence persistence;
+    private final ScheduledExecutorService flusher;
+
+    // encoded tickets by session id, guarded by itself
+    private final LinkedHashMap<SessionId, byte[]> tickets;
+    // the changes not handed to the persistence yet, null for a removed session, guarded by tickets
+    private Map<SessionId, byte[]> changes = new LinkedHashMap<>();
+
+    /**
+     * An in-memory cache.
+     */
+    public LruSessionCache(int capacity, long lifetime) {
+        this(capacity, lifetime, null, 0);
+    }
+
+    /**
+     * @param capacity the maximum number of sessions, the least recently used ones are evicted first
+     * @param lifetime how long in milliseconds a session can be resumed
+     * @param persistence the persistence backend, or <code>null</code> to keep the sessions in memory only
+     * @param flushInterval the interval in milliseconds between two flushes of the persistence
+     */
+    public LruSessionCache(final int capacity, long lifetime, SessionTicketPersistence persistence,
+            long flushInterval) {
+        Validate.isTrue(capacity > 0, "capacity must be positive");
+        Validate.isTrue(lifetime > 0, "lifetime must be positive");
+        this.lifetime = lifetime;
+        this.persistence = persistence;
+        this.tickets = new LinkedHashMap<SessionId, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SessionId, byte[]> eldest) {
+                return size() > capacity;
+            }
+        };
+
+        if (persistence == null) {
+            this.flusher = null;
+            return;
+        }
+
+        load();
+        persistence.start(new SessionTicketPersistence.Listener() {
+            @Override
+            public void changed(SessionId id, byte[] ticket) {
+                synchronized (tickets) {
+                    if (ticket == null) {
+                        tickets.remove(id);
+                    } else {
+                        tickets.put(id, ticket);
+                    }
+                }
+            }
+        });
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("DTLS Session Flusher"));
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void load() {
+        try {
+            long now = System.currentTimeMillis();
+            int expired = 0;
+            for (Map.Entry<SessionId, byte[]> e : persistence.load().entrySet()) {
+                if (isExpired(e.getValue(), now)) {
+                    expired++;
+                } else {
+                    tickets.put(e.getKey(), e.getValue());
+                }
+            }
+            LOG.info("Loaded {} DTLS sessions ({} expired)", tickets.size(), expired);
+        } catch (IOException | RuntimeException e) {
+            // only costs full handshakes
+            LOG.warn("Could not load the DTLS sessions", e);
+        }
+    }
+
+    @Override
+    public void put(DTLSSession session) {
+        SessionTicket ticket = session.getSessionTicket();
+        if (ticket == null)
+            return;
+
+        SessionId id = session.getSessionIdentifier();
+        byte[] encoded = encode(ticket, System.currentTimeMillis());
+        synchronized (tickets) {
+            tickets.put(id, encoded);
+            if (persistence != null) {
+                changes.put(id, encoded);
+            }
+        }
+    }
+
+    @Override
+    public SessionTicket get(SessionId id) {
+        byte[] encoded;
+        synchronized (tickets) {
+            encoded = tickets.get(id);
+        }
+        if (encoded != null && isExpired(encoded, System.currentTimeMillis())) {
+            remove(id);
+            encoded = null;
+        }
+        if (encoded == null) {
+            BootstrapMetrics.DTLS_SESSION_CACHE_MISSES.inc();
+            return null;
+        }
+
+        try {
+            SessionTicket ticket = decode(encoded);
+            BootstrapMetrics.DTLS_SESSION_CACHE_HITS.inc();
+            return ticket;
+        } catch (RuntimeException e) {
+            LOG.warn("Ignoring undecodable DTLS session {}", id, e);
+            remove(id);
+            BootstrapMetrics.DTLS_SESSION_CACHE_MISSES.inc();
+            return null;
+        }
+    }
+
+    @Override
+    public void remove(SessionId id) {
+        synchronized (tickets) {
+            if (tickets.remove(id) != null && persistence != null) {
+                changes.put(id, null);
+            }
+        }
+    }
+
+    /**
+     * @return the number of cached sessions
+     */
+    public int size() {
+        synchronized (tickets) {
+            return tickets.size();
+        }
+    }
+
+    // the backend may block, a Kafka producer until its buffer has room: only called by the flusher thread
+    private void flush() {
+        Map<SessionId, byte[]> flushed;
+        Map<SessionId, byte[]> snapshot;
+        synchronized (tickets) {
+            if (changes.isEmpty())
+                return;
+            flushed = changes;
+            changes = new LinkedHashMap<>();
+            snapshot = new HashMap<>(tickets);
+        }
+        try {
+            for (Map.Entry<SessionId, byte[]> e : flushed.entrySet()) {
+                if (e.getValue() == null) {
+                    persistence.deleted(e.getKey());
+                } else {
+                    persistence.added(e.getKey(), e.getValue());
+                }
+            }
+            persistence.flush(snapshot);
+        } catch (IOException | RuntimeException e) {
+            // only costs full handshakes
+            LOG.warn("Could not persist {} DTLS session changes", flushed.size(), e);
+        }
+    }
+
+    /**
+     * Flush the persistence one last time and close it.
+     */
+    public void destroy() {
+        if (persistence == null)
+            return;
+
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        try {
+            persistence.close();
+        } catch (IOException e) {
+            LOG.warn("Could not close the DTLS session persistence", e);
+        }
+    }
+
+    // /////// Encoding: the creation time of the ticket followed by the Scandium encoding of the ticket
+
+    private boolean isExpired(byte[] encoded, long now) {
+        return new DatagramReader(encoded).readLong(TIMESTAMP_BITS) + lifetime < now;
+    }
+
+    static byte[] encode(SessionTicket ticket, long created) {
+        DatagramWriter writer = new DatagramWriter();
+        writer.writeLong(created, TIMESTAMP_BITS);
+        ticket.encode(writer);
+        return writer.toByteArray();
+    }
+
+    static SessionTicket decode(byte[] encoded) {
+        DatagramReader reader = new DatagramReader(encoded);
+        reader.readLong(TIMESTAMP_BITS);
+        return SessionTicket.decode(reader);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.dtls;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+
+import org.eclipse.californium.scandium.dtls.SessionId;
+
+/**
+ * Persistence backend of the {@link LruSessionCache}.
+ * <p>
+ * Tickets are opaque encoded values. Like the configurations of the bootstrap store, changes are recorded in order
+ * with {@link #added(SessionId, byte[])} and {@link #deleted(SessionId)} and are durable once {@link #flush(Map)}
+ * returned. All the calls are made by a single background thread, never by the handshakes, so they may block.
+ * <p>
+ * A ticket holds the master secret of its session: the file or topic must be protected like the private keys.
+ */
+public interface SessionTicketPersistence extends Closeable {
+
+    /**
+     * Receives the tickets stored by other bootstrap server instances.
+     */
+    interface Listener {
+
+        /**
+         * @param ticket the encoded ticket, <code>null</code> for a removed session
+         */
+        void changed(SessionId id, byte[] ticket);
+    }
+
+    /**
+     * Load the persisted tickets.
+     *
+     * @return the encoded tickets by session id, never <code>null</code>
+     */
+    Map<SessionId, byte[]> load() throws IOException;
+
+    /**
+     * Start reporting the external changes, called once after {@link #load()}. Does nothing by default.
+     */
+    default void start(Listener listener) {
+    }
+
+    void added(SessionId id, byte[] ticket) throws IOException;
+
+    void deleted(SessionId id) throws IOException;
+
+    /**
+     * Make all the recorded changes durable.
+     *
+     * @param tickets the current content of the cache, for backends which persist full snapshots
+     */
+    void flush(Map<SessionId, byte[]> tickets) throws IOException;
+}
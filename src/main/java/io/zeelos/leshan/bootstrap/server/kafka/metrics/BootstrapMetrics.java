@@ -0,0 +1,98 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.metrics;
+
+/**
+ * The metrics of the bootstrap server.
+ */
+public final class BootstrapMetrics {
+
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    // bootstrap store
+    public static final Histogram STORE_GET = REGISTRY.histogram("bsserver_store_get_seconds",
+            "Duration of the bootstrap config lookups.");
+    public static final Counter STORE_GET_MISSES = REGISTRY.counter("bsserver_store_get_misses_total",
+            "Bootstrap config lookups of an endpoint without config.");
+    public static final Histogram STORE_ADD = REGISTRY.histogram("bsserver_store_add_seconds",
+            "Duration of the bootstrap config additions, including their persistence when synchronous.");
+    public static final Histogram STORE_DELETE = REGISTRY.histogram("bsserver_store_delete_seconds",
+            "Duration of the bootstrap config removals, including their persistence when synchronous.");
+    public static final Histogram CONFIG_VERIFY = REGISTRY.histogram("bsserver_config_verify_seconds",
+            "Duration of the bootstrap config verifications.");
+    public static final Counter STORE_HOT_HITS = REGISTRY.counter("bsserver_store_hot_hits_total",
+            "Bootstrap config lookups served by the in-memory tier of a tiered store.");
+    public static final Counter STORE_HOT_MISSES = REGISTRY.counter("bsserver_store_hot_misses_total",
+            "Bootstrap config lookups of a tiered store loaded from its disk tier.");
+    public static final Histogram STORE_COLD_LOAD = REGISTRY.histogram("bsserver_store_cold_load_seconds",
+            "Duration of the bootstrap config loads from the disk tier of a tiered store.");
+
+    // persistence
+    public static final Histogram PERSISTENCE_WRITE = REGISTRY.histogram("bsserver_persistence_write_seconds",
+            "Duration of the writes of a batch of changes to the persistence backend.");
+    public static final Counter PERSISTENCE_BYTES = REGISTRY.counter("bsserver_persistence_written_bytes_total",
+            "Bytes written to the persistence backend.");
+
+    // security store
+    public static final Histogram SECURITY_BY_IDENTITY = REGISTRY.histogram(
+            "bsserver_security_by_identity_seconds", "Duration of the security info lookups by PSK identity.");
+    public static final Counter SECURITY_BY_IDENTITY_MISSES = REGISTRY.counter(
+            "bsserver_security_by_identity_misses_total", "Security info lookups of an unknown PSK identity.");
+    public static final Histogram SECURITY_BY_ENDPOINT = REGISTRY.histogram(
+            "bsserver_security_by_endpoint_seconds", "Duration of the security info lookups by endpoint.");
+    public static final Counter SECURITY_BY_ENDPOINT_MISSES = REGISTRY.counter(
+            "bsserver_security_by_endpoint_misses_total", "Security info lookups of an endpoint without security.");
+
+    // DTLS sessions
+    public static final Counter DTLS_SESSION_CACHE_HITS = REGISTRY.counter("bsserver_dtls_session_cache_hits_total",
+            "DTLS session resumptions found in the session cache.");
+    public static final Counter DTLS_SESSION_CACHE_MISSES = REGISTRY.counter(
+            "bsserver_dtls_session_cache_misses_total",
+            "DTLS session resumptions not found in the session cache, which fall back to a full handshake.");
+
+    // admission control
+    public static final Counter ADMISSION_ADMITTED = REGISTRY.counter("bsserver_admission_admitted_total",
+            "New sessions admitted by the rate limits.");
+    public static final Counter ADMISSION_REJECTED_SOURCE = REGISTRY.counter(
+            "bsserver_admission_rejected_source_total",
+            "New sessions dropped by the rate limit of their source address, to be retried by the client.");
+    public static final Counter ADMISSION_REJECTED_SUBNET = REGISTRY.counter(
+            "bsserver_admission_rejected_subnet_total",
+            "New sessions dropped by the rate limit of their source subnet, to be retried by the client.");
+    public static final Counter ADMISSION_REJECTED_GLOBAL = REGISTRY.counter(
+            "bsserver_admission_rejected_global_total",
+            "New sessions dropped by the global rate limit, to be retried by the client.");
+
+    // bootstrap sessions
+    public static final Counter SESSIONS_STARTED = REGISTRY.counter("bsserver_sessions_started_total",
+            "Bootstrap sessions started.");
+    public static final Counter SESSIONS_UNAUTHORIZED = REGISTRY.counter("bsserver_sessions_unauthorized_total",
+            "Bootstrap sessions refused to unauthorized clients, also counted as failed.");
+    public static final Counter SESSIONS_SUCCEEDED = REGISTRY.counter("bsserver_sessions_succeeded_total",
+            "Bootstrap sessions which succeeded.");
+    public static final Counter SESSIONS_FAILED = REGISTRY.counter("bsserver_sessions_failed_total",
+            "Bootstrap sessions which failed.");
+    public static final Histogram SESSION_DURATION = REGISTRY.histogram("bsserver_session_seconds",
+            "Duration of the bootstrap sessions, from the bootstrap request to the end of the provisioning.");
+
+    // bootstrap writes
+    public static final Counter ENCODER_HITS = REGISTRY.counter("bsserver_encoder_hits_total",
+            "Bootstrap write payloads served by the precompiled payloads.");
+    public static final Counter ENCODER_MISSES = REGISTRY.counter("bsserver_encoder_misses_total",
+            "Bootstrap write payloads encoded during the session.");
+
+    private BootstrapMetrics() {
+    }
+}
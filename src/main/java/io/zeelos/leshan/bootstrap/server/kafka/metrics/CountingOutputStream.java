@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.metrics;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream adding the bytes written through it to a {@link Counter}.
+ */
+public class CountingOutputStream extends FilterOutputStream {
+
+    private final Counter counter;
+
+    public CountingOutputStream(OutputStream out, Counter counter) {
+        super(out);
+        this.counter = counter;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        counter.inc();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        counter.add(len);
+    }
+}
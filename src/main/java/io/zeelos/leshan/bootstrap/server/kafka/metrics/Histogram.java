@@ -0,0 +1,178 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds, with log-linear buckets like HdrHistogram: each power of two is split in
+ * {@value #SUB_BUCKETS} buckets, so a recorded value is known within 12.5%. Buckets are striped counters, recording
+ * neither locks nor allocates.
+ * <p>
+ * Durations are exported in seconds, to Prometheus with a bucket per power of four nanoseconds from 1µs.
+ */
+public class Histogram extends Metric implements HistogramMXBean {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // longer durations (~18 minutes) are recorded in the last bucket
+    private static final int MAX_EXPONENT = 39;
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    // Prometheus buckets
+    private static final int MIN_EXPORTED_EXPONENT = 10;
+    private static final int EXPORTED_EXPONENT_STEP = 2;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public Histogram(String name, String help) {
+        super(name, help);
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param nanos the duration to record
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets[index(nanos)].increment();
+        sum.add(nanos);
+        max.accumulate(nanos);
+    }
+
+    /**
+     * Record the duration elapsed since the given {@link System#nanoTime()}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    @Override
+    public double getMeanMicros() {
+        long count = getCount();
+        return count == 0 ? 0 : sum.sum() / 1000d / count;
+    }
+
+    @Override
+    public double get50thPercentileMicros() {
+        return percentile(0.5) / 1000d;
+    }
+
+    @Override
+    public double get99thPercentileMicros() {
+        return percentile(0.99) / 1000d;
+    }
+
+    @Override
+    public double get999thPercentileMicros() {
+        return percentile(0.999) / 1000d;
+    }
+
+    @Override
+    public double getMaxMicros() {
+        return max.get() / 1000d;
+    }
+
+    /**
+     * @return the upper bound in nanoseconds of the bucket holding the given quantile, or the max if it is in the last
+     *         bucket
+     */
+    public long percentile(double quantile) {
+        long[] counts = snapshot();
+        long count = 0;
+        for (long c : counts) {
+            count += c;
+        }
+        if (count == 0)
+            return 0;
+
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            // the last bucket has no upper bound
+            if (seen >= rank && i < counts.length - 1)
+                return Math.min(lowerBound(i + 1) - 1, max.get());
+        }
+        return max.get();
+    }
+
+    @Override
+    public void writePrometheus(Writer out) throws IOException {
+        long[] counts = snapshot();
+        writeHeader(out, "histogram");
+
+        long cumulated = 0;
+        int i = 0;
+        for (int exponent = MIN_EXPORTED_EXPONENT; exponent <= MAX_EXPONENT; exponent += EXPORTED_EXPONENT_STEP) {
+            long le = 1L << exponent;
+            while (i < counts.length && lowerBound(i + 1) <= le) {
+                cumulated += counts[i++];
+            }
+            out.write(getName() + "_bucket{le=\"" + le / 1e9 + "\"} " + cumulated + "\n");
+        }
+        while (i < counts.length) {
+            cumulated += counts[i++];
+        }
+        out.write(getName() + "_bucket{le=\"+Inf\"} " + cumulated + "\n");
+        out.write(getName() + "_sum " + sum.sum() / 1e9 + "\n");
+        out.write(getName() + "_count " + cumulated + "\n");
+    }
+
+    private long[] snapshot() {
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    // values under SUB_BUCKETS have a bucket each, then each power of two has SUB_BUCKETS buckets
+    private static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        if (exponent == MAX_EXPONENT && value >= 1L << (MAX_EXPONENT + 1))
+            return BUCKETS - 1;
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // the smallest value of a bucket
+    private static long lowerBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS);
+    }
+}
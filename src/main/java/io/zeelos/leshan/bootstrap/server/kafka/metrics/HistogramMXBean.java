@@ -0,0 +1,33 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.metrics;
+
+/**
+ * JMX view of a {@link Histogram}, durations in microseconds.
+ */
+public interface HistogramMXBean {
+
+    long getCount();
+
+    double getMeanMicros();
+
+    double get50thPercentileMicros();
+
+    double get99thPercentileMicros();
+
+    double get999thPercentileMicros();
+
+    double getMaxMicros();
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import org.eclipse.leshan.util.Validate;
+
+/**
+ * A named metric of a {@link MetricsRegistry}.
+ */
+public abstract class Metric {
+
+    private final String name;
+    private final String help;
+
+    protected Metric(String name, String help) {
+        Validate.notEmpty(name);
+        this.name = name;
+        this.help = help;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * Write the current value in the Prometheus text exposition format, including the HELP and TYPE lines.
+     */
+    public abstract void writePrometheus(Writer out) throws IOException;
+
+    protected void writeHeader(Writer out, String type) throws IOException {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " " + type + "\n");
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A set of metrics, exposed through JMX and in the Prometheus text format.
+ */
+public class MetricsRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    public static final String JMX_DOMAIN = "io.zeelos.leshan.bootstrap";
+
+    private final List<Metric> metrics = new CopyOnWriteArrayList<>();
+
+    public Counter counter(String name, String help) {
+        return register(new Counter(name, help));
+    }
+
+    public Histogram histogram(String name, String help) {
+        return register(new Histogram(name, help));
+    }
+
+    public <T extends Metric> T register(T metric) {
+        metrics.add(metric);
+        return metric;
+    }
+
+    public List<Metric> getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Write all the metrics in the Prometheus text exposition format (version 0.0.4).
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        for (Metric metric : metrics) {
+            metric.writePrometheus(out);
+        }
+    }
+
+    /**
+     * Register an MBean per metric, named <code>io.zeelos.leshan.bootstrap:type=Metrics,name=...</code>.
+     */
+    public void registerMBeans(MBeanServer server) {
+        for (Metric metric : metrics) {
+            try {
+                server.registerMBean(metric, objectName(metric));
+            } catch (JMException e) {
+                LOG.warn("Unable to register metric {} in JMX", metric.getName(), e);
+            }
+        }
+    }
+
+    public void unregisterMBeans(MBeanServer server) {
+        for (Metric metric : metrics) {
+            try {
+                server.unregisterMBean(objectName(metric));
+            } catch (JMException e) {
+                LOG.debug("Unable to unregister metric {} from JMX", metric.getName(), e);
+            }
+        }
+    }
+
+    private static ObjectName objectName(Metric metric) throws JMException {
+        return new ObjectName(JMX_DOMAIN + ":type=Metrics,name=" + metric.getName());
+    }
+}
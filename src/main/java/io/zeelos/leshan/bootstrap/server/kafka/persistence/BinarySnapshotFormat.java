@@ -0,0 +1,353 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.eclipse.leshan.SecurityMode;
+import org.eclipse.leshan.SmsSecurityMode;
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ACLConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A compact binary snapshot format, read and written as a stream.
+ * <p>
+ * The file starts with a magic number and a format version, followed by one record per endpoint: a
+ * <code>1</code> marker, the endpoint and its configuration. A <code>0</code> marker ends the file. Byte arrays are
+ * stored raw with a length prefix, strings as modified UTF-8 and optional values with a presence flag.
+ */
+public class BinarySnapshotFormat implements SnapshotFormat {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BinarySnapshotFormat.class);
+
+    private static final int MAGIC = 0x4C425353; // "LBSS"
+    private static final int VERSION = 1;
+
+    /**
+     * Convert a JSON snapshot to a binary one, if the binary snapshot does not exist yet.
+     *
+     * @param jsonFile the existing JSON snapshot
+     * @param binaryFile the binary snapshot to create
+     */
+    public static void migrate(File jsonFile, File binaryFile) throws IOException {
+        if (binaryFile.exists() || !jsonFile.exists())
+            return;
+
+        Map<String, BootstrapConfig> configs = FilePersistence.read(jsonFile, new JsonSnapshotFormat());
+        FilePersistence.write(binaryFile, new BinarySnapshotFormat(), configs);
+        LOG.info("Migrated {} bootstrap configs from {} to {}", configs.size(), jsonFile, binaryFile);
+    }
+
+    @Override
+    public Map<String, BootstrapConfig> read(InputStream input) throws IOException {
+        Map<String, BootstrapConfig> configs = new HashMap<>();
+        read(input, configs::put);
+        return configs;
+    }
+
+    @Override
+    public void read(InputStream input, BiConsumer<String, BootstrapConfig> consumer) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        if (in.readInt() != MAGIC)
+            throw new IOException("Not a binary bootstrap snapshot");
+        int version = in.readUnsignedShort();
+        if (version != VERSION)
+            throw new IOException("Unsupported binary bootstrap snapshot version " + version);
+
+        while (in.readBoolean()) {
+            String endpoint = in.readUTF();
+            consumer.accept(endpoint, readConfig(in));
+        }
+    }
+
+    @Override
+    public void write(OutputStream output, Map<String, BootstrapConfig> configs) throws IOException {
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        for (Map.Entry<String, BootstrapConfig> e : configs.entrySet()) {
+            out.writeBoolean(true);
+            out.writeUTF(e.getKey());
+            writeConfig(out, e.getValue());
+        }
+        out.writeBoolean(false);
+        out.flush();
+    }
+
+    // /////// BootstrapConfig
+
+    /**
+     * Encode a single configuration, as in a snapshot record.
+     */
+    public static void writeConfig(DataOutputStream out, BootstrapConfig config) throws IOException {
+        if (config.toDelete == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(config.toDelete.size());
+            for (String path : config.toDelete) {
+                out.writeUTF(path);
+            }
+        }
+
+        writeSize(out, config.servers);
+        if (config.servers != null) {
+            for (Map.Entry<Integer, ServerConfig> e : config.servers.entrySet()) {
+                out.writeInt(e.getKey());
+                writeServer(out, e.getValue());
+            }
+        }
+
+        writeSecurities(out, config.security);
+
+        writeSize(out, config.acls);
+        if (config.acls != null) {
+            for (Map.Entry<Integer, ACLConfig> e : config.acls.entrySet()) {
+                out.writeInt(e.getKey());
+                writeAcl(out, e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Decode a single configuration written by {@link #writeConfig(DataOutputStream, BootstrapConfig)}.
+     */
+    public static BootstrapConfig readConfig(DataInputStream in) throws IOException {
+        BootstrapConfig config = new BootstrapConfig();
+
+        int size = in.readInt();
+        if (size < 0) {
+            config.toDelete = null;
+        } else {
+            config.toDelete = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                config.toDelete.add(in.readUTF());
+            }
+        }
+
+        size = in.readInt();
+        config.servers = size < 0 ? null : new HashMap<Integer, ServerConfig>();
+        for (int i = 0; i < size; i++) {
+            config.servers.put(in.readInt(), readServer(in));
+        }
+
+        config.security = readSecurities(in);
+
+        size = in.readInt();
+        config.acls = size < 0 ? null : new HashMap<Integer, ACLConfig>();
+        for (int i = 0; i < size; i++) {
+            config.acls.put(in.readInt(), readAcl(in));
+        }
+        return config;
+    }
+
+    /**
+     * Encode the security entries of a configuration, as in a snapshot record.
+     */
+    public static void writeSecurities(DataOutputStream out, Map<Integer, ServerSecurity> securities)
+            throws IOException {
+        writeSize(out, securities);
+        if (securities != null) {
+            for (Map.Entry<Integer, ServerSecurity> e : securities.entrySet()) {
+                out.writeInt(e.getKey());
+                writeSecurity(out, e.getValue());
+            }
+        }
+    }
+
+    /**
+     * Decode the security entries written by {@link #writeSecurities(DataOutputStream, Map)}.
+     */
+    public static Map<Integer, ServerSecurity> readSecurities(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        Map<Integer, ServerSecurity> securities = size < 0 ? null : new HashMap<Integer, ServerSecurity>();
+        for (int i = 0; i < size; i++) {
+            securities.put(in.readInt(), readSecurity(in));
+        }
+        return securities;
+    }
+
+    private static void writeServer(DataOutputStream out, ServerConfig server) throws IOException {
+        writeInteger(out, server.shortId);
+        writeLong(out, server.lifetime);
+        writeLong(out, server.defaultMinPeriod);
+        writeLong(out, server.defaultMaxPeriod);
+        writeLong(out, server.disableTimeout);
+        writeBoolean(out, server.notifIfDisabled);
+        writeEnum(out, server.binding);
+    }
+
+    private static ServerConfig readServer(DataInputStream in) throws IOException {
+        ServerConfig server = new ServerConfig();
+        server.shortId = readInteger(in);
+        server.lifetime = readLong(in);
+        server.defaultMinPeriod = readLong(in);
+        server.defaultMaxPeriod = readLong(in);
+        server.disableTimeout = readLong(in);
+        server.notifIfDisabled = readBoolean(in);
+        server.binding = readEnum(in, BindingMode.class);
+        return server;
+    }
+
+    private static void writeSecurity(DataOutputStream out, ServerSecurity security) throws IOException {
+        writeString(out, security.uri);
+        writeBoolean(out, security.bootstrapServer);
+        writeEnum(out, security.securityMode);
+        writeBytes(out, security.publicKeyOrId);
+        writeBytes(out, security.serverPublicKey);
+        writeBytes(out, security.secretKey);
+        writeEnum(out, security.smsSecurityMode);
+        writeBytes(out, security.smsBindingKeyParam);
+        writeBytes(out, security.smsBindingKeySecret);
+        writeString(out, security.serverSmsNumber);
+        writeInteger(out, security.serverId);
+        writeInteger(out, security.clientOldOffTime);
+        writeInteger(out, security.bootstrapServerAccountTimeout);
+    }
+
+    private static ServerSecurity readSecurity(DataInputStream in) throws IOException {
+        ServerSecurity security = new ServerSecurity();
+        security.uri = readString(in);
+        security.bootstrapServer = readBoolean(in);
+        security.securityMode = readEnum(in, SecurityMode.class);
+        security.publicKeyOrId = readBytes(in);
+        security.serverPublicKey = readBytes(in);
+        security.secretKey = readBytes(in);
+        security.smsSecurityMode = readEnum(in, SmsSecurityMode.class);
+        security.smsBindingKeyParam = readBytes(in);
+        security.smsBindingKeySecret = readBytes(in);
+        security.serverSmsNumber = readString(in);
+        security.serverId = readInteger(in);
+        security.clientOldOffTime = readInteger(in);
+        security.bootstrapServerAccountTimeout = readInteger(in);
+        return security;
+    }
+
+    private static void writeAcl(DataOutputStream out, ACLConfig acl) throws IOException {
+        writeInteger(out, acl.objectId);
+        writeInteger(out, acl.objectInstanceId);
+        writeSize(out, acl.acls);
+        if (acl.acls != null) {
+            for (Map.Entry<Integer, Long> e : acl.acls.entrySet()) {
+                out.writeInt(e.getKey());
+                writeLong(out, e.getValue());
+            }
+        }
+        writeInteger(out, acl.AccessControlOwner);
+    }
+
+    private static ACLConfig readAcl(DataInputStream in) throws IOException {
+        ACLConfig acl = new ACLConfig();
+        acl.objectId = readInteger(in);
+        acl.objectInstanceId = readInteger(in);
+        int size = in.readInt();
+        acl.acls = size < 0 ? null : new HashMap<Integer, Long>();
+        for (int i = 0; i < size; i++) {
+            acl.acls.put(in.readInt(), readLong(in));
+        }
+        acl.AccessControlOwner = readInteger(in);
+        return acl;
+    }
+
+    // /////// Primitives (optional values are prefixed by a presence flag)
+
+    private static void writeSize(DataOutputStream out, Map<?, ?> map) throws IOException {
+        out.writeInt(map == null ? -1 : map.size());
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeInteger(DataOutputStream out, Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeInt(value);
+    }
+
+    private static Integer readInteger(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+
+    private static void writeLong(DataOutputStream out, Long value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeLong(value);
+    }
+
+    private static Long readLong(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readLong() : null;
+    }
+
+    private static void writeBoolean(DataOutputStream out, Boolean value) throws IOException {
+        out.writeByte(value == null ? -1 : value ? 1 : 0);
+    }
+
+    private static Boolean readBoolean(DataInputStream in) throws IOException {
+        byte value = in.readByte();
+        return value < 0 ? null : value == 1;
+    }
+
+    private static void writeEnum(DataOutputStream out, Enum<?> value) throws IOException {
+        writeString(out, value == null ? null : value.name());
+    }
+
+    private static <E extends Enum<E>> E readEnum(DataInputStream in, Class<E> type) throws IOException {
+        String name = readString(in);
+        try {
+            return name == null ? null : Enum.valueOf(type, name);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown " + type.getSimpleName() + " " + name, e);
+        }
+    }
+}
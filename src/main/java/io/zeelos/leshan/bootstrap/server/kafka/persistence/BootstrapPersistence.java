@@ -0,0 +1,120 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+
+/**
+ * Persistence backend of the bootstrap store.
+ * <p>
+ * Changes are recorded with {@link #added(String, BootstrapConfig)} and {@link #deleted(String)} in the order they
+ * were applied to the store, and are only guaranteed to be durable once {@link #flush(Map)} returned. If the flush
+ * fails, the changed endpoints are recorded again with the next changes.
+ * <p>
+ * The changes are recorded and flushed by a single thread at a time: the thread changing the store in
+ * {@link Durability#SYNC} mode, the writer thread otherwise. {@link #applied(String)} is called by the thread changing
+ * the store, so it may run while the writer thread records or flushes other changes.
+ * <p>
+ * A backend shared with other bootstrap server instances reports the changes it did not receive from this store to
+ * the {@link Listener} given to {@link #start(Listener)}.
+ */
+public interface BootstrapPersistence extends Closeable {
+
+    /**
+     * Receives the changes made to a persistence backend outside of this store.
+     */
+    interface Listener {
+
+        /**
+         * @param changes the new configuration by endpoint, <code>null</code> for a removed endpoint
+         */
+        void changed(Map<String, BootstrapConfig> changes);
+
+        /**
+         * The whole content of the backend was replaced by another process. By default, the configurations are
+         * reported as changes, the ones the backend does not hold anymore are kept.
+         *
+         * @param configs all the configurations by endpoint
+         */
+        default void replaced(Map<String, BootstrapConfig> configs) {
+            changed(configs);
+        }
+    }
+
+    /**
+     * Load the persisted bootstrap configurations.
+     *
+     * @return the configurations by endpoint, never <code>null</code>
+     */
+    Map<String, BootstrapConfig> load() throws IOException;
+
+    /**
+     * Load the persisted bootstrap configurations one by one, so they are never all held in memory at once. A
+     * <code>null</code> configuration removes an endpoint loaded before. By default, the configurations are taken from
+     * {@link #load()}.
+     *
+     * @param consumer receives each endpoint and its configuration
+     */
+    default void load(BiConsumer<String, BootstrapConfig> consumer) throws IOException {
+        for (Map.Entry<String, BootstrapConfig> e : load().entrySet()) {
+            consumer.accept(e.getKey(), e.getValue());
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the store may start without the configurations it could not load, rather than fail
+     *         to start. A local file only holds what this instance wrote, a shared backend is the source of truth of
+     *         all the instances. <code>true</code> by default.
+     */
+    default boolean isLoadFailureTolerated() {
+        return true;
+    }
+
+    /**
+     * Start reporting the external changes, called once after the configurations are loaded. Does nothing by default.
+     */
+    default void start(Listener listener) {
+    }
+
+    /**
+     * Called when the store applies a change, with its mutations blocked, before the change is recorded by
+     * {@link #added(String, BootstrapConfig)} or {@link #deleted(String)}. Also called by the thread recording the
+     * changes before an endpoint whose change failed is recorded again. Does nothing by default.
+     */
+    default void applied(String endpoint) {
+    }
+
+    /**
+     * Record that the configuration of an endpoint was added or replaced.
+     */
+    void added(String endpoint, BootstrapConfig config) throws IOException;
+
+    /**
+     * Record that the configuration of an endpoint was removed.
+     */
+    void deleted(String endpoint) throws IOException;
+
+    /**
+     * Make all the recorded changes durable.
+     *
+     * @param configs the current content of the store, for backends which persist full snapshots
+     */
+    void flush(Map<String, BootstrapConfig> configs) throws IOException;
+}
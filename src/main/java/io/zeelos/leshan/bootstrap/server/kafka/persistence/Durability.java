@@ -0,0 +1,44 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+/**
+ * When a change of the bootstrap store is acknowledged to the client which requested it.
+ * <p>
+ * In every mode the change is visible to the bootstrap server as soon as it is applied to the store. If it can not be
+ * persisted, it stays in memory until the next restart and the failure is reported to the client when the mode waits
+ * for persistence.
+ */
+public enum Durability {
+
+    /**
+     * The change is written and synced to disk by the requesting thread before being acknowledged (REST API: 200/204
+     * once durable).
+     */
+    SYNC,
+
+    /**
+     * The change is written by a background writer which coalesces all the changes received during the commit interval
+     * into a single write and sync. It is acknowledged once this group commit completed (REST API: 200/204 once
+     * durable).
+     */
+    GROUP_COMMIT,
+
+    /**
+     * The change is written like in {@link #GROUP_COMMIT} mode but acknowledged immediately; it may be lost if the
+     * process dies before the next group commit (REST API: 202 Accepted).
+     */
+    ASYNC
+}
@@ -0,0 +1,326 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.CountingOutputStream;
+
+/**
+ * Persists the whole store as a single snapshot file, rewritten on each flush.
+ * <p>
+ * The file can also be watched, so the changes written to it by another process are reloaded without a restart. The
+ * file is parsed by the watcher thread once it stopped changing for {@value #QUIET_PERIOD}ms, then its whole content
+ * is reported to {@link BootstrapPersistence.Listener#replaced(Map)}. The snapshots written by this persistence are
+ * recognized by their checksum and ignored. A flush never overwrites a change not reloaded yet: the file is reloaded
+ * instead and the flush fails.
+ */
+public class FilePersistence implements BootstrapPersistence {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FilePersistence.class);
+
+    // delay without change before a watched file is reloaded, the writers may not replace it atomically
+    private static final long QUIET_PERIOD = 500;
+
+    private final File file;
+    private final SnapshotFormat format;
+    private final boolean watch;
+
+    private boolean dirty;
+
+    // the CRC32 of the content last loaded or written, guarded by this
+    private long checksum = -1;
+
+    private WatchService watchService;
+    private Thread watcher;
+    private volatile Listener listener;
+
+    /**
+     * @param filename the file path to persist the store as a JSON document
+     */
+    public FilePersistence(String filename) {
+        this(filename, new JsonSnapshotFormat());
+    }
+
+    /**
+     * @param filename the file path to persist the store
+     * @param format the format of the file
+     */
+    public FilePersistence(String filename, SnapshotFormat format) {
+        this(filename, format, false);
+    }
+
+    /**
+     * @param filename the file path to persist the store
+     * @param format the format of the file
+     * @param watch <code>true</code> to reload the file when another process changes it
+     */
+    public FilePersistence(String filename, SnapshotFormat format, boolean watch) {
+        Validate.notEmpty(filename);
+        Validate.notNull(format);
+        this.file = new File(filename);
+        this.format = format;
+        this.watch = watch;
+    }
+
+    @Override
+    public Map<String, BootstrapConfig> load() throws IOException {
+        final Map<String, BootstrapConfig> configs = new HashMap<>();
+        load(configs::put);
+        return configs;
+    }
+
+    @Override
+    public void load(BiConsumer<String, BootstrapConfig> consumer) throws IOException {
+        if (!file.exists())
+            return;
+        try (CheckedInputStream in = new CheckedInputStream(new FileInputStream(file), new CRC32())) {
+            format.read(new BufferedInputStream(in), consumer);
+            // the format may not read the trailing bytes
+            byte[] rest = new byte[4096];
+            while (in.read(rest) >= 0) {
+                // checksum only
+            }
+            synchronized (this) {
+                checksum = in.getChecksum().getValue();
+            }
+        }
+    }
+
+    @Override
+    public void start(final Listener listener) {
+        if (!watch)
+            return;
+
+        Path directory = file.getAbsoluteFile().getParentFile().toPath();
+        try {
+            Files.createDirectories(directory);
+            watchService = FileSystems.getDefault().newWatchService();
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            LOG.error("Unable to watch {}, its changes will only be loaded on restart", file, e);
+            return;
+        }
+        this.listener = listener;
+        watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch(listener);
+            }
+        }, "Bootstrap Config File Watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        LOG.info("Watching {} for changes", file);
+    }
+
+    private void watch(Listener listener) {
+        try {
+            while (true) {
+                if (!isAboutFile(watchService.take()))
+                    continue;
+                // wait for the writer to be done
+                WatchKey key;
+                while ((key = watchService.poll(QUIET_PERIOD, TimeUnit.MILLISECONDS)) != null) {
+                    isAboutFile(key);
+                }
+                reload(listener);
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            // closing
+        }
+    }
+
+    private boolean isAboutFile(WatchKey key) {
+        boolean aboutFile = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            // an overflow may hide an event about the file
+            aboutFile |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || file.getName().equals(String.valueOf(event.context()));
+        }
+        key.reset();
+        return aboutFile;
+    }
+
+    private void reload(Listener listener) {
+        byte[] content;
+        synchronized (this) {
+            // read with the flushes blocked, so a snapshot written by this persistence is never taken for another one
+            try {
+                content = readChanged();
+            } catch (IOException e) {
+                LOG.warn("Unable to read {}", file, e);
+                return;
+            }
+        }
+        if (content != null) {
+            replace(content, listener);
+        }
+    }
+
+    /**
+     * @return the content of the file if another process changed it since it was last loaded or written,
+     *         <code>null</code> otherwise
+     */
+    private byte[] readChanged() throws IOException {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(file.toPath());
+        } catch (NoSuchFileException e) {
+            // being replaced, or removed by mistake: the configurations are kept
+            return null;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if (crc.getValue() == checksum)
+            return null;
+        checksum = crc.getValue();
+        return content;
+    }
+
+    private void replace(byte[] content, Listener listener) {
+        Map<String, BootstrapConfig> configs;
+        try {
+            configs = format.read(new ByteArrayInputStream(content));
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Ignoring invalid content of {}, waiting for the next change", file, e);
+            return;
+        }
+        LOG.info("Reloading {} bootstrap configs from {}", configs.size(), file);
+        try {
+            listener.replaced(configs);
+        } catch (RuntimeException e) {
+            LOG.error("Unable to apply the content of {}", file, e);
+        }
+    }
+
+    @Override
+    public void added(String endpoint, BootstrapConfig config) {
+        dirty = true;
+    }
+
+    @Override
+    public void deleted(String endpoint) {
+        dirty = true;
+    }
+
+    @Override
+    public void flush(Map<String, BootstrapConfig> configs) throws IOException {
+        if (!dirty)
+            return;
+        Listener listener = this.listener;
+        byte[] changed = null;
+        synchronized (this) {
+            // the watcher may not have reloaded the last change yet
+            if (listener != null) {
+                changed = readChanged();
+            }
+            if (changed == null) {
+                checksum = write(file, format, configs);
+            }
+        }
+        dirty = false;
+        if (changed != null) {
+            // the store now holds the content of the file, without the changes of this flush
+            replace(changed, listener);
+            throw new IOException(file + " was changed by another process, it is reloaded instead of being written");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            try {
+                watcher.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    static Map<String, BootstrapConfig> read(File file, SnapshotFormat format) throws IOException {
+        if (!file.exists()) {
+            return new HashMap<>();
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return format.read(in);
+        }
+    }
+
+    static void read(File file, SnapshotFormat format, BiConsumer<String, BootstrapConfig> consumer)
+            throws IOException {
+        if (!file.exists())
+            return;
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            format.read(in, consumer);
+        }
+    }
+
+    /**
+     * Write a snapshot aside then swap it atomically, so a crash never leaves a partial file.
+     *
+     * @return the CRC32 of the snapshot
+     */
+    static long write(File file, SnapshotFormat format, Map<String, BootstrapConfig> configs) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+
+        File tmp = new File(file.getPath() + ".tmp");
+        CRC32 crc = new CRC32();
+        try (FileOutputStream stream = new FileOutputStream(tmp);
+                OutputStream out = new BufferedOutputStream(new CheckedOutputStream(
+                        new CountingOutputStream(stream, BootstrapMetrics.PERSISTENCE_BYTES), crc))) {
+            format.write(out, configs);
+            out.flush();
+            stream.getFD().sync();
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.CountingOutputStream;
+
+/**
+ * Persists the store as a JSON snapshot plus an append-only journal of the changes made since that snapshot.
+ * <p>
+ * Each change is appended to the journal as a single JSON line, so writing it costs O(record) instead of rewriting
+ * the whole store. Once the journal holds more records than the snapshot (and at least
+ * {@link #DEFAULT_COMPACTION_THRESHOLD}), it is compacted: a new snapshot is atomically swapped in and the journal is
+ * truncated. Replaying a journal over a snapshot which already contains its changes is harmless, so a crash at any
+ * point of the compaction is recovered on the next load.
+ * <p>
+ * A crash can only tear the records at the end of the journal, they are dropped and truncated on load. A corrupt
+ * record followed by valid ones is skipped and reported as an error, the records after it are still applied.
+ * <p>
+ * The snapshot uses the same format as {@link FilePersistence}, so an existing configuration file can be used as is.
+ */
+public class JournalPersistence implements BootstrapPersistence {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JournalPersistence.class);
+
+    public static final String JOURNAL_SUFFIX = ".journal";
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 10000;
+
+    private static class Record {
+        String op;
+        String endpoint;
+        BootstrapConfig config;
+
+        Record(String op, String endpoint, BootstrapConfig config) {
+            this.op = op;
+            this.endpoint = endpoint;
+            this.config = config;
+        }
+    }
+
+    private static final String PUT = "put";
+    private static final String DELETE = "delete";
+
+    private final File snapshotFile;
+    private final File journalFile;
+    private final int compactionThreshold;
+    private final SnapshotFormat snapshotFormat;
+    private final Gson journalGson;
+
+    private FileOutputStream journalStream;
+    private Writer journal;
+    private int journalRecords;
+    private boolean dirty;
+
+    /**
+     * @param filename the file path of the snapshot, the journal is stored next to it with the
+     *        {@value #JOURNAL_SUFFIX} suffix
+     */
+    public JournalPersistence(String filename) {
+        this(filename, new JsonSnapshotFormat(), DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * @param filename the file path of the snapshot
+     * @param snapshotFormat the format of the snapshot
+     * @param compactionThreshold the minimum number of journal records before a compaction is considered
+     */
+    public JournalPersistence(String filename, SnapshotFormat snapshotFormat, int compactionThreshold) {
+        Validate.notEmpty(filename);
+        Validate.notNull(snapshotFormat);
+        Validate.isTrue(compactionThreshold > 0, "compaction threshold must be positive");
+        this.snapshotFile = new File(filename);
+        this.journalFile = new File(filename + JOURNAL_SUFFIX);
+        this.compactionThreshold = compactionThreshold;
+        this.snapshotFormat = snapshotFormat;
+        this.journalGson = new Gson();
+    }
+
+    @Override
+    public Map<String, BootstrapConfig> load() throws IOException {
+        final Map<String, BootstrapConfig> configs = new HashMap<>();
+        load(new BiConsumer<String, BootstrapConfig>() {
+            @Override
+            public void accept(String endpoint, BootstrapConfig config) {
+                if (config == null) {
+                    configs.remove(endpoint);
+                } else {
+                    configs.put(endpoint, config);
+                }
+            }
+        });
+        return configs;
+    }
+
+    @Override
+    public void load(BiConsumer<String, BootstrapConfig> consumer) throws IOException {
+        FilePersistence.read(snapshotFile, snapshotFormat, consumer);
+
+        if (!journalFile.exists())
+            return;
+
+        // the journal writes a single '\n' after each record
+        long offset = 0; // of the next line
+        long complete = 0; // end of the last valid record, with its '\n' if any
+        int lineNumber = 0;
+        int invalid = 0; // invalid records since the last valid one
+        try (InputStream in = new BufferedInputStream(new FileInputStream(journalFile))) {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            while (readLine(in, line)) {
+                lineNumber++;
+                offset += line.size() + 1;
+                Record record = parse(new String(line.toByteArray(), StandardCharsets.UTF_8));
+                line.reset();
+                if (record == null) {
+                    invalid++;
+                    continue;
+                }
+                if (invalid > 0) {
+                    // not at the end, so not torn by a crash
+                    LOG.error("Skipped {} corrupt record(s) before line {} of {}", invalid, lineNumber, journalFile);
+                    invalid = 0;
+                }
+                consumer.accept(record.endpoint, DELETE.equals(record.op) ? null : record.config);
+                complete = offset;
+                journalRecords++;
+            }
+        }
+
+        if (invalid > 0) {
+            // torn by a crash, do not append after it
+            LOG.warn("Truncating {} partial record(s) at the end of {}", invalid, journalFile);
+            try (RandomAccessFile raf = new RandomAccessFile(journalFile, "rw")) {
+                raf.setLength(complete);
+            }
+        } else if (offset > journalFile.length()) {
+            // the last record is whole but its line was not ended
+            appendNewLine();
+        }
+    }
+
+    // read the bytes of a line, without its '\n', returns false at the end of the stream
+    private static boolean readLine(InputStream in, ByteArrayOutputStream line) throws IOException {
+        int b = in.read();
+        if (b < 0)
+            return false;
+        while (b >= 0 && b != '\n') {
+            line.write(b);
+            b = in.read();
+        }
+        return true;
+    }
+
+    // returns null for a corrupt record
+    private Record parse(String line) {
+        try {
+            Record record = journalGson.fromJson(line, Record.class);
+            return record == null || record.endpoint == null ? null : record;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    private void appendNewLine() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write('\n');
+        }
+    }
+
+    @Override
+    public void added(String endpoint, BootstrapConfig config) throws IOException {
+        append(new Record(PUT, endpoint, config));
+    }
+
+    @Override
+    public void deleted(String endpoint) throws IOException {
+        append(new Record(DELETE, endpoint, null));
+    }
+
+    @Override
+    public void flush(Map<String, BootstrapConfig> configs) throws IOException {
+        if (!dirty)
+            return;
+
+        journal.flush();
+        journalStream.getFD().sync();
+        dirty = false;
+
+        if (journalRecords >= compactionThreshold && journalRecords >= configs.size()) {
+            compact(configs);
+        }
+    }
+
+    /**
+     * Write a new snapshot of the store and truncate the journal.
+     */
+    public void compact(Map<String, BootstrapConfig> configs) throws IOException {
+        closeJournal();
+
+        FilePersistence.write(snapshotFile, snapshotFormat, configs);
+
+        // the snapshot now contains every journal record
+        new FileOutputStream(journalFile).close();
+        journalRecords = 0;
+        LOG.debug("Journal compacted into {} ({} endpoints)", snapshotFile, configs.size());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.flush();
+            journalStream.getFD().sync();
+        }
+        closeJournal();
+    }
+
+    private void append(Record record) throws IOException {
+        if (journal == null) {
+            File parent = journalFile.getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            journalStream = new FileOutputStream(journalFile, true);
+            OutputStream out = new CountingOutputStream(journalStream, BootstrapMetrics.PERSISTENCE_BYTES);
+            journal = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        }
+        journalGson.toJson(record, Record.class, journal);
+        journal.write('\n');
+        journalRecords++;
+        dirty = true;
+    }
+
+    private void closeJournal() throws IOException {
+        if (journal != null) {
+            journal.close();
+            journal = null;
+            journalStream = null;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+
+/**
+ * The historical snapshot format: a single pretty-printed JSON document.
+ */
+public class JsonSnapshotFormat implements SnapshotFormat {
+
+    private static final Type GSON_TYPE = new TypeToken<Map<String, BootstrapConfig>>() {
+    }.getType();
+
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    @Override
+    public Map<String, BootstrapConfig> read(InputStream in) throws IOException {
+        try {
+            Map<String, BootstrapConfig> configs = gson.fromJson(new InputStreamReader(in, StandardCharsets.UTF_8),
+                    GSON_TYPE);
+            return configs == null ? new HashMap<String, BootstrapConfig>() : configs;
+        } catch (JsonParseException e) {
+            throw new IOException("Invalid JSON snapshot", e);
+        }
+    }
+
+    @Override
+    public void read(InputStream in, BiConsumer<String, BootstrapConfig> consumer) throws IOException {
+        JsonReader reader = gson.newJsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        try {
+            JsonToken token;
+            try {
+                token = reader.peek();
+            } catch (EOFException e) {
+                // empty document
+                return;
+            }
+            if (token == JsonToken.NULL)
+                return;
+
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String endpoint = reader.nextName();
+                BootstrapConfig config = gson.fromJson(reader, BootstrapConfig.class);
+                consumer.accept(endpoint, config);
+            }
+            reader.endObject();
+        } catch (JsonParseException | IllegalStateException e) {
+            throw new IOException("Invalid JSON snapshot", e);
+        }
+    }
+
+    @Override
+    public void write(OutputStream out, Map<String, BootstrapConfig> configs) throws IOException {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        gson.toJson(configs, GSON_TYPE, writer);
+        writer.flush();
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.ConsumerRecords;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+
+/**
+ * Persists the store in a log-compacted Kafka topic keyed by endpoint, which is the source of truth shared by all the
+ * bootstrap server instances using it.
+ * <p>
+ * Each configuration is a JSON record and a removal is a tombstone. On load the topic is read from the beginning up
+ * to its end offsets, then it is tailed by a background thread which reports the records of the other instances to
+ * the store. The records produced by this instance carry its id in a header and are skipped, the store already holds
+ * them. Until its own change of an endpoint is read back, the records of the other instances for this endpoint precede
+ * it in the topic and are skipped too: every instance converges to the topic order.
+ * <p>
+ * The topic must be created with <code>cleanup.policy=compact</code>. As the topic is the source of truth, a store
+ * which cannot load it fails to start instead of serving a partial content. A record which cannot be decoded fails
+ * the load too, it is only skipped by the tailer.
+ */
+public class KafkaPersistence implements BootstrapPersistence {
+
+    private static final Logger LOG = LoggerFactory.getLogger(KafkaPersistence.class);
+
+    public static final String DEFAULT_TOPIC = "bootstrap-configs";
+
+    // the header holding the id of the instance which produced a record
+    static final String INSTANCE_HEADER = "bootstrap-instance";
+
+    private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+
+    private final Producer<String, String> producer;
+    private final Consumer<String, String> consumer;
+    private final String topic;
+    private final Gson gson;
+    private final byte[] instanceId = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+
+    // the number of changes of each endpoint made by this instance and not read back yet
+    private final ConcurrentMap<String, Integer> unread = new ConcurrentHashMap<>();
+
+    private final List<Future<RecordMetadata>> inFlight = new ArrayList<>();
+
+    private Thread tailer;
+    private volatile boolean running;
+
+    /**
+     * @param producer the producer used to write the changes
+     * @param consumer the consumer used to read the topic, partitions are assigned manually
+     * @param topic the log-compacted topic
+     */
+    public KafkaPersistence(Producer<String, String> producer, Consumer<String, String> consumer, String topic) {
+        Validate.notNull(producer);
+        Validate.notNull(consumer);
+        Validate.notEmpty(topic);
+        this.producer = producer;
+        this.consumer = consumer;
+        this.topic = topic;
+        this.gson = new Gson();
+    }
+
+    /**
+     * Create a Kafka persistence connected to the given brokers.
+     *
+     * @param bootstrapServers the Kafka bootstrap servers (<code>host:port,...</code>)
+     * @param topic the log-compacted topic
+     */
+    public static KafkaPersistence create(String bootstrapServers, String topic) {
+        Properties producerProps = new Properties();
+        producerProps.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        producerProps.put(ProducerConfig.ACKS_CONFIG, "all");
+        producerProps.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        producerProps.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        producerProps.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+
+        Properties consumerProps = new Properties();
+        consumerProps.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        consumerProps.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        consumerProps.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+        consumerProps.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, StringDeserializer.class);
+
+        return new KafkaPersistence(new KafkaProducer<String, String>(producerProps),
+                new KafkaConsumer<String, String>(consumerProps), topic);
+    }
+
+    @Override
+    public Map<String, BootstrapConfig> load() throws IOException {
+        final Map<String, BootstrapConfig> configs = new HashMap<>();
+        load(new BiConsumer<String, BootstrapConfig>() {
+            @Override
+            public void accept(String endpoint, BootstrapConfig config) {
+                if (config == null) {
+                    configs.remove(endpoint);
+                } else {
+                    configs.put(endpoint, config);
+                }
+            }
+        });
+        return configs;
+    }
+
+    @Override
+    public void load(BiConsumer<String, BootstrapConfig> receiver) throws IOException {
+        List<TopicPartition> partitions = assign();
+
+        // read everything up to the current end of the topic
+        long records = 0;
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+        while (!reached(endOffsets)) {
+            for (ConsumerRecord<String, String> record : consumer.poll(POLL_TIMEOUT)) {
+                BootstrapConfig config;
+                try {
+                    config = decode(record);
+                } catch (JsonParseException e) {
+                    throw new IOException(String.format("Undecodable bootstrap config of %s at offset %d of %s-%d",
+                            record.key(), record.offset(), record.topic(), record.partition()), e);
+                }
+                receiver.accept(record.key(), config);
+                records++;
+            }
+        }
+        LOG.info("Loaded {} bootstrap config records from topic {}", records, topic);
+    }
+
+    // assign all the partitions of the topic to the consumer, from their beginning
+    private List<TopicPartition> assign() throws IOException {
+        List<PartitionInfo> infos = consumer.partitionsFor(topic);
+        if (infos == null || infos.isEmpty()) {
+            throw new IOException("Topic " + topic + " does not exist");
+        }
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (PartitionInfo info : infos) {
+            partitions.add(new TopicPartition(info.topic(), info.partition()));
+        }
+        consumer.assign(partitions);
+        consumer.seekToBeginning(partitions);
+        return partitions;
+    }
+
+    private boolean reached(Map<TopicPartition, Long> endOffsets) {
+        for (Map.Entry<TopicPartition, Long> e : endOffsets.entrySet()) {
+            if (consumer.position(e.getKey()) < e.getValue())
+                return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isLoadFailureTolerated() {
+        return false;
+    }
+
+    @Override
+    public void start(final Listener listener) {
+        running = true;
+        tailer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                tail(listener);
+            }
+        }, "Bootstrap Store Kafka Tailer");
+        tailer.setDaemon(true);
+        tailer.start();
+    }
+
+    private void tail(Listener listener) {
+        // the endpoints changed by this instance while a change of another instance was reported for them
+        Set<String> overwritten = new HashSet<>();
+        try {
+            if (consumer.assignment().isEmpty()) {
+                // not loaded: the whole topic is reported
+                assign();
+            }
+            while (running) {
+                ConsumerRecords<String, String> records = consumer.poll(POLL_TIMEOUT);
+                if (records.isEmpty())
+                    continue;
+
+                Map<String, BootstrapConfig> changes = new LinkedHashMap<>();
+                for (ConsumerRecord<String, String> record : records) {
+                    String endpoint = record.key();
+                    if (isOwn(record)) {
+                        // reported again only if the change of the other instance may have been applied last
+                        if (read(endpoint) && overwritten.remove(endpoint)) {
+                            report(changes, record);
+                        }
+                    } else if (!unread.containsKey(endpoint)) {
+                        report(changes, record);
+                    }
+                }
+                if (changes.isEmpty())
+                    continue;
+
+                listener.changed(changes);
+                for (String endpoint : changes.keySet()) {
+                    if (unread.containsKey(endpoint)) {
+                        overwritten.add(endpoint);
+                    }
+                }
+            }
+        } catch (WakeupException e) {
+            // closing
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Stopped tailing bootstrap configs topic {}", topic, e);
+        } finally {
+            consumer.close();
+        }
+    }
+
+    // a record which cannot be decoded is skipped, it must not stop the tailer
+    private void report(Map<String, BootstrapConfig> changes, ConsumerRecord<String, String> record) {
+        try {
+            changes.put(record.key(), decode(record));
+        } catch (JsonParseException e) {
+            LOG.error("Skipping the undecodable bootstrap config of {} at offset {} of {}-{}", record.key(),
+                    record.offset(), record.topic(), record.partition(), e);
+        }
+    }
+
+    private BootstrapConfig decode(ConsumerRecord<String, String> record) {
+        return record.value() == null ? null : gson.fromJson(record.value(), BootstrapConfig.class);
+    }
+
+    private boolean isOwn(ConsumerRecord<String, String> record) {
+        Header header = record.headers().lastHeader(INSTANCE_HEADER);
+        return header != null && Arrays.equals(header.value(), instanceId);
+    }
+
+    // one change of this instance was read back or failed, returns whether none is left for the endpoint
+    private boolean read(String endpoint) {
+        return unread.computeIfPresent(endpoint, (key, count) -> count == 1 ? null : count - 1) == null;
+    }
+
+    /**
+     * Count the change as unread until it is read back from the topic, the changes of the other instances read
+     * meanwhile precede it and are skipped.
+     */
+    @Override
+    public void applied(String endpoint) {
+        unread.merge(endpoint, 1, Integer::sum);
+    }
+
+    @Override
+    public void added(String endpoint, BootstrapConfig config) {
+        String value = gson.toJson(config);
+        send(endpoint, value);
+        // in characters, the JSON and the endpoint names are mostly ASCII
+        BootstrapMetrics.PERSISTENCE_BYTES.add(endpoint.length() + value.length());
+    }
+
+    @Override
+    public void deleted(String endpoint) {
+        send(endpoint, null);
+        BootstrapMetrics.PERSISTENCE_BYTES.add(endpoint.length());
+    }
+
+    private void send(final String endpoint, String value) {
+        ProducerRecord<String, String> record = new ProducerRecord<>(topic, null, endpoint, value,
+                Collections.<Header> singletonList(new RecordHeader(INSTANCE_HEADER, instanceId)));
+        try {
+            inFlight.add(producer.send(record, new Callback() {
+                @Override
+                public void onCompletion(RecordMetadata metadata, Exception exception) {
+                    if (exception != null) {
+                        read(endpoint);
+                    }
+                }
+            }));
+        } catch (RuntimeException e) {
+            read(endpoint);
+            throw e;
+        }
+    }
+
+    @Override
+    public void flush(Map<String, BootstrapConfig> configs) throws IOException {
+        if (inFlight.isEmpty())
+            return;
+
+        producer.flush();
+        try {
+            for (Future<RecordMetadata> sent : inFlight) {
+                sent.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to write to topic " + topic, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while writing to topic " + topic, e);
+        } finally {
+            inFlight.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        if (tailer != null) {
+            consumer.wakeup();
+            try {
+                tailer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            consumer.close();
+        }
+        producer.close();
+    }
+}
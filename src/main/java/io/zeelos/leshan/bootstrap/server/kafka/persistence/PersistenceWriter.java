@@ -0,0 +1,239 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.util.NamedThreadFactory;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+
+/**
+ * Feeds the changes of the bootstrap store to a {@link BootstrapPersistence} according to a {@link Durability} mode.
+ * <p>
+ * Changes must be submitted in the order they were applied to the store, with its mutations blocked. Each submission
+ * returns a future completed once the change is durable (or failed to be persisted).
+ * <p>
+ * A failed change is still applied to the store. Its endpoint is recorded again with the next batch, with the
+ * configuration the store holds then, until a batch is persisted: the backend catches up with the store once it is
+ * available again.
+ */
+public class PersistenceWriter implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PersistenceWriter.class);
+
+    public static final long DEFAULT_COMMIT_INTERVAL = 10; // ms
+
+    private static class Change {
+        final String endpoint;
+        final BootstrapConfig config; // null for a deletion
+        final CompletableFuture<Void> persisted = new CompletableFuture<>();
+
+        Change(String endpoint, BootstrapConfig config) {
+            this.endpoint = endpoint;
+            this.config = config;
+        }
+    }
+
+    private final BootstrapPersistence persistence;
+    private final Durability durability;
+    private final Supplier<Map<String, BootstrapConfig>> snapshot;
+    private final ScheduledExecutorService executor;
+
+    private final Object lock = new Object();
+    private List<Change> pending = new ArrayList<>();
+    // the endpoints whose last batch failed, guarded by lock
+    private Set<String> unsaved = new LinkedHashSet<>();
+
+    /**
+     * @param persistence the persistence backend
+     * @param durability when changes are persisted
+     * @param commitInterval the interval in milliseconds between two group commits, unused in {@link Durability#SYNC}
+     *        mode
+     * @param snapshot provides the current content of the store
+     */
+    public PersistenceWriter(BootstrapPersistence persistence, Durability durability, long commitInterval,
+            Supplier<Map<String, BootstrapConfig>> snapshot) {
+        Validate.notNull(persistence);
+        Validate.notNull(durability);
+        this.persistence = persistence;
+        this.durability = durability;
+        this.snapshot = snapshot;
+
+        if (durability == Durability.SYNC) {
+            this.executor = null;
+        } else {
+            Validate.isTrue(commitInterval > 0, "commit interval must be positive");
+            this.executor = Executors
+                    .newSingleThreadScheduledExecutor(new NamedThreadFactory("Bootstrap Store Writer"));
+            this.executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    commit();
+                }
+            }, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Submit the addition or the replacement of the configuration of an endpoint.
+     */
+    public CompletableFuture<Void> added(String endpoint, BootstrapConfig config) {
+        return submit(new Change(endpoint, config));
+    }
+
+    /**
+     * Submit the addition or the replacement of the configurations of several endpoints, persisted together.
+     */
+    public CompletableFuture<Void> added(Map<String, BootstrapConfig> configs) {
+        List<Change> changes = new ArrayList<>(configs.size());
+        for (Map.Entry<String, BootstrapConfig> e : configs.entrySet()) {
+            changes.add(new Change(e.getKey(), e.getValue()));
+        }
+        return submit(changes);
+    }
+
+    /**
+     * Submit the removal of the configuration of an endpoint.
+     */
+    public CompletableFuture<Void> deleted(String endpoint) {
+        return submit(new Change(endpoint, null));
+    }
+
+    private CompletableFuture<Void> submit(Change change) {
+        submit(Collections.singletonList(change));
+        return change.persisted;
+    }
+
+    private CompletableFuture<Void> submit(List<Change> changes) {
+        if (changes.isEmpty())
+            return CompletableFuture.completedFuture(null);
+
+        for (Change change : changes) {
+            persistence.applied(change.endpoint);
+        }
+        if (executor == null) {
+            write(changes);
+        } else {
+            synchronized (lock) {
+                pending.addAll(changes);
+            }
+        }
+        // all the changes are written by the same batch
+        return changes.get(changes.size() - 1).persisted;
+    }
+
+    private void commit() {
+        List<Change> batch;
+        synchronized (lock) {
+            if (pending.isEmpty() && unsaved.isEmpty())
+                return;
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        write(batch);
+    }
+
+    private void write(List<Change> batch) {
+        long start = System.nanoTime();
+        Set<String> retried;
+        synchronized (lock) {
+            retried = unsaved;
+            unsaved = new LinkedHashSet<>();
+        }
+        try {
+            Map<String, BootstrapConfig> configs = snapshot.get();
+            for (Change change : batch) {
+                // recorded by this batch anyway
+                retried.remove(change.endpoint);
+            }
+            for (String endpoint : retried) {
+                retry(endpoint, configs.get(endpoint));
+            }
+            for (Change change : batch) {
+                if (change.config == null) {
+                    persistence.deleted(change.endpoint);
+                } else {
+                    persistence.added(change.endpoint, change.config);
+                }
+            }
+            persistence.flush(configs);
+            BootstrapMetrics.PERSISTENCE_WRITE.recordSince(start);
+        } catch (IOException | RuntimeException e) {
+            LOG.error("Could not save bootstrap infos, retrying with the next changes", e);
+            synchronized (lock) {
+                retried.addAll(unsaved);
+                for (Change change : batch) {
+                    retried.add(change.endpoint);
+                }
+                unsaved = retried;
+            }
+            for (Change change : batch) {
+                change.persisted.completeExceptionally(e);
+            }
+            return;
+        }
+        for (Change change : batch) {
+            change.persisted.complete(null);
+        }
+    }
+
+    // record the current configuration of an endpoint whose change failed to be persisted
+    private void retry(String endpoint, BootstrapConfig config) throws IOException {
+        persistence.applied(endpoint);
+        if (config == null) {
+            persistence.deleted(endpoint);
+        } else {
+            persistence.added(endpoint, config);
+        }
+    }
+
+    /**
+     * Persist the pending and the failed changes, then release the persistence backend.
+     */
+    @Override
+    public void close() throws IOException {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        commit();
+        persistence.close();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+
+/**
+ * Encoding of a snapshot of the whole bootstrap store.
+ */
+public interface SnapshotFormat {
+
+    Map<String, BootstrapConfig> read(InputStream in) throws IOException;
+
+    /**
+     * Read a snapshot one configuration at a time. By default, the whole snapshot is read by
+     * {@link #read(InputStream)} first.
+     */
+    default void read(InputStream in, BiConsumer<String, BootstrapConfig> consumer) throws IOException {
+        for (Map.Entry<String, BootstrapConfig> e : read(in).entrySet()) {
+            consumer.accept(e.getKey(), e.getValue());
+        }
+    }
+
+    void write(OutputStream out, Map<String, BootstrapConfig> configs) throws IOException;
+}
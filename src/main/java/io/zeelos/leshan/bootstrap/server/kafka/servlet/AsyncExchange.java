@@ -0,0 +1,357 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The non-blocking I/O of an asynchronous request: the body is read as the client sends it and the response is
+ * written as the client accepts it, so a slow client never holds a container thread.
+ * <p>
+ * The response body is written from a queue and, once the queue is drained, from an optional {@link Source} pulled on
+ * demand, so a large response is produced at the pace of the client instead of being buffered.
+ */
+class AsyncExchange implements WriteListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncExchange.class);
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    /**
+     * A response body produced on demand.
+     */
+    interface Source {
+
+        /**
+         * @return the next part of the body or <code>null</code> at its end
+         */
+        byte[] next() throws IOException;
+    }
+
+    /**
+     * A consumer of the request body.
+     */
+    interface BodyHandler {
+
+        void onData(byte[] data, int offset, int length) throws IOException;
+
+        void onEnd() throws IOException;
+    }
+
+    private final AsyncContext context;
+    private final HttpServletRequest request;
+    private final HttpServletResponse response;
+    private final ServletOutputStream out;
+
+    // write side, guarded by this
+    private final Deque<byte[]> pending = new ArrayDeque<>();
+    private Source source;
+    private boolean ended;
+    private boolean completed;
+
+    // read side, guarded by readLock
+    private final Object readLock = new Object();
+    private final byte[] buffer = new byte[READ_BUFFER_SIZE];
+    private ServletInputStream in;
+    private BodyHandler handler;
+    private boolean paused;
+    private boolean allRead;
+
+    /**
+     * Put the request in asynchronous mode.
+     */
+    AsyncExchange(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        this.request = req;
+        this.response = resp;
+        this.context = req.startAsync();
+        // idle connections are still closed by the connector
+        context.setTimeout(0);
+        this.out = resp.getOutputStream();
+        out.setWriteListener(this);
+    }
+
+    // /////// Read side
+
+    /**
+     * Read the body as it arrives, the handler is called by the container threads.
+     */
+    void read(BodyHandler handler) throws IOException {
+        this.handler = handler;
+        this.in = request.getInputStream();
+        in.setReadListener(new ReadListener() {
+            @Override
+            public void onDataAvailable() {
+                readAvailable();
+            }
+
+            @Override
+            public void onAllDataRead() {
+                endOfBody();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                fail(t);
+            }
+        });
+    }
+
+    /**
+     * Read the whole body, then hand it to the consumer. A body larger than maxSize is answered with 413.
+     */
+    void readBody(final int maxSize, final Consumer<byte[]> consumer) throws IOException {
+        read(new BodyHandler() {
+            private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            private boolean tooLarge;
+
+            @Override
+            public void onData(byte[] data, int offset, int length) {
+                if (tooLarge)
+                    return;
+                if (body.size() + length > maxSize) {
+                    tooLarge = true;
+                    sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                            "the body should not exceed " + maxSize + " bytes");
+                    return;
+                }
+                body.write(data, offset, length);
+            }
+
+            @Override
+            public void onEnd() {
+                if (!tooLarge) {
+                    consumer.accept(body.toByteArray());
+                }
+            }
+        });
+    }
+
+    /**
+     * Stop reading the body until {@link #resume()}, to bound what is buffered while it is processed.
+     */
+    void pause() {
+        synchronized (readLock) {
+            paused = true;
+        }
+    }
+
+    void resume() {
+        synchronized (readLock) {
+            paused = false;
+        }
+        readAvailable();
+    }
+
+    private void readAvailable() {
+        synchronized (readLock) {
+            try {
+                while (!paused && !allRead && in.isReady()) {
+                    int read = in.read(buffer);
+                    if (read < 0)
+                        break;
+                    handler.onData(buffer, 0, read);
+                }
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+                return;
+            }
+            if (paused || !in.isFinished())
+                return;
+        }
+        endOfBody();
+    }
+
+    private void endOfBody() {
+        synchronized (readLock) {
+            // both the container and a resumed read may notice the end
+            if (allRead)
+                return;
+            allRead = true;
+            try {
+                handler.onEnd();
+            } catch (IOException | RuntimeException e) {
+                fail(e);
+            }
+        }
+    }
+
+    // /////// Write side
+
+    /**
+     * Queue a part of the response body, it is written as soon as the client accepts it.
+     */
+    void write(byte[] data) {
+        synchronized (this) {
+            pending.add(data);
+        }
+        flush();
+    }
+
+    void write(String data) {
+        write(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Write the rest of the response body from the source, then complete the request.
+     */
+    void stream(Source source) {
+        synchronized (this) {
+            this.source = source;
+        }
+        flush();
+    }
+
+    /**
+     * Complete the request once the queued parts of the body are written.
+     */
+    void end() {
+        synchronized (this) {
+            ended = true;
+        }
+        flush();
+    }
+
+    void send(int statusCode, String contentType, byte[] body) {
+        response.setStatus(statusCode);
+        response.setContentType(contentType);
+        write(body);
+        end();
+    }
+
+    void sendStatus(int statusCode) {
+        response.setStatus(statusCode);
+        end();
+    }
+
+    void sendError(int statusCode, String errorMessage) {
+        response.setStatus(statusCode);
+        response.setContentType("text/plain; charset=UTF-8");
+        if (errorMessage != null)
+            write(errorMessage);
+        end();
+    }
+
+    /**
+     * @return the number of queued parts of the body not written yet
+     */
+    synchronized int backlog() {
+        return pending.size();
+    }
+
+    /**
+     * @return <code>true</code> once the request is completed, by the server or because the client went away
+     */
+    synchronized boolean isCompleted() {
+        return completed;
+    }
+
+    @Override
+    public void onWritePossible() {
+        flush();
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        fail(t);
+    }
+
+    private synchronized void flush() {
+        if (completed)
+            return;
+        try {
+            while (out.isReady()) {
+                byte[] data = pending.poll();
+                if (data == null && source != null) {
+                    data = source.next();
+                    if (data == null) {
+                        source = null;
+                        ended = true;
+                    }
+                }
+                if (data == null) {
+                    if (ended) {
+                        completed = true;
+                        context.complete();
+                    }
+                    return;
+                }
+                out.write(data);
+            }
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private synchronized void fail(Throwable t) {
+        if (completed)
+            return;
+        completed = true;
+        LOG.debug("Unable to complete {} {}", request.getMethod(), request.getRequestURI(), t);
+        if (!response.isCommitted()) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        context.complete();
+    }
+
+    // /////// Processing
+
+    /**
+     * Run a change of a store on the given executor, or answer 503 when too many changes are already waiting.
+     */
+    void execute(Executor executor, final Runnable change) {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        change.run();
+                    } catch (RuntimeException e) {
+                        LOG.warn("Unexpected error on {} {}", request.getMethod(), request.getRequestURI(), e);
+                        fail(e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            response.setHeader("Retry-After", "1");
+            sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "too many pending changes, retry later");
+        }
+    }
+
+    /**
+     * @return the exception a stage of a {@link java.util.concurrent.CompletableFuture} failed with
+     */
+    static Throwable cause(Throwable t) {
+        return t instanceof CompletionException && t.getCause() != null ? t.getCause() : t;
+    }
+}
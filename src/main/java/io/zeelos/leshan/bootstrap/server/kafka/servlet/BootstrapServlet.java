@@ -14,10 +14,22 @@
 
 package io.zeelos.leshan.bootstrap.server.kafka.servlet;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.lang.reflect.Type;
+import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -37,18 +49,30 @@ import com.google.gson.JsonSyntaxException;
 
 import org.apache.commons.lang.StringUtils;
 import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.util.NamedThreadFactory;
 
 import io.zeelos.leshan.bootstrap.server.kafka.BootstrapStoreImpl;
 import io.zeelos.leshan.bootstrap.server.kafka.ConfigurationChecker.ConfigurationException;
+import io.zeelos.leshan.bootstrap.server.kafka.TemplateStore;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.Durability;
 
 /**
  * Servlet for REST API in charge of adding bootstrap information to the bootstrap server.
+ * <p>
+ * Requests are asynchronous with non-blocking I/O: container threads only move bytes, the changes of the store are
+ * run by a dedicated bounded executor and a request is answered with 503 when too many changes are already waiting.
+ * <p>
+ * The listings are tagged with the revision of the store, so polling an unchanged store is answered with 304. The
+ * pages are also kept in a cache, gzipped, until the next change.
  */
 public class BootstrapServlet extends HttpServlet {
 
     private static final long serialVersionUID = 1L;
 
-    private static class SignedByteUnsignedByteAdapter implements JsonSerializer<Byte>, JsonDeserializer<Byte> {
+    /**
+     * Serializes the bytes as unsigned values, as expected by the web UI.
+     */
+    public static class SignedByteUnsignedByteAdapter implements JsonSerializer<Byte>, JsonDeserializer<Byte> {
 
         @Override
         public Byte deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext context)
@@ -62,34 +86,185 @@ public class BootstrapServlet extends HttpServlet {
         }
     }
 
+    // a line of a bulk request
+    private static class BulkEntry {
+        String endpoint;
+        String template; // optional
+        BootstrapConfig config;
+    }
+
+    // the result of a line of a bulk request
+    private static class BulkResult {
+        final int line;
+        final String endpoint;
+        int status;
+        String message;
+
+        BulkResult(int line, String endpoint) {
+            this.line = line;
+            this.endpoint = endpoint;
+        }
+    }
+
+    // page sizes of GET requests
+    private static final int DEFAULT_PAGE_SIZE = 1000;
+    private static final int MAX_PAGE_SIZE = 10000;
+
+    // number of configurations serialized at once when streaming all of them
+    private static final int STREAM_PAGE_SIZE = 100;
+
+    // number of lines of a bulk request applied and persisted together
+    private static final int BULK_CHUNK_SIZE = 10000;
+
+    // maximum size of the body of a single configuration, or of a line of a bulk request
+    static final int MAX_BODY_SIZE = 1024 * 1024;
+
+    private static final String JSON = "application/json";
+
+    // a change which failed to be persisted is still applied, the persistence retries it with the next changes
+    private static final String UNSAVED = "the configuration is applied but not persisted yet, it will be retried: ";
+
+    // pages kept in the response cache
+    private static final int MAX_CACHED_PAGES = 256;
+    private static final long MAX_CACHED_SIZE = 64 * 1024 * 1024;
+
     private final BootstrapStoreImpl bsStore;
+    private final TemplateStore templateStore;
+    private final Executor mutations;
 
     private final Gson gson;
 
-    public BootstrapServlet(BootstrapStoreImpl bsStore) {
+    private final ExecutorService verifier;
+
+    // the entity tags are prefixed by the start time, the revisions of a previous run are not the current ones
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final ResponseCache pages = new ResponseCache(MAX_CACHED_PAGES, MAX_CACHED_SIZE);
+
+    /**
+     * @param mutations the executor running the changes of the store, it should be bounded and reject the changes it
+     *        cannot queue
+     */
+    public BootstrapServlet(BootstrapStoreImpl bsStore, TemplateStore templateStore, Executor mutations) {
         this.bsStore = bsStore;
+        this.templateStore = templateStore;
+        this.mutations = mutations;
 
         this.gson = new GsonBuilder().registerTypeHierarchyAdapter(Byte.class, new SignedByteUnsignedByteAdapter())
                 .create();
+        this.verifier = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                new NamedThreadFactory("Bootstrap Config Verifier"));
+    }
+
+    @Override
+    public void destroy() {
+        verifier.shutdown();
+        super.destroy();
     }
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        AsyncExchange exchange = new AsyncExchange(req, resp);
         if (req.getPathInfo() != null) {
-            sendError(resp, HttpServletResponse.SC_NOT_FOUND, "bad URL");
+            exchange.sendError(HttpServletResponse.SC_NOT_FOUND, "bad URL");
             return;
         }
 
-        resp.setStatus(HttpServletResponse.SC_OK);
-        resp.setContentType("application/json");
-        resp.getOutputStream().write(gson.toJson(bsStore.getBootstrapConfigs()).getBytes(StandardCharsets.UTF_8));
+        // read before the configurations, a change made meanwhile moves the store to another revision
+        long revision = bsStore.getRevision();
+        String etag = String.format("\"%s-%d\"", epoch, revision);
+
+        String after = req.getParameter("after");
+        String limitParam = req.getParameter("limit");
+        if (after == null && limitParam == null) {
+            if (CachedResponse.notModified(exchange, req, resp, etag))
+                return;
+            // no paging: stream all the configurations, at the pace of the client
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.setContentType(JSON);
+            exchange.stream(new AsyncExchange.Source() {
+                private String last = null;
+                private boolean started;
+                private boolean done;
+
+                @Override
+                public byte[] next() {
+                    if (done)
+                        return null;
+                    StringBuilder json = new StringBuilder();
+                    if (!started) {
+                        json.append('{');
+                    }
+                    Map<String, BootstrapConfig> page = bsStore.getBootstrapConfigs(last, STREAM_PAGE_SIZE);
+                    last = appendConfigs(json, page, last, !started);
+                    started = true;
+                    if (page.size() < STREAM_PAGE_SIZE) {
+                        json.append('}');
+                        done = true;
+                    }
+                    return json.toString().getBytes(StandardCharsets.UTF_8);
+                }
+            });
+            return;
+        }
+
+        int limit = DEFAULT_PAGE_SIZE;
+        if (limitParam != null) {
+            try {
+                limit = Integer.parseInt(limitParam);
+            } catch (NumberFormatException e) {
+                limit = -1;
+            }
+            if (limit <= 0 || limit > MAX_PAGE_SIZE) {
+                exchange.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                        "limit should be between 1 and " + MAX_PAGE_SIZE);
+                return;
+            }
+        }
+
+        String key = after == null ? Integer.toString(limit) : limit + "/" + after;
+        CachedResponse response = pages.get(key, revision);
+        if (response == null) {
+            Map<String, BootstrapConfig> page = bsStore.getBootstrapConfigs(after, limit);
+            Map<String, String> headers = Collections.emptyMap();
+            if (page.size() == limit) {
+                // there may be more configurations, link to the next page
+                String last = null;
+                for (String endpoint : page.keySet()) {
+                    last = endpoint;
+                }
+                headers = Collections.singletonMap("Link", String.format("<%s?after=%s&limit=%d>; rel=\"next\"",
+                        req.getRequestURI(), URLEncoder.encode(last, "UTF-8"), limit));
+            }
+            StringBuilder json = new StringBuilder("{");
+            appendConfigs(json, page, after, true);
+            json.append('}');
+            response = new CachedResponse(etag, JSON, json.toString().getBytes(StandardCharsets.UTF_8), headers);
+            pages.put(key, revision, response);
+        }
+        response.send(exchange, req, resp);
+    }
+
+    // append the configurations as the members of a JSON object and return the last endpoint appended
+    private String appendConfigs(StringBuilder json, Map<String, BootstrapConfig> configs, String last,
+            boolean first) {
+        for (Map.Entry<String, BootstrapConfig> e : configs.entrySet()) {
+            if (!first) {
+                json.append(',');
+            }
+            first = false;
+            json.append(gson.toJson(e.getKey())).append(':');
+            json.append(gson.toJson(e.getValue(), BootstrapConfig.class));
+            last = e.getKey();
+        }
+        return last;
     }
 
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        final AsyncExchange exchange = new AsyncExchange(req, resp);
         if (req.getPathInfo() == null) {
-            // we need the endpoint in the URL
-            sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "endpoint name should be specified in the URL");
+            // no endpoint in the URL, this is a bulk request
+            exchange.read(new BulkRequest(exchange, resp));
             return;
         }
 
@@ -97,32 +272,269 @@ public class BootstrapServlet extends HttpServlet {
 
         // endPoint
         if (path.length != 1) {
-            sendError(resp, HttpServletResponse.SC_BAD_REQUEST,
+            exchange.sendError(HttpServletResponse.SC_BAD_REQUEST,
                     "endpoint name should be specified in the URL, nothing more");
             return;
         }
 
-        String endpoint = path[0];
+        final String endpoint = path[0];
+        final String template = req.getParameter("template");
+        exchange.readBody(MAX_BODY_SIZE, body -> exchange.execute(mutations, () -> {
+            try {
+                BootstrapConfig cfg = gson.fromJson(new String(body, StandardCharsets.UTF_8), BootstrapConfig.class);
+
+                if (cfg == null) {
+                    exchange.sendError(HttpServletResponse.SC_BAD_REQUEST, "no content");
+                } else {
+                    if (template != null) {
+                        // the body only holds the instances specific to this endpoint
+                        cfg = templateStore.merge(template, cfg);
+                    }
+                    acknowledge(exchange, bsStore.addConfig(endpoint, cfg), HttpServletResponse.SC_OK);
+                }
+            } catch (JsonSyntaxException | ConfigurationException e) {
+                exchange.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            }
+        }));
+    }
+
+    /**
+     * Adds the configurations of a NDJSON body, one <code>{"endpoint":"...","config":{...}}</code> object per line.
+     * A line may also name a template, its config then only holds the instances specific to the endpoint.
+     * <p>
+     * The body is read as it arrives and applied by chunks: the configurations of a chunk are verified in parallel,
+     * then the accepted ones are added and persisted as a single change. Reading is paused while a chunk is applied,
+     * so a large body is never buffered. The response is a NDJSON stream with the result of each line
+     * (<code>{"line":1,"endpoint":"...","status":200}</code>), so an invalid line does not fail the others.
+     */
+    private class BulkRequest implements AsyncExchange.BodyHandler {
+        private final AsyncExchange exchange;
+
+        // the line being read
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private boolean lineTooLong;
+        private int lineNumber;
+
+        // what was read after the last line of a full chunk, consumed once the chunk is applied
+        private byte[] remainder;
+
+        // the chunk being read
+        private List<BulkResult> results = new ArrayList<>();
+        private List<Map.Entry<String, BootstrapConfig>> configs = new ArrayList<>();
+        private List<BulkResult> configResults = new ArrayList<>();
+
+        // guarded by this
+        private boolean applying;
+        private boolean ended;
+
+        BulkRequest(AsyncExchange exchange, HttpServletResponse resp) {
+            this.exchange = exchange;
+            resp.setStatus(HttpServletResponse.SC_OK);
+            resp.setContentType("application/x-ndjson; charset=UTF-8");
+        }
+
+        @Override
+        public void onData(byte[] data, int offset, int length) {
+            consume(data, offset, length);
+        }
+
+        /**
+         * @return <code>true</code> if reading was paused to apply a full chunk
+         */
+        private boolean consume(byte[] data, int offset, int length) {
+            int start = offset;
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                if (data[i] == '\n') {
+                    appendToLine(data, start, i - start);
+                    endOfLine();
+                    start = i + 1;
+                    if (results.size() == BULK_CHUNK_SIZE) {
+                        // the rest of the buffer may hold more lines, the read buffer is reused
+                        remainder = Arrays.copyOfRange(data, start, end);
+                        exchange.pause();
+                        apply();
+                        return true;
+                    }
+                }
+            }
+            appendToLine(data, start, end - start);
+            return false;
+        }
+
+        @Override
+        public void onEnd() {
+            synchronized (this) {
+                ended = true;
+                if (applying)
+                    return;
+            }
+            finish();
+        }
+
+        private void finish() {
+            if (line.size() > 0 || lineTooLong) {
+                endOfLine();
+            }
+            if (results.isEmpty()) {
+                exchange.end();
+            } else {
+                apply();
+            }
+        }
+
+        private void appendToLine(byte[] data, int offset, int length) {
+            if (line.size() + length > MAX_BODY_SIZE) {
+                lineTooLong = true;
+                line.reset();
+            } else if (!lineTooLong) {
+                line.write(data, offset, length);
+            }
+        }
+
+        private void endOfLine() {
+            lineNumber++;
+            String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+            boolean tooLong = lineTooLong;
+            line.reset();
+            lineTooLong = false;
+            if (tooLong) {
+                BulkResult result = new BulkResult(lineNumber, null);
+                result.status = HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE;
+                result.message = "a line should not exceed " + MAX_BODY_SIZE + " bytes";
+                results.add(result);
+                return;
+            }
+            if (StringUtils.isBlank(text))
+                return;
+
+            BulkEntry entry;
+            try {
+                entry = gson.fromJson(text, BulkEntry.class);
+            } catch (JsonSyntaxException e) {
+                entry = null;
+            }
+            BulkResult result = new BulkResult(lineNumber, entry == null ? null : entry.endpoint);
+            results.add(result);
+            if (entry == null || StringUtils.isEmpty(entry.endpoint) || entry.config == null) {
+                result.status = HttpServletResponse.SC_BAD_REQUEST;
+                result.message = "each line should be a JSON object with an endpoint and a config";
+            } else if (entry.template != null) {
+                try {
+                    BootstrapConfig config = templateStore.merge(entry.template, entry.config);
+                    configs.add(new AbstractMap.SimpleEntry<>(entry.endpoint, config));
+                    configResults.add(result);
+                } catch (ConfigurationException e) {
+                    result.status = HttpServletResponse.SC_BAD_REQUEST;
+                    result.message = e.getMessage();
+                }
+            } else {
+                configs.add(new AbstractMap.SimpleEntry<>(entry.endpoint, entry.config));
+                configResults.add(result);
+            }
+        }
+
+        // apply the current chunk on the mutation executor, then write its results and go on reading
+        private void apply() {
+            final List<BulkResult> chunkResults = results;
+            final List<Map.Entry<String, BootstrapConfig>> chunkConfigs = configs;
+            final List<BulkResult> chunkConfigResults = configResults;
+            results = new ArrayList<>();
+            configs = new ArrayList<>();
+            configResults = new ArrayList<>();
+            synchronized (this) {
+                applying = true;
+            }
+
+            // the results are written once persisted, without holding the mutation thread
+            Runnable change = () -> applyBulkChunk(chunkConfigs, chunkConfigResults)
+                    .whenComplete((v, e) -> applied(chunkResults));
+            try {
+                mutations.execute(change);
+            } catch (RejectedExecutionException e) {
+                for (BulkResult result : chunkConfigResults) {
+                    result.status = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+                    result.message = "too many pending changes, retry later";
+                }
+                applied(chunkResults);
+            }
+        }
+
+        private void applied(List<BulkResult> chunkResults) {
+            StringBuilder out = new StringBuilder();
+            for (BulkResult result : chunkResults) {
+                out.append(gson.toJson(result)).append('\n');
+            }
+            exchange.write(out.toString());
 
-        try {
-            BootstrapConfig cfg = gson.fromJson(new InputStreamReader(req.getInputStream()), BootstrapConfig.class);
+            // reading is paused, nothing else consumes the body meanwhile
+            byte[] rest = remainder;
+            remainder = null;
+            if (rest != null && consume(rest, 0, rest.length))
+                return;
 
-            if (cfg == null) {
-                sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "no content");
+            boolean last;
+            synchronized (this) {
+                applying = false;
+                last = ended;
+            }
+            if (last) {
+                finish();
             } else {
-                bsStore.addConfig(endpoint, cfg);
-                resp.setStatus(HttpServletResponse.SC_OK);
+                exchange.resume();
+            }
+        }
+    }
+
+    // completed once each result has its status
+    private CompletableFuture<Void> applyBulkChunk(List<Map.Entry<String, BootstrapConfig>> configs,
+            final List<BulkResult> results) {
+        final boolean async = bsStore.getDurability() == Durability.ASYNC;
+        return bsStore.addConfigs(configs, verifier).thenCompose(persisted -> {
+            CompletableFuture<?>[] done = new CompletableFuture<?>[persisted.size()];
+            for (int i = 0; i < persisted.size(); i++) {
+                final BulkResult result = results.get(i);
+                if (async && !persisted.get(i).isCompletedExceptionally()) {
+                    // acknowledged before being persisted
+                    result.status = HttpServletResponse.SC_ACCEPTED;
+                    done[i] = CompletableFuture.completedFuture(null);
+                } else {
+                    done[i] = persisted.get(i).handle((v, e) -> {
+                        setResult(result, e);
+                        return null;
+                    });
+                }
             }
-        } catch (JsonSyntaxException | ConfigurationException e) {
-            sendError(resp, HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return CompletableFuture.allOf(done);
+        }).exceptionally(e -> {
+            for (BulkResult result : results) {
+                setResult(result, e);
+            }
+            return null;
+        });
+    }
+
+    private static void setResult(BulkResult result, Throwable e) {
+        if (e == null) {
+            result.status = HttpServletResponse.SC_OK;
+            return;
+        }
+        Throwable cause = AsyncExchange.cause(e);
+        if (cause instanceof ConfigurationException) {
+            result.status = HttpServletResponse.SC_BAD_REQUEST;
+            result.message = cause.getMessage();
+        } else {
+            result.status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
+            result.message = UNSAVED + cause.getMessage();
         }
     }
 
     @Override
     protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        final AsyncExchange exchange = new AsyncExchange(req, resp);
         if (req.getPathInfo() == null) {
             // we need the endpoint in the URL
-            sendError(resp, HttpServletResponse.SC_BAD_REQUEST, "endpoint name should be specified in the URL");
+            exchange.sendError(HttpServletResponse.SC_BAD_REQUEST, "endpoint name should be specified in the URL");
             return;
         }
 
@@ -130,24 +542,42 @@ public class BootstrapServlet extends HttpServlet {
 
         // endPoint
         if (path.length != 1) {
-            sendError(resp, HttpServletResponse.SC_BAD_REQUEST,
+            exchange.sendError(HttpServletResponse.SC_BAD_REQUEST,
                     "endpoint name should be specified in the URL, nothing more");
             return;
         }
 
-        String endpoint = path[0];
+        final String endpoint = path[0];
 
-        if (bsStore.deleteConfig(endpoint)) {
-            resp.setStatus(HttpServletResponse.SC_NO_CONTENT);
-        } else {
-            sendError(resp, HttpServletResponse.SC_NOT_FOUND, "no config for " + endpoint);
-        }
+        exchange.execute(mutations, () -> {
+            CompletableFuture<Boolean> deleted = bsStore.deleteConfig(endpoint);
+            // a missing configuration is known at once, a removal is acknowledged without waiting for it here
+            if (!deleted.isCompletedExceptionally() && Boolean.FALSE.equals(deleted.getNow(null))) {
+                exchange.sendError(HttpServletResponse.SC_NOT_FOUND, "no config for " + endpoint);
+            } else {
+                acknowledge(exchange, deleted, HttpServletResponse.SC_NO_CONTENT);
+            }
+        });
     }
 
-    private void sendError(HttpServletResponse resp, int statusCode, String errorMessage) throws IOException {
-        resp.setStatus(statusCode);
-        resp.setContentType("text/plain; charset=UTF-8");
-        if (errorMessage != null)
-            resp.getOutputStream().write(errorMessage.getBytes(StandardCharsets.UTF_8));
+    /**
+     * Acknowledge a change of the store according to its {@link Durability} mode: immediately with 202 Accepted in
+     * {@link Durability#ASYNC} mode, with the given status code once persisted otherwise.
+     */
+    private void acknowledge(final AsyncExchange exchange, CompletableFuture<?> persisted, final int statusCode) {
+        if (bsStore.getDurability() == Durability.ASYNC) {
+            exchange.sendStatus(HttpServletResponse.SC_ACCEPTED);
+            return;
+        }
+
+        // group commits complete the future later, do not hold the mutation thread meanwhile
+        persisted.whenComplete((result, e) -> {
+            if (e == null) {
+                exchange.sendStatus(statusCode);
+            } else {
+                exchange.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                        UNSAVED + AsyncExchange.cause(e).getMessage());
+            }
+        });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,135 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.lang.StringUtils;
+
+/**
+ * A response serialized once with its entity tag and gzip encoding, then served to many requests: a request whose
+ * <code>If-None-Match</code> header holds the tag gets a 304, a request accepting gzip gets the compressed body.
+ */
+class CachedResponse {
+
+    // bodies too small to be worth compressing
+    private static final int MIN_GZIP_SIZE = 256;
+
+    private final String etag;
+    private final String contentType;
+    private final byte[] body;
+    private final byte[] gzipped; // null if not smaller than the body
+    private final Map<String, String> headers;
+
+    CachedResponse(String etag, String contentType, byte[] body) {
+        this(etag, contentType, body, Collections.<String, String> emptyMap());
+    }
+
+    /**
+     * @param headers the other headers of the response
+     */
+    CachedResponse(String etag, String contentType, byte[] body, Map<String, String> headers) {
+        this.etag = etag;
+        this.contentType = contentType;
+        this.body = body;
+        this.headers = headers;
+        byte[] compressed = body.length < MIN_GZIP_SIZE ? null : gzip(body);
+        this.gzipped = compressed != null && compressed.length < body.length ? compressed : null;
+    }
+
+    int size() {
+        return body.length + (gzipped == null ? 0 : gzipped.length);
+    }
+
+    void send(AsyncExchange exchange, HttpServletRequest req, HttpServletResponse resp) {
+        for (Map.Entry<String, String> e : headers.entrySet()) {
+            resp.setHeader(e.getKey(), e.getValue());
+        }
+        if (notModified(exchange, req, resp, etag))
+            return;
+
+        if (gzipped != null) {
+            resp.setHeader("Vary", "Accept-Encoding");
+            if (acceptsGzip(req)) {
+                resp.setHeader("Content-Encoding", "gzip");
+                resp.setContentLength(gzipped.length);
+                exchange.send(HttpServletResponse.SC_OK, contentType, gzipped);
+                return;
+            }
+        }
+        resp.setContentLength(body.length);
+        exchange.send(HttpServletResponse.SC_OK, contentType, body);
+    }
+
+    /**
+     * Set the entity tag of the response and answer 304 if the client already has this version.
+     *
+     * @return <code>true</code> if the response was sent
+     */
+    static boolean notModified(AsyncExchange exchange, HttpServletRequest req, HttpServletResponse resp,
+            String etag) {
+        resp.setHeader("ETag", etag);
+        // the clients must revalidate their copy on each use
+        resp.setHeader("Cache-Control", "no-cache");
+
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        if (ifNoneMatch == null)
+            return false;
+        for (String tag : StringUtils.split(ifNoneMatch, ',')) {
+            tag = tag.trim();
+            // weak comparison: the gzip encoding is the same version
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                exchange.sendStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean acceptsGzip(HttpServletRequest req) {
+        String acceptEncoding = req.getHeader("Accept-Encoding");
+        if (acceptEncoding == null)
+            return false;
+        for (String coding : StringUtils.split(acceptEncoding, ',')) {
+            String[] parts = StringUtils.split(coding, ';');
+            if (parts.length > 0 && parts[0].trim().equalsIgnoreCase("gzip")) {
+                return parts.length == 1 || !parts[1].replace(" ", "").matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4);
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        } catch (IOException e) {
+            // not thrown by a byte array stream
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
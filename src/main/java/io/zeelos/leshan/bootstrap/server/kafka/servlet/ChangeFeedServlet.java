@@ -0,0 +1,238 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.servlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.util.NamedThreadFactory;
+
+import io.zeelos.leshan.bootstrap.server.kafka.BootstrapStoreImpl;
+
+/**
+ * Servlet streaming the changes of the bootstrap store as server-sent events, so the web UI applies them in place
+ * instead of reloading all the configurations.
+ * <p>
+ * A change is a <code>put</code> event (<code>{"endpoint":"...","config":{...}}</code>) or a <code>delete</code>
+ * event (<code>{"endpoint":"..."}</code>), its id is the revision of the store after it. A new stream starts with a
+ * <code>revision</code> event holding the current revision. A client reconnecting with the <code>Last-Event-ID</code>
+ * header, or the <code>since</code> parameter, gets the changes it missed if they are among the last
+ * {@value #DEFAULT_HISTORY_SIZE}. Otherwise it gets a <code>reset</code> event and should reload the configurations.
+ * <p>
+ * The ids are prefixed by the start time of the server, so the revisions of a previous run are never taken for the
+ * current ones. A client too slow to read the events is disconnected, it resumes from its last event.
+ */
+public class ChangeFeedServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int DEFAULT_HISTORY_SIZE = 10000;
+
+    // events queued for a client before it is disconnected
+    private static final int MAX_BACKLOG = 1000;
+
+    // comments sent to idle streams, so the connector does not close them
+    private static final long HEARTBEAT_INTERVAL = 15;
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private static class Event {
+        final long revision;
+        final byte[] bytes;
+
+        Event(long revision, byte[] bytes) {
+            this.revision = revision;
+            this.bytes = bytes;
+        }
+    }
+
+    private final BootstrapStoreImpl bsStore;
+    private final Gson gson;
+    private final String epoch = Long.toString(System.currentTimeMillis(), 36);
+    private final BootstrapStoreImpl.ChangeListener listener;
+
+    // serializes the events in the order of the revisions, out of the mutations of the store
+    private final ExecutorService dispatcher;
+    private final ScheduledExecutorService heartbeat;
+
+    // guarded by this
+    private final int historySize;
+    private final Deque<Event> history = new ArrayDeque<>();
+    private final List<AsyncExchange> subscribers = new ArrayList<>();
+    private long revision;
+
+    public ChangeFeedServlet(BootstrapStoreImpl bsStore) {
+        this(bsStore, DEFAULT_HISTORY_SIZE);
+    }
+
+    /**
+     * @param historySize the number of changes kept for the reconnecting clients
+     */
+    public ChangeFeedServlet(BootstrapStoreImpl bsStore, int historySize) {
+        this.bsStore = bsStore;
+        this.historySize = historySize;
+        this.gson = new GsonBuilder()
+                .registerTypeHierarchyAdapter(Byte.class, new BootstrapServlet.SignedByteUnsignedByteAdapter())
+                .create();
+        this.dispatcher = Executors.newSingleThreadExecutor(new NamedThreadFactory("Bootstrap Change Feed"));
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("Bootstrap Change Feed Heartbeat"));
+
+        this.listener = new BootstrapStoreImpl.ChangeListener() {
+            @Override
+            public void changed(final long revision, final String endpoint, final BootstrapConfig config) {
+                try {
+                    dispatcher.execute(() -> publish(revision, endpoint, config));
+                } catch (RejectedExecutionException e) {
+                    // destroyed
+                }
+            }
+        };
+        this.revision = bsStore.addListener(listener);
+        heartbeat.scheduleWithFixedDelay(this::sendHeartbeat, HEARTBEAT_INTERVAL, HEARTBEAT_INTERVAL,
+                TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void destroy() {
+        bsStore.removeListener(listener);
+        dispatcher.shutdown();
+        heartbeat.shutdown();
+        synchronized (this) {
+            for (AsyncExchange subscriber : subscribers) {
+                subscriber.end();
+            }
+            subscribers.clear();
+        }
+        super.destroy();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        AsyncExchange exchange = new AsyncExchange(req, resp);
+        if (req.getPathInfo() != null && !"/".equals(req.getPathInfo())) {
+            exchange.sendError(HttpServletResponse.SC_NOT_FOUND, "bad URL");
+            return;
+        }
+
+        String lastEventId = req.getHeader("Last-Event-ID");
+        if (lastEventId == null) {
+            lastEventId = req.getParameter("since");
+        }
+
+        resp.setStatus(HttpServletResponse.SC_OK);
+        resp.setContentType("text/event-stream; charset=UTF-8");
+        resp.setHeader("Cache-Control", "no-cache");
+        // buffering proxies would hold the events back
+        resp.setHeader("X-Accel-Buffering", "no");
+        exchange.write("retry: 2000\n\n");
+
+        synchronized (this) {
+            if (lastEventId == null) {
+                exchange.write(event(revision, "revision", "{}"));
+            } else {
+                long since = parseRevision(lastEventId);
+                long oldest = history.isEmpty() ? revision + 1 : history.peekFirst().revision;
+                if (since < oldest - 1 || since > revision) {
+                    // missed changes which are not kept anymore, or a previous run
+                    exchange.write(event(revision, "reset", "{}"));
+                } else {
+                    for (Event event : history) {
+                        if (event.revision > since) {
+                            exchange.write(event.bytes);
+                        }
+                    }
+                }
+            }
+            subscribers.add(exchange);
+        }
+    }
+
+    private void publish(long revision, String endpoint, BootstrapConfig config) {
+        JsonObject data = new JsonObject();
+        data.addProperty("endpoint", endpoint);
+        if (config != null) {
+            data.add("config", gson.toJsonTree(config, BootstrapConfig.class));
+        }
+        Event event = new Event(revision, event(revision, config == null ? "delete" : "put", gson.toJson(data)));
+
+        synchronized (this) {
+            this.revision = revision;
+            history.addLast(event);
+            if (history.size() > historySize) {
+                history.removeFirst();
+            }
+            for (Iterator<AsyncExchange> it = subscribers.iterator(); it.hasNext();) {
+                AsyncExchange subscriber = it.next();
+                if (subscriber.isCompleted()) {
+                    it.remove();
+                } else if (subscriber.backlog() >= MAX_BACKLOG) {
+                    // it reconnects and resumes from its last event
+                    subscriber.end();
+                    it.remove();
+                } else {
+                    subscriber.write(event.bytes);
+                }
+            }
+        }
+    }
+
+    private synchronized void sendHeartbeat() {
+        for (Iterator<AsyncExchange> it = subscribers.iterator(); it.hasNext();) {
+            AsyncExchange subscriber = it.next();
+            if (subscriber.isCompleted()) {
+                it.remove();
+            } else {
+                subscriber.write(HEARTBEAT);
+            }
+        }
+    }
+
+    private byte[] event(long revision, String type, String data) {
+        return String.format("id: %s-%d\nevent: %s\ndata: %s\n\n", epoch, revision, type, data)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    // the revision of an event id, -1 for an id of a previous run
+    private long parseRevision(String eventId) {
+        int separator = eventId.lastIndexOf('-');
+        if (separator < 0 || !eventId.substring(0, separator).equals(epoch))
+            return -1;
+        try {
+            return Long.parseLong(eventId.substring(separator + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.servlet;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The responses computed for a revision of a store, dropped as soon as the store moves to another revision.
+ * <p>
+ * The least recently used responses are evicted beyond a number of entries or a total size.
+ */
+class ResponseCache {
+
+    private final int maxEntries;
+    private final long maxSize;
+
+    // guarded by this
+    private long revision = -1;
+    private long size;
+    private final LinkedHashMap<String, CachedResponse> responses = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param maxSize the maximum total size of the cached bodies, in bytes
+     */
+    ResponseCache(int maxEntries, long maxSize) {
+        this.maxEntries = maxEntries;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return the response cached for this key at this revision, or <code>null</code>
+     */
+    synchronized CachedResponse get(String key, long revision) {
+        if (revision > this.revision) {
+            clear(revision);
+        }
+        return revision == this.revision ? responses.get(key) : null;
+    }
+
+    /**
+     * @param revision the revision of the store read before computing the response
+     */
+    synchronized void put(String key, long revision, CachedResponse response) {
+        if (revision < this.revision || response.size() > maxSize)
+            return;
+        if (revision > this.revision) {
+            clear(revision);
+        }
+
+        CachedResponse previous = responses.put(key, response);
+        size += response.size() - (previous == null ? 0 : previous.size());
+        Iterator<Map.Entry<String, CachedResponse>> it = responses.entrySet().iterator();
+        while (responses.size() > maxEntries || size > maxSize) {
+            size -= it.next().getValue().size();
+            it.remove();
+        }
+    }
+
+    private void clear(long revision) {
+        this.revision = revision;
+        responses.clear();
+        size = 0;
+    }
+}
@@ -18,6 +18,7 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.PublicKey;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -35,6 +36,10 @@ import io.zeelos.leshan.bootstrap.server.kafka.json.PublicKeySerDes;
 import io.zeelos.leshan.bootstrap.server.kafka.json.SecuritySerializer;
 import io.zeelos.leshan.bootstrap.server.kafka.json.X509CertificateSerDes;
 
+/**
+ * Servlet for REST API giving the security and the endpoints of the bootstrap server. They never change while the
+ * server runs, so their responses are serialized once and tagged for the clients polling them.
+ */
 public class ServerServlet extends HttpServlet {
 
     private static final long serialVersionUID = 1L;
@@ -46,6 +51,10 @@ public class ServerServlet extends HttpServlet {
     private final PublicKey publicKey;
     private final X509Certificate serverCertificate;
 
+    // serialized on first use
+    private volatile CachedResponse security;
+    private volatile CachedResponse endpoint;
+
     public ServerServlet(LeshanBootstrapServer server, X509Certificate serverCertificate) {
         this.server = server;
         GsonBuilder builder = new GsonBuilder();
@@ -69,37 +78,43 @@ public class ServerServlet extends HttpServlet {
 
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
-        String[] path = StringUtils.split(req.getPathInfo(), '/');
+        AsyncExchange exchange = new AsyncExchange(req, resp);
+        String[] path = req.getPathInfo() == null ? new String[0] : StringUtils.split(req.getPathInfo(), '/');
 
         if (path.length != 1) {
-            resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+            exchange.sendStatus(HttpServletResponse.SC_BAD_REQUEST);
             return;
         }
 
         if ("security".equals(path[0])) {
-            JsonObject security = new JsonObject();
-            if (publicKey != null) {
-                security.add("pubkey", publicKeySerDes.jSerialize(publicKey));
-            } else if (serverCertificate != null) {
-                security.add("certificate", certificateSerDes.jSerialize(serverCertificate));
+            if (security == null) {
+                JsonObject json = new JsonObject();
+                if (publicKey != null) {
+                    json.add("pubkey", publicKeySerDes.jSerialize(publicKey));
+                } else if (serverCertificate != null) {
+                    json.add("certificate", certificateSerDes.jSerialize(serverCertificate));
+                }
+                security = toResponse(json.toString());
             }
-            resp.setContentType("application/json");
-            resp.getOutputStream().write(security.toString().getBytes(StandardCharsets.UTF_8));
-            resp.setStatus(HttpServletResponse.SC_OK);
+            security.send(exchange, req, resp);
             return;
         }
 
         if ("endpoint".equals(path[0])) {
-            resp.setStatus(HttpServletResponse.SC_OK);
-            resp.setContentType("application/json");
-            resp.getOutputStream()
-                    .write(String
-                            .format("{ \"securedEndpointPort\":\"%s\", \"unsecuredEndpointPort\":\"%s\"}",
-                                    server.getSecuredAddress().getPort(), server.getUnsecuredAddress().getPort())
-                            .getBytes(StandardCharsets.UTF_8));
+            if (endpoint == null) {
+                endpoint = toResponse(
+                        String.format("{ \"securedEndpointPort\":\"%s\", \"unsecuredEndpointPort\":\"%s\"}",
+                                server.getSecuredAddress().getPort(), server.getUnsecuredAddress().getPort()));
+            }
+            endpoint.send(exchange, req, resp);
             return;
         }
 
-        resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+        exchange.sendStatus(HttpServletResponse.SC_BAD_REQUEST);
+    }
+
+    private static CachedResponse toResponse(String json) {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        return new CachedResponse(String.format("\"%08x\"", Arrays.hashCode(body)), "application/json", body);
     }
 }
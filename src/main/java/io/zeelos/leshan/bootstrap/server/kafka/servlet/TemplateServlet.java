@@ -0,0 +1,144 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.servlet;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonSyntaxException;
+
+import org.apache.commons.lang.StringUtils;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+
+import io.zeelos.leshan.bootstrap.server.kafka.TemplateStore;
+
+/**
+ * Servlet for REST API in charge of the configuration templates shared by endpoints.
+ * <p>
+ * Like {@link BootstrapServlet}, requests are asynchronous and the changes are run by the mutation executor.
+ */
+public class TemplateServlet extends HttpServlet {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String JSON = "application/json";
+
+    private final TemplateStore templateStore;
+    private final Executor mutations;
+
+    private final Gson gson;
+
+    public TemplateServlet(TemplateStore templateStore, Executor mutations) {
+        this.templateStore = templateStore;
+        this.mutations = mutations;
+
+        this.gson = new GsonBuilder()
+                .registerTypeHierarchyAdapter(Byte.class, new BootstrapServlet.SignedByteUnsignedByteAdapter())
+                .create();
+    }
+
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        AsyncExchange exchange = new AsyncExchange(req, resp);
+        if (req.getPathInfo() == null) {
+            exchange.send(HttpServletResponse.SC_OK, JSON,
+                    gson.toJson(templateStore.getTemplates()).getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        String name = getName(req, exchange);
+        if (name == null)
+            return;
+
+        BootstrapConfig template = templateStore.getTemplate(name);
+        if (template == null) {
+            exchange.sendError(HttpServletResponse.SC_NOT_FOUND, "no template " + name);
+        } else {
+            exchange.send(HttpServletResponse.SC_OK, JSON, gson.toJson(template).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        final AsyncExchange exchange = new AsyncExchange(req, resp);
+        final String name = getName(req, exchange);
+        if (name == null)
+            return;
+
+        exchange.readBody(BootstrapServlet.MAX_BODY_SIZE, body -> exchange.execute(mutations, () -> {
+            try {
+                BootstrapConfig template = gson.fromJson(new String(body, StandardCharsets.UTF_8),
+                        BootstrapConfig.class);
+
+                if (template == null) {
+                    exchange.sendError(HttpServletResponse.SC_BAD_REQUEST, "no content");
+                } else {
+                    acknowledge(exchange, templateStore.addTemplate(name, template), HttpServletResponse.SC_OK);
+                }
+            } catch (JsonSyntaxException e) {
+                exchange.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            }
+        }));
+    }
+
+    @Override
+    protected void doDelete(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+        final AsyncExchange exchange = new AsyncExchange(req, resp);
+        final String name = getName(req, exchange);
+        if (name == null)
+            return;
+
+        exchange.execute(mutations, () -> {
+            CompletableFuture<Boolean> deleted = templateStore.deleteTemplate(name);
+            if (deleted.isDone() && !deleted.join()) {
+                exchange.sendError(HttpServletResponse.SC_NOT_FOUND, "no template " + name);
+            } else {
+                acknowledge(exchange, deleted, HttpServletResponse.SC_NO_CONTENT);
+            }
+        });
+    }
+
+    // the template name of the URL, or null once an error was sent
+    private String getName(HttpServletRequest req, AsyncExchange exchange) {
+        String[] path = req.getPathInfo() == null ? new String[0] : StringUtils.split(req.getPathInfo(), '/');
+        if (path.length != 1) {
+            exchange.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "template name should be specified in the URL, nothing more");
+            return null;
+        }
+        return path[0];
+    }
+
+    private void acknowledge(final AsyncExchange exchange, CompletableFuture<?> persisted, final int statusCode) {
+        persisted.whenComplete((result, e) -> {
+            if (e == null) {
+                exchange.sendStatus(statusCode);
+            } else {
+                exchange.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
+                        "the template is applied but not persisted yet, it will be retried: "
+                                + AsyncExchange.cause(e).getMessage());
+            }
+        });
+    }
+}
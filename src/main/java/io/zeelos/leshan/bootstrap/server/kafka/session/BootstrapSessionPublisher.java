@@ -0,0 +1,192 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.session;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.eclipse.leshan.util.Validate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.confluent.kafka.serializers.AbstractKafkaAvroSerDeConfig;
+import io.confluent.kafka.serializers.KafkaAvroSerializer;
+
+/**
+ * Publishes bootstrap session records to a Kafka topic without ever blocking the caller.
+ * <p>
+ * Records are queued in a bounded queue drained by a dedicated thread which hands them to a batching producer. When
+ * the broker can not keep up and the queue is full, new records are dropped and counted.
+ */
+public class BootstrapSessionPublisher implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BootstrapSessionPublisher.class);
+
+    public static final String DEFAULT_TOPIC = "bootstrap-sessions";
+    public static final int DEFAULT_LINGER_MS = 100;
+    public static final String DEFAULT_COMPRESSION = "lz4";
+    public static final int DEFAULT_QUEUE_CAPACITY = 10000;
+
+    public static final Schema SCHEMA = loadSchema("avro/BootstrapSession.avsc");
+
+    private final Producer<String, Object> producer;
+    private final String topic;
+    private final BlockingQueue<GenericRecord> queue;
+    private final Thread sender;
+    private volatile boolean running = true;
+
+    private final LongAdder published = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    /**
+     * @param producer the producer of the Avro records
+     * @param topic the topic of the session records
+     * @param queueCapacity the maximum number of records waiting to be handed to the producer
+     */
+    public BootstrapSessionPublisher(Producer<String, Object> producer, String topic, int queueCapacity) {
+        Validate.notNull(producer);
+        Validate.notEmpty(topic);
+        this.producer = producer;
+        this.topic = topic;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.sender = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "Bootstrap Session Publisher");
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    /**
+     * Create a publisher connected to the given brokers and schema registry.
+     *
+     * @param bootstrapServers the Kafka bootstrap servers (<code>host:port,...</code>)
+     * @param schemaRegistryUrl the URL of the schema registry
+     * @param topic the topic of the session records
+     * @param lingerMs how long the producer waits to batch records together
+     * @param compression the compression type of the batches (none, gzip, snappy, lz4 or zstd)
+     * @param queueCapacity the maximum number of records waiting to be handed to the producer
+     */
+    public static BootstrapSessionPublisher create(String bootstrapServers, String schemaRegistryUrl, String topic,
+            int lingerMs, String compression, int queueCapacity) {
+        Properties props = new Properties();
+        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        props.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compression);
+        props.put(ProducerConfig.ACKS_CONFIG, "1");
+        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, StringSerializer.class);
+        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, KafkaAvroSerializer.class);
+        props.put(AbstractKafkaAvroSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG, schemaRegistryUrl);
+
+        return new BootstrapSessionPublisher(new KafkaProducer<String, Object>(props), topic, queueCapacity);
+    }
+
+    /**
+     * Queue a session record, dropping it if the queue is full.
+     */
+    public void publish(GenericRecord session) {
+        if (!running || !queue.offer(session)) {
+            dropped.increment();
+        }
+    }
+
+    private void drain() {
+        Callback callback = new Callback() {
+            @Override
+            public void onCompletion(RecordMetadata metadata, Exception exception) {
+                if (exception == null) {
+                    published.increment();
+                } else {
+                    failed.increment();
+                    LOG.debug("Unable to publish bootstrap session", exception);
+                }
+            }
+        };
+
+        while (running || !queue.isEmpty()) {
+            try {
+                GenericRecord session = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (session != null) {
+                    producer.send(new ProducerRecord<String, Object>(topic, session.get("endpoint").toString(),
+                            session), callback);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                failed.increment();
+                LOG.warn("Unable to publish bootstrap session", e);
+            }
+        }
+    }
+
+    /**
+     * @return the number of records acknowledged by the broker
+     */
+    public long getPublished() {
+        return published.sum();
+    }
+
+    /**
+     * @return the number of records dropped because the queue was full
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return the number of records rejected by the producer or the broker
+     */
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            sender.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        producer.close();
+    }
+
+    private static Schema loadSchema(String resource) {
+        try (InputStream in = BootstrapSessionPublisher.class.getClassLoader().getResourceAsStream(resource)) {
+            return new Schema.Parser().parse(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to load schema " + resource, e);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.session;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.core.response.LwM2mResponse;
+import org.eclipse.leshan.server.bootstrap.BootstrapFailureCause;
+import org.eclipse.leshan.server.bootstrap.BootstrapSession;
+import org.eclipse.leshan.server.bootstrap.BootstrapSessionManager;
+import org.eclipse.leshan.util.Validate;
+
+/**
+ * A {@link BootstrapSessionManager} decorator publishing the outcome of each bootstrap session.
+ * <p>
+ * The session manager only sees the start and the end of a session, so the latency is split in two steps: the
+ * authorization (security store lookup and check done by the decorated manager) and the provisioning (the
+ * delete/write/finish requests sent to the client). The outcome of a session lasting more than 10 minutes is not
+ * published.
+ */
+public class EventBootstrapSessionManager implements BootstrapSessionManager {
+
+    private static class Timing {
+        final long startTimestamp = System.currentTimeMillis();
+        final long startNanos = System.nanoTime();
+        long authorizedNanos;
+    }
+
+    private final BootstrapSessionManager delegate;
+    private final BootstrapSessionPublisher publisher;
+    private final OngoingSessions<Timing> ongoing = new OngoingSessions<>();
+
+    public EventBootstrapSessionManager(BootstrapSessionManager delegate, BootstrapSessionPublisher publisher) {
+        Validate.notNull(delegate);
+        Validate.notNull(publisher);
+        this.delegate = delegate;
+        this.publisher = publisher;
+    }
+
+    @Override
+    public BootstrapSession begin(String endpoint, Identity clientIdentity) {
+        Timing timing = new Timing();
+        BootstrapSession session = delegate.begin(endpoint, clientIdentity);
+        timing.authorizedNanos = System.nanoTime();
+        ongoing.begin(session, timing, timing.startNanos);
+        return session;
+    }
+
+    @Override
+    public void end(BootstrapSession bsSession) {
+        delegate.end(bsSession);
+        publish(bsSession, null, null);
+    }
+
+    @Override
+    public void failed(BootstrapSession bsSession, BootstrapFailureCause cause,
+            DownlinkRequest<? extends LwM2mResponse> request) {
+        delegate.failed(bsSession, cause, request);
+        publish(bsSession, cause, request);
+    }
+
+    private void publish(BootstrapSession session, BootstrapFailureCause cause,
+            DownlinkRequest<? extends LwM2mResponse> request) {
+        long finishNanos = System.nanoTime();
+        Timing timing = ongoing.end(session, finishNanos);
+        if (timing == null)
+            return;
+
+        long finishTimestamp = timing.startTimestamp + TimeUnit.NANOSECONDS.toMillis(finishNanos - timing.startNanos);
+        Identity identity = session.getIdentity();
+        InetSocketAddress address = identity.getPeerAddress();
+
+        GenericRecord record = new GenericData.Record(BootstrapSessionPublisher.SCHEMA);
+        record.put("endpoint", session.getEndpoint());
+        record.put("securityMode", securityMode(identity));
+        record.put("clientAddress", address.getHostString() + ":" + address.getPort());
+        record.put("authorized", session.isAuthorized());
+        record.put("startTimestamp", timing.startTimestamp);
+        record.put("finishTimestamp", finishTimestamp);
+        record.put("authorizationDuration", TimeUnit.NANOSECONDS.toMicros(timing.authorizedNanos - timing.startNanos));
+        record.put("provisioningDuration", TimeUnit.NANOSECONDS.toMicros(finishNanos - timing.authorizedNanos));
+        record.put("success", cause == null);
+        record.put("failureCause", cause == null ? null : cause.name());
+        record.put("failedRequest", request == null ? null : request.toString());
+        publisher.publish(record);
+    }
+
+    private static String securityMode(Identity identity) {
+        if (identity.isPSK())
+            return "PSK";
+        if (identity.isRPK())
+            return "RPK";
+        if (identity.isX509())
+            return "X509";
+        return "NO_SEC";
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.session;
+
+import org.eclipse.leshan.core.request.DownlinkRequest;
+import org.eclipse.leshan.core.request.Identity;
+import org.eclipse.leshan.core.response.LwM2mResponse;
+import org.eclipse.leshan.server.bootstrap.BootstrapFailureCause;
+import org.eclipse.leshan.server.bootstrap.BootstrapSession;
+import org.eclipse.leshan.server.bootstrap.BootstrapSessionManager;
+import org.eclipse.leshan.util.Validate;
+
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+
+/**
+ * A {@link BootstrapSessionManager} decorator counting the bootstrap sessions and measuring their duration. The
+ * duration of a session lasting more than 10 minutes is not recorded.
+ */
+public class MetricsBootstrapSessionManager implements BootstrapSessionManager {
+
+    private final BootstrapSessionManager delegate;
+    private final OngoingSessions<Long> startNanos = new OngoingSessions<>();
+
+    public MetricsBootstrapSessionManager(BootstrapSessionManager delegate) {
+        Validate.notNull(delegate);
+        this.delegate = delegate;
+    }
+
+    @Override
+    public BootstrapSession begin(String endpoint, Identity clientIdentity) {
+        long start = System.nanoTime();
+        BootstrapSession session = delegate.begin(endpoint, clientIdentity);
+        BootstrapMetrics.SESSIONS_STARTED.inc();
+        if (!session.isAuthorized()) {
+            BootstrapMetrics.SESSIONS_UNAUTHORIZED.inc();
+        } else {
+            startNanos.begin(session, start, start);
+        }
+        return session;
+    }
+
+    @Override
+    public void end(BootstrapSession bsSession) {
+        delegate.end(bsSession);
+        BootstrapMetrics.SESSIONS_SUCCEEDED.inc();
+        recordDuration(bsSession);
+    }
+
+    @Override
+    public void failed(BootstrapSession bsSession, BootstrapFailureCause cause,
+            DownlinkRequest<? extends LwM2mResponse> request) {
+        delegate.failed(bsSession, cause, request);
+        BootstrapMetrics.SESSIONS_FAILED.inc();
+        recordDuration(bsSession);
+    }
+
+    private void recordDuration(BootstrapSession session) {
+        Long start = startNanos.end(session, System.nanoTime());
+        if (start != null) {
+            BootstrapMetrics.SESSION_DURATION.recordSince(start);
+        }
+    }
+}
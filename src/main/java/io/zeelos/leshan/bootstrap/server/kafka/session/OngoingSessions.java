@@ -0,0 +1,101 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.session;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapSession;
+import org.eclipse.leshan.util.Validate;
+
+/**
+ * The bootstrap sessions begun and not ended yet, with a value attached to each one.
+ * <p>
+ * A session which never ends (e.g. server stopped, or the decorated manager failed) is forgotten once older than the
+ * expiry, so the sessions held are bounded by the number begun during the expiry. Expired sessions are removed while
+ * adding new ones, at most twice per expiry.
+ */
+class OngoingSessions<V> {
+
+    // longer than a session: the bootstrap server gives up each request of a session after 2 minutes
+    static final long DEFAULT_EXPIRY = TimeUnit.MINUTES.toNanos(10);
+
+    private static class Ongoing<V> {
+        final long beginNanos;
+        final V value;
+
+        Ongoing(long beginNanos, V value) {
+            this.beginNanos = beginNanos;
+            this.value = value;
+        }
+    }
+
+    private final Map<BootstrapSession, Ongoing<V>> sessions = new ConcurrentHashMap<>();
+    private final long expiryNanos;
+    private final AtomicLong nextPurgeNanos;
+
+    OngoingSessions() {
+        this(DEFAULT_EXPIRY, System.nanoTime());
+    }
+
+    /**
+     * @param expiryNanos the duration in nanoseconds after which a session is forgotten
+     * @param nowNanos the current {@link System#nanoTime()}
+     */
+    OngoingSessions(long expiryNanos, long nowNanos) {
+        Validate.isTrue(expiryNanos > 0, "expiry must be positive");
+        this.expiryNanos = expiryNanos;
+        this.nextPurgeNanos = new AtomicLong(nowNanos + expiryNanos / 2);
+    }
+
+    /**
+     * @param nowNanos the current {@link System#nanoTime()}, when the session began
+     */
+    void begin(BootstrapSession session, V value, long nowNanos) {
+        sessions.put(session, new Ongoing<>(nowNanos, value));
+        long next = nextPurgeNanos.get();
+        if (nowNanos - next >= 0 && nextPurgeNanos.compareAndSet(next, nowNanos + expiryNanos / 2)) {
+            purge(nowNanos);
+        }
+    }
+
+    /**
+     * @param nowNanos the current {@link System#nanoTime()}
+     * @return the value attached to the session, or <code>null</code> if it is unknown or expired
+     */
+    V end(BootstrapSession session, long nowNanos) {
+        Ongoing<V> ongoing = sessions.remove(session);
+        return ongoing == null || expired(ongoing, nowNanos) ? null : ongoing.value;
+    }
+
+    int size() {
+        return sessions.size();
+    }
+
+    private void purge(long nowNanos) {
+        for (Iterator<Ongoing<V>> it = sessions.values().iterator(); it.hasNext();) {
+            if (expired(it.next(), nowNanos)) {
+                it.remove();
+            }
+        }
+    }
+
+    private boolean expired(Ongoing<V> ongoing, long nowNanos) {
+        return nowNanos - ongoing.beginNanos > expiryNanos;
+    }
+}
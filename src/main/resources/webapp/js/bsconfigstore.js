@@ -54,11 +54,102 @@ function BsConfigStore() {
     var self = this;
 
     self.bsconfigs = {};
+    self.live = false;
 
+    // pages of the current load, the changes received meanwhile are applied after them
+    var generation = 0;
+    var loading = false;
+    var pending = [];
+    var changedScheduled = false;
+
+    // follow the change feed, the configs are loaded once it is connected
     self.init = function (){
-        $.get('api/bootstrap', function(data) {
-            self.bsconfigs = convertConfigs(data);
+        if (!window.EventSource){
+            self.reload();
+            return;
+        }
+        var events = new EventSource('api/changes');
+        events.addEventListener('revision', function(){
+            self.reload();
+        });
+        events.addEventListener('reset', function(){
+            // some changes were missed
+            self.reload();
+        });
+        events.addEventListener('put', function(e){
+            self.applyChange(JSON.parse(e.data));
+        });
+        events.addEventListener('delete', function(e){
+            self.applyChange(JSON.parse(e.data));
+        });
+        events.onopen = function(){
+            self.live = true;
+            self.trigger('live', true);
+        };
+        events.onerror = function(){
+            // the browser reconnects and resumes from the last event
+            self.live = false;
+            self.trigger('live', false);
+        };
+    };
+
+    self.reload = function (){
+        self.bsconfigs = {};
+        generation++;
+        loading = true;
+        pending = [];
+        self.loadPage(null, generation);
+    };
+
+    self.applyChange = function (change){
+        if (loading){
+            pending.push(change);
+            return;
+        }
+        if (change.config){
+            self.bsconfigs[change.endpoint] = convertConfig(change.config);
+        } else {
+            delete self.bsconfigs[change.endpoint];
+        }
+        // render bursts of changes at once
+        if (!changedScheduled){
+            changedScheduled = true;
+            setTimeout(function(){
+                changedScheduled = false;
+                self.trigger('changed', self.bsconfigs);
+            }, 100);
+        }
+    };
+
+    // load the configs page by page, following the "next" links
+    self.loadPage = function (after, loadGeneration){
+        var params = {limit: 1000};
+        if (after !== null){
+            params.after = after;
+        }
+        $.get('api/bootstrap', params, function(data, status, xhr) {
+            if (loadGeneration !== generation){
+                // a newer load started
+                return;
+            }
+            var configs = convertConfigs(data);
+            for (var endpoint in configs){
+                self.bsconfigs[endpoint] = configs[endpoint];
+            }
             self.trigger('changed', self.bsconfigs);
+
+            var link = xhr.getResponseHeader('Link');
+            var next = link && link.match(/[?&]after=([^&>]*)/);
+            if (next){
+                self.loadPage(decodeURIComponent(next[1].replace(/\+/g, ' ')), loadGeneration);
+            } else {
+                loading = false;
+                var changes = pending;
+                pending = [];
+                for (var i = 0; i < changes.length; i++){
+                    self.applyChange(changes[i]);
+                }
+            }
         }).fail(function(xhr, status, error){
             var err = "Unable to get the bootstrap info list";
             console.error(err, status, error, xhr.responseText);
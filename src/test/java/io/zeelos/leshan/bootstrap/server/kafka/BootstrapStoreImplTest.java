@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.bytes;
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.config;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.security.SecurityInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.zeelos.leshan.bootstrap.server.kafka.ConfigurationChecker.ConfigurationException;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.Durability;
+
+public class BootstrapStoreImplTest {
+
+    // keeps the configurations in memory and lets the tests make external changes
+
+    private MemoryPersistence persistence;
+    private BootstrapStoreImpl store;
+
+    @Before
+    public void setUp() {
+        persistence = new MemoryPersistence();
+        store = new BootstrapStoreImpl(persistence, Durability.SYNC, 0);
+    }
+
+    @After
+    public void tearDown() {
+        store.destroy();
+    }
+
+    @Test
+    public void endpoints_without_config_get_the_longest_matching_pattern() throws Exception {
+        store.addConfig("dev*", config("coap://short", null));
+        store.addConfig("dev-a*", config("coap://long", null));
+        store.addConfig("dev-a1", config("coap://own", null));
+
+        assertEquals("coap://own", uri(store.getBootstrap("dev-a1", null)));
+        assertEquals("coap://long", uri(store.getBootstrap("dev-a2", null)));
+        assertEquals("coap://short", uri(store.getBootstrap("dev-b", null)));
+        assertNull(store.getBootstrap("other", null));
+
+        store.deleteConfig("dev-a*").join();
+        assertEquals("coap://short", uri(store.getBootstrap("dev-a2", null)));
+    }
+
+    @Test
+    public void external_changes_are_seen_at_once_with_their_patterns_and_securities() throws Exception {
+        store.addConfig("dev*", config("coap://old", null));
+        store.addConfig("psk", config("coaps://old", "id1"));
+        assertEquals("id1", store.getSecurityInfos("psk").get(0).getIdentity());
+
+        final List<String> seen = new ArrayList<>();
+        store.addListener(new BootstrapStoreImpl.ChangeListener() {
+            @Override
+            public void changed(long revision, String endpoint, BootstrapConfig config) {
+                // the whole batch is visible as soon as the first change is reported
+                seen.add(uri(store.getBootstrap("dev-1", null)) + " "
+                        + store.getSecurityInfos("psk").get(0).getIdentity());
+            }
+        });
+
+        Map<String, BootstrapConfig> changes = new LinkedHashMap<>();
+        changes.put("psk", config("coaps://new", "id2"));
+        changes.put("dev-*", config("coap://new", null));
+        persistence.listener.changed(changes);
+
+        assertEquals(Arrays.asList("coap://new id2", "coap://new id2"), seen);
+        assertNull(store.getByIdentity(bytes("id1")));
+        assertEquals("psk", store.getByIdentity(bytes("id2")).getEndpoint());
+    }
+
+    @Test
+    public void external_removal_of_a_pattern_falls_back_to_a_shorter_one() throws Exception {
+        store.addConfig("dev*", config("coap://short", null));
+        store.addConfig("dev-*", config("coap://long", null));
+
+        Map<String, BootstrapConfig> changes = new HashMap<>();
+        changes.put("dev-*", null);
+        persistence.listener.changed(changes);
+
+        assertEquals("coap://short", uri(store.getBootstrap("dev-1", null)));
+        assertNull(store.getSecurityInfos("dev-1"));
+    }
+
+    @Test
+    public void replaced_content_applies_only_the_differences() throws Exception {
+        store.addConfig("removed", config("coap://a", null));
+        store.addConfig("changed", config("coap://a", null));
+        store.addConfig("same", config("coap://a", null));
+        long revision = store.getRevision();
+
+        final List<String> changed = new ArrayList<>();
+        store.addListener(new BootstrapStoreImpl.ChangeListener() {
+            @Override
+            public void changed(long revision, String endpoint, BootstrapConfig config) {
+                changed.add(endpoint);
+            }
+        });
+
+        Map<String, BootstrapConfig> configs = new LinkedHashMap<>();
+        configs.put("changed", config("coap://b", null));
+        configs.put("same", config("coap://a", null));
+        configs.put("added", config("coap://a", null));
+        persistence.listener.replaced(configs);
+
+        assertEquals(Arrays.asList("removed", "changed", "added"), changed);
+        assertEquals(revision + 3, store.getRevision());
+        assertNull(store.getBootstrap("removed", null));
+        assertEquals("coap://b", uri(store.getBootstrap("changed", null)));
+    }
+
+    @Test
+    public void psk_identity_moves_between_endpoints_on_replace() throws Exception {
+        store.addConfig("ep1", config("coaps://bs", "id1"));
+
+        Map<String, BootstrapConfig> configs = new HashMap<>();
+        configs.put("ep2", config("coaps://bs", "id1"));
+        persistence.listener.replaced(configs);
+
+        SecurityInfo info = store.getByIdentity(bytes("id1"));
+        assertEquals("ep2", info.getEndpoint());
+        assertNull(store.getSecurityInfos("ep1"));
+    }
+
+    @Test
+    public void invalid_external_configs_are_skipped() throws Exception {
+        store.addConfig("kept", config("coaps://old", "id1"));
+
+        Map<String, BootstrapConfig> configs = new HashMap<>();
+        // a PSK without secret
+        configs.put("kept", config("coaps://new", "id1", ""));
+        BootstrapConfig twoBootstrapServers = config("coaps://bs1", "id2");
+        twoBootstrapServers.security.put(1, config("coaps://bs2", "id3").security.get(0));
+        configs.put("rejected", twoBootstrapServers);
+        configs.put("added", config("coap://a", null));
+        persistence.listener.replaced(configs);
+
+        assertEquals("coaps://old", uri(store.getBootstrap("kept", null)));
+        assertEquals("kept", store.getByIdentity(bytes("id1")).getEndpoint());
+        assertNull(store.getBootstrap("rejected", null));
+        assertNull(store.getByIdentity(bytes("id2")));
+        assertEquals("coap://a", uri(store.getBootstrap("added", null)));
+    }
+
+    @Test
+    public void config_with_several_bootstrap_servers_is_rejected() throws Exception {
+        BootstrapConfig config = config("coaps://bs1", "id1");
+        config.security.put(1, config("coaps://bs2", "id2").security.get(0));
+        try {
+            store.addConfig("ep1", config);
+            fail("only the PSK identity of one bootstrap server can be indexed");
+        } catch (ConfigurationException e) {
+            assertNull(store.getBootstrap("ep1", null));
+            assertNull(store.getByIdentity(bytes("id1")));
+        }
+    }
+
+    private static String uri(BootstrapConfig config) {
+        return config == null ? null : config.security.get(0).uri;
+    }
+}
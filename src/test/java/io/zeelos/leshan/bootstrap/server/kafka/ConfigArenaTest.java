@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.bytes;
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.config;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ConfigArenaTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void clean_close_reopens_the_indexes() throws IOException {
+        File directory = folder.getRoot();
+        ConfigArena arena = new ConfigArena(directory, true);
+        assertTrue(arena.isCreated());
+        arena.commit();
+        arena.put("ep1", config("uri1", null), bytes("id1"));
+        arena.put("ep2", config("uri2", null), null);
+        arena.put("ep1", config("uri3", null), bytes("id1"));
+        arena.remove("ep2");
+        arena.close();
+
+        arena = new ConfigArena(directory, true);
+        try {
+            assertFalse(arena.isCreated());
+            assertEquals(1, arena.size());
+            assertEquals("uri3", arena.get("ep1").security.get(0).uri);
+            assertNull(arena.get("ep2"));
+            assertEquals("ep1", findByIdentity(arena, "id1"));
+        } finally {
+            arena.close();
+        }
+    }
+
+    @Test
+    public void crash_rebuilds_the_indexes_from_the_records() throws IOException {
+        File directory = folder.getRoot();
+        ConfigArena crashed = new ConfigArena(directory, true);
+        crashed.commit();
+        crashed.put("ep1", config("uri1", null), bytes("id1"));
+        crashed.put("ep2", config("uri2", null), null);
+        crashed.remove("ep2");
+        crashed.put("ep3", config("uri3", null), bytes("id3"));
+        crashed.force();
+
+        ConfigArena arena = new ConfigArena(directory, true);
+        try {
+            assertEquals(2, arena.size());
+            assertNull(arena.get("ep2"));
+            assertEquals("uri3", arena.get("ep3").security.get(0).uri);
+            assertEquals("ep3", findByIdentity(arena, "id3"));
+        } finally {
+            arena.close();
+        }
+    }
+
+    @Test
+    public void crash_truncates_a_torn_record() throws IOException {
+        File directory = folder.getRoot();
+        ConfigArena crashed = new ConfigArena(directory, true);
+        crashed.commit();
+        crashed.put("ep1", config("uri1", null), null);
+        crashed.put("ep2", config("uri2", null), null);
+        crashed.force();
+        tearLastRecord(new File(directory, "arena-0-0.bin"));
+
+        ConfigArena arena = new ConfigArena(directory, true);
+        try {
+            assertEquals(1, arena.size());
+            assertNotNull(arena.get("ep1"));
+            assertNull(arena.get("ep2"));
+
+            // appended over the torn record
+            arena.put("ep3", config("uri3", null), null);
+        } finally {
+            arena.close();
+        }
+
+        arena = new ConfigArena(directory, true);
+        try {
+            assertEquals(2, arena.size());
+            assertNotNull(arena.get("ep3"));
+        } finally {
+            arena.close();
+        }
+    }
+
+    @Test
+    public void transient_arena_starts_empty_and_deletes_its_files() throws IOException {
+        File directory = folder.getRoot();
+        ConfigArena arena = new ConfigArena(directory, false);
+        arena.put("ep1", config("uri1", null), null);
+        arena.close();
+        assertEquals(0, directory.list().length);
+
+        arena = new ConfigArena(directory, false);
+        try {
+            assertTrue(arena.isCreated());
+            assertEquals(0, arena.size());
+        } finally {
+            arena.close();
+        }
+    }
+
+    @Test
+    public void iteration_and_endpoints_follow_the_last_changes() throws IOException {
+        ConfigArena arena = new ConfigArena(folder.getRoot(), false);
+        try {
+            arena.put("a", config("uri1", null), null);
+            arena.put("b", config("uri2", null), null);
+            arena.put("c", config("uri3", null), null);
+            arena.put("a", config("uri4", null), null);
+            arena.remove("b");
+
+            List<String> iterated = new ArrayList<>();
+            for (Iterator<Map.Entry<String, BootstrapConfig>> it = arena.iterator(); it.hasNext();) {
+                iterated.add(it.next().getKey());
+            }
+            assertEquals(Arrays.asList("c", "a"), iterated);
+
+            List<String> endpoints = new ArrayList<>();
+            arena.forEachEndpoint(endpoints::add);
+            assertEquals(Arrays.asList("c", "a"), endpoints);
+        } finally {
+            arena.close();
+        }
+    }
+
+    @Test
+    public void security_entries_are_decoded_alone() throws IOException {
+        ConfigArena arena = new ConfigArena(folder.getRoot(), false);
+        try {
+            BootstrapConfig config = config("uri1", null);
+            config.toDelete = Arrays.asList("/0", "/1");
+            arena.put("ep1", config, null);
+
+            Map<Integer, ServerSecurity> securities = arena.getSecurities("ep1");
+            assertEquals(1, securities.size());
+            assertEquals("uri1", securities.get(0).uri);
+            assertEquals(Arrays.asList("/0", "/1"), arena.get("ep1").toDelete);
+            assertNull(arena.getSecurities("ep2"));
+        } finally {
+            arena.close();
+        }
+    }
+
+    private static String findByIdentity(ConfigArena arena, final String identity) throws IOException {
+        return arena.findByIdentity(bytes(identity), (endpoint, securities) -> endpoint);
+    }
+
+    // flip the last written byte of the segment
+    private static void tearLastRecord(File segment) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+            byte[] head = new byte[64 * 1024];
+            raf.readFully(head);
+            int last = head.length - 1;
+            while (head[last] == 0) {
+                last--;
+            }
+            raf.seek(last);
+            raf.write(head[last] ^ 0xff);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.bytes;
+import static org.junit.Assert.*;
+
+import org.eclipse.leshan.SecurityMode;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.junit.Test;
+
+public class ConfigInternerTest {
+
+    @Test
+    public void intern_returns_a_copy_and_leaves_the_config_unchanged() {
+        ConfigInterner interner = new ConfigInterner();
+        BootstrapConfig config = config("coaps://bs", "id1");
+        ServerSecurity security = config.security.get(0);
+        ServerConfig server = config.servers.get(1);
+
+        BootstrapConfig interned = interner.intern(config);
+
+        assertNotSame(config, interned);
+        assertTrue(ConfigInterner.same(config, interned));
+        assertSame(security, config.security.get(0));
+        assertSame(server, config.servers.get(1));
+
+        // changing the given config afterwards does not change the interned one
+        server.lifetime = 60;
+        security.secretKey[0] = 'x';
+        config.security.clear();
+        assertEquals(300, interned.servers.get(1).lifetime);
+        assertArrayEquals(bytes("secret"), interned.security.get(0).secretKey);
+    }
+
+    @Test
+    public void identical_parts_are_shared_and_credentials_are_not() {
+        ConfigInterner interner = new ConfigInterner();
+        BootstrapConfig config1 = interner.intern(config("coaps://bs", "id1"));
+        BootstrapConfig config2 = interner.intern(config("coaps://bs", "id2"));
+
+        assertSame(config1.servers, config2.servers);
+        assertSame(config1.acls, config2.acls);
+        assertNotSame(config1.security.get(0), config2.security.get(0));
+        assertSame(config1.security.get(0).uri, config2.security.get(0).uri);
+        // the entries without credentials are shared as a whole
+        assertSame(config1.security.get(1), config2.security.get(1));
+        assertArrayEquals(bytes("id2"), config2.security.get(0).publicKeyOrId);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shared_parts_are_unmodifiable() {
+        BootstrapConfig interned = new ConfigInterner().intern(config("coaps://bs", "id1"));
+        interned.servers.put(2, new ServerConfig());
+    }
+
+    @Test
+    public void shared_values_are_bounded() {
+        ConfigInterner interner = new ConfigInterner(16);
+        for (int i = 0; i < 1000; i++) {
+            interner.intern(config("coaps://bs" + i, "id" + i));
+        }
+        // strings, byte arrays and other values
+        assertTrue(interner.size() <= 3 * 16);
+
+        // the recently used values are still shared
+        BootstrapConfig config1 = interner.intern(config("coaps://bs999", "id1"));
+        BootstrapConfig config2 = interner.intern(config("coaps://bs999", "id2"));
+        assertSame(config1.security.get(0).uri, config2.security.get(0).uri);
+    }
+
+    private static BootstrapConfig config(String uri, String identity) {
+        BootstrapConfig config = TestConfigs.config(uri, identity);
+        ServerConfig server = new ServerConfig();
+        server.shortId = 1;
+        server.lifetime = 300;
+        config.servers.put(1, server);
+
+        ServerSecurity dm = new ServerSecurity();
+        dm.uri = "coap://dm";
+        dm.securityMode = SecurityMode.NO_SEC;
+        dm.serverId = 1;
+        config.security.put(1, dm);
+        return config;
+    }
+}
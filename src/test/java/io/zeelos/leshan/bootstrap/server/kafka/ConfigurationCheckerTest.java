@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.bytes;
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.config;
+import static org.junit.Assert.*;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+
+import org.eclipse.leshan.SecurityMode;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.junit.Test;
+
+import io.zeelos.leshan.bootstrap.server.kafka.ConfigurationChecker.ConfigurationException;
+
+public class ConfigurationCheckerTest {
+
+    private static final String[] ALL_ALGORITHMS = new String[] { "EC", "DiffieHellman", "RSA", "DSA" };
+
+    @Test
+    public void key_algorithm_is_read_from_its_oid() throws GeneralSecurityException {
+        for (String algorithm : ALL_ALGORITHMS) {
+            KeyPair keys = KeyPairGenerator.getInstance(algorithm).generateKeyPair();
+
+            String[] expected = new String[] { algorithm };
+            assertArrayEquals(algorithm, expected,
+                    ConfigurationChecker.getKeyAlgorithms(keys.getPrivate().getEncoded(), true));
+            assertArrayEquals(algorithm, expected,
+                    ConfigurationChecker.getKeyAlgorithms(keys.getPublic().getEncoded(), false));
+        }
+    }
+
+    @Test
+    public void all_algorithms_are_tried_without_a_known_oid() throws GeneralSecurityException {
+        byte[] key = KeyPairGenerator.getInstance("EC").generateKeyPair().getPublic().getEncoded();
+
+        // SubjectPublicKeyInfo read as a PrivateKeyInfo
+        assertArrayEquals(ALL_ALGORITHMS, ConfigurationChecker.getKeyAlgorithms(key, true));
+        // truncated in the OID
+        assertArrayEquals(ALL_ALGORITHMS, ConfigurationChecker.getKeyAlgorithms(Arrays.copyOf(key, 8), false));
+        // unknown OID
+        byte[] unknown = key.clone();
+        unknown[10] ^= 0x7F;
+        assertArrayEquals(ALL_ALGORITHMS, ConfigurationChecker.getKeyAlgorithms(unknown, false));
+        assertArrayEquals(ALL_ALGORITHMS, ConfigurationChecker.getKeyAlgorithms(new byte[0], false));
+    }
+
+    @Test
+    public void rpk_config_is_verified() throws Exception {
+        for (String algorithm : new String[] { "EC", "RSA" }) {
+            ConfigurationChecker.verify(rpkConfig(KeyPairGenerator.getInstance(algorithm)));
+        }
+    }
+
+    @Test
+    public void rpk_config_with_an_undecodable_key_is_rejected() throws Exception {
+        BootstrapConfig config = rpkConfig(KeyPairGenerator.getInstance("EC"));
+        config.security.get(0).secretKey = bytes("not a key");
+
+        try {
+            ConfigurationChecker.verify(config);
+            fail("an undecodable private key must be rejected");
+        } catch (ConfigurationException e) {
+            assertEquals("raw-public-key mode, secret key must be RFC5958 encoded private key", e.getMessage());
+        }
+    }
+
+    private static BootstrapConfig rpkConfig(KeyPairGenerator generator) {
+        KeyPair client = generator.generateKeyPair();
+        BootstrapConfig config = config("coaps://bs", null);
+        ServerSecurity security = config.security.get(0);
+        security.securityMode = SecurityMode.RPK;
+        security.publicKeyOrId = client.getPublic().getEncoded();
+        security.secretKey = client.getPrivate().getEncoded();
+        security.serverPublicKey = generator.generateKeyPair().getPublic().getEncoded();
+        return config;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class EndpointPrefixTrieTest {
+
+    @Test
+    public void longest_prefix_wins() {
+        EndpointPrefixTrie trie = new EndpointPrefixTrie();
+        trie.add("dev", "dev*");
+        trie.add("dev-a", "dev-a*");
+
+        assertEquals("dev-a*", trie.longestMatch("dev-a1"));
+        assertEquals("dev-a*", trie.longestMatch("dev-a"));
+        assertEquals("dev*", trie.longestMatch("dev-b1"));
+        assertEquals("dev*", trie.longestMatch("dev"));
+        assertNull(trie.longestMatch("de"));
+        assertNull(trie.longestMatch("other"));
+    }
+
+    @Test
+    public void empty_prefix_matches_all_the_endpoints() {
+        EndpointPrefixTrie trie = new EndpointPrefixTrie();
+        trie.add("", "*");
+        trie.add("dev", "dev*");
+
+        assertEquals("*", trie.longestMatch("other"));
+        assertEquals("*", trie.longestMatch(""));
+        assertEquals("dev*", trie.longestMatch("dev1"));
+    }
+
+    @Test
+    public void removed_prefix_falls_back_to_a_shorter_one() {
+        EndpointPrefixTrie trie = new EndpointPrefixTrie();
+        trie.add("dev", "dev*");
+        trie.add("dev-a", "dev-a*");
+        trie.remove("dev-a");
+        trie.remove("unknown");
+
+        assertEquals("dev*", trie.longestMatch("dev-a1"));
+        trie.remove("dev");
+        assertNull(trie.longestMatch("dev-a1"));
+    }
+
+    @Test
+    public void resolver_skips_the_patterns_it_does_not_resolve() {
+        EndpointPrefixTrie trie = new EndpointPrefixTrie();
+        trie.add("", "*");
+        trie.add("dev", "dev*");
+        trie.add("dev-a", "dev-a*");
+        final Set<String> resolved = new HashSet<>();
+        resolved.add("*");
+        resolved.add("dev*");
+
+        assertEquals("dev*", trie.longestMatch("dev-a1", p -> resolved.contains(p) ? p : null));
+        resolved.remove("dev*");
+        assertEquals("*", trie.longestMatch("dev-a1", p -> resolved.contains(p) ? p : null));
+        resolved.clear();
+        assertNull(trie.longestMatch("dev-a1", p -> resolved.contains(p) ? p : null));
+    }
+}
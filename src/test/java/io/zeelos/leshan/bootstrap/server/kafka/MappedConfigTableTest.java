@@ -0,0 +1,158 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.bytes;
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.config;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.security.SecurityInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedConfigTableTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void get_put_remove() throws IOException {
+        try (MappedConfigTable table = new MappedConfigTable(folder.getRoot().getPath())) {
+            table.put("ep1", config("coaps://bs", "id1", "secret1"));
+            table.put("ep2", config("coap://bs", null));
+
+            assertEquals("coaps://bs", table.get("ep1").security.get(0).uri);
+            assertEquals(1, table.getSecurity("ep1").size());
+            assertNull(table.get("ep3"));
+            assertNull(table.getSecurity("ep3"));
+            assertEquals(2, table.asMap().size());
+
+            table.remove("ep1");
+            assertNull(table.get("ep1"));
+            assertNull(table.getByIdentity(bytes("id1")));
+            assertEquals(1, table.asMap().size());
+        }
+    }
+
+    @Test
+    public void psk_identity_is_used_by_one_endpoint() throws IOException {
+        try (MappedConfigTable table = new MappedConfigTable(folder.getRoot().getPath())) {
+            assertTrue(table.put("ep1", config("coaps://bs", "id1", "secret1")));
+            assertFalse(table.put("ep2", config("coaps://bs", "id1", "secret2")));
+            assertNull(table.get("ep2"));
+
+            SecurityInfo info = table.getByIdentity(bytes("id1"));
+            assertEquals("ep1", info.getEndpoint());
+            assertArrayEquals(bytes("secret1"), info.getPreSharedKey());
+
+            // replacing the configuration replaces its identity
+            table.put("ep1", config("coaps://bs", "id2", "secret1"));
+            assertNull(table.getByIdentity(bytes("id1")));
+            assertEquals("ep1", table.getByIdentity(bytes("id2")).getEndpoint());
+        }
+    }
+
+    @Test
+    public void pages_are_ordered_by_endpoint_name() throws IOException {
+        try (MappedConfigTable table = new MappedConfigTable(folder.getRoot().getPath())) {
+            for (String endpoint : Arrays.asList("c", "a", "e", "b", "d")) {
+                table.put(endpoint, config("coap://bs", null));
+            }
+            // updated after the others, still paged in name order
+            table.put("a", config("coap://bs", null));
+
+            assertEquals(Arrays.asList("a", "b"), new ArrayList<>(table.page(null, 2).keySet()));
+            assertEquals(Arrays.asList("c", "d"), new ArrayList<>(table.page("b", 2).keySet()));
+            assertEquals(Arrays.asList("e"), new ArrayList<>(table.page("d", 2).keySet()));
+            assertTrue(table.page("e", 2).isEmpty());
+        }
+    }
+
+    @Test
+    public void paging_goes_on_after_a_removed_or_updated_cursor() throws IOException {
+        try (MappedConfigTable table = new MappedConfigTable(folder.getRoot().getPath())) {
+            for (int i = 0; i < 10; i++) {
+                table.put("ep" + i, config("coap://bs", null));
+            }
+
+            List<String> paged = new ArrayList<>();
+            String last = null;
+            while (true) {
+                Map<String, BootstrapConfig> page = table.page(last, 3);
+                if (page.isEmpty())
+                    break;
+                paged.addAll(page.keySet());
+                last = paged.get(paged.size() - 1);
+                if (last.equals("ep2")) {
+                    table.remove("ep2");
+                } else if (last.equals("ep5")) {
+                    table.put("ep5", config("coap://bs", null));
+                }
+            }
+            assertEquals(10, paged.size());
+        }
+    }
+
+    @Test
+    public void configurations_survive_a_restart() throws IOException {
+        String directory = folder.getRoot().getPath();
+        try (MappedConfigTable table = new MappedConfigTable(directory)) {
+            table.persistence(null).load(new HashMap<String, BootstrapConfig>()::put);
+            table.put("ep1", config("coaps://bs", "id1", "secret1"));
+            table.put("ep2", config("coap://bs", null));
+            table.put("ep*", config("coap://bs", null));
+            table.remove("ep2");
+        }
+
+        try (MappedConfigTable table = new MappedConfigTable(directory)) {
+            Map<String, BootstrapConfig> loaded = new HashMap<>();
+            table.persistence(null).load(loaded::put);
+            // only the patterns are reported to the store
+            assertEquals(Arrays.asList("ep*"), new ArrayList<>(loaded.keySet()));
+
+            assertNotNull(table.get("ep1"));
+            assertNull(table.get("ep2"));
+            assertEquals("ep1", table.getByIdentity(bytes("id1")).getEndpoint());
+            assertEquals(Arrays.asList("ep*", "ep1"), new ArrayList<>(table.page(null, 10).keySet()));
+        }
+    }
+
+    @Test
+    public void tiered_table_pages_by_endpoint_name() throws IOException {
+        File directory = folder.newFolder();
+        try (TieredConfigTable table = new TieredConfigTable(directory.getPath(), 2)) {
+            for (String endpoint : Arrays.asList("c", "a", "b")) {
+                table.put(endpoint, config("coap://bs", null));
+            }
+            assertNotNull(table.get("c"));
+            table.remove("a");
+
+            assertEquals(Arrays.asList("b", "c"), new ArrayList<>(table.page("a", 10).keySet()));
+            assertEquals(2, table.asMap().size());
+        }
+        // a transient disk tier
+        assertEquals(0, directory.list().length);
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.BootstrapPersistence;
+
+/**
+ * Keeps the configurations in memory and lets the tests make external changes through its listener.
+ */
+public class MemoryPersistence implements BootstrapPersistence {
+    public final Map<String, BootstrapConfig> configs = new HashMap<>();
+    public Listener listener;
+
+    @Override
+    public Map<String, BootstrapConfig> load() {
+        return new HashMap<>(configs);
+    }
+
+    @Override
+    public void start(Listener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public void added(String endpoint, BootstrapConfig config) {
+        configs.put(endpoint, config);
+    }
+
+    @Override
+    public void deleted(String endpoint) {
+        configs.remove(endpoint);
+    }
+
+    @Override
+    public void flush(Map<String, BootstrapConfig> configs) {
+    }
+
+    @Override
+    public void close() {
+    }
+}
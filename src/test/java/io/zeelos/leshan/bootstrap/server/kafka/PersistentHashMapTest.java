@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class PersistentHashMapTest {
+
+    // a key whose hash is chosen, to make collisions and deep tries
+    private static final class Key {
+        final String name;
+        final int hash;
+
+        Key(String name, int hash) {
+            this.name = name;
+            this.hash = hash;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).name.equals(name);
+        }
+    }
+
+    @Test
+    public void plus_and_minus_keep_the_previous_versions() {
+        PersistentHashMap<String, Integer> empty = PersistentHashMap.empty();
+        PersistentHashMap<String, Integer> one = empty.plus("a", 1);
+        PersistentHashMap<String, Integer> two = one.plus("b", 2);
+        PersistentHashMap<String, Integer> replaced = two.plus("a", 3);
+        PersistentHashMap<String, Integer> removed = replaced.minus("b");
+
+        assertTrue(empty.isEmpty());
+        assertEquals(map("a", 1), one);
+        assertEquals(map("a", 1, "b", 2), two);
+        assertEquals(map("a", 3, "b", 2), replaced);
+        assertEquals(map("a", 3), removed);
+        assertSame(removed, removed.minus("unknown"));
+        assertSame(PersistentHashMap.empty(), removed.minus("a"));
+    }
+
+    @Test
+    public void keys_with_the_same_hash_are_kept_apart() {
+        Key a = new Key("a", 42);
+        Key b = new Key("b", 42);
+        Key c = new Key("c", 42);
+        // differs from the others only in its last hash chunk
+        Key d = new Key("d", 42 | 1 << 30);
+
+        PersistentHashMap<Key, String> map = PersistentHashMap.<Key, String> empty().plus(a, "a").plus(b, "b")
+                .plus(c, "c").plus(d, "d");
+        assertEquals(4, map.size());
+        assertEquals("b", map.get(new Key("b", 42)));
+        assertNull(map.get(new Key("e", 42)));
+
+        map = map.plus(b, "B").minus(a);
+        assertEquals(3, map.size());
+        assertEquals("B", map.get(b));
+        assertNull(map.get(a));
+
+        map = map.minus(c).minus(b);
+        assertEquals(1, map.size());
+        assertEquals("d", map.get(d));
+        assertEquals(1, new ArrayList<>(map.entrySet()).size());
+    }
+
+    @Test
+    public void behaves_like_a_hash_map() {
+        Random random = new Random(1);
+        Map<Key, Integer> expected = new HashMap<>();
+        PersistentHashMap<Key, Integer> map = PersistentHashMap.empty();
+        List<PersistentHashMap<Key, Integer>> versions = new ArrayList<>();
+        List<Map<Key, Integer>> expectedVersions = new ArrayList<>();
+
+        for (int i = 0; i < 20000; i++) {
+            // few hash values, so that some keys collide
+            int id = random.nextInt(2000);
+            Key key = new Key("k" + id, id % 3 == 0 ? id % 50 : random.nextInt());
+            if (random.nextInt(3) == 0) {
+                map = map.minus(key);
+                expected.remove(key);
+            } else {
+                map = map.plus(key, i);
+                expected.put(key, i);
+            }
+            if (i % 1000 == 0) {
+                versions.add(map);
+                expectedVersions.add(new HashMap<>(expected));
+            }
+        }
+
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected, map);
+        assertEquals(expected, new HashMap<>(map));
+        for (int i = 0; i < versions.size(); i++) {
+            assertEquals(expectedVersions.get(i), versions.get(i));
+        }
+
+        for (Key key : new ArrayList<>(expected.keySet())) {
+            map = map.minus(key);
+        }
+        assertTrue(map.isEmpty());
+        assertFalse(map.entrySet().iterator().hasNext());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void null_values_are_rejected() {
+        PersistentHashMap.<String, String> empty().plus("a", null);
+    }
+
+    private static Map<String, Integer> map(Object... entries) {
+        Map<String, Integer> map = new HashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            map.put((String) entries[i], (Integer) entries[i + 1]);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.bytes;
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.config;
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.leshan.SecurityMode;
+import org.eclipse.leshan.core.model.LwM2mModel;
+import org.eclipse.leshan.core.node.LwM2mNode;
+import org.eclipse.leshan.core.node.LwM2mPath;
+import org.eclipse.leshan.core.node.TimestampedLwM2mNode;
+import org.eclipse.leshan.core.node.codec.LwM2mNodeEncoder;
+import org.eclipse.leshan.core.request.ContentFormat;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.eclipse.leshan.server.bootstrap.BootstrapUtil;
+import org.junit.Test;
+
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+
+public class PrecompiledNodeEncoderTest {
+
+    // records the thread encoding each payload
+    private static class RecordingEncoder implements LwM2mNodeEncoder {
+        final List<String> threads = new CopyOnWriteArrayList<>();
+
+        @Override
+        public byte[] encode(LwM2mNode node, ContentFormat format, LwM2mPath path, LwM2mModel model) {
+            threads.add(Thread.currentThread().getName());
+            return new byte[] { (byte) threads.size() };
+        }
+
+        @Override
+        public byte[] encodeTimestampedData(List<TimestampedLwM2mNode> timestampedNodes, ContentFormat format,
+                LwM2mPath path, LwM2mModel model) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isSupported(ContentFormat format) {
+            return true;
+        }
+    }
+
+    private final LwM2mModel model = new LwM2mModel();
+    private final RecordingEncoder recording = new RecordingEncoder();
+    private final PrecompiledNodeEncoder encoder = new PrecompiledNodeEncoder(recording, model, 100);
+
+    @Test
+    public void changed_config_is_precompiled_in_the_background() throws Exception {
+        encoder.changed(1, "ep1", config("coap://bs", null));
+
+        await(1);
+        assertNotEquals(Thread.currentThread().getName(), recording.threads.get(0));
+    }
+
+    @Test
+    public void provisioned_psk_config_is_a_hit() throws Exception {
+        encoder.changed(1, "ep1", config("coaps://bs", "id1"));
+        await(1);
+
+        // the session converts its own copy of the config, with other byte arrays
+        assertHit(config("coaps://bs", "id1").security.get(0));
+    }
+
+    @Test
+    public void provisioned_rpk_config_is_a_hit() throws Exception {
+        encoder.changed(1, "ep1", rpk());
+        await(1);
+
+        assertHit(rpk().security.get(0));
+    }
+
+    @Test
+    public void different_secret_is_a_miss() throws Exception {
+        encoder.changed(1, "ep1", config("coaps://bs", "id1", "secret1"));
+        await(1);
+
+        ServerSecurity security = config("coaps://bs", "id1", "secret2").security.get(0);
+        long misses = BootstrapMetrics.ENCODER_MISSES.getCount();
+        encoder.encode(BootstrapUtil.convertToSecurityInstance(0, security), ContentFormat.TLV,
+                new LwM2mPath(0, 0), model);
+        assertEquals(misses + 1, BootstrapMetrics.ENCODER_MISSES.getCount());
+        assertEquals(2, recording.threads.size());
+    }
+
+    private void assertHit(ServerSecurity security) {
+        long hits = BootstrapMetrics.ENCODER_HITS.getCount();
+        byte[] payload = encoder.encode(BootstrapUtil.convertToSecurityInstance(0, security), ContentFormat.TLV,
+                new LwM2mPath(0, 0), model);
+        assertArrayEquals(new byte[] { 1 }, payload);
+        assertEquals(hits + 1, BootstrapMetrics.ENCODER_HITS.getCount());
+        assertEquals(1, recording.threads.size());
+    }
+
+    // waits for the precompiler thread
+    private void await(int encoded) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (recording.threads.size() < encoded) {
+            if (System.currentTimeMillis() > deadline)
+                fail("not precompiled");
+            Thread.sleep(10);
+        }
+    }
+
+    private static BootstrapConfig rpk() {
+        BootstrapConfig config = config("coaps://bs", null);
+        ServerSecurity security = config.security.get(0);
+        security.securityMode = SecurityMode.RPK;
+        security.publicKeyOrId = bytes("client public key");
+        security.secretKey = bytes("client private key");
+        security.serverPublicKey = bytes("server public key");
+        return config;
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.bytes;
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.config;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ACLConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.zeelos.leshan.bootstrap.server.kafka.ConfigurationChecker.ConfigurationException;
+
+public class TemplateStoreTest {
+
+    private MemoryPersistence persistence;
+    private TemplateStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        persistence = new MemoryPersistence();
+        store = new TemplateStore(persistence, new ConfigInterner());
+
+        BootstrapConfig template = config("coaps://bs", "template");
+        template.toDelete = Arrays.asList("/0", "/1");
+        template.servers.put(0, server(123));
+        template.servers.put(1, server(456));
+        ACLConfig acl = new ACLConfig();
+        acl.objectId = 3;
+        acl.objectInstanceId = 0;
+        template.acls.put(0, acl);
+        store.addTemplate("default", template).get();
+    }
+
+    @After
+    public void tearDown() {
+        store.destroy();
+    }
+
+    @Test
+    public void overridden_instances_replace_the_ones_of_the_template() throws Exception {
+        BootstrapConfig overrides = config("coaps://bs", "ep1");
+        overrides.toDelete = Collections.singletonList("/2");
+        overrides.servers.put(1, server(789));
+
+        BootstrapConfig merged = store.merge("default", overrides);
+
+        BootstrapConfig template = store.getTemplate("default");
+        assertEquals(Collections.singletonList("/2"), merged.toDelete);
+        assertEquals(2, merged.servers.size());
+        assertSame(template.servers.get(0), merged.servers.get(0));
+        assertEquals(789, merged.servers.get(1).shortId);
+        assertSame(overrides.security.get(0), merged.security.get(0));
+        // the template is not changed
+        assertEquals(456, template.servers.get(1).shortId);
+        assertArrayEquals(bytes("template"), template.security.get(0).publicKeyOrId);
+    }
+
+    @Test
+    public void instances_which_are_not_overridden_are_shared_with_the_template() throws Exception {
+        BootstrapConfig overrides = new BootstrapConfig();
+        ServerSecurity security = config("coaps://dm", "ep1").security.get(0);
+        security.bootstrapServer = false;
+        overrides.security.put(1, security);
+
+        BootstrapConfig merged = store.merge("default", overrides);
+
+        BootstrapConfig template = store.getTemplate("default");
+        assertSame(template.toDelete, merged.toDelete);
+        assertSame(template.servers, merged.servers);
+        assertSame(template.acls, merged.acls);
+        assertSame(template.security.get(0), merged.security.get(0));
+        assertSame(security, merged.security.get(1));
+        // the security instances are per endpoint, they never share the map of the template
+        assertNotSame(template.security, merged.security);
+        assertEquals(1, template.security.size());
+    }
+
+    @Test(expected = ConfigurationException.class)
+    public void merging_an_unknown_template_fails() throws ConfigurationException {
+        store.merge("unknown", new BootstrapConfig());
+    }
+
+    @Test
+    public void templates_are_persisted() throws Exception {
+        assertEquals(Collections.singleton("default"), persistence.configs.keySet());
+
+        assertTrue(store.deleteTemplate("default").get());
+        assertFalse(store.deleteTemplate("default").get());
+        assertTrue(persistence.configs.isEmpty());
+    }
+
+    private static ServerConfig server(int shortId) {
+        ServerConfig server = new ServerConfig();
+        server.shortId = shortId;
+        return server;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka;
+
+import java.nio.charset.StandardCharsets;
+
+import org.eclipse.leshan.SecurityMode;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+
+/**
+ * The configurations used by the tests.
+ */
+public final class TestConfigs {
+
+    private TestConfigs() {
+    }
+
+    /**
+     * @return a configuration with a bootstrap server, using a PSK when an identity is given
+     */
+    public static BootstrapConfig config(String uri, String identity) {
+        return config(uri, identity, "secret");
+    }
+
+    public static BootstrapConfig config(String uri, String identity, String secret) {
+        BootstrapConfig config = new BootstrapConfig();
+        ServerSecurity security = new ServerSecurity();
+        security.uri = uri;
+        security.bootstrapServer = true;
+        if (identity == null) {
+            security.securityMode = SecurityMode.NO_SEC;
+        } else {
+            security.securityMode = SecurityMode.PSK;
+            security.publicKeyOrId = bytes(identity);
+            security.secretKey = bytes(secret);
+        }
+        config.security.put(0, security);
+        return config;
+    }
+
+    /**
+     * @return a configuration with a single server, told apart by its short id
+     */
+    public static BootstrapConfig config(int shortId) {
+        BootstrapConfig config = new BootstrapConfig();
+        ServerConfig server = new ServerConfig();
+        server.shortId = shortId;
+        config.servers.put(0, server);
+        return config;
+    }
+
+    public static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.admission;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import org.junit.Test;
+
+public class AdmissionControllerTest {
+
+    @Test
+    public void source_rate_is_per_address() throws UnknownHostException {
+        AdmissionController admission = controller(new AdmissionController.Rate(0.001, 1), null);
+
+        assertTrue(admission.admit(address("192.168.1.1")));
+        assertFalse(admission.admit(address("192.168.1.1")));
+        assertTrue(admission.admit(address("192.168.1.2")));
+    }
+
+    @Test
+    public void subnet_rate_is_per_prefix() throws UnknownHostException {
+        AdmissionController admission = controller(null, new AdmissionController.Rate(0.001, 2));
+
+        assertTrue(admission.admit(address("192.168.1.1")));
+        assertTrue(admission.admit(address("192.168.1.2")));
+        assertFalse(admission.admit(address("192.168.1.3")));
+        assertTrue(admission.admit(address("192.168.2.1")));
+
+        assertTrue(admission.admit(address("2001:db8:0:1::1")));
+        assertTrue(admission.admit(address("2001:db8:0:1::2")));
+        assertFalse(admission.admit(address("2001:db8:0:1::3")));
+        assertTrue(admission.admit(address("2001:db8:0:2::1")));
+    }
+
+    @Test
+    public void no_rate_admits_everything() throws UnknownHostException {
+        AdmissionController admission = controller(null, null);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(admission.admit(address("192.168.1.1")));
+        }
+    }
+
+    @Test
+    public void key_keeps_the_prefix_bits_only() throws UnknownHostException {
+        byte[] a = address("192.168.1.1").getAddress();
+        byte[] b = address("192.168.1.200").getAddress();
+        byte[] c = address("192.168.3.1").getAddress();
+
+        assertEquals(AdmissionController.key(a, 24), AdmissionController.key(b, 24));
+        assertNotEquals(AdmissionController.key(a, 24), AdmissionController.key(c, 24));
+        assertEquals(AdmissionController.key(a, 22), AdmissionController.key(c, 22));
+        assertNotEquals(AdmissionController.key(a, 32), AdmissionController.key(b, 32));
+    }
+
+    @Test
+    public void rate_parses_an_optional_burst() {
+        AdmissionController.Rate rate = AdmissionController.Rate.parse("5");
+        assertEquals(5, rate.rate, 0);
+        assertEquals(5, rate.burst, 0);
+
+        rate = AdmissionController.Rate.parse("0.5:10");
+        assertEquals(0.5, rate.rate, 0);
+        assertEquals(10, rate.burst, 0);
+
+        assertEquals(1, AdmissionController.Rate.parse("0.5").burst, 0);
+    }
+
+    private static AdmissionController controller(AdmissionController.Rate source, AdmissionController.Rate subnet) {
+        return new AdmissionController(source, subnet, null, AdmissionController.DEFAULT_IPV4_PREFIX,
+                AdmissionController.DEFAULT_IPV6_PREFIX, AdmissionController.DEFAULT_CAPACITY);
+    }
+
+    private static InetAddress address(String address) throws UnknownHostException {
+        return InetAddress.getByName(address);
+    }
+}
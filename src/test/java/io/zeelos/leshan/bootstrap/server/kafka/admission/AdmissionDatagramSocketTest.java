@@ -0,0 +1,131 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.admission;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import org.junit.Test;
+
+public class AdmissionDatagramSocketTest {
+
+    private static final byte[] COOKIE = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 };
+    private static final byte[] NO_COOKIE = new byte[0];
+
+    @Test
+    public void first_client_hello_is_not_charged() {
+        byte[] hello = clientHello(0, new byte[32], NO_COOKIE);
+        assertFalse(AdmissionDatagramSocket.isClientHelloWithCookie(hello, 0, hello.length));
+    }
+
+    @Test
+    public void client_hello_with_cookie_is_charged() {
+        byte[] hello = clientHello(0, new byte[32], COOKIE);
+        assertTrue(AdmissionDatagramSocket.isClientHelloWithCookie(hello, 0, hello.length));
+
+        byte[] resumption = clientHello(0, new byte[0], COOKIE);
+        assertTrue(AdmissionDatagramSocket.isClientHelloWithCookie(resumption, 0, resumption.length));
+    }
+
+    @Test
+    public void client_hello_is_found_at_the_packet_offset() {
+        byte[] hello = clientHello(0, new byte[32], COOKIE);
+        byte[] buffer = new byte[hello.length + 10];
+        System.arraycopy(hello, 0, buffer, 5, hello.length);
+
+        assertTrue(AdmissionDatagramSocket.isClientHelloWithCookie(buffer, 5, hello.length));
+        // the cookie is past the end of the packet
+        assertTrue(AdmissionDatagramSocket.isClientHelloWithCookie(buffer, 5, hello.length - COOKIE.length - 1));
+        assertFalse(AdmissionDatagramSocket.isClientHelloWithCookie(buffer, 0, hello.length));
+    }
+
+    @Test
+    public void other_records_are_not_charged() {
+        byte[] renegotiation = clientHello(1, new byte[32], COOKIE);
+        assertFalse(AdmissionDatagramSocket.isClientHelloWithCookie(renegotiation, 0, renegotiation.length));
+
+        byte[] applicationData = clientHello(0, new byte[32], COOKIE);
+        applicationData[0] = 23;
+        assertFalse(AdmissionDatagramSocket.isClientHelloWithCookie(applicationData, 0, applicationData.length));
+
+        byte[] fragment = clientHello(0, new byte[32], COOKIE);
+        fragment[13 + 8] = 10;
+        assertFalse(AdmissionDatagramSocket.isClientHelloWithCookie(fragment, 0, fragment.length));
+
+        byte[] header = new byte[13];
+        header[0] = 22;
+        assertFalse(AdmissionDatagramSocket.isClientHelloWithCookie(header, 0, header.length));
+    }
+
+    @Test
+    public void a_handshake_costs_one_token() throws Exception {
+        AdmissionController admission = new AdmissionController(null, null, new AdmissionController.Rate(0.001, 1),
+                AdmissionController.DEFAULT_IPV4_PREFIX, AdmissionController.DEFAULT_IPV6_PREFIX,
+                AdmissionController.DEFAULT_CAPACITY);
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        try (DatagramSocket server = new DatagramSocket(new InetSocketAddress(loopback, 0));
+                AdmissionDatagramSocket socket = new AdmissionDatagramSocket(server, admission);
+                DatagramSocket client = new DatagramSocket(new InetSocketAddress(loopback, 0))) {
+            socket.setSoTimeout(5000);
+            byte[] first = clientHello(0, new byte[32], NO_COOKIE);
+            byte[] second = clientHello(0, new byte[32], COOKIE);
+            byte[] retry = clientHello(0, new byte[0], COOKIE);
+            byte[] other = clientHello(1, new byte[0], NO_COOKIE);
+            for (byte[] datagram : new byte[][] { first, second, retry, other }) {
+                client.send(new DatagramPacket(datagram, datagram.length, server.getLocalSocketAddress()));
+            }
+
+            // the retry has no token left and is dropped
+            for (byte[] expected : new byte[][] { first, second, other }) {
+                DatagramPacket p = new DatagramPacket(new byte[512], 512);
+                socket.receive(p);
+                assertEquals(expected.length, p.getLength());
+                assertEquals(expected[3], p.getData()[3]);
+                assertEquals(expected[expected.length - 1], p.getData()[p.getLength() - 1]);
+            }
+        }
+    }
+
+    // a DTLS 1.2 record holding an unfragmented ClientHello
+    private static byte[] clientHello(int epoch, byte[] sessionId, byte[] cookie) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.write(0xfe);
+        body.write(0xfd);
+        body.write(new byte[32], 0, 32);
+        body.write(sessionId.length);
+        body.write(sessionId, 0, sessionId.length);
+        body.write(cookie.length);
+        body.write(cookie, 0, cookie.length);
+        // one cipher suite, the null compression
+        body.write(new byte[] { 0, 2, (byte) 0xc0, (byte) 0xa8, 1, 0 }, 0, 6);
+        int length = body.size();
+
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        record.write(new byte[] { 22, (byte) 0xfe, (byte) 0xfd, 0, (byte) epoch, 0, 0, 0, 0, 0, 0 }, 0, 11);
+        record.write(length + 12 >> 8);
+        record.write(length + 12);
+        record.write(1);
+        record.write(new byte[] { 0, (byte) (length >> 8), (byte) length, 0, 0, 0, 0, 0, 0, (byte) (length >> 8),
+                (byte) length }, 0, 11);
+        byte[] bytes = body.toByteArray();
+        record.write(bytes, 0, bytes.length);
+        return record.toByteArray();
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.admission;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class TokenBucketTableTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void bucket_allows_a_burst_then_refills_at_the_rate() {
+        TokenBucketTable.TokenBucket bucket = new TokenBucketTable.TokenBucket(2, 3, 0);
+
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertTrue(bucket.tryAcquire(0));
+        assertFalse(bucket.tryAcquire(0));
+
+        // 2 tokens per second
+        assertFalse(bucket.tryAcquire(SECOND / 4));
+        assertTrue(bucket.tryAcquire(SECOND / 2));
+        assertFalse(bucket.tryAcquire(SECOND / 2));
+    }
+
+    @Test
+    public void bucket_never_holds_more_than_the_burst() {
+        TokenBucketTable.TokenBucket bucket = new TokenBucketTable.TokenBucket(10, 2, 0);
+
+        assertTrue(bucket.tryAcquire(100 * SECOND));
+        assertTrue(bucket.tryAcquire(100 * SECOND));
+        assertFalse(bucket.tryAcquire(100 * SECOND));
+    }
+
+    @Test
+    public void keys_have_their_own_bucket() {
+        TokenBucketTable table = new TokenBucketTable(1024, 1, 1);
+
+        assertTrue(table.tryAcquire(1, 0));
+        assertFalse(table.tryAcquire(1, 0));
+        assertTrue(table.tryAcquire(2, 0));
+        assertTrue(table.tryAcquire(1, SECOND));
+    }
+
+    @Test
+    public void evicted_keys_start_again_with_a_full_bucket() {
+        // one bucket per stripe
+        TokenBucketTable table = new TokenBucketTable(64, 1, 1);
+        for (long key = 0; key < 10000; key++) {
+            assertTrue(table.tryAcquire(key, 0));
+        }
+        assertTrue(table.tryAcquire(0, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacity_must_cover_the_stripes() {
+        new TokenBucketTable(10, 1, 1);
+    }
+}
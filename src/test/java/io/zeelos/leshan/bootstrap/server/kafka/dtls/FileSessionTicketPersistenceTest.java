@@ -0,0 +1,69 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.dtls;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.californium.scandium.dtls.SessionId;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FileSessionTicketPersistenceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(folder.getRoot(), "sessions.bin");
+    }
+
+    @Test
+    public void flushed_tickets_are_loaded() throws IOException {
+        Map<SessionId, byte[]> tickets = new HashMap<>();
+        tickets.put(new SessionId(new byte[] { 1, 2, 3 }), new byte[] { 4, 5 });
+
+        new FileSessionTicketPersistence(file.getPath()).flush(tickets);
+        Map<SessionId, byte[]> loaded = new FileSessionTicketPersistence(file.getPath()).load();
+
+        assertEquals(tickets.keySet(), loaded.keySet());
+        assertArrayEquals(new byte[] { 4, 5 }, loaded.get(new SessionId(new byte[] { 1, 2, 3 })));
+    }
+
+    @Test
+    public void file_is_only_readable_by_its_owner() throws IOException {
+        Assume.assumeTrue(file.toPath().getFileSystem().supportedFileAttributeViews().contains("posix"));
+        // a leftover of a crash, created with the default permissions
+        File tmp = new File(file.getPath() + ".tmp");
+        assertTrue(tmp.createNewFile());
+
+        new FileSessionTicketPersistence(file.getPath()).flush(new HashMap<SessionId, byte[]>());
+
+        assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())));
+        assertFalse(tmp.exists());
+    }
+}
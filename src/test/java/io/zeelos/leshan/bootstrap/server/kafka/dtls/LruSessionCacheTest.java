@@ -0,0 +1,193 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.dtls;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.californium.scandium.dtls.SessionId;
+import org.junit.Test;
+
+import io.zeelos.leshan.bootstrap.server.kafka.metrics.BootstrapMetrics;
+
+public class LruSessionCacheTest {
+
+    private static final long LIFETIME = 60000;
+
+    @Test
+    public void load_skips_expired_sessions() {
+        long now = System.currentTimeMillis();
+        MemoryPersistence persistence = new MemoryPersistence();
+        persistence.tickets.put(id(1), ticket(now));
+        persistence.tickets.put(id(2), ticket(now - 2 * LIFETIME));
+
+        LruSessionCache cache = new LruSessionCache(10, LIFETIME, persistence, 60000);
+        try {
+            assertEquals(1, cache.size());
+            assertNotNull(persistence.listener);
+        } finally {
+            cache.destroy();
+        }
+    }
+
+    @Test
+    public void unknown_session_is_a_miss() {
+        LruSessionCache cache = new LruSessionCache(10, LIFETIME);
+        long misses = BootstrapMetrics.DTLS_SESSION_CACHE_MISSES.getCount();
+
+        assertNull(cache.get(id(1)));
+        assertEquals(misses + 1, BootstrapMetrics.DTLS_SESSION_CACHE_MISSES.getCount());
+    }
+
+    @Test
+    public void expired_session_is_a_miss_and_is_removed() throws InterruptedException {
+        MemoryPersistence persistence = new MemoryPersistence();
+        persistence.tickets.put(id(1), ticket(System.currentTimeMillis()));
+        LruSessionCache cache = new LruSessionCache(10, 50, persistence, 60000);
+        long misses = BootstrapMetrics.DTLS_SESSION_CACHE_MISSES.getCount();
+
+        try {
+            Thread.sleep(100);
+            assertNull(cache.get(id(1)));
+            assertEquals(misses + 1, BootstrapMetrics.DTLS_SESSION_CACHE_MISSES.getCount());
+            assertEquals(0, cache.size());
+            // the handshakes never wait for the persistence
+            assertTrue(persistence.deleted.isEmpty());
+        } finally {
+            cache.destroy();
+        }
+        assertEquals(1, persistence.deleted.size());
+    }
+
+    @Test
+    public void changes_are_handed_to_the_persistence_by_the_flusher() throws InterruptedException {
+        MemoryPersistence persistence = new MemoryPersistence();
+        persistence.tickets.put(id(1), ticket(System.currentTimeMillis()));
+        LruSessionCache cache = new LruSessionCache(10, LIFETIME, persistence, 10);
+
+        try {
+            cache.remove(id(1));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (persistence.flushed == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(1, persistence.deleted.size());
+            assertTrue(persistence.thread.startsWith("DTLS Session Flusher"));
+            assertTrue(persistence.flushed.isEmpty());
+        } finally {
+            cache.destroy();
+        }
+    }
+
+    @Test
+    public void external_changes_are_applied_and_evict_the_least_recently_used() {
+        long now = System.currentTimeMillis();
+        MemoryPersistence persistence = new MemoryPersistence();
+        LruSessionCache cache = new LruSessionCache(2, LIFETIME, persistence, 60000);
+
+        try {
+            persistence.listener.changed(id(1), ticket(now));
+            persistence.listener.changed(id(2), ticket(now));
+            persistence.listener.changed(id(3), ticket(now));
+            assertEquals(2, cache.size());
+
+            persistence.listener.changed(id(3), null);
+            assertEquals(1, cache.size());
+        } finally {
+            cache.destroy();
+        }
+    }
+
+    @Test
+    public void destroy_flushes_the_pending_changes() {
+        MemoryPersistence persistence = new MemoryPersistence();
+        persistence.tickets.put(id(1), ticket(System.currentTimeMillis()));
+        persistence.tickets.put(id(2), ticket(System.currentTimeMillis()));
+        LruSessionCache cache = new LruSessionCache(10, LIFETIME, persistence, 60000);
+
+        cache.remove(id(1));
+        cache.destroy();
+
+        assertEquals(1, persistence.flushed.size());
+        assertTrue(persistence.flushed.containsKey(id(2)));
+        assertTrue(persistence.closed);
+    }
+
+    @Test
+    public void destroy_does_not_flush_an_unchanged_cache() {
+        MemoryPersistence persistence = new MemoryPersistence();
+        LruSessionCache cache = new LruSessionCache(10, LIFETIME, persistence, 60000);
+
+        cache.remove(id(1));
+        cache.destroy();
+
+        assertNull(persistence.flushed);
+    }
+
+    private static SessionId id(int i) {
+        return new SessionId(ByteBuffer.allocate(32).putInt(i).array());
+    }
+
+    // only the creation time is read until the ticket is resumed
+    private static byte[] ticket(long created) {
+        return ByteBuffer.allocate(16).putLong(created).putLong(42).array();
+    }
+
+    private static class MemoryPersistence implements SessionTicketPersistence {
+
+        final Map<SessionId, byte[]> tickets = new HashMap<>();
+        final List<SessionId> deleted = new CopyOnWriteArrayList<>();
+        volatile Map<SessionId, byte[]> flushed;
+        volatile String thread;
+        Listener listener;
+        boolean closed;
+
+        @Override
+        public Map<SessionId, byte[]> load() {
+            return tickets;
+        }
+
+        @Override
+        public void start(Listener listener) {
+            this.listener = listener;
+        }
+
+        @Override
+        public void added(SessionId id, byte[] ticket) {
+        }
+
+        @Override
+        public void deleted(SessionId id) {
+            thread = Thread.currentThread().getName();
+            deleted.add(id);
+        }
+
+        @Override
+        public void flush(Map<SessionId, byte[]> tickets) {
+            flushed = tickets;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.metrics;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    private final Histogram histogram = new Histogram("test_seconds", "A test histogram.");
+
+    @Test
+    public void small_values_are_exact() {
+        for (long value = 0; value < 16; value++) {
+            Histogram histogram = new Histogram("small", "");
+            histogram.record(value);
+            histogram.record(1000);
+
+            assertEquals(value, histogram.percentile(0.5));
+        }
+    }
+
+    @Test
+    public void values_are_known_within_an_eighth() {
+        for (long value = 8; value < 1L << 40; value += value / 3 + 1) {
+            Histogram histogram = new Histogram("precision", "");
+            histogram.record(value);
+            // the bucket of the value is reported rather than the max
+            histogram.record(1L << 50);
+
+            long upperBound = histogram.percentile(0.5);
+            assertTrue(value + " reported as " + upperBound, upperBound >= value);
+            assertTrue(value + " reported as " + upperBound, upperBound <= value + value / 8);
+        }
+    }
+
+    @Test
+    public void percentiles_are_bounded_by_the_max() {
+        for (long micros = 1; micros <= 1000; micros++) {
+            histogram.record(micros * 1000);
+        }
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE / 2);
+
+        assertEquals(1002, histogram.getCount());
+        assertEquals(0, new Histogram("empty", "").percentile(0.5));
+        assertEquals(500, histogram.get50thPercentileMicros(), 500 / 8d);
+        assertEquals(990, histogram.get99thPercentileMicros(), 990 / 8d);
+        assertEquals(Long.MAX_VALUE / 2, histogram.percentile(1));
+        assertEquals(Long.MAX_VALUE / 2 / 1000d, histogram.getMaxMicros(), 1);
+    }
+
+    @Test
+    public void prometheus_buckets_are_cumulative() throws IOException {
+        histogram.record(1000);
+        histogram.record(5000);
+        histogram.record(2000000000);
+
+        StringWriter out = new StringWriter();
+        histogram.writePrometheus(out);
+        String[] lines = out.toString().split("\n");
+
+        assertEquals("# HELP test_seconds A test histogram.", lines[0]);
+        assertEquals("# TYPE test_seconds histogram", lines[1]);
+        List<String> buckets = new ArrayList<>();
+        long previous = 0;
+        for (int i = 2; i < lines.length - 2; i++) {
+            assertTrue(lines[i], lines[i].startsWith("test_seconds_bucket{le=\""));
+            long cumulated = Long.parseLong(lines[i].substring(lines[i].lastIndexOf(' ') + 1));
+            assertTrue(lines[i], cumulated >= previous);
+            previous = cumulated;
+            buckets.add(lines[i]);
+        }
+        // a bucket per power of four nanoseconds from 1µs, then +Inf
+        assertEquals("test_seconds_bucket{le=\"1.024E-6\"} 1", buckets.get(0));
+        assertEquals("test_seconds_bucket{le=\"4.096E-6\"} 1", buckets.get(1));
+        assertEquals("test_seconds_bucket{le=\"1.6384E-5\"} 2", buckets.get(2));
+        assertEquals("test_seconds_bucket{le=\"1.073741824\"} 2", buckets.get(10));
+        assertEquals("test_seconds_bucket{le=\"4.294967296\"} 3", buckets.get(11));
+        assertEquals("test_seconds_bucket{le=\"+Inf\"} 3", buckets.get(buckets.size() - 1));
+        assertEquals(16, buckets.size());
+        assertEquals("test_seconds_sum 2.000006", lines[lines.length - 2]);
+        assertEquals("test_seconds_count 3", lines[lines.length - 1]);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.bytes;
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.config;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.Gson;
+
+import org.eclipse.leshan.SecurityMode;
+import org.eclipse.leshan.SmsSecurityMode;
+import org.eclipse.leshan.core.request.BindingMode;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ACLConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerConfig;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig.ServerSecurity;
+import org.junit.Test;
+
+public class BinarySnapshotFormatTest {
+
+    private final SnapshotFormat format = new BinarySnapshotFormat();
+
+    @Test
+    public void configs_are_read_back_as_written() throws IOException {
+        Map<String, BootstrapConfig> configs = new HashMap<>();
+        configs.put("ep1", fullConfig());
+        configs.put("ep2", config("coap://bs", null));
+        BootstrapConfig empty = new BootstrapConfig();
+        empty.toDelete = null;
+        empty.servers = null;
+        empty.security = null;
+        empty.acls = null;
+        configs.put("ep3", empty);
+
+        Map<String, BootstrapConfig> read = format.read(new ByteArrayInputStream(write(configs)));
+
+        // compared field by field through their JSON form
+        Gson gson = new Gson();
+        assertEquals(configs.keySet(), read.keySet());
+        for (String endpoint : configs.keySet()) {
+            assertEquals(endpoint, gson.toJson(configs.get(endpoint)), gson.toJson(read.get(endpoint)));
+        }
+        ServerSecurity security = read.get("ep1").security.get(1);
+        assertEquals(SecurityMode.RPK, security.securityMode);
+        assertEquals(SmsSecurityMode.SECURE_PACKET, security.smsSecurityMode);
+        assertEquals(BindingMode.UQ, read.get("ep1").servers.get(0).binding);
+    }
+
+    @Test
+    public void truncated_snapshot_is_rejected() throws IOException {
+        byte[] snapshot = write(Collections.singletonMap("ep1", fullConfig()));
+
+        for (int length = 0; length < snapshot.length; length++) {
+            try {
+                format.read(new ByteArrayInputStream(Arrays.copyOf(snapshot, length)));
+                fail("a snapshot truncated to " + length + " bytes was read");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    private byte[] write(Map<String, BootstrapConfig> configs) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        format.write(out, configs);
+        return out.toByteArray();
+    }
+
+    // a configuration using every field, with the optional ones both set and unset
+    private static BootstrapConfig fullConfig() {
+        BootstrapConfig config = config("coaps://bs", "id1", "secret1");
+        config.toDelete = Arrays.asList("/0", "/1");
+
+        ServerConfig server = new ServerConfig();
+        server.shortId = 123;
+        server.lifetime = 3600;
+        server.defaultMinPeriod = null;
+        server.defaultMaxPeriod = 60L;
+        server.disableTimeout = 86400L;
+        server.notifIfDisabled = false;
+        server.binding = BindingMode.UQ;
+        config.servers.put(0, server);
+
+        ServerSecurity security = new ServerSecurity();
+        security.uri = "coaps://dm";
+        security.securityMode = SecurityMode.RPK;
+        security.publicKeyOrId = bytes("public key");
+        security.serverPublicKey = bytes("server public key");
+        security.secretKey = bytes("private key");
+        security.smsSecurityMode = SmsSecurityMode.SECURE_PACKET;
+        security.smsBindingKeyParam = null;
+        security.serverSmsNumber = null;
+        security.serverId = 123;
+        security.clientOldOffTime = 20;
+        config.security.put(1, security);
+
+        ACLConfig acl = new ACLConfig();
+        acl.objectId = 3;
+        acl.objectInstanceId = 0;
+        acl.acls = new HashMap<>();
+        acl.acls.put(123, 15L);
+        acl.AccessControlOwner = 123;
+        config.acls.put(0, acl);
+        return config;
+    }
+}
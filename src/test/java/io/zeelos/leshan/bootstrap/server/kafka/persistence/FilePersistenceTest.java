@@ -0,0 +1,124 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.config;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class FilePersistenceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // the contents reported to the store
+    private final BlockingQueue<Map<String, BootstrapConfig>> replaced = new LinkedBlockingQueue<>();
+    private final BootstrapPersistence.Listener listener = new BootstrapPersistence.Listener() {
+        @Override
+        public void changed(Map<String, BootstrapConfig> changes) {
+            fail("a file is always reloaded as a whole");
+        }
+
+        @Override
+        public void replaced(Map<String, BootstrapConfig> configs) {
+            FilePersistenceTest.this.replaced.add(configs);
+        }
+    };
+
+    private final SnapshotFormat format = new JsonSnapshotFormat();
+    private File file;
+    private FilePersistence persistence;
+
+    @Before
+    public void setUp() throws IOException {
+        file = new File(folder.getRoot(), "bootstrap.json");
+        FilePersistence.write(file, format, Collections.singletonMap("ep1", config(1)));
+        persistence = new FilePersistence(file.getPath(), format, true);
+        assertEquals(Collections.singleton("ep1"), persistence.load().keySet());
+        persistence.start(listener);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        persistence.close();
+    }
+
+    @Test
+    public void change_made_by_another_process_is_reloaded() throws Exception {
+        FilePersistence.write(file, format, Collections.singletonMap("ep2", config(2)));
+
+        Map<String, BootstrapConfig> configs = replaced.poll(10, TimeUnit.SECONDS);
+        assertNotNull("the change was not reloaded", configs);
+        assertEquals(Collections.singleton("ep2"), configs.keySet());
+        assertEquals(2, configs.get("ep2").servers.get(0).shortId);
+    }
+
+    @Test
+    public void own_snapshot_is_not_reloaded() throws Exception {
+        persistence.added("ep2", config(2));
+        persistence.flush(Collections.singletonMap("ep2", config(2)));
+        // the change of another process is reported, and only this one
+        FilePersistence.write(file, format, Collections.singletonMap("ep3", config(3)));
+
+        Map<String, BootstrapConfig> configs = replaced.poll(10, TimeUnit.SECONDS);
+        assertNotNull("the change was not reloaded", configs);
+        assertEquals(Collections.singleton("ep3"), configs.keySet());
+        assertNull(replaced.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void change_not_reloaded_yet_is_not_overwritten() throws Exception {
+        FilePersistence.write(file, format, Collections.singletonMap("ep2", config(2)));
+
+        // flushed before the watcher reloads the file
+        persistence.added("ep3", config(3));
+        try {
+            persistence.flush(Collections.singletonMap("ep3", config(3)));
+            fail("the change of the other process would be lost");
+        } catch (IOException e) {
+            // reloaded instead
+        }
+
+        assertEquals(Collections.singleton("ep2"), replaced.poll(1, TimeUnit.SECONDS).keySet());
+        assertEquals(Collections.singleton("ep2"), FilePersistence.read(file, format).keySet());
+        // the watcher does not report it again
+        assertNull(replaced.poll(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void invalid_content_is_ignored_until_the_next_change() throws Exception {
+        Files.write(file.toPath(), "{not json".getBytes(StandardCharsets.UTF_8));
+        assertNull(replaced.poll(1500, TimeUnit.MILLISECONDS));
+
+        FilePersistence.write(file, format, Collections.singletonMap("ep2", config(2)));
+        assertEquals(Collections.singleton("ep2"), replaced.poll(10, TimeUnit.SECONDS).keySet());
+    }
+}
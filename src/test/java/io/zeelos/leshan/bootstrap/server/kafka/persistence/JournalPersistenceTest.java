@@ -0,0 +1,157 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.config;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JournalPersistenceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private String filename;
+    private File journal;
+
+    @Before
+    public void setUp() {
+        filename = new File(folder.getRoot(), "bootstrap.json").getPath();
+        journal = new File(filename + JournalPersistence.JOURNAL_SUFFIX);
+    }
+
+    @Test
+    public void changes_are_replayed_over_the_snapshot() throws IOException {
+        try (JournalPersistence persistence = persistence(100)) {
+            persistence.added("ep1", config(1));
+            persistence.added("ep2", config(2));
+            persistence.deleted("ep1");
+            persistence.added("ep2", config(3));
+            persistence.flush(Collections.<String, BootstrapConfig> emptyMap());
+        }
+
+        Map<String, BootstrapConfig> loaded = persistence(100).load();
+        assertEquals(Collections.singleton("ep2"), loaded.keySet());
+        assertEquals(3, loaded.get("ep2").servers.get(0).shortId);
+    }
+
+    @Test
+    public void journal_is_compacted_into_the_snapshot() throws IOException {
+        Map<String, BootstrapConfig> configs = new HashMap<>();
+        try (JournalPersistence persistence = persistence(2)) {
+            for (int i = 0; i < 3; i++) {
+                configs.put("ep" + i, config(i));
+                persistence.added("ep" + i, config(i));
+            }
+            persistence.flush(configs);
+            assertEquals(0, journal.length());
+            assertTrue(new File(filename).exists());
+
+            persistence.deleted("ep0");
+            configs.remove("ep0");
+            persistence.flush(configs);
+        }
+
+        assertEquals(configs.keySet(), persistence(2).load().keySet());
+    }
+
+    @Test
+    public void torn_records_at_the_end_are_truncated() throws IOException {
+        try (JournalPersistence persistence = persistence(100)) {
+            persistence.added("ep1", config(1));
+            persistence.flush(Collections.<String, BootstrapConfig> emptyMap());
+        }
+        long complete = journal.length();
+        append("{\"op\":\"put\",\"endpoint\":\"ep2\",\"con");
+
+        try (JournalPersistence persistence = persistence(100)) {
+            assertEquals(Collections.singleton("ep1"), persistence.load().keySet());
+            assertEquals(complete, journal.length());
+
+            // the next records are appended after the last complete one
+            persistence.added("ep3", config(3));
+            persistence.flush(Collections.<String, BootstrapConfig> emptyMap());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("ep1", "ep3")), persistence(100).load().keySet());
+    }
+
+    @Test
+    public void corrupt_record_in_the_middle_is_skipped() throws IOException {
+        try (JournalPersistence persistence = persistence(100)) {
+            persistence.added("ep1", config(1));
+            persistence.flush(Collections.<String, BootstrapConfig> emptyMap());
+        }
+        append("not a record\n");
+        try (JournalPersistence persistence = persistence(100)) {
+            persistence.added("ep2", config(2));
+            persistence.deleted("ep1");
+            persistence.flush(Collections.<String, BootstrapConfig> emptyMap());
+        }
+        long length = journal.length();
+
+        // the records after the corrupt one are applied, and kept
+        assertEquals(Collections.singleton("ep2"), persistence(100).load().keySet());
+        assertEquals(length, journal.length());
+    }
+
+    @Test
+    public void unended_last_record_is_kept() throws IOException {
+        try (JournalPersistence persistence = persistence(100)) {
+            persistence.added("ep1", config(1));
+            persistence.flush(Collections.<String, BootstrapConfig> emptyMap());
+        }
+        // remove the last '\n'
+        byte[] bytes = Files.readAllBytes(journal.toPath());
+        Files.write(journal.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+
+        try (JournalPersistence persistence = persistence(100)) {
+            assertEquals(Collections.singleton("ep1"), persistence.load().keySet());
+            persistence.added("ep2", config(2));
+            persistence.flush(Collections.<String, BootstrapConfig> emptyMap());
+        }
+
+        List<String> lines = new ArrayList<>(Files.readAllLines(journal.toPath(), StandardCharsets.UTF_8));
+        assertEquals(2, lines.size());
+        assertEquals(2, persistence(100).load().size());
+    }
+
+    private JournalPersistence persistence(int compactionThreshold) {
+        return new JournalPersistence(filename, new JsonSnapshotFormat(), compactionThreshold);
+    }
+
+    private void append(String text) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(journal, true)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.config;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.Gson;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.record.TimestampType;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.zeelos.leshan.bootstrap.server.kafka.BootstrapStoreImpl;
+
+public class KafkaPersistenceTest {
+
+    private static final String TOPIC = "configs";
+    private static final TopicPartition PARTITION = new TopicPartition(TOPIC, 0);
+
+    private final Gson gson = new Gson();
+    private MockProducer<String, String> producer;
+    private MockConsumer<String, String> consumer;
+    private KafkaPersistence persistence;
+    private final BlockingQueue<Map<String, BootstrapConfig>> changes = new LinkedBlockingQueue<>();
+    private long offset;
+
+    @Before
+    public void setUp() {
+        producer = new MockProducer<>(true, new StringSerializer(), new StringSerializer());
+        consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        consumer.updatePartitions(TOPIC,
+                Collections.singletonList(new PartitionInfo(TOPIC, 0, null, null, null)));
+        consumer.updateBeginningOffsets(Collections.singletonMap(PARTITION, 0L));
+        persistence = new KafkaPersistence(producer, consumer, TOPIC);
+    }
+
+    @After
+    public void tearDown() {
+        persistence.close();
+    }
+
+    @Test
+    public void load_reads_the_topic_up_to_its_end() throws IOException {
+        consumer.updateEndOffsets(Collections.singletonMap(PARTITION, 4L));
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(record("ep1", config(1)));
+            consumer.addRecord(record("ep2", config(2)));
+            consumer.addRecord(record("ep1", config(3)));
+            consumer.addRecord(record("ep2", null));
+        });
+
+        Map<String, BootstrapConfig> loaded = persistence.load();
+
+        assertEquals(1, loaded.size());
+        assertEquals(3, shortId(loaded.get("ep1")));
+    }
+
+    @Test
+    public void load_fails_on_an_undecodable_record() {
+        consumer.updateEndOffsets(Collections.singletonMap(PARTITION, 2L));
+        consumer.schedulePollTask(() -> {
+            consumer.addRecord(record("ep1", config(1)));
+            consumer.addRecord(record("ep2", "not json", null));
+        });
+
+        try {
+            persistence.load();
+            fail("an undecodable record must fail the load");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("ep2 at offset 1"));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void store_does_not_start_without_the_topic() {
+        consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+        persistence = new KafkaPersistence(producer, consumer, TOPIC);
+
+        new BootstrapStoreImpl(persistence, Durability.SYNC, 0);
+    }
+
+    @Test
+    public void tail_reports_the_changes_of_the_other_instances() throws Exception {
+        start();
+        consumer.addRecord(record("ep1", config(1)));
+        consumer.addRecord(record("ep2", null));
+
+        Map<String, BootstrapConfig> changed = nextChanges();
+        assertEquals(2, changed.size());
+        assertEquals(1, shortId(changed.get("ep1")));
+        assertTrue(changed.containsKey("ep2"));
+        assertNull(changed.get("ep2"));
+    }
+
+    @Test
+    public void tail_skips_an_undecodable_record() throws Exception {
+        start();
+        consumer.addRecord(record("ep1", "not json", null));
+        consumer.addRecord(record("ep2", config(2)));
+
+        assertEquals(Collections.singleton("ep2"), nextChanges().keySet());
+
+        // still tailing
+        consumer.addRecord(record("ep3", config(3)));
+        assertEquals(3, shortId(nextChanges().get("ep3")));
+    }
+
+    @Test
+    public void tail_assigns_the_partitions_when_not_loaded() throws Exception {
+        consumer.schedulePollTask(() -> consumer.addRecord(record("ep1", config(1))));
+        persistence.start(changes::add);
+
+        assertEquals(1, shortId(nextChanges().get("ep1")));
+        assertEquals(Collections.singleton(PARTITION), consumer.assignment());
+    }
+
+    @Test
+    public void tail_skips_the_changes_of_this_instance() throws Exception {
+        start();
+        persistence.applied("ep1");
+        persistence.added("ep1", config(1));
+        persistence.applied("ep2");
+        persistence.deleted("ep2");
+        persistence.flush(null);
+        echo();
+        consumer.addRecord(record("ep3", config(3)));
+
+        // only the change of the other instance
+        Map<String, BootstrapConfig> changed = nextChanges();
+        assertEquals(Collections.singleton("ep3"), changed.keySet());
+
+        // the endpoints are released once read back
+        consumer.addRecord(record("ep1", config(4)));
+        assertEquals(4, shortId(nextChanges().get("ep1")));
+    }
+
+    @Test
+    public void tail_skips_the_changes_preceding_an_unread_change_of_this_instance() throws Exception {
+        start();
+        persistence.applied("ep1");
+        persistence.added("ep1", config(1));
+        persistence.flush(null);
+
+        // written by another instance before the change of this one
+        consumer.addRecord(record("ep1", config(2)));
+        consumer.addRecord(record("ep2", config(3)));
+        assertEquals(Collections.singleton("ep2"), nextChanges().keySet());
+        echo();
+
+        consumer.addRecord(record("ep1", config(5)));
+        assertEquals(5, shortId(nextChanges().get("ep1")));
+    }
+
+    @Test
+    public void produced_records_are_tagged_and_deletions_are_tombstones() throws IOException {
+        persistence.applied("ep1");
+        persistence.added("ep1", config(1));
+        persistence.applied("ep1");
+        persistence.deleted("ep1");
+        persistence.flush(null);
+
+        List<ProducerRecord<String, String>> sent = producer.history();
+        assertEquals(2, sent.size());
+        assertEquals(1, shortId(gson.fromJson(sent.get(0).value(), BootstrapConfig.class)));
+        assertNull(sent.get(1).value());
+        Header instance = sent.get(0).headers().lastHeader(KafkaPersistence.INSTANCE_HEADER);
+        assertNotNull(instance);
+        assertArrayEquals(instance.value(), sent.get(1).headers().lastHeader(KafkaPersistence.INSTANCE_HEADER).value());
+    }
+
+    @Test
+    public void failed_change_releases_the_endpoint() throws Exception {
+        producer = new MockProducer<>(false, new StringSerializer(), new StringSerializer());
+        persistence = new KafkaPersistence(producer, consumer, TOPIC);
+        start();
+        persistence.applied("ep1");
+        persistence.added("ep1", config(1));
+        producer.errorNext(new RuntimeException("broker down"));
+
+        consumer.addRecord(record("ep1", config(2)));
+        assertEquals(2, shortId(nextChanges().get("ep1")));
+    }
+
+    private void start() throws IOException {
+        consumer.updateEndOffsets(Collections.singletonMap(PARTITION, 0L));
+        persistence.load();
+        persistence.start(new BootstrapPersistence.Listener() {
+            @Override
+            public void changed(Map<String, BootstrapConfig> changed) {
+                changes.add(new HashMap<>(changed));
+            }
+        });
+    }
+
+    private Map<String, BootstrapConfig> nextChanges() throws InterruptedException {
+        Map<String, BootstrapConfig> changed = changes.poll(5, TimeUnit.SECONDS);
+        assertNotNull("no change reported", changed);
+        return changed;
+    }
+
+    // read back the records produced so far
+    private void echo() {
+        for (ProducerRecord<String, String> sent : producer.history()) {
+            consumer.addRecord(record(sent.key(), sent.value(), sent.headers()));
+        }
+        producer.clear();
+    }
+
+    // a record of another instance
+    private ConsumerRecord<String, String> record(String endpoint, BootstrapConfig config) {
+        return record(endpoint, config == null ? null : gson.toJson(config), null);
+    }
+
+    private ConsumerRecord<String, String> record(String endpoint, String value, Iterable<Header> headers) {
+        return new ConsumerRecord<>(TOPIC, 0, offset++, 0L, TimestampType.CREATE_TIME, null, -1, -1, endpoint, value,
+                new RecordHeaders(headers));
+    }
+
+    private static int shortId(BootstrapConfig config) {
+        return config.servers.get(0).shortId;
+    }
+}
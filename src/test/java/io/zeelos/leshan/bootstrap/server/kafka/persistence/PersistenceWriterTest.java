@@ -0,0 +1,218 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.persistence;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.junit.Test;
+
+public class PersistenceWriterTest {
+
+    private static final long NEVER = TimeUnit.HOURS.toMillis(1);
+
+    // records the calls it receives
+    private static class RecordingPersistence implements BootstrapPersistence {
+        final List<String> calls = new CopyOnWriteArrayList<>();
+        IOException flushFailure;
+
+        @Override
+        public Map<String, BootstrapConfig> load() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public void applied(String endpoint) {
+            calls.add("applied " + endpoint);
+        }
+
+        @Override
+        public void added(String endpoint, BootstrapConfig config) {
+            calls.add("added " + endpoint);
+        }
+
+        @Override
+        public void deleted(String endpoint) {
+            calls.add("deleted " + endpoint);
+        }
+
+        @Override
+        public void flush(Map<String, BootstrapConfig> configs) throws IOException {
+            if (flushFailure != null)
+                throw flushFailure;
+            calls.add("flush");
+        }
+
+        @Override
+        public void close() {
+            calls.add("close");
+        }
+    }
+
+    private final RecordingPersistence persistence = new RecordingPersistence();
+    // the content of the store
+    private final Map<String, BootstrapConfig> configs = new HashMap<>();
+
+    @Test
+    public void sync_mode_persists_each_change_before_returning() throws IOException {
+        try (PersistenceWriter writer = writer(Durability.SYNC, NEVER)) {
+            CompletableFuture<Void> added = writer.added("ep1", new BootstrapConfig());
+            assertTrue(added.isDone());
+            CompletableFuture<Void> deleted = writer.deleted("ep1");
+            assertTrue(deleted.isDone());
+        }
+        assertEquals(Arrays.asList("applied ep1", "added ep1", "flush", "applied ep1", "deleted ep1", "flush",
+                "close"), persistence.calls);
+    }
+
+    @Test
+    public void group_commit_persists_the_pending_changes_together() throws IOException {
+        CompletableFuture<Void> added;
+        CompletableFuture<Void> deleted;
+        try (PersistenceWriter writer = writer(Durability.GROUP_COMMIT, NEVER)) {
+            added = writer.added("ep1", new BootstrapConfig());
+            deleted = writer.deleted("ep2");
+
+            // reported to the backend at once, written by the next commit
+            assertEquals(Arrays.asList("applied ep1", "applied ep2"), persistence.calls);
+            assertFalse(added.isDone());
+            assertFalse(deleted.isDone());
+        }
+        // closing commits what is pending, with a single flush
+        assertEquals(Arrays.asList("applied ep1", "applied ep2", "added ep1", "deleted ep2", "flush", "close"),
+                persistence.calls);
+        assertTrue(added.isDone() && !added.isCompletedExceptionally());
+        assertTrue(deleted.isDone() && !deleted.isCompletedExceptionally());
+    }
+
+    @Test
+    public void group_commit_runs_periodically() throws Exception {
+        try (PersistenceWriter writer = writer(Durability.GROUP_COMMIT, 10)) {
+            writer.added("ep1", new BootstrapConfig()).get(5, TimeUnit.SECONDS);
+            writer.added("ep2", new BootstrapConfig()).get(5, TimeUnit.SECONDS);
+            assertTrue(persistence.calls.contains("added ep2"));
+        }
+    }
+
+    @Test
+    public void async_mode_also_persists_by_group_commit() throws Exception {
+        try (PersistenceWriter writer = writer(Durability.ASYNC, 10)) {
+            assertEquals(Durability.ASYNC, writer.getDurability());
+            writer.deleted("ep1").get(5, TimeUnit.SECONDS);
+            assertTrue(persistence.calls.contains("deleted ep1"));
+        }
+    }
+
+    @Test
+    public void several_configurations_are_persisted_by_the_same_batch() throws IOException {
+        Map<String, BootstrapConfig> configs = new LinkedHashMap<>();
+        configs.put("ep1", new BootstrapConfig());
+        configs.put("ep2", new BootstrapConfig());
+        CompletableFuture<Void> persisted;
+        try (PersistenceWriter writer = writer(Durability.GROUP_COMMIT, NEVER)) {
+            persisted = writer.added(configs);
+            assertTrue(writer.added(Collections.<String, BootstrapConfig> emptyMap()).isDone());
+        }
+        assertTrue(persisted.isDone());
+        assertEquals(Arrays.asList("applied ep1", "applied ep2", "added ep1", "added ep2", "flush", "close"),
+                persistence.calls);
+    }
+
+    @Test
+    public void failed_flush_fails_the_whole_batch() throws IOException {
+        persistence.flushFailure = new IOException("disk full");
+        CompletableFuture<Void> added;
+        CompletableFuture<Void> deleted;
+        try (PersistenceWriter writer = writer(Durability.GROUP_COMMIT, NEVER)) {
+            added = writer.added("ep1", new BootstrapConfig());
+            deleted = writer.deleted("ep2");
+        }
+        assertFailed(added, persistence.flushFailure);
+        assertFailed(deleted, persistence.flushFailure);
+    }
+
+    @Test
+    public void failed_changes_are_recorded_again_with_the_next_batch() throws IOException {
+        try (PersistenceWriter writer = writer(Durability.SYNC, NEVER)) {
+            persistence.flushFailure = new IOException("disk full");
+            configs.put("ep1", new BootstrapConfig());
+            CompletableFuture<Void> added = writer.added("ep1", configs.get("ep1"));
+            CompletableFuture<Void> deleted = writer.deleted("ep2");
+            CompletableFuture<Void> changed = writer.added("ep3", new BootstrapConfig());
+            assertFailed(added, persistence.flushFailure);
+            assertFailed(deleted, persistence.flushFailure);
+            assertFailed(changed, persistence.flushFailure);
+
+            persistence.flushFailure = null;
+            persistence.calls.clear();
+            // ep3 is recorded by the batch, the others with their current configuration
+            configs.put("ep3", new BootstrapConfig());
+            assertTrue(writer.added("ep3", configs.get("ep3")).isDone());
+            assertEquals(Arrays.asList("applied ep3", "applied ep1", "added ep1", "applied ep2", "deleted ep2",
+                    "added ep3", "flush"), persistence.calls);
+
+            // nothing left to retry
+            persistence.calls.clear();
+            writer.deleted("ep1");
+            assertEquals(Arrays.asList("applied ep1", "deleted ep1", "flush"), persistence.calls);
+        }
+    }
+
+    @Test
+    public void closing_records_the_failed_changes_again() throws IOException {
+        persistence.flushFailure = new IOException("disk full");
+        PersistenceWriter writer = writer(Durability.SYNC, NEVER);
+        assertTrue(writer.deleted("ep1").isCompletedExceptionally());
+
+        persistence.flushFailure = null;
+        persistence.calls.clear();
+        writer.close();
+        assertEquals(Arrays.asList("applied ep1", "deleted ep1", "flush", "close"), persistence.calls);
+    }
+
+    private PersistenceWriter writer(Durability durability, long commitInterval) {
+        return new PersistenceWriter(persistence, durability, commitInterval,
+                new Supplier<Map<String, BootstrapConfig>>() {
+                    @Override
+                    public Map<String, BootstrapConfig> get() {
+                        return configs;
+                    }
+                });
+    }
+
+    private static void assertFailed(CompletableFuture<Void> future, Throwable cause) {
+        try {
+            future.get();
+            fail("should have failed");
+        } catch (ExecutionException e) {
+            assertSame(cause, e.getCause());
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.servlet;
+
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.config;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
+
+import io.zeelos.leshan.bootstrap.server.kafka.BootstrapStoreImpl;
+import io.zeelos.leshan.bootstrap.server.kafka.ConfigInterner;
+import io.zeelos.leshan.bootstrap.server.kafka.MemoryPersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.TemplateStore;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.Durability;
+
+public class BootstrapServletTest {
+
+    private final Gson gson = new GsonBuilder()
+            .registerTypeHierarchyAdapter(Byte.class, new BootstrapServlet.SignedByteUnsignedByteAdapter()).create();
+
+    private BootstrapStoreImpl store;
+    private TemplateStore templateStore;
+    private ExecutorService mutations;
+    private BootstrapServlet servlet;
+
+    @Before
+    public void setUp() {
+        store = new BootstrapStoreImpl(new MemoryPersistence(), Durability.SYNC, 0);
+        templateStore = new TemplateStore(new MemoryPersistence(), new ConfigInterner());
+        mutations = Executors.newSingleThreadExecutor();
+        servlet = new BootstrapServlet(store, templateStore, mutations);
+    }
+
+    @After
+    public void tearDown() {
+        servlet.destroy();
+        mutations.shutdown();
+        templateStore.destroy();
+        store.destroy();
+    }
+
+    @Test
+    public void bulk_request_larger_than_a_chunk_adds_every_line() throws Exception {
+        // the lines read past the first chunk of 10000 lines are applied with the next one
+        int count = 10500;
+        StringBuilder body = new StringBuilder();
+        for (int i = 1; i <= count; i++) {
+            body.append(line("ep" + i)).append('\n');
+        }
+
+        String[] results = post(body.toString()).split("\n");
+
+        assertEquals(count, results.length);
+        for (int i = 1; i <= count; i++) {
+            JsonObject result = gson.fromJson(results[i - 1], JsonObject.class);
+            assertEquals(i, result.get("line").getAsInt());
+            assertEquals("ep" + i, result.get("endpoint").getAsString());
+            assertEquals(HttpServletResponse.SC_OK, result.get("status").getAsInt());
+        }
+        assertEquals(count, store.getBootstrapConfigs().size());
+    }
+
+    @Test
+    public void bulk_request_reports_each_invalid_line() throws Exception {
+        String body = line("ep1") + "\n" + "not json\n" + "\n" + "{\"endpoint\":\"ep3\"}\n" + line("ep4");
+
+        String[] results = post(body).split("\n");
+
+        assertEquals(4, results.length);
+        assertEquals(HttpServletResponse.SC_OK, status(results[0]));
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, status(results[1]));
+        // the blank line has no result
+        assertEquals(4, gson.fromJson(results[2], JsonObject.class).get("line").getAsInt());
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, status(results[2]));
+        // the last line has no line feed
+        assertEquals(HttpServletResponse.SC_OK, status(results[3]));
+        assertEquals(2, store.getBootstrapConfigs().size());
+    }
+
+    @Test
+    public void bulk_request_is_answered_with_503_when_the_changes_are_rejected() throws Exception {
+        BootstrapServlet rejecting = new BootstrapServlet(store, templateStore, change -> {
+            throw new RejectedExecutionException();
+        });
+        try {
+            FakeExchange exchange = new FakeExchange().body(line("ep1") + "\n");
+            rejecting.doPost(exchange.request, exchange.response);
+
+            assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, status(exchange.awaitResponse().trim()));
+            assertTrue(store.getBootstrapConfigs().isEmpty());
+        } finally {
+            rejecting.destroy();
+        }
+    }
+
+    @Test
+    public void single_post_is_answered_with_503_when_the_change_is_rejected() throws Exception {
+        BootstrapServlet rejecting = new BootstrapServlet(store, templateStore, change -> {
+            throw new RejectedExecutionException();
+        });
+        try {
+            FakeExchange exchange = new FakeExchange().body(gson.toJson(config("coap://bs", null)));
+            exchange.pathInfo = "/ep1";
+            rejecting.doPost(exchange.request, exchange.response);
+            exchange.awaitResponse();
+
+            assertEquals(HttpServletResponse.SC_SERVICE_UNAVAILABLE, exchange.status);
+            assertEquals("1", exchange.responseHeaders.get("Retry-After"));
+        } finally {
+            rejecting.destroy();
+        }
+    }
+
+    @Test
+    public void pages_link_to_the_next_one() throws Exception {
+        for (int i = 1; i <= 5; i++) {
+            store.addConfig("ep" + i, config("coap://bs", null));
+        }
+
+        FakeExchange first = get("2", null);
+        assertEquals(HttpServletResponse.SC_OK, first.status);
+        assertEquals(2, configs(first.awaitResponse()).size());
+        assertEquals("</api/bootstrap?after=ep2&limit=2>; rel=\"next\"", first.responseHeaders.get("Link"));
+
+        FakeExchange last = get("2", "ep4");
+        assertEquals(1, configs(last.awaitResponse()).size());
+        assertTrue(configs(last.output.text()).containsKey("ep5"));
+        assertNull(last.responseHeaders.get("Link"));
+    }
+
+    @Test
+    public void page_is_not_sent_again_until_the_store_changes() throws Exception {
+        store.addConfig("ep1", config("coap://bs", null));
+        FakeExchange first = get("10", null);
+        first.awaitResponse();
+        String etag = first.responseHeaders.get("ETag");
+        assertNotNull(etag);
+
+        FakeExchange cached = request("10", null);
+        cached.headers.put("If-None-Match", etag);
+        servlet.doGet(cached.request, cached.response);
+        assertEquals("", cached.awaitResponse());
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, cached.status);
+
+        store.addConfig("ep2", config("coap://bs", null));
+        FakeExchange changed = request("10", null);
+        changed.headers.put("If-None-Match", etag);
+        servlet.doGet(changed.request, changed.response);
+        assertEquals(2, configs(changed.awaitResponse()).size());
+        assertEquals(HttpServletResponse.SC_OK, changed.status);
+        assertNotEquals(etag, changed.responseHeaders.get("ETag"));
+    }
+
+    @Test
+    public void invalid_limit_is_rejected() throws Exception {
+        FakeExchange exchange = get("0", null);
+        exchange.awaitResponse();
+        assertEquals(HttpServletResponse.SC_BAD_REQUEST, exchange.status);
+    }
+
+    @Test
+    public void listing_without_paging_streams_every_configuration() throws Exception {
+        // more than a page of the stream
+        for (int i = 0; i < 250; i++) {
+            store.addConfig("ep" + i, config("coap://bs", null));
+        }
+
+        FakeExchange exchange = get(null, null);
+        Map<String, BootstrapConfig> configs = configs(exchange.awaitResponse());
+
+        assertEquals(250, configs.size());
+        assertEquals("coap://bs", configs.get("ep249").security.get(0).uri);
+    }
+
+    private String line(String endpoint) {
+        return String.format("{\"endpoint\":\"%s\",\"config\":%s}", endpoint, gson.toJson(config("coap://bs", null)));
+    }
+
+    private String post(String body) throws Exception {
+        FakeExchange exchange = new FakeExchange().body(body);
+        servlet.doPost(exchange.request, exchange.response);
+        return exchange.awaitResponse();
+    }
+
+    private FakeExchange get(String limit, String after) throws Exception {
+        FakeExchange exchange = request(limit, after);
+        servlet.doGet(exchange.request, exchange.response);
+        return exchange;
+    }
+
+    // a GET request not sent yet
+    private static FakeExchange request(String limit, String after) {
+        FakeExchange exchange = new FakeExchange();
+        if (limit != null) {
+            exchange.parameters.put("limit", limit);
+        }
+        if (after != null) {
+            exchange.parameters.put("after", after);
+        }
+        return exchange;
+    }
+
+    private int status(String result) {
+        return gson.fromJson(result, JsonObject.class).get("status").getAsInt();
+    }
+
+    private Map<String, BootstrapConfig> configs(String json) {
+        Type type = new TypeToken<Map<String, BootstrapConfig>>() {
+        }.getType();
+        return gson.fromJson(json, type);
+    }
+}
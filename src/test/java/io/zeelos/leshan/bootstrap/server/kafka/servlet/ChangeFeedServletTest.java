@@ -0,0 +1,135 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.servlet;
+
+import static io.zeelos.leshan.bootstrap.server.kafka.TestConfigs.config;
+import static org.junit.Assert.*;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.zeelos.leshan.bootstrap.server.kafka.BootstrapStoreImpl;
+import io.zeelos.leshan.bootstrap.server.kafka.MemoryPersistence;
+import io.zeelos.leshan.bootstrap.server.kafka.persistence.Durability;
+
+public class ChangeFeedServletTest {
+
+    private static final Pattern EVENT_ID = Pattern.compile("id: (\\w+)-(\\d+)\nevent: revision\n");
+
+    private BootstrapStoreImpl store;
+    private ChangeFeedServlet servlet;
+
+    @Before
+    public void setUp() {
+        store = new BootstrapStoreImpl(new MemoryPersistence(), Durability.SYNC, 0);
+        servlet = new ChangeFeedServlet(store, 2);
+    }
+
+    @After
+    public void tearDown() {
+        servlet.destroy();
+        store.destroy();
+    }
+
+    @Test
+    public void new_stream_starts_with_the_current_revision_then_gets_the_changes() throws Exception {
+        FakeExchange.Output stream = open(null, null);
+        String epoch = epoch(stream);
+        assertTrue(stream.text().contains("id: " + epoch + "-0\nevent: revision\n"));
+
+        store.addConfig("ep1", config("coap://localhost:5683", null));
+        store.deleteConfig("ep1").join();
+
+        String text = stream.await("id: " + epoch + "-2\nevent: delete\ndata: {\"endpoint\":\"ep1\"}\n\n");
+        assertTrue(text.contains("id: " + epoch + "-1\nevent: put\ndata: {\"endpoint\":\"ep1\",\"config\":"));
+    }
+
+    @Test
+    public void reconnecting_client_gets_the_changes_it_missed() throws Exception {
+        FakeExchange.Output first = open(null, null);
+        String epoch = epoch(first);
+        store.addConfig("ep1", config("coap://localhost:5683", null));
+        store.addConfig("ep2", config("coap://localhost:5683", null));
+        first.await("id: " + epoch + "-2\n");
+
+        String text = open(epoch + "-1", null).text();
+        assertFalse(text.contains("\"ep1\""));
+        assertTrue(text.contains("id: " + epoch + "-2\nevent: put\ndata: {\"endpoint\":\"ep2\""));
+        assertFalse(text.contains("event: reset"));
+        assertFalse(text.contains("event: revision"));
+    }
+
+    @Test
+    public void since_parameter_resumes_like_the_last_event_id() throws Exception {
+        FakeExchange.Output first = open(null, null);
+        String epoch = epoch(first);
+        store.addConfig("ep1", config("coap://localhost:5683", null));
+        first.await("id: " + epoch + "-1\n");
+
+        String text = open(null, epoch + "-0").text();
+        assertTrue(text.contains("id: " + epoch + "-1\nevent: put\n"));
+
+        // nothing was missed
+        text = open(null, epoch + "-1").text();
+        assertFalse(text.contains("event: "));
+    }
+
+    @Test
+    public void client_which_missed_changes_not_kept_anymore_is_reset() throws Exception {
+        FakeExchange.Output first = open(null, null);
+        String epoch = epoch(first);
+        store.addConfig("ep1", config("coap://localhost:5683", null));
+        store.addConfig("ep2", config("coap://localhost:5683", null));
+        store.addConfig("ep3", config("coap://localhost:5683", null));
+        first.await("id: " + epoch + "-3\n");
+
+        // the history keeps the last 2 changes: revision 1 is the oldest point to resume from
+        assertTrue(open(epoch + "-1", null).text().contains("id: " + epoch + "-3\nevent: put\n"));
+        String text = open(epoch + "-0", null).text();
+        assertTrue(text.contains("id: " + epoch + "-3\nevent: reset\n"));
+        assertFalse(text.contains("event: put"));
+    }
+
+    @Test
+    public void client_of_a_previous_run_is_reset() throws Exception {
+        String epoch = epoch(open(null, null));
+
+        assertTrue(open("previous-0", null).text().contains("id: " + epoch + "-0\nevent: reset\n"));
+        assertTrue(open(epoch + "-5", null).text().contains("event: reset\n"));
+        assertTrue(open("garbage", null).text().contains("event: reset\n"));
+    }
+
+    private FakeExchange.Output open(String lastEventId, String since) throws Exception {
+        FakeExchange exchange = new FakeExchange();
+        if (lastEventId != null) {
+            exchange.headers.put("Last-Event-ID", lastEventId);
+        }
+        if (since != null) {
+            exchange.parameters.put("since", since);
+        }
+        servlet.doGet(exchange.request, exchange.response);
+        return exchange.output;
+    }
+
+    private static String epoch(FakeExchange.Output stream) {
+        Matcher matcher = EVENT_ID.matcher(stream.text());
+        assertTrue(stream.text(), matcher.find());
+        return matcher.group(1);
+    }
+}
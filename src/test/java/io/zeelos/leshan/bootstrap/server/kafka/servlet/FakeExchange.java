@@ -0,0 +1,212 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.servlet;
+
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * An asynchronous request and its response, as the servlets get them from the container. The request body is always
+ * available and the client always accepts the response body.
+ */
+class FakeExchange {
+
+    // the request body, delivered when the servlet reads it
+    private static class Input extends ServletInputStream {
+        private final byte[] body;
+        private int position;
+
+        Input(byte[] body) {
+            this.body = body;
+        }
+
+        @Override
+        public synchronized boolean isFinished() {
+            return position == body.length;
+        }
+
+        @Override
+        public synchronized boolean isReady() {
+            return position < body.length;
+        }
+
+        @Override
+        public void setReadListener(ReadListener listener) {
+            try {
+                listener.onDataAvailable();
+            } catch (Exception e) {
+                listener.onError(e);
+            }
+        }
+
+        @Override
+        public synchronized int read() {
+            return position < body.length ? body[position++] & 0xFF : -1;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            if (position == body.length)
+                return -1;
+            int read = Math.min(len, body.length - position);
+            System.arraycopy(body, position, b, off, read);
+            position += read;
+            return read;
+        }
+    }
+
+    // the response body, as the client reads it
+    static class Output extends ServletOutputStream {
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(WriteListener listener) {
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            body.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) {
+            body.write(b, off, len);
+        }
+
+        synchronized String text() {
+            return new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+
+        // waits for what is written by the other threads
+        String await(String expected) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!text().contains(expected)) {
+                if (System.currentTimeMillis() > deadline)
+                    fail("expected " + expected + " in " + text());
+                Thread.sleep(10);
+            }
+            return text();
+        }
+    }
+
+    final Map<String, String> parameters = new ConcurrentHashMap<>();
+    final Map<String, String> headers = new ConcurrentHashMap<>();
+    final Map<String, String> responseHeaders = new ConcurrentHashMap<>();
+    final Output output = new Output();
+    volatile String pathInfo;
+    volatile byte[] body = new byte[0];
+    volatile int status = HttpServletResponse.SC_OK;
+
+    private final CountDownLatch completed = new CountDownLatch(1);
+
+    final AsyncContext context = proxy(AsyncContext.class, (proxy, method, args) -> {
+        if ("complete".equals(method.getName())) {
+            completed.countDown();
+        }
+        return defaultValue(method);
+    });
+
+    final HttpServletRequest request = proxy(HttpServletRequest.class, (proxy, method, args) -> {
+        switch (method.getName()) {
+        case "startAsync":
+            return context;
+        case "getInputStream":
+            return new Input(body);
+        case "getPathInfo":
+            return pathInfo;
+        case "getRequestURI":
+            return pathInfo == null ? "/api/bootstrap" : "/api/bootstrap" + pathInfo;
+        case "getHeader":
+            return headers.get(args[0]);
+        case "getParameter":
+            return parameters.get(args[0]);
+        default:
+            return defaultValue(method);
+        }
+    });
+
+    final HttpServletResponse response = proxy(HttpServletResponse.class, (proxy, method, args) -> {
+        switch (method.getName()) {
+        case "getOutputStream":
+            return output;
+        case "setStatus":
+        case "sendError":
+            status = (Integer) args[0];
+            return null;
+        case "getStatus":
+            return status;
+        case "setHeader":
+        case "addHeader":
+            responseHeaders.put((String) args[0], (String) args[1]);
+            return null;
+        case "getHeader":
+            return responseHeaders.get(args[0]);
+        default:
+            return defaultValue(method);
+        }
+    });
+
+    FakeExchange body(String body) {
+        this.body = body.getBytes(StandardCharsets.UTF_8);
+        return this;
+    }
+
+    /**
+     * @return the response body, once the request is completed
+     */
+    String awaitResponse() throws InterruptedException {
+        if (!completed.await(10, TimeUnit.SECONDS))
+            fail("the request was not completed, got " + output.text());
+        return output.text();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler);
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class)
+            return false;
+        if (type == int.class)
+            return 0;
+        if (type == long.class)
+            return 0L;
+        return null;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.servlet;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ResponseCacheTest {
+
+    private final ResponseCache cache = new ResponseCache(2, 1000);
+
+    @Test
+    public void serves_the_response_cached_at_the_same_revision() {
+        CachedResponse response = response("\"e-1\"", 10);
+        cache.put("page", 1, response);
+
+        assertSame(response, cache.get("page", 1));
+        assertNull(cache.get("other", 1));
+    }
+
+    @Test
+    public void drops_the_responses_when_the_store_changes() {
+        cache.put("page", 1, response("\"e-1\"", 10));
+
+        assertNull(cache.get("page", 2));
+        // the previous revision is not served again
+        assertNull(cache.get("page", 1));
+    }
+
+    @Test
+    public void ignores_a_response_computed_at_an_older_revision() {
+        cache.get("page", 2);
+        cache.put("page", 1, response("\"e-1\"", 10));
+
+        assertNull(cache.get("page", 2));
+        assertNull(cache.get("page", 1));
+    }
+
+    @Test
+    public void a_newer_revision_replaces_the_cached_responses() {
+        cache.put("page", 1, response("\"e-1\"", 10));
+        CachedResponse newer = response("\"e-2\"", 10);
+        cache.put("page", 2, newer);
+
+        assertSame(newer, cache.get("page", 2));
+        assertNull(cache.get("page", 1));
+    }
+
+    @Test
+    public void evicts_the_least_recently_used_response_beyond_max_entries() {
+        CachedResponse a = response("\"a\"", 10);
+        CachedResponse b = response("\"b\"", 10);
+        cache.put("a", 1, a);
+        cache.put("b", 1, b);
+        cache.get("a", 1);
+        cache.put("c", 1, response("\"c\"", 10));
+
+        assertSame(a, cache.get("a", 1));
+        assertNull(cache.get("b", 1));
+        assertNotNull(cache.get("c", 1));
+    }
+
+    @Test
+    public void evicts_responses_beyond_max_size() {
+        cache.put("a", 1, response("\"a\"", 200));
+        cache.put("b", 1, response("\"b\"", 900));
+
+        assertNull(cache.get("a", 1));
+        assertNotNull(cache.get("b", 1));
+    }
+
+    @Test
+    public void does_not_cache_a_response_larger_than_max_size() {
+        CachedResponse a = response("\"a\"", 10);
+        cache.put("a", 1, a);
+        cache.put("b", 1, response("\"b\"", 1001));
+
+        assertNull(cache.get("b", 1));
+        assertSame(a, cache.get("a", 1));
+    }
+
+    @Test
+    public void replacing_a_response_accounts_for_its_size_once() {
+        cache.put("a", 1, response("\"a\"", 200));
+        cache.put("a", 1, response("\"a\"", 200));
+        cache.put("b", 1, response("\"b\"", 700));
+
+        assertNotNull(cache.get("a", 1));
+        assertNotNull(cache.get("b", 1));
+    }
+
+    // random bytes are not compressed, the size of the response is the size of the body
+    private static CachedResponse response(String etag, int size) {
+        byte[] body = new byte[size];
+        new Random(size).nextBytes(body);
+        CachedResponse response = new CachedResponse(etag, "application/json", body);
+        assertEquals(size, response.size());
+        return response;
+    }
+}
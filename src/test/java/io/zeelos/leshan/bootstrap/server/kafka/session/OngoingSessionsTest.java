@@ -0,0 +1,82 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.zeelos.leshan.bootstrap.server.kafka.session;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.leshan.server.bootstrap.BootstrapSession;
+import org.junit.Test;
+
+public class OngoingSessionsTest {
+
+    private static final long EXPIRY = TimeUnit.MINUTES.toNanos(10);
+
+    @Test
+    public void ended_session_gives_its_value_once() {
+        OngoingSessions<String> sessions = new OngoingSessions<>(EXPIRY, 0);
+        BootstrapSession session = session("ep1");
+        sessions.begin(session, "value", 0);
+
+        assertEquals("value", sessions.end(session, 1000));
+        assertNull(sessions.end(session, 2000));
+        assertNull(sessions.end(session("ep2"), 2000));
+        assertEquals(0, sessions.size());
+    }
+
+    @Test
+    public void expired_session_gives_no_value() {
+        OngoingSessions<String> sessions = new OngoingSessions<>(EXPIRY, 0);
+        BootstrapSession session = session("ep1");
+        sessions.begin(session, "value", 0);
+
+        assertNull(sessions.end(session, EXPIRY + 1));
+    }
+
+    @Test
+    public void sessions_never_ended_are_removed_while_adding_new_ones() {
+        OngoingSessions<String> sessions = new OngoingSessions<>(EXPIRY, 0);
+        for (int i = 0; i < 100; i++) {
+            sessions.begin(session("ep" + i), "value", 0);
+        }
+        // not purged before half the expiry
+        sessions.begin(session("early"), "value", EXPIRY / 2 - 1);
+        assertEquals(101, sessions.size());
+
+        // purged once the oldest ones expired
+        sessions.begin(session("late"), "value", EXPIRY + 1);
+        assertEquals(2, sessions.size());
+        sessions.begin(session("later"), "value", EXPIRY + 2);
+        assertEquals(3, sessions.size());
+    }
+
+    // the same endpoint may begin several sessions
+    @Test
+    public void sessions_are_told_apart_by_instance() {
+        OngoingSessions<String> sessions = new OngoingSessions<>(EXPIRY, 0);
+        BootstrapSession first = session("ep1");
+        BootstrapSession second = session("ep1");
+        sessions.begin(first, "first", 0);
+        sessions.begin(second, "second", 0);
+
+        assertEquals("second", sessions.end(second, 0));
+        assertEquals("first", sessions.end(first, 0));
+    }
+
+    private static BootstrapSession session(String endpoint) {
+        return new BootstrapSession(endpoint, null, true);
+    }
+}